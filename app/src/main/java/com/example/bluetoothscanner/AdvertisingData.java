@@ -0,0 +1,417 @@
+package com.example.bluetoothscanner;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reusable, allocation-free view over raw advertising data (the AD structures returned by
+ * {@code ScanRecord.getBytes()}). {@link #wrap} walks the structures once and remembers where
+ * the interesting ones start; all accessors then read the caller's array in place. Nothing is
+ * copied, so the view is only valid while the array is unchanged and until the next wrap.
+ * Not thread-safe; keep one instance per thread.
+ */
+public final class AdvertisingData {
+    public static final int AD_FLAGS = 0x01;
+    public static final int AD_TX_POWER = 0x0A;
+    /** Bit of {@link #flags()} set by LE-only devices. */
+    public static final int FLAG_BR_EDR_NOT_SUPPORTED = 0x04;
+    /** Returned by {@link #flags()} and {@link #txPower()} when the field is absent. */
+    public static final int ABSENT = Integer.MIN_VALUE;
+
+    /** A run of bytes inside the wrapped record, read in place. */
+    public static class Region {
+        byte[] record;
+        int offset;
+        int length;
+
+        public int length() {
+            return length;
+        }
+
+        public int u8(int index) {
+            return record[offset + index] & 0xFF;
+        }
+
+        public int s8(int index) {
+            return record[offset + index];
+        }
+
+        public int u16le(int index) {
+            return u8(index) | (u8(index + 1) << 8);
+        }
+
+        public int u16be(int index) {
+            return (u8(index) << 8) | u8(index + 1);
+        }
+
+        public long u32be(int index) {
+            return ((long) u16be(index) << 16) | u16be(index + 2);
+        }
+
+        /** Big-endian value of {@code count} (at most 8) bytes. */
+        public long bytesBe(int index, int count) {
+            long value = 0;
+            for (int i = 0; i < count; i++) {
+                value = (value << 8) | u8(index + i);
+            }
+            return value;
+        }
+
+        public void copyTo(byte[] dst, int dstOffset) {
+            System.arraycopy(record, offset, dst, dstOffset, length);
+        }
+    }
+
+    /** Manufacturer-specific data; the region excludes the company identifier. */
+    public static final class ManufacturerData extends Region {
+        int companyId;
+
+        public int companyId() {
+            return companyId;
+        }
+    }
+
+    /** Service data; the region excludes the UUID. */
+    public static final class ServiceData extends Region {
+        long uuidMsb;
+        long uuidLsb;
+
+        public long uuidMsb() {
+            return uuidMsb;
+        }
+
+        public long uuidLsb() {
+            return uuidLsb;
+        }
+
+        /** The 16-bit alias if the UUID is based on the Bluetooth base UUID, else -1. */
+        public int uuid16() {
+            return shortUuid(uuidMsb, uuidLsb);
+        }
+    }
+
+    private byte[] record;
+    private int end;
+    private int flags;
+    private int txPower;
+    private int nameOffset;
+    private int nameLength;
+    private boolean nameComplete;
+    // Start offsets of the multi-valued structures, in record order
+    private int[] uuidStructures = new int[4];
+    private int uuidStructureCount;
+    private int[] serviceDataStructures = new int[4];
+    private int serviceDataCount;
+    private int[] manufacturerStructures = new int[4];
+    private int manufacturerCount;
+    private int structureCount;
+    private boolean truncated;
+
+    /**
+     * Parses {@code length} bytes of {@code record} from {@code offset}. Parsing stops at the
+     * first zero-length structure (the padding of legacy adverts) or at a structure running past
+     * the end; everything before it stays usable. Returns false if no structure was found.
+     */
+    public boolean wrap(byte[] record, int offset, int length) {
+        this.record = record;
+        this.end = offset + length;
+        flags = ABSENT;
+        txPower = ABSENT;
+        nameOffset = -1;
+        nameLength = 0;
+        nameComplete = false;
+        uuidStructureCount = 0;
+        serviceDataCount = 0;
+        manufacturerCount = 0;
+        structureCount = 0;
+        truncated = false;
+        int i = offset;
+        while (i < end) {
+            int structureLength = record[i] & 0xFF;
+            if (structureLength == 0) {
+                break;
+            }
+            if (i + 1 + structureLength > end) {
+                truncated = true;
+                break;
+            }
+            int dataLength = structureLength - 1;
+            switch (record[i + 1] & 0xFF) {
+                case AD_FLAGS:
+                    if (dataLength >= 1) {
+                        flags = record[i + 2] & 0xFF;
+                    }
+                    break;
+                case AD_TX_POWER:
+                    if (dataLength >= 1) {
+                        txPower = record[i + 2];
+                    }
+                    break;
+                case ScanMatcher.AD_NAME_SHORT:
+                    // A complete name wins over a shortened one, whatever the order
+                    if (!nameComplete) {
+                        nameOffset = i + 2;
+                        nameLength = dataLength;
+                    }
+                    break;
+                case ScanMatcher.AD_NAME_COMPLETE:
+                    nameOffset = i + 2;
+                    nameLength = dataLength;
+                    nameComplete = true;
+                    break;
+                case ScanMatcher.AD_UUID16_INCOMPLETE:
+                case ScanMatcher.AD_UUID16_COMPLETE:
+                case ScanMatcher.AD_UUID32_INCOMPLETE:
+                case ScanMatcher.AD_UUID32_COMPLETE:
+                case ScanMatcher.AD_UUID128_INCOMPLETE:
+                case ScanMatcher.AD_UUID128_COMPLETE:
+                    uuidStructures = add(uuidStructures, uuidStructureCount++, i);
+                    break;
+                case ScanMatcher.AD_SERVICE_DATA16:
+                case ScanMatcher.AD_SERVICE_DATA32:
+                case ScanMatcher.AD_SERVICE_DATA128:
+                    if (dataLength >= serviceDataUuidWidth(record[i + 1] & 0xFF)) {
+                        serviceDataStructures = add(serviceDataStructures, serviceDataCount++, i);
+                    }
+                    break;
+                case ScanMatcher.AD_MANUFACTURER:
+                    if (dataLength >= 2) {
+                        manufacturerStructures = add(manufacturerStructures, manufacturerCount++, i);
+                    }
+                    break;
+                default:
+                    break;
+            }
+            structureCount++;
+            i += 1 + structureLength;
+        }
+        return structureCount > 0;
+    }
+
+    public boolean wrap(byte[] record) {
+        return wrap(record, 0, record.length);
+    }
+
+    /** Number of well-formed AD structures. */
+    public int structureCount() {
+        return structureCount;
+    }
+
+    /** True if a structure claimed more bytes than were left. */
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    /** The Flags field, or {@link #ABSENT}. */
+    public int flags() {
+        return flags;
+    }
+
+    /** Advertised TX power level in dBm, or {@link #ABSENT}. */
+    public int txPower() {
+        return txPower;
+    }
+
+    public boolean hasName() {
+        return nameOffset >= 0;
+    }
+
+    public boolean isNameComplete() {
+        return nameComplete;
+    }
+
+    /** Appends the local name (UTF-8); appends nothing if there is none. */
+    public StringBuilder appendName(StringBuilder out) {
+        for (int i = nameOffset, end = nameOffset + nameLength; i < end; i++) {
+            int b = record[i];
+            if (b >= 0) {
+                out.append((char) b);
+            } else {
+                // Rare; decode the rest properly
+                return out.append(new String(record, i, end - i, StandardCharsets.UTF_8));
+            }
+        }
+        return out;
+    }
+
+    /** Decodes the local name; allocates, so prefer {@link #appendName} on hot paths. */
+    public String name() {
+        return hasName() ? new String(record, nameOffset, nameLength, StandardCharsets.UTF_8) : null;
+    }
+
+    public boolean nameStartsWith(byte[] prefix) {
+        if (nameLength < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (record[nameOffset + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Total number of service UUIDs across all 16, 32 and 128-bit lists. */
+    public int serviceUuidCount() {
+        int count = 0;
+        for (int s = 0; s < uuidStructureCount; s++) {
+            int start = uuidStructures[s];
+            int width = ScanMatcher.uuidWidth(record[start + 1] & 0xFF);
+            count += ((record[start] & 0xFF) - 1) / width;
+        }
+        return count;
+    }
+
+    /** True if any service UUID list contains the UUID. */
+    public boolean hasServiceUuid(long msb, long lsb) {
+        for (int s = 0; s < uuidStructureCount; s++) {
+            int start = uuidStructures[s];
+            int width = ScanMatcher.uuidWidth(record[start + 1] & 0xFF);
+            int listEnd = start + 1 + (record[start] & 0xFF);
+            for (int i = start + 2; i + width <= listEnd; i += width) {
+                if (ScanMatcher.uuidEquals(record, i, width, msb, lsb)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /** True if any service UUID list contains the 16-bit UUID. */
+    public boolean hasServiceUuid16(int uuid16) {
+        return hasServiceUuid(ScanMatcher.BASE_UUID_MSB | ((long) uuid16 << 32), ScanMatcher.BASE_UUID_LSB);
+    }
+
+    /** Most significant half of the {@code index}th service UUID, in the order of {@link #serviceUuidCount()}. */
+    public long serviceUuidMsb(int index) {
+        int position = locateUuid(index);
+        int width = uuidWidthAt(position);
+        if (width == 16) {
+            return ScanMatcher.readLongLe(record, position + 8);
+        }
+        return ScanMatcher.BASE_UUID_MSB | (readLe(record, position, width) << 32);
+    }
+
+    public long serviceUuidLsb(int index) {
+        int position = locateUuid(index);
+        return uuidWidthAt(position) == 16 ? ScanMatcher.readLongLe(record, position) : ScanMatcher.BASE_UUID_LSB;
+    }
+
+    public int serviceDataCount() {
+        return serviceDataCount;
+    }
+
+    /** Points {@code view} at the {@code index}th service data field and returns it. */
+    public ServiceData serviceData(int index, ServiceData view) {
+        int start = serviceDataStructures[index];
+        int width = serviceDataUuidWidth(record[start + 1] & 0xFF);
+        if (width == 16) {
+            view.uuidLsb = ScanMatcher.readLongLe(record, start + 2);
+            view.uuidMsb = ScanMatcher.readLongLe(record, start + 10);
+        } else {
+            view.uuidLsb = ScanMatcher.BASE_UUID_LSB;
+            view.uuidMsb = ScanMatcher.BASE_UUID_MSB | (readLe(record, start + 2, width) << 32);
+        }
+        view.record = record;
+        view.offset = start + 2 + width;
+        view.length = (record[start] & 0xFF) - 1 - width;
+        return view;
+    }
+
+    /** Points {@code view} at the service data for a 16-bit UUID; returns false if there is none. */
+    public boolean findServiceData16(int uuid16, ServiceData view) {
+        for (int i = 0; i < serviceDataCount; i++) {
+            int start = serviceDataStructures[i];
+            if ((record[start + 1] & 0xFF) == ScanMatcher.AD_SERVICE_DATA16
+                    && ((record[start + 2] & 0xFF) | ((record[start + 3] & 0xFF) << 8)) == uuid16) {
+                serviceData(i, view);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int manufacturerDataCount() {
+        return manufacturerCount;
+    }
+
+    /** Points {@code view} at the {@code index}th manufacturer-specific field and returns it. */
+    public ManufacturerData manufacturerData(int index, ManufacturerData view) {
+        int start = manufacturerStructures[index];
+        view.record = record;
+        view.companyId = (record[start + 2] & 0xFF) | ((record[start + 3] & 0xFF) << 8);
+        view.offset = start + 4;
+        view.length = (record[start] & 0xFF) - 3;
+        return view;
+    }
+
+    /** Points {@code view} at the first field from {@code companyId}; returns false if there is none. */
+    public boolean findManufacturerData(int companyId, ManufacturerData view) {
+        for (int i = 0; i < manufacturerCount; i++) {
+            int start = manufacturerStructures[i];
+            if (((record[start + 2] & 0xFF) | ((record[start + 3] & 0xFF) << 8)) == companyId) {
+                manufacturerData(i, view);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int locateUuid(int index) {
+        for (int s = 0; s < uuidStructureCount; s++) {
+            int start = uuidStructures[s];
+            int width = ScanMatcher.uuidWidth(record[start + 1] & 0xFF);
+            int count = ((record[start] & 0xFF) - 1) / width;
+            if (index < count) {
+                return start + 2 + index * width;
+            }
+            index -= count;
+        }
+        throw new IndexOutOfBoundsException("No service UUID " + index);
+    }
+
+    private int uuidWidthAt(int position) {
+        for (int s = uuidStructureCount - 1; s >= 0; s--) {
+            int start = uuidStructures[s];
+            if (start < position) {
+                return ScanMatcher.uuidWidth(record[start + 1] & 0xFF);
+            }
+        }
+        throw new IllegalStateException();
+    }
+
+    static int shortUuid(long msb, long lsb) {
+        if (lsb != ScanMatcher.BASE_UUID_LSB || (msb & 0xFFFFFFFFL) != ScanMatcher.BASE_UUID_MSB || (msb >>> 48) != 0) {
+            return -1;
+        }
+        return (int) (msb >>> 32);
+    }
+
+    private static int serviceDataUuidWidth(int adType) {
+        switch (adType) {
+            case ScanMatcher.AD_SERVICE_DATA16:
+                return 2;
+            case ScanMatcher.AD_SERVICE_DATA32:
+                return 4;
+            default:
+                return 16;
+        }
+    }
+
+    private static long readLe(byte[] bytes, int offset, int width) {
+        long value = 0;
+        for (int i = width - 1; i >= 0; i--) {
+            value = (value << 8) | (bytes[offset + i] & 0xFF);
+        }
+        return value;
+    }
+
+    private static int[] add(int[] array, int index, int value) {
+        if (index == array.length) {
+            int[] grown = new int[array.length << 1];
+            System.arraycopy(array, 0, grown, 0, array.length);
+            array = grown;
+        }
+        array[index] = value;
+        return array;
+    }
+}
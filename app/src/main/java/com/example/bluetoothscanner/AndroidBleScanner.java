@@ -0,0 +1,107 @@
+package com.example.bluetoothscanner;
+
+import android.annotation.SuppressLint;
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.le.BluetoothLeScanner;
+import android.bluetooth.le.ScanCallback;
+import android.bluetooth.le.ScanRecord;
+import android.bluetooth.le.ScanResult;
+import android.bluetooth.le.ScanSettings;
+import android.util.Log;
+
+import java.util.List;
+
+/**
+ * {@link BleScanner} on top of {@link BluetoothLeScanner}. Rules go to the controller through
+ * {@link ScanFilterCompiler}; batching falls back to per-result delivery where the controller
+ * cannot batch. Callers must hold BLUETOOTH_SCAN.
+ */
+@SuppressLint("MissingPermission")
+public class AndroidBleScanner implements BleScanner<BluetoothDevice> {
+    private static final byte[] EMPTY_RECORD = new byte[0];
+
+    private final BluetoothAdapter adapter;
+    private Callback<BluetoothDevice> callback;
+    // The scan in progress, with the batching it actually got; null while stopped
+    private Session session;
+
+    private final ScanCallback scanCallback = new ScanCallback() {
+        @Override
+        public void onScanResult(int callbackType, ScanResult result) {
+            deliver(result);
+        }
+
+        @Override
+        public void onBatchScanResults(List<ScanResult> results) {
+            for (int i = 0; i < results.size(); i++) {
+                deliver(results.get(i));
+            }
+        }
+
+        @Override
+        public void onScanFailed(int errorCode) {
+            Callback<BluetoothDevice> target = callback;
+            if (target != null) {
+                target.onScanFailed(errorCode);
+            }
+        }
+    };
+
+    public AndroidBleScanner(BluetoothAdapter adapter) {
+        this.adapter = adapter;
+    }
+
+    @Override
+    public Session start(List<ScanRule> rules, int scanMode, ScanBatchConfig requested, Callback<BluetoothDevice> callback) {
+        ScanFilterCompiler.Result filters = ScanFilterCompiler.compile(rules);
+        if (filters.isHardwareFiltered() && !adapter.isOffloadedFilteringSupported()) {
+            Log.d("BLE", "Offloaded filtering not supported, the Bluetooth stack filters on the host");
+        }
+        ScanBatchConfig config = requested;
+        // Without offloaded batching the stack would buffer in software and still wake us per result
+        if (config.isBatched() && !adapter.isOffloadedScanBatchingSupported()) {
+            Log.d("BLE", "Offloaded scan batching not supported, using per-result delivery");
+            config = ScanBatchConfig.PER_RESULT;
+        }
+        stop();
+        this.callback = callback;
+        ScanSettings settings = new ScanSettings.Builder()
+                .setScanMode(scanMode)
+                .setReportDelay(config.reportDelayMillis)
+                .build();
+        scanner().startScan(filters.hardwareFilters, settings, scanCallback);
+        session = new Session(filters.softwareMatcher, filters.isHardwareFiltered(), config);
+        return session;
+    }
+
+    @Override
+    public void stop() {
+        Session current = session;
+        session = null;
+        BluetoothLeScanner scanner = scanner();
+        if (current == null || scanner == null) {
+            return;
+        }
+        // The batching the scan got, not the one requested: only a batched scan holds results to deliver
+        if (current.batching.isBatched()) {
+            scanner.flushPendingScanResults(scanCallback);
+        }
+        scanner.stopScan(scanCallback);
+    }
+
+    private BluetoothLeScanner scanner() {
+        // Null while Bluetooth is off, so it is looked up each time
+        return adapter.getBluetoothLeScanner();
+    }
+
+    private void deliver(ScanResult result) {
+        BluetoothDevice device = result.getDevice();
+        Callback<BluetoothDevice> target = callback;
+        if (device != null && target != null) {
+            ScanRecord record = result.getScanRecord();
+            target.onResult(device, device.getAddress(), result.getRssi(), result.getTxPower(), result.getTimestampNanos(),
+                    record != null ? record.getBytes() : EMPTY_RECORD);
+        }
+    }
+}
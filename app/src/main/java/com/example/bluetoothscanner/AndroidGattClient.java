@@ -0,0 +1,247 @@
+package com.example.bluetoothscanner;
+
+import android.annotation.SuppressLint;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCallback;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+import android.bluetooth.BluetoothProfile;
+import android.content.Context;
+import android.os.Build;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@link GattClient} on top of {@link BluetoothGatt}. Translates the platform callbacks,
+ * including the value-carrying overloads added in Android 13, into {@link GattClient.Listener}
+ * calls. Callers must hold BLUETOOTH_CONNECT; it is checked before a connection is ever made.
+ */
+@SuppressLint("MissingPermission")
+public class AndroidGattClient extends BluetoothGattCallback implements GattClient {
+    private final long address;
+    private final Listener listener;
+    private final Map<UUID, BluetoothGattCharacteristic> characteristics = new ConcurrentHashMap<>();
+    private volatile BluetoothGatt gatt;
+    private volatile boolean closed;
+
+    private AndroidGattClient(BluetoothDevice device, Listener listener) {
+        this.address = BluetoothAddress.pack(device.getAddress());
+        this.listener = listener;
+    }
+
+    /** Starts connecting over LE, preferring the 2M PHY; results arrive on the listener. */
+    public static AndroidGattClient connect(Context context, BluetoothDevice device, Listener listener) {
+        AndroidGattClient client = new AndroidGattClient(device, listener);
+        client.gatt = device.connectGatt(context, false, client, BluetoothDevice.TRANSPORT_LE, BluetoothDevice.PHY_LE_2M);
+        return client;
+    }
+
+    @Override
+    public long address() {
+        return address;
+    }
+
+    @Override
+    public int discoverServices() {
+        BluetoothGatt g = gatt;
+        return g != null && g.discoverServices() ? GattOperation.ISSUED : GattOperation.ISSUE_FAILED;
+    }
+
+    /**
+     * The platform binds characteristics to a {@link BluetoothGatt} only through discovery, so
+     * this succeeds only when the connection already holds a table with the cached handles.
+     */
+    @Override
+    public boolean restoreServices(List<GattCharacteristicInfo> cached) {
+        BluetoothGatt g = gatt;
+        if (g == null) {
+            return false;
+        }
+        Map<Integer, BluetoothGattCharacteristic> byHandle = new HashMap<>();
+        for (BluetoothGattService service : g.getServices()) {
+            for (BluetoothGattCharacteristic characteristic : service.getCharacteristics()) {
+                byHandle.put(characteristic.getInstanceId(), characteristic);
+            }
+        }
+        Map<UUID, BluetoothGattCharacteristic> restored = new HashMap<>();
+        for (GattCharacteristicInfo info : cached) {
+            BluetoothGattCharacteristic characteristic = byHandle.get(info.handle);
+            if (characteristic == null || !characteristic.getUuid().equals(info.uuid)) {
+                return false;
+            }
+            restored.put(info.uuid, characteristic);
+        }
+        characteristics.clear();
+        characteristics.putAll(restored);
+        return true;
+    }
+
+    @Override
+    public int read(UUID uuid) {
+        BluetoothGatt g = gatt;
+        BluetoothGattCharacteristic characteristic = characteristics.get(uuid);
+        return g != null && characteristic != null && g.readCharacteristic(characteristic)
+                ? GattOperation.ISSUED : GattOperation.ISSUE_FAILED;
+    }
+
+    @Override
+    public int write(UUID uuid, byte[] value, int writeType) {
+        BluetoothGatt g = gatt;
+        BluetoothGattCharacteristic characteristic = characteristics.get(uuid);
+        if (g == null || characteristic == null) {
+            return GattOperation.ISSUE_FAILED;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
+            return g.writeCharacteristic(characteristic, value, writeType);
+        }
+        characteristic.setWriteType(writeType);
+        characteristic.setValue(value);
+        return g.writeCharacteristic(characteristic) ? GattOperation.ISSUED : GattOperation.ISSUE_FAILED;
+    }
+
+    @Override
+    public int enableNotifications(UUID uuid) {
+        BluetoothGatt g = gatt;
+        BluetoothGattCharacteristic characteristic = characteristics.get(uuid);
+        BluetoothGattDescriptor descriptor = characteristic != null ? characteristic.getDescriptor(CCCD_UUID) : null;
+        if (g == null || descriptor == null || !g.setCharacteristicNotification(characteristic, true)) {
+            return GattOperation.ISSUE_FAILED;
+        }
+        byte[] value = BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
+            return g.writeDescriptor(descriptor, value);
+        }
+        descriptor.setValue(value);
+        return g.writeDescriptor(descriptor) ? GattOperation.ISSUED : GattOperation.ISSUE_FAILED;
+    }
+
+    @Override
+    public int requestMtu(int mtu) {
+        BluetoothGatt g = gatt;
+        return g != null && g.requestMtu(mtu) ? GattOperation.ISSUED : GattOperation.ISSUE_FAILED;
+    }
+
+    @Override
+    public int setPreferredPhy(int txPhy, int rxPhy) {
+        BluetoothGatt g = gatt;
+        if (g == null) {
+            return GattOperation.ISSUE_FAILED;
+        }
+        g.setPreferredPhy(phyMask(txPhy), phyMask(rxPhy), BluetoothDevice.PHY_OPTION_NO_PREFERRED);
+        return GattOperation.ISSUED;
+    }
+
+    @Override
+    public int requestConnectionPriority(int priority) {
+        BluetoothGatt g = gatt;
+        return g != null && g.requestConnectionPriority(priority) ? GattOperation.ISSUED : GattOperation.ISSUE_FAILED;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        BluetoothGatt g = gatt;
+        gatt = null;
+        if (g != null) {
+            g.disconnect();
+            g.close();
+        }
+        characteristics.clear();
+    }
+
+    private static int phyMask(int phy) {
+        return phy == LinkParameters.PHY_LE_CODED ? BluetoothDevice.PHY_LE_CODED_MASK : phy;
+    }
+
+    // -------------- Platform callbacks --------------
+
+    @Override
+    public void onConnectionStateChange(BluetoothGatt g, int status, int newState) {
+        if (closed) {
+            return;
+        }
+        boolean connected = status == BluetoothGatt.GATT_SUCCESS && newState == BluetoothProfile.STATE_CONNECTED;
+        if (!connected) {
+            close();
+        }
+        listener.onConnectionStateChange(status, connected);
+    }
+
+    @Override
+    public void onServicesDiscovered(BluetoothGatt g, int status) {
+        if (closed) {
+            return;
+        }
+        List<GattCharacteristicInfo> discovered = new ArrayList<>();
+        if (status == BluetoothGatt.GATT_SUCCESS) {
+            characteristics.clear();
+            for (BluetoothGattService service : g.getServices()) {
+                for (BluetoothGattCharacteristic characteristic : service.getCharacteristics()) {
+                    // Duplicate UUIDs in different services resolve to the last one
+                    characteristics.put(characteristic.getUuid(), characteristic);
+                    discovered.add(new GattCharacteristicInfo(service.getUuid(), characteristic.getUuid(),
+                            characteristic.getProperties(), characteristic.getInstanceId(),
+                            characteristic.getDescriptor(CCCD_UUID) != null));
+                }
+            }
+        }
+        listener.onServicesDiscovered(status, discovered);
+    }
+
+    @Override
+    public void onCharacteristicRead(BluetoothGatt g, BluetoothGattCharacteristic characteristic, int status) {
+        // Only called before Android 13
+        listener.onCharacteristicRead(characteristic.getUuid(), status, characteristic.getValue());
+    }
+
+    @Override
+    public void onCharacteristicRead(BluetoothGatt g, BluetoothGattCharacteristic characteristic, byte[] value, int status) {
+        listener.onCharacteristicRead(characteristic.getUuid(), status, value);
+    }
+
+    @Override
+    public void onCharacteristicWrite(BluetoothGatt g, BluetoothGattCharacteristic characteristic, int status) {
+        listener.onCharacteristicWrite(characteristic.getUuid(), status);
+    }
+
+    @Override
+    public void onDescriptorWrite(BluetoothGatt g, BluetoothGattDescriptor descriptor, int status) {
+        listener.onDescriptorWrite(descriptor.getUuid(), status);
+    }
+
+    @Override
+    public void onCharacteristicChanged(BluetoothGatt g, BluetoothGattCharacteristic characteristic) {
+        // Only called before Android 13
+        listener.onNotification(characteristic.getUuid(), characteristic.getInstanceId(), characteristic.getValue());
+    }
+
+    @Override
+    public void onCharacteristicChanged(BluetoothGatt g, BluetoothGattCharacteristic characteristic, byte[] value) {
+        listener.onNotification(characteristic.getUuid(), characteristic.getInstanceId(), value);
+    }
+
+    @Override
+    public void onMtuChanged(BluetoothGatt g, int mtu, int status) {
+        listener.onMtuChanged(mtu, status);
+    }
+
+    @Override
+    public void onPhyUpdate(BluetoothGatt g, int txPhy, int rxPhy, int status) {
+        listener.onPhyUpdate(txPhy, rxPhy, status);
+    }
+
+    @Override
+    public void onServiceChanged(BluetoothGatt g) {
+        // Android 12+; the stack consumes the Service Changed indication itself and reports it here
+        if (!closed) {
+            listener.onServiceChanged();
+        }
+    }
+}
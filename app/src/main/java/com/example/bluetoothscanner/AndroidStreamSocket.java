@@ -0,0 +1,59 @@
+package com.example.bluetoothscanner;
+
+import android.annotation.SuppressLint;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothSocket;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.UUID;
+
+/** {@link StreamSocket} over an RFCOMM {@link BluetoothSocket}. Callers must hold BLUETOOTH_CONNECT. */
+@SuppressLint("MissingPermission")
+public class AndroidStreamSocket implements StreamSocket {
+    private final BluetoothSocket socket;
+    private final long address;
+
+    private AndroidStreamSocket(BluetoothSocket socket, long address) {
+        this.socket = socket;
+        this.address = address;
+    }
+
+    /** Connects to the service record {@code uuid}; blocks until connected. */
+    public static AndroidStreamSocket connect(BluetoothDevice device, UUID uuid) throws IOException {
+        BluetoothSocket socket = device.createRfcommSocketToServiceRecord(uuid);
+        try {
+            socket.connect();
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        return new AndroidStreamSocket(socket, BluetoothAddress.pack(device.getAddress()));
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return socket.getInputStream();
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        return socket.getOutputStream();
+    }
+
+    @Override
+    public boolean isConnected() {
+        return socket.isConnected();
+    }
+
+    @Override
+    public long address() {
+        return address;
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
@@ -0,0 +1,217 @@
+package com.example.bluetoothscanner;
+
+/**
+ * Reusable result of {@link #decode}: classifies advertising data as one of the common beacon
+ * formats and exposes its fields without allocating. Identifiers are held as two big-endian
+ * longs: the proximity UUID of an iBeacon, the first 16 bytes of an AltBeacon ID, or the
+ * 10-byte namespace and 6-byte instance of an Eddystone-UID. URL bytes stay in the record.
+ */
+public final class Beacon {
+    public enum Type {
+        NONE,
+        IBEACON,
+        ALTBEACON,
+        EDDYSTONE_UID,
+        EDDYSTONE_URL,
+        EDDYSTONE_TLM
+    }
+
+    static final int APPLE_COMPANY_ID = 0x004C;
+    static final int EDDYSTONE_UUID16 = 0xFEAA;
+    private static final int IBEACON_PREFIX = 0x0215;
+    private static final int ALTBEACON_CODE = 0xBEAC;
+    private static final int EDDYSTONE_FRAME_UID = 0x00;
+    private static final int EDDYSTONE_FRAME_URL = 0x10;
+    private static final int EDDYSTONE_FRAME_TLM = 0x20;
+
+    private static final String[] URL_SCHEMES = {"http://www.", "https://www.", "http://", "https://"};
+    private static final String[] URL_EXPANSIONS = {
+            ".com/", ".org/", ".edu/", ".net/", ".info/", ".biz/", ".gov/",
+            ".com", ".org", ".edu", ".net", ".info", ".biz", ".gov"};
+
+    private final AdvertisingData.ManufacturerData manufacturer = new AdvertisingData.ManufacturerData();
+    private final AdvertisingData.ServiceData serviceData = new AdvertisingData.ServiceData();
+
+    private Type type = Type.NONE;
+    private long idMsb;
+    private long idLsb;
+    private int major;
+    private int minor;
+    private int measuredPower;
+    private int companyId;
+    private int tlmVersion;
+    private int batteryMillivolts;
+    private int temperature;
+    private long advertisementCount;
+    private long uptimeDeciseconds;
+
+    /** Decodes the beacon frame in {@code data}, if any, and returns its type. */
+    public Type decode(AdvertisingData data) {
+        type = Type.NONE;
+        for (int i = 0, n = data.manufacturerDataCount(); i < n; i++) {
+            AdvertisingData.ManufacturerData m = data.manufacturerData(i, manufacturer);
+            if (m.companyId == APPLE_COMPANY_ID && m.length == 23 && m.u16be(0) == IBEACON_PREFIX) {
+                type = Type.IBEACON;
+                idMsb = m.bytesBe(2, 8);
+                idLsb = m.bytesBe(10, 8);
+                major = m.u16be(18);
+                minor = m.u16be(20);
+                measuredPower = m.s8(22);
+                companyId = m.companyId;
+                return type;
+            }
+            if (m.length == 24 && m.u16be(0) == ALTBEACON_CODE) {
+                type = Type.ALTBEACON;
+                idMsb = m.bytesBe(2, 8);
+                idLsb = m.bytesBe(10, 8);
+                major = m.u16be(18);
+                minor = m.u16be(20);
+                measuredPower = m.s8(22);
+                companyId = m.companyId;
+                return type;
+            }
+        }
+        if (data.findServiceData16(EDDYSTONE_UUID16, serviceData) && serviceData.length >= 2) {
+            AdvertisingData.ServiceData s = serviceData;
+            switch (s.u8(0)) {
+                case EDDYSTONE_FRAME_UID:
+                    if (s.length >= 18) {
+                        type = Type.EDDYSTONE_UID;
+                        measuredPower = s.s8(1);
+                        idMsb = s.bytesBe(2, 8);
+                        idLsb = s.bytesBe(10, 8);
+                    }
+                    break;
+                case EDDYSTONE_FRAME_URL:
+                    if (s.length >= 3) {
+                        type = Type.EDDYSTONE_URL;
+                        measuredPower = s.s8(1);
+                    }
+                    break;
+                case EDDYSTONE_FRAME_TLM:
+                    if (s.length >= 14) {
+                        type = Type.EDDYSTONE_TLM;
+                        tlmVersion = s.u8(1);
+                        batteryMillivolts = s.u16be(2);
+                        temperature = (short) s.u16be(4);
+                        advertisementCount = s.u32be(6);
+                        uptimeDeciseconds = s.u32be(10);
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        return type;
+    }
+
+    public Type type() {
+        return type;
+    }
+
+    /** High 8 bytes of the identifier (iBeacon/AltBeacon UUID, Eddystone namespace). */
+    public long idMsb() {
+        return idMsb;
+    }
+
+    /** Low 8 bytes of the identifier (for Eddystone-UID: the last 2 namespace and the 6 instance bytes). */
+    public long idLsb() {
+        return idLsb;
+    }
+
+    /** iBeacon major, or AltBeacon ID bytes 16-17. */
+    public int major() {
+        return major;
+    }
+
+    /** iBeacon minor, or AltBeacon ID bytes 18-19. */
+    public int minor() {
+        return minor;
+    }
+
+    /** Calibrated RSSI in dBm: at 1 m for iBeacon/AltBeacon, at 0 m for Eddystone. */
+    public int measuredPower() {
+        return measuredPower;
+    }
+
+    /** Company that sent the iBeacon/AltBeacon frame. */
+    public int companyId() {
+        return companyId;
+    }
+
+    /** Eddystone-UID namespace (10 bytes) as its top 8 bytes; see {@link #namespaceLow()}. */
+    public long namespaceHigh() {
+        return idMsb;
+    }
+
+    /** Last 2 namespace bytes. */
+    public int namespaceLow() {
+        return (int) (idLsb >>> 48);
+    }
+
+    /** Eddystone-UID instance (6 bytes). */
+    public long instance() {
+        return idLsb & 0xFFFFFFFFFFFFL;
+    }
+
+    public int tlmVersion() {
+        return tlmVersion;
+    }
+
+    /** Battery voltage from an Eddystone-TLM frame; 0 if not supported by the beacon. */
+    public int batteryMillivolts() {
+        return batteryMillivolts;
+    }
+
+    /** Eddystone-TLM temperature in degrees Celsius; NaN if not supported (0x8000). */
+    public double temperatureCelsius() {
+        return temperature == Short.MIN_VALUE ? Double.NaN : temperature / 256.0;
+    }
+
+    public long advertisementCount() {
+        return advertisementCount;
+    }
+
+    public long uptimeDeciseconds() {
+        return uptimeDeciseconds;
+    }
+
+    /** Appends the expanded URL of an Eddystone-URL frame; appends nothing for other types. */
+    public StringBuilder appendUrl(StringBuilder out) {
+        if (type != Type.EDDYSTONE_URL) {
+            return out;
+        }
+        AdvertisingData.ServiceData s = serviceData;
+        int scheme = s.u8(2);
+        if (scheme < URL_SCHEMES.length) {
+            out.append(URL_SCHEMES[scheme]);
+        }
+        for (int i = 3; i < s.length; i++) {
+            int c = s.u8(i);
+            if (c < URL_EXPANSIONS.length) {
+                out.append(URL_EXPANSIONS[c]);
+            } else if (c > 0x20 && c < 0x7F) {
+                out.append((char) c);
+            }
+        }
+        return out;
+    }
+
+    /** Short label for the device list, or null for {@link Type#NONE}. */
+    public static String label(Type type) {
+        switch (type) {
+            case IBEACON:
+                return "iBeacon";
+            case ALTBEACON:
+                return "AltBeacon";
+            case EDDYSTONE_UID:
+                return "Eddystone-UID";
+            case EDDYSTONE_URL:
+                return "Eddystone-URL";
+            case EDDYSTONE_TLM:
+                return "Eddystone-TLM";
+            default:
+                return null;
+        }
+    }
+}
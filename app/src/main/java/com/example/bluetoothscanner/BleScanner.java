@@ -0,0 +1,45 @@
+package com.example.bluetoothscanner;
+
+import java.util.List;
+
+/**
+ * LE scanning as the rest of the app sees it. Implementations decide how much of the rules the
+ * radio can filter and report what is left for {@link ScanIngestor} to check in software.
+ */
+public interface BleScanner<D> {
+    // Same values as ScanSettings.SCAN_MODE_*
+    int SCAN_MODE_LOW_POWER = 0;
+    int SCAN_MODE_BALANCED = 1;
+    int SCAN_MODE_LOW_LATENCY = 2;
+
+    interface Callback<D> {
+        /**
+         * {@code record} is the raw advertising data (possibly zero-padded), never null;
+         * {@code txPower} is {@link SignalEngine#TX_POWER_UNKNOWN} unless the advert carried one.
+         */
+        void onResult(D device, String address, int rssi, int txPower, long timestampNanos, byte[] record);
+
+        void onScanFailed(int errorCode);
+    }
+
+    /** What a started scan actually does. */
+    final class Session {
+        /** Matcher results still need to pass, or null if the scanner filters exactly. */
+        public final ScanMatcher softwareMatcher;
+        public final boolean hardwareFiltered;
+        /** Batching in effect, which may differ from the requested one. */
+        public final ScanBatchConfig batching;
+
+        public Session(ScanMatcher softwareMatcher, boolean hardwareFiltered, ScanBatchConfig batching) {
+            this.softwareMatcher = softwareMatcher;
+            this.hardwareFiltered = hardwareFiltered;
+            this.batching = batching;
+        }
+    }
+
+    /** Starts scanning in one of the {@code SCAN_MODE_*} duty cycles, replacing any scan in progress. */
+    Session start(List<ScanRule> rules, int scanMode, ScanBatchConfig batching, Callback<D> callback);
+
+    /** Stops scanning, delivering anything still held in a batch first. */
+    void stop();
+}
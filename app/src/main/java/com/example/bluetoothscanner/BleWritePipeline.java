@@ -0,0 +1,179 @@
+package com.example.bluetoothscanner;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Streams payloads of any size to a characteristic, one chunk per write. The next chunk is
+ * issued from the previous chunk's {@code onCharacteristicWrite} completion (through the
+ * {@link GattOperationQueue}), so the stack's buffer never overflows and nothing waits on the
+ * main thread. Chunks the stack refuses (busy) or that complete with an error are retried;
+ * a transfer fails once a chunk runs out of attempts.
+ */
+public class BleWritePipeline {
+    private static final long CHUNK_TIMEOUT_MILLIS = 2000;
+    private static final int CHUNK_ISSUE_ATTEMPTS = 10;
+    private static final int CHUNK_ERROR_RETRIES = 3;
+
+    public interface ChunkWriter {
+        /** Writes one chunk; returns {@link GattOperation#ISSUED} or the stack's error code. */
+        int write(UUID characteristic, byte[] chunk, int writeType);
+    }
+
+    public interface Listener {
+        void onComplete(Result result);
+    }
+
+    public static final class Result {
+        public final boolean success;
+        public final int status;
+        public final long bytesSent;
+        public final long elapsedNanos;
+        /** Indices of chunks that needed more than one attempt. */
+        public final List<Integer> retriedChunks;
+
+        Result(boolean success, int status, long bytesSent, long elapsedNanos, List<Integer> retriedChunks) {
+            this.success = success;
+            this.status = status;
+            this.bytesSent = bytesSent;
+            this.elapsedNanos = elapsedNanos;
+            this.retriedChunks = retriedChunks;
+        }
+
+        public double bytesPerSecond() {
+            return elapsedNanos > 0 ? bytesSent * 1e9 / elapsedNanos : 0;
+        }
+    }
+
+    private static final class Transfer {
+        final UUID characteristic;
+        final byte[] payload;
+        final int length;
+        final int chunkSize;
+        final int writeType;
+        final Listener listener;
+        final List<Integer> retriedChunks = new ArrayList<>();
+        int offset;
+        int chunkIndex;
+        int errorRetries;
+        long startNanos;
+
+        Transfer(UUID characteristic, byte[] payload, int length, int chunkSize, int writeType, Listener listener) {
+            this.characteristic = characteristic;
+            this.payload = payload;
+            this.length = length;
+            this.chunkSize = chunkSize;
+            this.writeType = writeType;
+            this.listener = listener;
+        }
+    }
+
+    private final GattOperationQueue queue;
+    private final ChunkWriter writer;
+    private final ArrayDeque<Transfer> transfers = new ArrayDeque<>();
+    private Transfer active;
+    private byte[] chunkBuffer = new byte[0];
+
+    public BleWritePipeline(GattOperationQueue queue, ChunkWriter writer) {
+        this.queue = queue;
+        this.writer = writer;
+    }
+
+    /** Queues a payload; {@code chunkSize} is normally the negotiated ATT MTU minus 3. */
+    public void send(UUID characteristic, byte[] payload, int chunkSize, int writeType, Listener listener) {
+        send(characteristic, payload, payload.length, chunkSize, writeType, listener);
+    }
+
+    /**
+     * Queues the first {@code length} bytes of {@code payload}, which must stay unchanged until
+     * the listener runs (e.g. a {@link FrameEncoder} buffer, released there).
+     */
+    public synchronized void send(UUID characteristic, byte[] payload, int length, int chunkSize, int writeType, Listener listener) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Invalid chunk size: " + chunkSize);
+        }
+        transfers.add(new Transfer(characteristic, payload, length, chunkSize, writeType, listener));
+        if (active == null) {
+            startNext();
+        }
+    }
+
+    public synchronized boolean isBusy() {
+        return active != null;
+    }
+
+    private void startNext() {
+        active = transfers.poll();
+        if (active != null) {
+            active.startNanos = System.nanoTime();
+            writeChunk(active);
+        }
+    }
+
+    private void writeChunk(Transfer transfer) {
+        if (transfer.offset >= transfer.length) {
+            finish(transfer, true, 0);
+            return;
+        }
+        int length = Math.min(transfer.chunkSize, transfer.length - transfer.offset);
+        byte[] chunk;
+        if (length == transfer.chunkSize) {
+            // The stack copies the value when the write is issued, so full chunks share one buffer
+            if (chunkBuffer.length != length) {
+                chunkBuffer = new byte[length];
+            }
+            chunk = chunkBuffer;
+        } else {
+            chunk = new byte[length];
+        }
+        System.arraycopy(transfer.payload, transfer.offset, chunk, 0, length);
+        queue.enqueue(new GattOperation(GattOperation.Type.WRITE, transfer.characteristic,
+                () -> writer.write(transfer.characteristic, chunk, transfer.writeType),
+                (operation, status, value) -> onChunkComplete(transfer, length, operation, status),
+                CHUNK_TIMEOUT_MILLIS, CHUNK_ISSUE_ATTEMPTS));
+    }
+
+    private synchronized void onChunkComplete(Transfer transfer, int length, GattOperation operation, int status) {
+        if (transfer != active) {
+            return;
+        }
+        if (operation.attempts() > 1) {
+            markRetried(transfer);
+        }
+        if (status == 0) {
+            Metrics.global().bleBytesSent.add(length);
+            transfer.offset += length;
+            transfer.chunkIndex++;
+            transfer.errorRetries = 0;
+            writeChunk(transfer);
+        } else if (status != GattOperation.STATUS_CANCELLED && transfer.errorRetries++ < CHUNK_ERROR_RETRIES) {
+            markRetried(transfer);
+            writeChunk(transfer);
+        } else {
+            if (status == GattOperation.STATUS_CANCELLED) {
+                // The link went away; nothing queued behind this transfer can succeed either
+                while (!transfers.isEmpty()) {
+                    Transfer dropped = transfers.poll();
+                    dropped.listener.onComplete(new Result(false, status, 0, 0, new ArrayList<>()));
+                }
+            }
+            finish(transfer, false, status);
+        }
+    }
+
+    private static void markRetried(Transfer transfer) {
+        List<Integer> retried = transfer.retriedChunks;
+        if (retried.isEmpty() || retried.get(retried.size() - 1) != transfer.chunkIndex) {
+            retried.add(transfer.chunkIndex);
+        }
+    }
+
+    private void finish(Transfer transfer, boolean success, int status) {
+        long elapsed = System.nanoTime() - transfer.startNanos;
+        active = null;
+        transfer.listener.onComplete(new Result(success, status, transfer.offset, elapsed, transfer.retriedChunks));
+        startNext();
+    }
+}
@@ -0,0 +1,44 @@
+package com.example.bluetoothscanner;
+
+/**
+ * Packs "AA:BB:CC:DD:EE:FF" Bluetooth addresses into the low 48 bits of a long and back,
+ * so devices can be keyed without hashing or comparing strings.
+ */
+public final class BluetoothAddress {
+    /** Returned by {@link #pack(String)} for anything that is not a well-formed address. */
+    public static final long INVALID = -1L;
+
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    private BluetoothAddress() {
+    }
+
+    public static long pack(String address) {
+        if (address == null || address.length() != 17) {
+            return INVALID;
+        }
+        long value = 0;
+        for (int i = 0; i < 17; i += 3) {
+            int hi = Character.digit(address.charAt(i), 16);
+            int lo = Character.digit(address.charAt(i + 1), 16);
+            if (hi < 0 || lo < 0 || (i < 15 && address.charAt(i + 2) != ':')) {
+                return INVALID;
+            }
+            value = (value << 8) | (hi << 4) | lo;
+        }
+        return value;
+    }
+
+    public static String format(long address) {
+        char[] out = new char[17];
+        for (int i = 0; i < 6; i++) {
+            int b = (int) (address >>> (40 - 8 * i)) & 0xFF;
+            out[i * 3] = HEX[b >>> 4];
+            out[i * 3 + 1] = HEX[b & 0x0F];
+            if (i < 5) {
+                out[i * 3 + 2] = ':';
+            }
+        }
+        return new String(out);
+    }
+}
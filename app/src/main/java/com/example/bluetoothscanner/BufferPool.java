@@ -0,0 +1,49 @@
+package com.example.bluetoothscanner;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fixed-size, little-endian heap buffers handed from thread to thread and back, so encoding
+ * messages allocates nothing once the pool has warmed up. An empty pool allocates instead of
+ * waiting; a buffer that is never released is simply collected.
+ */
+public final class BufferPool {
+    private final int bufferSize;
+    private final ArrayBlockingQueue<ByteBuffer> free;
+    private final AtomicLong allocated = new AtomicLong();
+
+    public BufferPool(int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.free = new ArrayBlockingQueue<>(maxPooled);
+    }
+
+    public int bufferSize() {
+        return bufferSize;
+    }
+
+    /** A cleared buffer of {@link #bufferSize()} bytes; any thread. */
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = free.poll();
+        if (buffer == null) {
+            allocated.incrementAndGet();
+            return ByteBuffer.allocate(bufferSize).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    /** Returns a buffer from {@link #acquire()}; it must not be used afterwards. */
+    public void release(ByteBuffer buffer) {
+        if (buffer.capacity() == bufferSize) {
+            free.offer(buffer);
+        }
+    }
+
+    /** Buffers allocated so far; stops growing once the pool covers the buffers in flight. */
+    public long allocated() {
+        return allocated.get();
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.bluetoothscanner;
+
+/**
+ * Bounded ring of the most recent bytes of a stream. Every byte has an absolute stream
+ * position, so a reader can ask for everything after the last position it saw and learn
+ * how much it missed if the writer lapped it. One writer and any number of readers.
+ */
+public final class ByteRing {
+    private final byte[] buffer;
+    private long position;
+
+    public ByteRing(int capacity) {
+        buffer = new byte[capacity];
+    }
+
+    public synchronized void write(byte[] src, int offset, int length) {
+        if (length > buffer.length) {
+            offset += length - buffer.length;
+            position += length - buffer.length;
+            length = buffer.length;
+        }
+        int start = (int) (position % buffer.length);
+        int first = Math.min(length, buffer.length - start);
+        System.arraycopy(src, offset, buffer, start, first);
+        System.arraycopy(src, offset + first, buffer, 0, length - first);
+        position += length;
+    }
+
+    /** Total number of bytes ever written. */
+    public synchronized long position() {
+        return position;
+    }
+
+    /** Oldest position still held. */
+    public synchronized long oldestPosition() {
+        return Math.max(0, position - buffer.length);
+    }
+
+    /**
+     * Copies bytes starting at stream position {@code from} (clamped to the oldest byte held)
+     * into {@code dst}, up to its length. Returns the number of bytes copied; the first copied
+     * byte is at {@code max(from, oldestPosition())}.
+     */
+    public synchronized int read(long from, byte[] dst, int dstOffset, int maxLength) {
+        long start = Math.max(from, Math.max(0, position - buffer.length));
+        int length = (int) Math.min(maxLength, position - start);
+        if (length <= 0) {
+            return 0;
+        }
+        int ringStart = (int) (start % buffer.length);
+        int first = Math.min(length, buffer.length - ringStart);
+        System.arraycopy(buffer, ringStart, dst, dstOffset, first);
+        System.arraycopy(buffer, 0, dst, dstOffset + first, length - first);
+        return length;
+    }
+
+    public int capacity() {
+        return buffer.length;
+    }
+
+    public synchronized void clear() {
+        position = 0;
+    }
+}
@@ -0,0 +1,6 @@
+package com.example.bluetoothscanner;
+
+/** Receives a slice of bytes that is only valid during the call. */
+public interface ByteSink {
+    void accept(byte[] buffer, int offset, int length);
+}
@@ -0,0 +1,245 @@
+package com.example.bluetoothscanner;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Converts captures to formats Wireshark opens: btsnoop (HCI H4, the format of Android's own
+ * HCI snoop log) and pcap (LINKTYPE_BLUETOOTH_HCI_H4_WITH_PHDR). Each record becomes the HCI
+ * packet the controller would have produced for it:
+ * <ul>
+ *   <li>advertisements: LE Advertising Report events (LE Extended Advertising Report above 31 bytes),</li>
+ *   <li>inquiry results: Inquiry Result with RSSI events (class of device and clock offset zeroed),</li>
+ *   <li>notifications and reads: ATT Handle Value Notification / Read Response in ACL data,</li>
+ *   <li>RFCOMM traffic: ACL data on L2CAP channel 0x0040 (the RFCOMM framing itself is not recorded).</li>
+ * </ul>
+ * Runs offline on finished files, never on the live path.
+ */
+public final class CaptureExporter {
+    public enum Format {
+        BTSNOOP,
+        PCAP
+    }
+
+    // btsnoop counts microseconds from 0000-01-01
+    private static final long BTSNOOP_EPOCH_OFFSET_MICROS = 0x00dcddb30f2f8000L;
+    private static final int BTSNOOP_DATALINK_H4 = 1002;
+    private static final int PCAP_LINKTYPE_H4_WITH_PHDR = 201;
+    private static final int ACL_HANDLE = 0x0001;
+    private static final int ACL_FIRST_AUTO_FLUSHABLE = 0x2000;
+    private static final int L2CAP_CID_ATT = 0x0004;
+    private static final int L2CAP_CID_DYNAMIC = 0x0040;
+    private static final int MAX_ACL_PAYLOAD = 0xFFFF - 4;
+    private static final int MAX_LEGACY_ADV = 31;
+    private static final int MAX_EXTENDED_ADV = 229;
+
+    private byte[] packet = new byte[512];
+    private int packetLength;
+    private boolean received;
+    private boolean event;
+
+    private CaptureExporter() {
+    }
+
+    /** Writes every record of {@code captures}, in order, to {@code out}; returns the packet count. */
+    public static long export(File[] captures, OutputStream out, Format format) throws IOException {
+        CaptureExporter exporter = new CaptureExporter();
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+        writeFileHeader(data, format);
+        long packets = 0;
+        for (File capture : captures) {
+            try (CaptureReader reader = new CaptureReader(capture)) {
+                while (reader.next()) {
+                    if (exporter.build(reader)) {
+                        exporter.writePacket(data, format, reader.timestampMicros);
+                        packets++;
+                    }
+                }
+            }
+        }
+        data.flush();
+        return packets;
+    }
+
+    private static void writeFileHeader(DataOutputStream out, Format format) throws IOException {
+        if (format == Format.BTSNOOP) {
+            out.writeBytes("btsnoop");
+            out.writeByte(0);
+            out.writeInt(1);
+            out.writeInt(BTSNOOP_DATALINK_H4);
+        } else {
+            out.writeInt(0xa1b2c3d4);
+            out.writeShort(2);
+            out.writeShort(4);
+            out.writeInt(0);
+            out.writeInt(0);
+            out.writeInt(0xFFFF);
+            out.writeInt(PCAP_LINKTYPE_H4_WITH_PHDR);
+        }
+    }
+
+    private void writePacket(DataOutputStream out, Format format, long timestampMicros) throws IOException {
+        if (format == Format.BTSNOOP) {
+            out.writeInt(packetLength);
+            out.writeInt(packetLength);
+            out.writeInt((received ? 1 : 0) | (event ? 2 : 0));
+            out.writeInt(0);
+            out.writeLong(timestampMicros + BTSNOOP_EPOCH_OFFSET_MICROS);
+            out.write(packet, 0, packetLength);
+        } else {
+            out.writeInt((int) (timestampMicros / 1_000_000));
+            out.writeInt((int) (timestampMicros % 1_000_000));
+            out.writeInt(packetLength + 4);
+            out.writeInt(packetLength + 4);
+            out.writeInt(received ? 1 : 0);
+            out.write(packet, 0, packetLength);
+        }
+    }
+
+    /** Builds the H4 packet for the reader's current record; false if the type has no HCI form. */
+    private boolean build(CaptureReader record) {
+        packetLength = 0;
+        received = record.type != CaptureFormat.TYPE_RFCOMM_TX;
+        event = false;
+        switch (record.type) {
+            case CaptureFormat.TYPE_ADVERTISEMENT:
+                buildAdvertisingReport(record);
+                return true;
+            case CaptureFormat.TYPE_INQUIRY_RESULT:
+                buildInquiryResult(record);
+                return true;
+            case CaptureFormat.TYPE_GATT_NOTIFICATION:
+                buildAtt(0x1B, record.channelId, true, record);
+                return true;
+            case CaptureFormat.TYPE_GATT_READ:
+                buildAtt(0x0B, 0, false, record);
+                return true;
+            case CaptureFormat.TYPE_RFCOMM_RX:
+            case CaptureFormat.TYPE_RFCOMM_TX:
+                int length = Math.min(record.length, MAX_ACL_PAYLOAD);
+                beginAcl(L2CAP_CID_DYNAMIC, length);
+                put(record.payload(), 0, length);
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private void buildAdvertisingReport(CaptureReader record) {
+        event = true;
+        int length = significantLength(record.payload(), record.length);
+        int rssi = record.rssi == CaptureFormat.RSSI_NONE ? 0x7F : record.rssi;
+        put8(0x04);
+        put8(0x3E);
+        if (length <= MAX_LEGACY_ADV) {
+            put8(12 + length);
+            put8(0x02);
+            put8(1);
+            put8(0x00);
+            put8(0x00);
+            putAddress(record.address);
+            put8(length);
+            put(record.payload(), 0, length);
+            put8(rssi);
+        } else {
+            length = Math.min(length, MAX_EXTENDED_ADV);
+            put8(26 + length);
+            put8(0x0D);
+            put8(1);
+            put16(0x0000);
+            put8(0x00);
+            putAddress(record.address);
+            put8(0x01);
+            put8(0x00);
+            put8(0xFF);
+            put8(0x7F);
+            put8(rssi);
+            put16(0x0000);
+            put8(0x00);
+            putAddress(0);
+            put8(length);
+            put(record.payload(), 0, length);
+        }
+    }
+
+    private void buildInquiryResult(CaptureReader record) {
+        event = true;
+        put8(0x04);
+        put8(0x22);
+        put8(15);
+        put8(1);
+        putAddress(record.address);
+        put8(0x01);
+        put8(0x00);
+        put8(0);
+        put8(0);
+        put8(0);
+        put16(0);
+        put8(record.rssi == CaptureFormat.RSSI_NONE ? 0 : record.rssi);
+    }
+
+    private void buildAtt(int opcode, int handle, boolean withHandle, CaptureReader record) {
+        int header = withHandle ? 3 : 1;
+        int length = Math.min(record.length, MAX_ACL_PAYLOAD - header);
+        beginAcl(L2CAP_CID_ATT, header + length);
+        put8(opcode);
+        if (withHandle) {
+            put16(handle);
+        }
+        put(record.payload(), 0, length);
+    }
+
+    private void beginAcl(int cid, int l2capLength) {
+        put8(0x02);
+        put16(ACL_HANDLE | ACL_FIRST_AUTO_FLUSHABLE);
+        put16(l2capLength + 4);
+        put16(l2capLength);
+        put16(cid);
+    }
+
+    /** Scan records are padded with zeros up to their buffer size; stop at the first empty AD structure. */
+    static int significantLength(byte[] record, int length) {
+        int offset = 0;
+        while (offset < length) {
+            int fieldLength = record[offset] & 0xFF;
+            if (fieldLength == 0 || offset + 1 + fieldLength > length) {
+                break;
+            }
+            offset += 1 + fieldLength;
+        }
+        return offset;
+    }
+
+    private void putAddress(long address) {
+        for (int i = 0; i < 6; i++) {
+            put8((int) (address >>> (8 * i)));
+        }
+    }
+
+    private void put16(int value) {
+        put8(value);
+        put8(value >>> 8);
+    }
+
+    private void put8(int value) {
+        ensure(1);
+        packet[packetLength++] = (byte) value;
+    }
+
+    private void put(byte[] src, int offset, int length) {
+        ensure(length);
+        System.arraycopy(src, offset, packet, packetLength, length);
+        packetLength += length;
+    }
+
+    private void ensure(int extra) {
+        if (packetLength + extra > packet.length) {
+            byte[] grown = new byte[Math.max(packet.length * 2, packetLength + extra)];
+            System.arraycopy(packet, 0, grown, 0, packetLength);
+            packet = grown;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.example.bluetoothscanner;
+
+/**
+ * Layout of capture files written by {@link CaptureWriter}. All integers are little-endian.
+ *
+ * <pre>
+ * file:   magic "BTCAP\0" (6) | version (2) | records...
+ * record: timestampMicros (8, since the epoch) | type (1) | rssi (1, signed) |
+ *         channel (2, ATT handle or RFCOMM channel) | address (8) | length (4) | payload
+ * </pre>
+ *
+ * A record with type {@link #TYPE_NONE} (or the end of the file) ends the capture.
+ */
+public final class CaptureFormat {
+    static final byte[] MAGIC = {'B', 'T', 'C', 'A', 'P', 0};
+    static final short VERSION = 1;
+    public static final int FILE_HEADER_SIZE = 8;
+    public static final int RECORD_HEADER_SIZE = 24;
+    public static final String FILE_SUFFIX = ".btcap";
+
+    public static final int TYPE_NONE = 0;
+    /** LE advertisement; payload is the raw advertising data. */
+    public static final int TYPE_ADVERTISEMENT = 1;
+    /** Classic inquiry result; no payload. */
+    public static final int TYPE_INQUIRY_RESULT = 2;
+    /** GATT notification received; payload is the attribute value. */
+    public static final int TYPE_GATT_NOTIFICATION = 3;
+    /** GATT read response; payload is the attribute value. */
+    public static final int TYPE_GATT_READ = 4;
+    /** Bytes received on an RFCOMM socket. */
+    public static final int TYPE_RFCOMM_RX = 5;
+    /** Bytes written to an RFCOMM socket. */
+    public static final int TYPE_RFCOMM_TX = 6;
+
+    public static final int RSSI_NONE = 127;
+
+    private CaptureFormat() {
+    }
+}
@@ -0,0 +1,105 @@
+package com.example.bluetoothscanner;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Streams the records of one capture file through a small read window; only the current
+ * record is held. The fields and {@link #payload()} are overwritten by every {@link #next()}.
+ */
+public class CaptureReader implements AutoCloseable {
+    private static final int WINDOW_SIZE = 64 * 1024;
+
+    private final FileChannel channel;
+    private final ByteBuffer window = ByteBuffer.allocate(WINDOW_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private byte[] payload = new byte[256];
+
+    public long timestampMicros;
+    public int type;
+    public int rssi;
+    public int channelId;
+    public long address;
+    public int length;
+
+    public CaptureReader(File file) throws IOException {
+        channel = new FileInputStream(file).getChannel();
+        window.limit(0);
+        try {
+            fill(CaptureFormat.FILE_HEADER_SIZE);
+        } catch (EOFException e) {
+            close();
+            throw new IOException("Not a capture file: " + file);
+        }
+        byte[] magic = new byte[CaptureFormat.MAGIC.length];
+        window.get(magic);
+        short version = window.getShort();
+        if (!Arrays.equals(magic, CaptureFormat.MAGIC) || version != CaptureFormat.VERSION) {
+            close();
+            throw new IOException("Not a capture file: " + file);
+        }
+    }
+
+    /** Advances to the next record; returns false at the end of the capture. */
+    public boolean next() throws IOException {
+        try {
+            fill(CaptureFormat.RECORD_HEADER_SIZE);
+        } catch (EOFException e) {
+            return false;
+        }
+        timestampMicros = window.getLong();
+        type = window.get() & 0xFF;
+        rssi = window.get();
+        channelId = window.getShort() & 0xFFFF;
+        address = window.getLong();
+        length = window.getInt();
+        if (type == CaptureFormat.TYPE_NONE) {
+            return false;
+        }
+        if (length < 0) {
+            throw new IOException("Corrupt record length " + length);
+        }
+        if (payload.length < length) {
+            payload = new byte[Math.max(length, payload.length * 2)];
+        }
+        int copied = 0;
+        while (copied < length) {
+            if (!window.hasRemaining()) {
+                fill(1);
+            }
+            int n = Math.min(window.remaining(), length - copied);
+            window.get(payload, copied, n);
+            copied += n;
+        }
+        return true;
+    }
+
+    /** Payload of the current record; valid up to {@link #length}. */
+    public byte[] payload() {
+        return payload;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void fill(int needed) throws IOException {
+        if (window.remaining() >= needed) {
+            return;
+        }
+        window.compact();
+        while (window.position() < needed) {
+            if (channel.read(window) < 0) {
+                window.flip();
+                throw new EOFException();
+            }
+        }
+        window.flip();
+    }
+}
@@ -0,0 +1,222 @@
+package com.example.bluetoothscanner;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Appends {@link CaptureFormat} records to memory-mapped files. Each record is written
+ * straight from the caller's buffer into the mapping, so an append is a lock and two small
+ * copies with no system call; the kernel writes the pages back on its own. When a file is
+ * full it is trimmed to its contents and the next one is mapped; only the newest
+ * {@code maxFiles} files are kept. Appends may come from any thread; callback threads that
+ * must never wait on the lock or a rollover use {@link #appendLater}, which hands the record to
+ * the writer's own thread.
+ */
+public class CaptureWriter implements AutoCloseable {
+    public static final int DEFAULT_FILE_SIZE = 8 * 1024 * 1024;
+    public static final int DEFAULT_MAX_FILES = 8;
+
+    private final File directory;
+    private final int fileSize;
+    private final int maxFiles;
+    // Epoch anchor so timestamps have nanoTime resolution but wall-clock meaning
+    private final long epochMicrosAtStart = System.currentTimeMillis() * 1000;
+    private final long nanosAtStart = System.nanoTime();
+    private RandomAccessFile file;
+    private File current;
+    private MappedByteBuffer map;
+    private int sequence;
+    private long records;
+    private boolean closed;
+    private final ExecutorService background = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "capture-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public CaptureWriter(File directory, int fileSize, int maxFiles) throws IOException {
+        if (fileSize < CaptureFormat.FILE_HEADER_SIZE + CaptureFormat.RECORD_HEADER_SIZE) {
+            throw new IllegalArgumentException("File size too small: " + fileSize);
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        this.directory = directory;
+        this.fileSize = fileSize;
+        this.maxFiles = maxFiles;
+        File[] existing = list(directory);
+        if (existing.length > 0) {
+            sequence = sequenceOf(existing[existing.length - 1]) + 1;
+        }
+        roll();
+    }
+
+    public CaptureWriter(File directory) throws IOException {
+        this(directory, DEFAULT_FILE_SIZE, DEFAULT_MAX_FILES);
+    }
+
+    /** Capture files in a directory, oldest first. */
+    public static File[] list(File directory) {
+        File[] files = directory.listFiles((dir, name) -> name.startsWith("capture-") && name.endsWith(CaptureFormat.FILE_SUFFIX));
+        if (files == null) {
+            return new File[0];
+        }
+        Arrays.sort(files, (a, b) -> Integer.compare(sequenceOf(a), sequenceOf(b)));
+        return files;
+    }
+
+    public long timestampMicros() {
+        return epochMicrosAtStart + (System.nanoTime() - nanosAtStart) / 1000;
+    }
+
+    /**
+     * Appends a record. Payloads larger than a file are truncated to fit. Returns false once
+     * the writer is closed or after an I/O error rolling over.
+     */
+    public boolean append(int type, long address, int rssi, int channel, byte[] payload, int offset, int length) {
+        return append(timestampMicros(), type, address, rssi, channel, payload, offset, length);
+    }
+
+    public boolean append(int type, long address, int rssi, int channel, byte[] payload) {
+        return payload == null
+                ? append(type, address, rssi, channel, null, 0, 0)
+                : append(type, address, rssi, channel, payload, 0, payload.length);
+    }
+
+    /**
+     * Stamps a record now and appends it on the capture thread; the payload is copied first.
+     * Nothing is written once the writer is closed.
+     */
+    public void appendLater(int type, long address, int rssi, int channel, byte[] payload) {
+        long timestamp = timestampMicros();
+        byte[] copy = payload != null ? payload.clone() : new byte[0];
+        try {
+            background.execute(() -> append(timestamp, type, address, rssi, channel, copy, 0, copy.length));
+        } catch (RejectedExecutionException e) {
+            // Closed
+        }
+    }
+
+    private synchronized boolean append(long timestampMicros, int type, long address, int rssi, int channel,
+                                        byte[] payload, int offset, int length) {
+        if (closed) {
+            return false;
+        }
+        int maxPayload = fileSize - CaptureFormat.FILE_HEADER_SIZE - CaptureFormat.RECORD_HEADER_SIZE;
+        length = Math.min(length, maxPayload);
+        if (map.remaining() < CaptureFormat.RECORD_HEADER_SIZE + length) {
+            try {
+                roll();
+            } catch (IOException e) {
+                closed = true;
+                return false;
+            }
+        }
+        map.putLong(timestampMicros);
+        map.put((byte) type);
+        map.put((byte) rssi);
+        map.putShort((short) channel);
+        map.putLong(address);
+        map.putInt(length);
+        if (length > 0) {
+            map.put(payload, offset, length);
+        }
+        records++;
+        return true;
+    }
+
+    /** A sink that records every slice it receives with the given type, address and channel. */
+    public ByteSink sink(int type, long address, int channel) {
+        return (buffer, offset, length) -> append(type, address, CaptureFormat.RSSI_NONE, channel, buffer, offset, length);
+    }
+
+    /**
+     * Closes the current file and starts a new one, so everything appended so far can be read
+     * or exported. Returns the finished files, oldest first.
+     */
+    public synchronized File[] finishedFiles() throws IOException {
+        if (!closed) {
+            roll();
+        }
+        File[] files = list(directory);
+        if (!closed && files.length > 0 && files[files.length - 1].equals(current)) {
+            return Arrays.copyOf(files, files.length - 1);
+        }
+        return files;
+    }
+
+    public synchronized long records() {
+        return records;
+    }
+
+    public File directory() {
+        return directory;
+    }
+
+    /**
+     * Writes what {@link #appendLater} still holds, trims the current file so it can be read or
+     * exported, and stops appending.
+     */
+    @Override
+    public void close() throws IOException {
+        background.shutdown();
+        try {
+            background.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            if (!closed) {
+                closed = true;
+                finishFile();
+            }
+        }
+    }
+
+    private void roll() throws IOException {
+        finishFile();
+        File next = new File(directory, String.format(Locale.US, "capture-%06d%s", sequence++, CaptureFormat.FILE_SUFFIX));
+        file = new RandomAccessFile(next, "rw");
+        current = next;
+        map = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, fileSize);
+        map.order(ByteOrder.LITTLE_ENDIAN);
+        map.put(CaptureFormat.MAGIC);
+        map.putShort(CaptureFormat.VERSION);
+        File[] files = list(directory);
+        for (int i = 0; i < files.length - maxFiles; i++) {
+            files[i].delete();
+        }
+    }
+
+    private void finishFile() throws IOException {
+        if (file == null) {
+            return;
+        }
+        int used = map.position();
+        map.force();
+        // The mapping stays valid for the pages we wrote; nothing touches the trimmed tail again
+        file.getChannel().truncate(used);
+        file.close();
+        file = null;
+        map = null;
+    }
+
+    private static int sequenceOf(File file) {
+        String name = file.getName();
+        try {
+            return Integer.parseInt(name.substring("capture-".length(), name.length() - CaptureFormat.FILE_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
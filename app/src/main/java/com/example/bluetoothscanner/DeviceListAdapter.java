@@ -1,54 +1,255 @@
 package com.example.bluetoothscanner;
 
+import android.bluetooth.BluetoothClass;
 import android.bluetooth.BluetoothDevice;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.TextView;
 import androidx.recyclerview.widget.RecyclerView;
+import java.util.Collections;
 import java.util.List;
 
+/**
+ * Binds the immutable {@link DeviceSnapshot}s of the ingestor, whose worker already worked out
+ * what was removed and appended. Item ids are the packed addresses, so they are stable. Names
+ * come cached in the snapshot; a change that only moves the signal line (RSSI, distance,
+ * sightings) is sent as {@link #PAYLOAD_SIGNAL} and rebinds that one view.
+ */
 public class DeviceListAdapter extends RecyclerView.Adapter<DeviceListAdapter.DeviceViewHolder> {
+    /** Partial-bind payload: only the signal line changed. */
+    static final Object PAYLOAD_SIGNAL = new Object();
 
-    private final List<BluetoothDevice> devices;
+    private List<DeviceSnapshot<BluetoothDevice>> devices = Collections.emptyList();
+    private int source;
+    private int generation = -1;
+    private int sequence;
+    private boolean showingView;
     private final OnDeviceClickListener onDeviceClick;
 
     public interface OnDeviceClickListener {
         void onDeviceClick(BluetoothDevice device, View view);
     }
 
-    public DeviceListAdapter(List<BluetoothDevice> devices, OnDeviceClickListener onDeviceClick) {
-        this.devices = devices;
+    public DeviceListAdapter(OnDeviceClickListener onDeviceClick) {
         this.onDeviceClick = onDeviceClick;
+        setHasStableIds(true);
+    }
+
+    /**
+     * Replaces the shown devices. Within a generation, rows are appended at the end and
+     * expired ones removed as batched ranges; surviving rows are rebound in full only when
+     * their name, beacon type, transports or device class changed, and runs of rows whose
+     * signal alone changed get one payload notification. A skipped snapshot, or one from another
+     * ingestor (e.g. the background scan taking over), falls back to a full refresh. With a
+     * query, the snapshot's filtered and sorted {@link ScanSnapshot#view} is shown instead and
+     * its operations replayed.
+     */
+    public void submit(ScanSnapshot<BluetoothDevice> snapshot) {
+        List<DeviceSnapshot<BluetoothDevice>> old = devices;
+        boolean incremental = snapshot.source == source && snapshot.generation == generation
+                && snapshot.sequence == sequence + 1
+                && showingView == (snapshot.view != null);
+        showingView = snapshot.view != null;
+        devices = showingView ? snapshot.view : snapshot.devices;
+        source = snapshot.source;
+        generation = snapshot.generation;
+        sequence = snapshot.sequence;
+        if (!incremental || (showingView && snapshot.viewChanges == null)) {
+            notifyDataSetChanged();
+            return;
+        }
+        if (showingView) {
+            replay(snapshot.viewChanges);
+            return;
+        }
+        int[] removed = snapshot.removedRanges;
+        for (int i = 0; i < removed.length; i += 2) {
+            notifyItemRangeRemoved(removed[i], removed[i + 1]);
+        }
+        // Walk the old rows that survived alongside their new positions; ranges are last-first
+        int range = removed.length - 2;
+        int kept = 0;
+        int signalStart = 0;
+        int signalCount = 0;
+        for (int i = 0; i < old.size(); i++) {
+            while (range >= 0 && i >= removed[range] + removed[range + 1]) {
+                range -= 2;
+            }
+            if (range >= 0 && i >= removed[range]) {
+                continue;
+            }
+            DeviceSnapshot<BluetoothDevice> before = old.get(i);
+            DeviceSnapshot<BluetoothDevice> after = devices.get(kept);
+            if (before != after) {
+                if (!before.sameHeading(after)) {
+                    notifyItemChanged(kept);
+                } else if (!before.sameSignal(after)) {
+                    if (signalCount > 0 && signalStart + signalCount == kept) {
+                        signalCount++;
+                    } else {
+                        if (signalCount > 0) {
+                            notifyItemRangeChanged(signalStart, signalCount, PAYLOAD_SIGNAL);
+                        }
+                        signalStart = kept;
+                        signalCount = 1;
+                    }
+                }
+            }
+            kept++;
+        }
+        if (signalCount > 0) {
+            notifyItemRangeChanged(signalStart, signalCount, PAYLOAD_SIGNAL);
+        }
+        if (devices.size() > kept) {
+            notifyItemRangeInserted(kept, devices.size() - kept);
+        }
+    }
+
+    private void replay(int[] changes) {
+        for (int i = 0; i < changes.length; i += 3) {
+            int position = changes[i + 1];
+            switch (changes[i]) {
+                case DeviceView.OP_INSERT:
+                    notifyItemInserted(position);
+                    break;
+                case DeviceView.OP_REMOVE:
+                    notifyItemRemoved(position);
+                    break;
+                case DeviceView.OP_MOVE:
+                    notifyItemMoved(position, changes[i + 2]);
+                    break;
+                case DeviceView.OP_CHANGE:
+                    notifyItemChanged(position);
+                    break;
+                default:
+                    notifyItemChanged(position, PAYLOAD_SIGNAL);
+                    break;
+            }
+        }
+    }
+
+    /** The rows of the last submitted snapshot. */
+    public List<DeviceSnapshot<BluetoothDevice>> devices() {
+        return devices;
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return devices.get(position).address;
     }
 
     public static class DeviceViewHolder extends RecyclerView.ViewHolder {
         public final TextView deviceName;
         public final TextView deviceAddress;
+        public final TextView deviceSignal;
+        private final StringBuilder text = new StringBuilder(48);
 
         public DeviceViewHolder(View itemView) {
             super(itemView);
             deviceName = itemView.findViewById(R.id.device_name);
             deviceAddress = itemView.findViewById(R.id.device_address);
+            deviceSignal = itemView.findViewById(R.id.device_signal);
         }
     }
 
     @Override
     public DeviceViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
         View view = LayoutInflater.from(parent.getContext()).inflate(R.layout.item_device, parent, false);
-        return new DeviceViewHolder(view);
+        DeviceViewHolder holder = new DeviceViewHolder(view);
+        // One listener per holder; the row is looked up when clicked
+        view.setOnClickListener(v -> {
+            int position = holder.getBindingAdapterPosition();
+            if (position != RecyclerView.NO_POSITION) {
+                onDeviceClick.onDeviceClick(devices.get(position).device, v);
+            }
+        });
+        return holder;
     }
 
     @Override
     public void onBindViewHolder(DeviceViewHolder holder, int position) {
-        BluetoothDevice device = devices.get(position);
-        holder.deviceName.setText(device.getName() != null ? device.getName() : "Unknown Device");
-        holder.deviceAddress.setText(device.getAddress());
-        holder.itemView.setOnClickListener(v -> onDeviceClick.onDeviceClick(device, holder.itemView));
+        long start = System.nanoTime();
+        DeviceSnapshot<BluetoothDevice> row = devices.get(position);
+        String name = row.name != null ? row.name : "Unknown Device";
+        String beacon = Beacon.label(row.beaconType);
+        holder.deviceName.setText(beacon != null ? name + " (" + beacon + ")" : name);
+        holder.deviceAddress.setText(BluetoothAddress.format(row.address) + ", " + describeTransport(row));
+        bindSignal(holder, row);
+        Metrics.global().bindViewHolder.recordSince(start);
+    }
+
+    @Override
+    public void onBindViewHolder(DeviceViewHolder holder, int position, List<Object> payloads) {
+        if (payloads.isEmpty()) {
+            onBindViewHolder(holder, position);
+            return;
+        }
+        // Every payload is PAYLOAD_SIGNAL; a full change would have come without one
+        long start = System.nanoTime();
+        bindSignal(holder, devices.get(position));
+        Metrics.global().bindViewHolder.recordSince(start);
+    }
+
+    private static void bindSignal(DeviceViewHolder holder, DeviceSnapshot<BluetoothDevice> row) {
+        StringBuilder text = holder.text;
+        text.setLength(0);
+        if (row.rssi != DeviceRegistry.RSSI_UNKNOWN) {
+            text.append(row.rssi).append(" dBm, ");
+        }
+        if (!Double.isNaN(row.distance)) {
+            // One decimal without String.format, which is slow for a per-frame bind
+            long tenths = Math.round(row.distance * 10);
+            text.append('~').append(tenths / 10).append('.').append(tenths % 10).append(" m, ");
+        }
+        text.append(row.hits).append(row.hits == 1 ? " sighting" : " sightings");
+        holder.deviceSignal.setText(text.toString());
+    }
+
+    private static String describeTransport(DeviceSnapshot<BluetoothDevice> row) {
+        String transport;
+        if (row.isDualMode()) {
+            transport = "Classic + LE";
+        } else if ((row.transports & DeviceRegistry.TRANSPORT_CLASSIC) != 0) {
+            transport = "Classic";
+        } else {
+            // Advertised as BR/EDR capable but not (yet) answered an inquiry
+            transport = row.supportsClassic() ? "LE, BR/EDR capable" : "LE";
+        }
+        String major = majorClassLabel(row.deviceClass);
+        return major != null ? transport + ", " + major : transport;
+    }
+
+    private static String majorClassLabel(int deviceClass) {
+        if (deviceClass == DeviceRegistry.CLASS_UNKNOWN) {
+            return null;
+        }
+        switch (deviceClass & 0x1F00) {
+            case BluetoothClass.Device.Major.COMPUTER:
+                return "computer";
+            case BluetoothClass.Device.Major.PHONE:
+                return "phone";
+            case BluetoothClass.Device.Major.NETWORKING:
+                return "network";
+            case BluetoothClass.Device.Major.AUDIO_VIDEO:
+                return "audio/video";
+            case BluetoothClass.Device.Major.PERIPHERAL:
+                return "peripheral";
+            case BluetoothClass.Device.Major.IMAGING:
+                return "imaging";
+            case BluetoothClass.Device.Major.WEARABLE:
+                return "wearable";
+            case BluetoothClass.Device.Major.TOY:
+                return "toy";
+            case BluetoothClass.Device.Major.HEALTH:
+                return "health";
+            default:
+                return null;
+        }
     }
 
     @Override
     public int getItemCount() {
         return devices.size();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,196 @@
+package com.example.bluetoothscanner;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Locale;
+
+/**
+ * A live search over the device list: conditions that are set must all match, and the matches
+ * are kept in {@link #sort} order by a {@link DeviceView}. Immutable; a new query replaces the
+ * old one as the user types. Parsed from space-separated terms (see {@link #parse}).
+ */
+public final class DeviceQuery {
+    public enum Sort {
+        /** First seen first, as the plain list. */
+        FOUND,
+        /** Strongest smoothed RSSI first. */
+        RSSI,
+        /** Most recently seen first. */
+        LAST_SEEN,
+        NAME
+    }
+
+    public static final int RSSI_ANY = Integer.MIN_VALUE;
+
+    /** Lower-case name prefix, or null. */
+    public final String namePrefix;
+    /** Leading address bits to match; {@link #addressPrefixBits} of them, 0 if unset. */
+    public final long addressPrefix;
+    public final int addressPrefixBits;
+    /** Sorted OUIs (top 24 address bits), any of which matches; empty if unset. */
+    public final long[] ouis;
+    /** Beacon types, any of which matches; null if unset. */
+    public final EnumSet<Beacon.Type> beaconTypes;
+    /** Minimum last RSSI, or {@link #RSSI_ANY}. */
+    public final int minRssi;
+    public final Sort sort;
+
+    public DeviceQuery(String namePrefix, long addressPrefix, int addressPrefixBits, long[] ouis,
+                       EnumSet<Beacon.Type> beaconTypes, int minRssi, Sort sort) {
+        if (addressPrefixBits < 0 || addressPrefixBits > 48) {
+            throw new IllegalArgumentException("Address prefix bits out of range: " + addressPrefixBits);
+        }
+        this.namePrefix = namePrefix == null || namePrefix.isEmpty() ? null : namePrefix.toLowerCase(Locale.ROOT);
+        this.addressPrefix = addressPrefix;
+        this.addressPrefixBits = addressPrefixBits;
+        this.ouis = ouis.clone();
+        Arrays.sort(this.ouis);
+        this.beaconTypes = beaconTypes == null ? null : EnumSet.copyOf(beaconTypes);
+        this.minRssi = minRssi;
+        this.sort = sort;
+    }
+
+    /**
+     * Parses terms such as {@code "tag mac:AC:23 oui:94:08:53 beacon:ibeacon rssi:-70 sort:rssi"}.
+     * A term without a key is a name prefix; {@code mac:} takes any number of hex digits, so it
+     * works while typing; {@code oui:} and {@code beacon:} may repeat and match any of their
+     * values. Sort keys are {@code found}, {@code rssi}, {@code seen} and {@code name}.
+     */
+    public static DeviceQuery parse(String text) {
+        StringBuilder name = new StringBuilder();
+        long addressPrefix = 0;
+        int addressPrefixBits = 0;
+        long[] ouis = new long[0];
+        EnumSet<Beacon.Type> beaconTypes = null;
+        int minRssi = RSSI_ANY;
+        Sort sort = Sort.FOUND;
+        for (String term : text.trim().split("\\s+")) {
+            if (term.isEmpty()) {
+                continue;
+            }
+            int colon = term.indexOf(':');
+            if (colon < 0) {
+                if (name.length() > 0) {
+                    name.append(' ');
+                }
+                name.append(term);
+                continue;
+            }
+            String key = term.substring(0, colon).toLowerCase(Locale.ROOT);
+            String value = term.substring(colon + 1);
+            switch (key) {
+                case "name":
+                    name.setLength(0);
+                    name.append(value);
+                    break;
+                case "mac": {
+                    String digits = value.replace(":", "");
+                    if (digits.length() > 12) {
+                        throw new IllegalArgumentException("Address prefix too long: " + value);
+                    }
+                    addressPrefix = digits.isEmpty() ? 0 : parseHexDigits(digits, value);
+                    addressPrefixBits = 4 * digits.length();
+                    break;
+                }
+                case "oui": {
+                    String digits = value.replace(":", "");
+                    if (digits.length() != 6) {
+                        throw new IllegalArgumentException("An OUI is three octets: " + value);
+                    }
+                    ouis = Arrays.copyOf(ouis, ouis.length + 1);
+                    ouis[ouis.length - 1] = parseHexDigits(digits, value);
+                    break;
+                }
+                case "beacon":
+                    if (beaconTypes == null) {
+                        beaconTypes = EnumSet.noneOf(Beacon.Type.class);
+                    }
+                    beaconTypes.addAll(parseBeacon(value));
+                    break;
+                case "rssi":
+                    try {
+                        minRssi = Integer.parseInt(value);
+                    } catch (NumberFormatException e) {
+                        throw new IllegalArgumentException("Invalid RSSI: " + value);
+                    }
+                    break;
+                case "sort":
+                    sort = parseSort(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown term \"" + key + "\"");
+            }
+        }
+        return new DeviceQuery(name.toString(), addressPrefix, addressPrefixBits, ouis, beaconTypes, minRssi, sort);
+    }
+
+    public boolean hasAddressPrefix() {
+        return addressPrefixBits > 0;
+    }
+
+    /** Lowest address the prefix allows. */
+    long addressPrefixLow() {
+        return addressPrefixBits == 0 ? 0 : addressPrefix << (48 - addressPrefixBits);
+    }
+
+    /** Highest address the prefix allows. */
+    long addressPrefixHigh() {
+        return addressPrefixLow() | ((1L << (48 - addressPrefixBits)) - 1);
+    }
+
+    /** Whether the device passes every condition; the view narrows by name or address first. */
+    public boolean matches(DeviceSnapshot<?> device) {
+        if (namePrefix != null && (device.name == null
+                || !device.name.regionMatches(true, 0, namePrefix, 0, namePrefix.length()))) {
+            return false;
+        }
+        if (addressPrefixBits > 0 && device.address >>> (48 - addressPrefixBits) != addressPrefix) {
+            return false;
+        }
+        if (ouis.length > 0 && Arrays.binarySearch(ouis, device.address >>> 24) < 0) {
+            return false;
+        }
+        if (beaconTypes != null && !beaconTypes.contains(device.beaconType)) {
+            return false;
+        }
+        return minRssi == RSSI_ANY || (device.rssi != DeviceRegistry.RSSI_UNKNOWN && device.rssi >= minRssi);
+    }
+
+    private static long parseHexDigits(String digits, String value) {
+        try {
+            return Long.parseLong(digits, 16);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid hex: " + value);
+        }
+    }
+
+    private static EnumSet<Beacon.Type> parseBeacon(String value) {
+        switch (value.toLowerCase(Locale.ROOT)) {
+            case "ibeacon":
+                return EnumSet.of(Beacon.Type.IBEACON);
+            case "altbeacon":
+                return EnumSet.of(Beacon.Type.ALTBEACON);
+            case "eddystone":
+                return EnumSet.of(Beacon.Type.EDDYSTONE_UID, Beacon.Type.EDDYSTONE_URL, Beacon.Type.EDDYSTONE_TLM);
+            case "none":
+                return EnumSet.of(Beacon.Type.NONE);
+            default:
+                throw new IllegalArgumentException("Unknown beacon type: " + value);
+        }
+    }
+
+    private static Sort parseSort(String value) {
+        switch (value.toLowerCase(Locale.ROOT)) {
+            case "found":
+                return Sort.FOUND;
+            case "rssi":
+                return Sort.RSSI;
+            case "seen":
+                return Sort.LAST_SEEN;
+            case "name":
+                return Sort.NAME;
+            default:
+                throw new IllegalArgumentException("Unknown sort: " + value);
+        }
+    }
+}
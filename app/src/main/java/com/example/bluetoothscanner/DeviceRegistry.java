@@ -0,0 +1,285 @@
+package com.example.bluetoothscanner;
+
+import java.util.Arrays;
+
+/**
+ * Devices seen during a scan, keyed by packed address. Each device occupies a row until it is
+ * {@link #remove removed}; freed rows are reused by later devices. Per-device state lives in
+ * parallel primitive arrays so a repeat sighting is a hash probe plus a few array stores.
+ *
+ * Rows are also linked in least-recently-seen order, so the stalest device is always at
+ * {@link #oldest()}: TTL expiry and LRU eviction just pop from that end, without scanning.
+ */
+public class DeviceRegistry<D> {
+    public static final int RSSI_UNKNOWN = 127;
+    public static final int NONE = -1;
+    /** Transport flags; a dual-mode device found both ways has both. */
+    public static final int TRANSPORT_CLASSIC = 1;
+    public static final int TRANSPORT_LE = 2;
+    public static final int CLASS_UNKNOWN = -1;
+
+    private static final long FREE = -1L;
+
+    private final LongIndexMap index;
+    private final int maxSize;
+    private long[] addresses;
+    private Object[] devices;
+    private long[] firstSeen;
+    private long[] lastSeen;
+    private int[] hits;
+    private int[] rssi;
+    private Beacon.Type[] beaconTypes;
+    private int[] transports;
+    private int[] deviceClasses;
+    private int[] advertisingFlags;
+    private String[] names;
+    // Recency list (oldest first); free rows are chained through next
+    private int[] prev;
+    private int[] next;
+    private int oldest = NONE;
+    private int newest = NONE;
+    private int freeRows = NONE;
+    private int rowCount;
+    private int size;
+
+    public DeviceRegistry(int expectedSize) {
+        this(expectedSize, Integer.MAX_VALUE);
+    }
+
+    /** A registry that refuses to grow past {@code maxSize} devices; see {@link #isFull()}. */
+    public DeviceRegistry(int expectedSize, int maxSize) {
+        expectedSize = Math.min(expectedSize, maxSize);
+        this.maxSize = maxSize;
+        index = new LongIndexMap(expectedSize);
+        addresses = new long[expectedSize];
+        devices = new Object[expectedSize];
+        firstSeen = new long[expectedSize];
+        lastSeen = new long[expectedSize];
+        hits = new int[expectedSize];
+        rssi = new int[expectedSize];
+        beaconTypes = new Beacon.Type[expectedSize];
+        transports = new int[expectedSize];
+        deviceClasses = new int[expectedSize];
+        advertisingFlags = new int[expectedSize];
+        names = new String[expectedSize];
+        prev = new int[expectedSize];
+        next = new int[expectedSize];
+    }
+
+    /** Returns the row of {@code address}, or -1 if it has not been seen. */
+    public int indexOf(long address) {
+        return index.get(address);
+    }
+
+    /**
+     * Adds a new device as the most recently seen one and returns its row. The address must not
+     * already be present and the registry must not be {@link #isFull() full}.
+     */
+    public int add(long address, D device, long nowMillis) {
+        if (size == maxSize) {
+            throw new IllegalStateException("Registry full");
+        }
+        int row;
+        if (freeRows != NONE) {
+            row = freeRows;
+            freeRows = next[row];
+        } else {
+            if (rowCount == addresses.length) {
+                grow();
+            }
+            row = rowCount++;
+        }
+        size++;
+        addresses[row] = address;
+        devices[row] = device;
+        firstSeen[row] = nowMillis;
+        lastSeen[row] = nowMillis;
+        hits[row] = 0;
+        rssi[row] = RSSI_UNKNOWN;
+        beaconTypes[row] = Beacon.Type.NONE;
+        transports[row] = 0;
+        deviceClasses[row] = CLASS_UNKNOWN;
+        advertisingFlags[row] = AdvertisingData.ABSENT;
+        names[row] = null;
+        index.put(address, row);
+        link(row);
+        return row;
+    }
+
+    public void recordSighting(int row, int rssiValue, long nowMillis) {
+        hits[row]++;
+        lastSeen[row] = nowMillis;
+        if (rssiValue != RSSI_UNKNOWN) {
+            rssi[row] = rssiValue;
+        }
+        if (row != newest) {
+            unlink(row);
+            link(row);
+        }
+    }
+
+    /** Forgets the device in {@code row}; the row may be handed out again by {@link #add}. */
+    public void remove(int row) {
+        index.remove(addresses[row]);
+        unlink(row);
+        addresses[row] = FREE;
+        devices[row] = null;
+        names[row] = null;
+        next[row] = freeRows;
+        freeRows = row;
+        size--;
+    }
+
+    /** The least recently seen device's row, or {@link #NONE} if empty. */
+    public int oldest() {
+        return oldest;
+    }
+
+    public boolean isFull() {
+        return size == maxSize;
+    }
+
+    public boolean isLive(int row) {
+        return row < rowCount && addresses[row] != FREE;
+    }
+
+    public void setBeaconType(int row, Beacon.Type type) {
+        beaconTypes[row] = type;
+    }
+
+    /** Adds a transport the device was seen on; returns true if it is a new one for the device. */
+    public boolean addTransport(int row, int transport) {
+        int before = transports[row];
+        transports[row] = before | transport;
+        return before != transports[row];
+    }
+
+    public void setDeviceClass(int row, int deviceClass) {
+        deviceClasses[row] = deviceClass;
+    }
+
+    /** The AD Flags structure of the last advertisement that carried one. */
+    public void setAdvertisingFlags(int row, int flags) {
+        advertisingFlags[row] = flags;
+    }
+
+    /** Caches the device's display name, so it is looked up once rather than on every bind. */
+    public void setName(int row, String name) {
+        names[row] = name;
+    }
+
+    @SuppressWarnings("unchecked")
+    public D get(int row) {
+        return (D) devices[row];
+    }
+
+    public long address(int row) {
+        return addresses[row];
+    }
+
+    public long firstSeen(int row) {
+        return firstSeen[row];
+    }
+
+    public long lastSeen(int row) {
+        return lastSeen[row];
+    }
+
+    public int hits(int row) {
+        return hits[row];
+    }
+
+    public int rssi(int row) {
+        return rssi[row];
+    }
+
+    public Beacon.Type beaconType(int row) {
+        return beaconTypes[row];
+    }
+
+    public int transports(int row) {
+        return transports[row];
+    }
+
+    public int deviceClass(int row) {
+        return deviceClasses[row];
+    }
+
+    /** AD Flags, or {@link AdvertisingData#ABSENT} if no advertisement carried them. */
+    public int advertisingFlags(int row) {
+        return advertisingFlags[row];
+    }
+
+    /** The cached display name, or null if none is known yet. */
+    public String name(int row) {
+        return names[row];
+    }
+
+    /** Number of devices currently held. */
+    public int size() {
+        return size;
+    }
+
+    /** Rows in use or free are all below this bound. */
+    public int rowCount() {
+        return rowCount;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(devices, 0, rowCount, null);
+        Arrays.fill(names, 0, rowCount, null);
+        index.clear();
+        oldest = NONE;
+        newest = NONE;
+        freeRows = NONE;
+        rowCount = 0;
+        size = 0;
+    }
+
+    private void link(int row) {
+        prev[row] = newest;
+        next[row] = NONE;
+        if (newest != NONE) {
+            next[newest] = row;
+        } else {
+            oldest = row;
+        }
+        newest = row;
+    }
+
+    private void unlink(int row) {
+        int before = prev[row];
+        int after = next[row];
+        if (before != NONE) {
+            next[before] = after;
+        } else {
+            oldest = after;
+        }
+        if (after != NONE) {
+            prev[after] = before;
+        } else {
+            newest = before;
+        }
+    }
+
+    private void grow() {
+        int capacity = (int) Math.min(maxSize, Math.max(16L, (long) addresses.length << 1));
+        addresses = Arrays.copyOf(addresses, capacity);
+        devices = Arrays.copyOf(devices, capacity);
+        firstSeen = Arrays.copyOf(firstSeen, capacity);
+        lastSeen = Arrays.copyOf(lastSeen, capacity);
+        hits = Arrays.copyOf(hits, capacity);
+        rssi = Arrays.copyOf(rssi, capacity);
+        beaconTypes = Arrays.copyOf(beaconTypes, capacity);
+        transports = Arrays.copyOf(transports, capacity);
+        deviceClasses = Arrays.copyOf(deviceClasses, capacity);
+        advertisingFlags = Arrays.copyOf(advertisingFlags, capacity);
+        names = Arrays.copyOf(names, capacity);
+        prev = Arrays.copyOf(prev, capacity);
+        next = Arrays.copyOf(next, capacity);
+    }
+}
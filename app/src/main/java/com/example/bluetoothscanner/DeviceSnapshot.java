@@ -0,0 +1,73 @@
+package com.example.bluetoothscanner;
+
+/**
+ * Immutable view of one registry row, safe to hand to the UI thread. A new instance is
+ * only created when the row changed since the previous snapshot.
+ */
+public final class DeviceSnapshot<D> {
+    public final D device;
+    public final long address;
+    /** Advertised local name or the one the ingestor's name resolver gave; null if unknown. */
+    public final String name;
+    public final int rssi;
+    public final int hits;
+    public final long firstSeen;
+    public final long lastSeen;
+    public final Beacon.Type beaconType;
+    /** Smoothed RSSI; NaN if no sample carried one. */
+    public final double filteredRssi;
+    /** Path-loss distance estimate in metres; NaN if no sample carried an RSSI. */
+    public final double distance;
+    /** Whether {@link #distance} used a reference the device advertised (else a typical one). */
+    public final boolean calibrated;
+    /** Sightings within the signal engine's window, as of this row's last update. */
+    public final int recentSightings;
+    /** {@link DeviceRegistry#TRANSPORT_CLASSIC} and/or {@link DeviceRegistry#TRANSPORT_LE}. */
+    public final int transports;
+    /** Class of Device from an inquiry, or {@link DeviceRegistry#CLASS_UNKNOWN}. */
+    public final int deviceClass;
+    /** AD Flags from the advertisements, or {@link AdvertisingData#ABSENT}. */
+    public final int advertisingFlags;
+
+    DeviceSnapshot(DeviceRegistry<D> registry, SignalEngine signals, int row, long nowMillis) {
+        device = registry.get(row);
+        address = registry.address(row);
+        name = registry.name(row);
+        rssi = registry.rssi(row);
+        hits = registry.hits(row);
+        firstSeen = registry.firstSeen(row);
+        lastSeen = registry.lastSeen(row);
+        beaconType = registry.beaconType(row);
+        filteredRssi = signals.filteredRssi(row);
+        distance = signals.distance(row);
+        calibrated = signals.hasMeasuredPower(row);
+        recentSightings = signals.sampleCount(row, nowMillis);
+        transports = registry.transports(row);
+        deviceClass = registry.deviceClass(row);
+        advertisingFlags = registry.advertisingFlags(row);
+    }
+
+    /** Whether the list would show the same name and address lines for both. */
+    public boolean sameHeading(DeviceSnapshot<?> other) {
+        return beaconType == other.beaconType && transports == other.transports && deviceClass == other.deviceClass
+                && advertisingFlags == other.advertisingFlags && (name == null ? other.name == null : name.equals(other.name));
+    }
+
+    /** Whether the list would show the same signal line (RSSI, distance to 0.1 m, sightings) for both. */
+    public boolean sameSignal(DeviceSnapshot<?> other) {
+        return rssi == other.rssi && hits == other.hits && Math.round(distance * 10) == Math.round(other.distance * 10);
+    }
+
+    public boolean isDualMode() {
+        return transports == (DeviceRegistry.TRANSPORT_CLASSIC | DeviceRegistry.TRANSPORT_LE);
+    }
+
+    /**
+     * Whether the device said it also speaks BR/EDR, either by answering an inquiry or by leaving
+     * "BR/EDR Not Supported" clear in its AD Flags.
+     */
+    public boolean supportsClassic() {
+        return (transports & DeviceRegistry.TRANSPORT_CLASSIC) != 0
+                || (advertisingFlags != AdvertisingData.ABSENT && (advertisingFlags & AdvertisingData.FLAG_BR_EDR_NOT_SUPPORTED) == 0);
+    }
+}
@@ -0,0 +1,249 @@
+package com.example.bluetoothscanner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The devices that match a {@link DeviceQuery}, in its sort order, kept up to date one device
+ * at a time. Three {@link RankedTree}s over registry rows do the work: every device by lower-case
+ * name and by address (the prefix indexes a new query starts from), and the matches in sort
+ * order. An update is a remove and an insert, O(log n); a new query visits only the devices
+ * its name or address prefix selects. Confined to the ingest thread.
+ *
+ * Changes since the last {@link #changes()} are logged as adapter operations, in the order
+ * they happened, so the UI can animate them; past {@link #MAX_CHANGES} the log gives up and
+ * asks for a full refresh instead.
+ */
+public class DeviceView<D> {
+    /** Operations, each three ints: kind, position, and the target position of a move. */
+    public static final int OP_INSERT = 0;
+    public static final int OP_REMOVE = 1;
+    public static final int OP_MOVE = 2;
+    /** The name or address line changed: rebind the whole row. */
+    public static final int OP_CHANGE = 3;
+    /** Only the signal line changed. */
+    public static final int OP_CHANGE_SIGNAL = 4;
+    static final int MAX_CHANGES = 256;
+    private static final int[] NO_CHANGES = new int[0];
+
+    private DeviceQuery query;
+    private Object[] devices = new Object[256];
+    private String[] lowerNames = new String[256];
+    private int[] log = new int[3 * 16];
+    private int logSize;
+    private boolean refresh = true;
+
+    private final RankedTree byName = new RankedTree() {
+        @Override
+        protected int compare(int a, int b) {
+            int c = lowerNames[a].compareTo(lowerNames[b]);
+            return c != 0 ? c : Long.compare(device(a).address, device(b).address);
+        }
+    };
+
+    private final RankedTree byAddress = new RankedTree() {
+        @Override
+        protected int compare(int a, int b) {
+            return Long.compare(device(a).address, device(b).address);
+        }
+    };
+
+    private final RankedTree matches = new RankedTree() {
+        @Override
+        protected int compare(int a, int b) {
+            DeviceSnapshot<D> x = device(a);
+            DeviceSnapshot<D> y = device(b);
+            int c;
+            switch (query.sort) {
+                case RSSI:
+                    // Strongest first, devices without an RSSI last
+                    c = Double.compare(rssiKey(y), rssiKey(x));
+                    break;
+                case LAST_SEEN:
+                    c = Long.compare(y.lastSeen, x.lastSeen);
+                    break;
+                case NAME:
+                    c = lowerNames[a] == null ? (lowerNames[b] == null ? 0 : 1)
+                            : lowerNames[b] == null ? -1 : lowerNames[a].compareTo(lowerNames[b]);
+                    break;
+                default:
+                    c = Long.compare(x.firstSeen, y.firstSeen);
+                    break;
+            }
+            return c != 0 ? c : Long.compare(x.address, y.address);
+        }
+    };
+
+    public DeviceView(DeviceQuery query) {
+        this.query = query;
+    }
+
+    public DeviceQuery query() {
+        return query;
+    }
+
+    /** Switches to another query; the matches are rebuilt and the next {@link #changes()} is a refresh. */
+    public void setQuery(DeviceQuery query) {
+        this.query = query;
+        matches.clear();
+        refresh = true;
+        logSize = 0;
+        if (query.namePrefix != null) {
+            String prefix = query.namePrefix;
+            for (int rank = byName.lowerBound(node -> prefix.compareTo(lowerNames[node])); ; rank++) {
+                int row = byName.select(rank);
+                if (row == RankedTree.NIL || !lowerNames[row].startsWith(prefix)) {
+                    break;
+                }
+                offer(row);
+            }
+        } else if (query.hasAddressPrefix()) {
+            long low = query.addressPrefixLow();
+            long high = query.addressPrefixHigh();
+            for (int rank = byAddress.lowerBound(node -> Long.compare(low, device(node).address)); ; rank++) {
+                int row = byAddress.select(rank);
+                if (row == RankedTree.NIL || device(row).address > high) {
+                    break;
+                }
+                offer(row);
+            }
+        } else {
+            byAddress.forEach(this::offer);
+        }
+    }
+
+    /** Takes the latest state of the device in {@code row}, new or already known. */
+    public void update(int row, DeviceSnapshot<D> device) {
+        if (row >= devices.length) {
+            int capacity = Math.max(row + 1, devices.length << 1);
+            devices = Arrays.copyOf(devices, capacity);
+            lowerNames = Arrays.copyOf(lowerNames, capacity);
+        }
+        DeviceSnapshot<D> before = device(row);
+        int from = matches.rank(row);
+        if (from >= 0) {
+            matches.remove(row);
+        }
+        if (before == null) {
+            devices[row] = device;
+            byAddress.insert(row);
+        } else {
+            if (device.name != null && !device.name.equals(before.name)) {
+                if (lowerNames[row] != null) {
+                    byName.remove(row);
+                }
+                lowerNames[row] = null;
+            }
+            devices[row] = device;
+        }
+        if (device.name != null && lowerNames[row] == null) {
+            lowerNames[row] = device.name.toLowerCase(Locale.ROOT);
+            byName.insert(row);
+        }
+        int to = -1;
+        if (query.matches(device)) {
+            matches.insert(row);
+            to = matches.rank(row);
+        }
+        if (from >= 0 && to >= 0) {
+            if (from != to) {
+                record(OP_MOVE, from, to);
+            }
+            if (!before.sameHeading(device)) {
+                record(OP_CHANGE, to, 0);
+            } else if (!before.sameSignal(device)) {
+                record(OP_CHANGE_SIGNAL, to, 0);
+            }
+        } else if (from >= 0) {
+            record(OP_REMOVE, from, 0);
+        } else if (to >= 0) {
+            record(OP_INSERT, to, 0);
+        }
+    }
+
+    /** Forgets the device in {@code row}, before the row is reused. */
+    public void remove(int row) {
+        if (row >= devices.length || devices[row] == null) {
+            return;
+        }
+        int from = matches.rank(row);
+        if (from >= 0) {
+            matches.remove(row);
+            record(OP_REMOVE, from, 0);
+        }
+        if (lowerNames[row] != null) {
+            byName.remove(row);
+            lowerNames[row] = null;
+        }
+        byAddress.remove(row);
+        devices[row] = null;
+    }
+
+    public void clear() {
+        matches.clear();
+        byName.clear();
+        byAddress.clear();
+        Arrays.fill(devices, null);
+        Arrays.fill(lowerNames, null);
+        refresh = true;
+        logSize = 0;
+    }
+
+    public int size() {
+        return matches.size();
+    }
+
+    /** The matches in order, as an unmodifiable list. */
+    public List<DeviceSnapshot<D>> devices() {
+        ArrayList<DeviceSnapshot<D>> list = new ArrayList<>(matches.size());
+        matches.forEach(row -> list.add(device(row)));
+        return Collections.unmodifiableList(list);
+    }
+
+    /**
+     * Operations since the previous call, as (kind, position, target) triples to apply in
+     * order; null if the list must be refreshed as a whole. Starts a new log.
+     */
+    public int[] changes() {
+        int[] result = refresh ? null : logSize == 0 ? NO_CHANGES : Arrays.copyOf(log, logSize);
+        refresh = false;
+        logSize = 0;
+        return result;
+    }
+
+    private void offer(int row) {
+        if (query.matches(device(row))) {
+            matches.insert(row);
+        }
+    }
+
+    private void record(int kind, int position, int target) {
+        if (refresh) {
+            return;
+        }
+        if (logSize == 3 * MAX_CHANGES) {
+            // Too many to animate usefully; RecyclerView would spend longer reconciling them
+            refresh = true;
+            logSize = 0;
+            return;
+        }
+        if (logSize == log.length) {
+            log = Arrays.copyOf(log, log.length * 2);
+        }
+        log[logSize++] = kind;
+        log[logSize++] = position;
+        log[logSize++] = target;
+    }
+
+    @SuppressWarnings("unchecked")
+    private DeviceSnapshot<D> device(int row) {
+        return (DeviceSnapshot<D>) devices[row];
+    }
+
+    private static double rssiKey(DeviceSnapshot<?> device) {
+        return Double.isNaN(device.filteredRssi) ? Double.NEGATIVE_INFINITY : device.filteredRssi;
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.bluetoothscanner;
+
+import android.app.Activity;
+import android.app.AlertDialog;
+import android.graphics.Typeface;
+import android.util.Log;
+import android.widget.ScrollView;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The diagnostics panel: a dialog showing the {@link Metrics} report, refreshed once a second
+ * with rates over the last second. "Export" writes the report since start to a text file in
+ * the app's external files directory.
+ */
+public final class DiagnosticsDialog implements Runnable {
+    private static final long REFRESH_MILLIS = 1000;
+
+    private final Activity activity;
+    private final Metrics metrics;
+    private final TextView view;
+    private Metrics.Snapshot previous;
+    private boolean showing;
+
+    private DiagnosticsDialog(Activity activity, Metrics metrics) {
+        this.activity = activity;
+        this.metrics = metrics;
+        this.view = new TextView(activity);
+        view.setTypeface(Typeface.MONOSPACE);
+        view.setTextSize(11);
+        int padding = (int) (16 * activity.getResources().getDisplayMetrics().density);
+        view.setPadding(padding, padding, padding, padding);
+    }
+
+    public static void show(Activity activity, Metrics metrics) {
+        DiagnosticsDialog panel = new DiagnosticsDialog(activity, metrics);
+        ScrollView scroll = new ScrollView(activity);
+        scroll.addView(panel.view);
+        AlertDialog dialog = new AlertDialog.Builder(activity)
+                .setTitle("Diagnostics")
+                .setView(scroll)
+                .setPositiveButton("Close", null)
+                .setNeutralButton("Export", (d, which) -> panel.export())
+                .create();
+        dialog.setOnDismissListener(d -> panel.stop());
+        dialog.show();
+        panel.start();
+    }
+
+    private void start() {
+        showing = true;
+        run();
+    }
+
+    private void stop() {
+        showing = false;
+        view.removeCallbacks(this);
+    }
+
+    @Override
+    public void run() {
+        if (!showing) {
+            return;
+        }
+        Metrics.Snapshot snapshot = metrics.snapshot();
+        view.setText(snapshot.report(previous));
+        previous = snapshot;
+        view.postDelayed(this, REFRESH_MILLIS);
+    }
+
+    private void export() {
+        File dir = activity.getExternalFilesDir(null);
+        if (dir == null) {
+            Toast.makeText(activity, "Storage not available", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        String report = metrics.snapshot().report(null);
+        new Thread(() -> {
+            File file = new File(dir, "metrics-" + System.currentTimeMillis() + ".txt");
+            try (OutputStream out = new FileOutputStream(file)) {
+                out.write(report.getBytes(StandardCharsets.UTF_8));
+                activity.runOnUiThread(() -> Toast.makeText(activity, "Exported metrics to " + file, Toast.LENGTH_LONG).show());
+            } catch (IOException e) {
+                Log.e("Bluetooth", "Metrics export failed", e);
+                activity.runOnUiThread(() -> Toast.makeText(activity, "Export failed: " + e.getMessage(), Toast.LENGTH_LONG).show());
+            }
+        }, "metrics-export").start();
+    }
+}
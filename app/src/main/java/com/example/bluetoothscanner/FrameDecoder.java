@@ -0,0 +1,229 @@
+package com.example.bluetoothscanner;
+
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads the {@link FrameFormat} from a byte stream (RFCOMM reads) or from one fragment per
+ * call (GATT notifications); both are just {@link #feed}. Bytes collect in a window of two
+ * fragments; a candidate fragment whose length or CRC-16 is wrong is skipped one byte at a
+ * time until the next sync byte, so corruption costs only the messages it touches (a corrupt
+ * length is only found out once that many bytes have arrived). Fragments
+ * are reassembled in sequence order: a gap drops the message it interrupts, and a message is
+ * delivered only if its length and CRC-32 check out. The window, reassembly buffer and
+ * inflater are allocated once, so decoding allocates nothing. Confined to the reading thread,
+ * except {@link #close()}, which frees the inflater's native memory from any thread.
+ */
+public class FrameDecoder {
+    private final ByteSink listener;
+    private final int maxPayload;
+    private final int maxMessageSize;
+    private final byte[] window;
+    private int windowEnd;
+    private final byte[] assembly;
+    private int assembled;
+    private final byte[] inflated;
+    private final Inflater inflater = new Inflater();
+    private final CRC32 crc = new CRC32();
+    private boolean closed; // guarded by inflater
+    private boolean assembling;
+    private boolean deflated;
+    private boolean expectSequence;
+    private int nextSequence;
+    private long messages;
+    private long rejected;
+    private long lostFragments;
+    private long droppedMessages;
+
+    /**
+     * {@code listener} receives each message; the slice is only valid during the call. Messages
+     * over {@code maxMessageSize} are dropped, as are fragments over {@code maxFragmentSize}.
+     */
+    public FrameDecoder(int maxFragmentSize, int maxMessageSize, ByteSink listener) {
+        if (maxFragmentSize < FrameFormat.MIN_FRAGMENT_SIZE) {
+            throw new IllegalArgumentException("Invalid fragment size: " + maxFragmentSize);
+        }
+        this.listener = listener;
+        this.maxPayload = Math.min(maxFragmentSize - FrameFormat.OVERHEAD, 0xFFFF);
+        this.maxMessageSize = maxMessageSize;
+        this.window = new byte[2 * (maxPayload + FrameFormat.OVERHEAD)];
+        // A deflated body is only sent when smaller, so the header and the message bound it
+        this.assembly = new byte[FrameFormat.MESSAGE_HEADER_SIZE + maxMessageSize];
+        // One spare byte tells a body that inflates too long from one that inflates exactly
+        this.inflated = new byte[maxMessageSize + 1];
+    }
+
+    public void feed(byte[] data, int offset, int length) {
+        while (length > 0) {
+            int n = Math.min(length, window.length - windowEnd);
+            System.arraycopy(data, offset, window, windowEnd, n);
+            windowEnd += n;
+            offset += n;
+            length -= n;
+            parse();
+        }
+    }
+
+    /** Forgets partial fragments and messages, e.g. for a new connection. */
+    public void reset() {
+        windowEnd = 0;
+        assembling = false;
+        expectSequence = false;
+    }
+
+    public long messages() {
+        return messages;
+    }
+
+    /** Frees the inflater; deflated messages that arrive afterwards are dropped. */
+    public void close() {
+        synchronized (inflater) {
+            if (!closed) {
+                closed = true;
+                inflater.end();
+            }
+        }
+    }
+
+    /** Candidate fragments that failed their length or CRC check. */
+    public long rejected() {
+        return rejected;
+    }
+
+    /** Fragments missing from the sequence. */
+    public long lostFragments() {
+        return lostFragments;
+    }
+
+    /** Messages discarded: interrupted, oversized or failing their checks. */
+    public long droppedMessages() {
+        return droppedMessages;
+    }
+
+    private void parse() {
+        int start = 0;
+        while (true) {
+            while (start < windowEnd && window[start] != FrameFormat.SYNC) {
+                start++;
+            }
+            if (windowEnd - start < FrameFormat.HEADER_SIZE) {
+                break;
+            }
+            int payloadLength = u16(window, start + 4);
+            if (payloadLength > maxPayload) {
+                rejected++;
+                start++;
+                continue;
+            }
+            int size = FrameFormat.HEADER_SIZE + payloadLength + FrameFormat.CRC_SIZE;
+            if (windowEnd - start < size) {
+                break;
+            }
+            int crcOffset = start + size - FrameFormat.CRC_SIZE;
+            if (FrameFormat.crc16(window, start, crcOffset - start) != u16(window, crcOffset)) {
+                rejected++;
+                start++;
+                continue;
+            }
+            onFragment(window[start + 1], u16(window, start + 2), start + FrameFormat.HEADER_SIZE, payloadLength);
+            start += size;
+        }
+        // What is left is shorter than one fragment, so a whole fragment always fits behind it
+        System.arraycopy(window, start, window, 0, windowEnd - start);
+        windowEnd -= start;
+    }
+
+    private void onFragment(int flags, int sequence, int offset, int length) {
+        if (expectSequence && sequence != nextSequence) {
+            lostFragments += (sequence - nextSequence) & 0xFFFF;
+            drop();
+        }
+        expectSequence = true;
+        nextSequence = (sequence + 1) & 0xFFFF;
+        if ((flags & FrameFormat.FLAG_FIRST) != 0) {
+            drop();
+            assembling = true;
+            deflated = (flags & FrameFormat.FLAG_DEFLATED) != 0;
+            assembled = 0;
+        } else if (!assembling) {
+            // The rest of a message whose start was lost
+            return;
+        }
+        if (assembled + length > assembly.length) {
+            drop();
+            return;
+        }
+        System.arraycopy(window, offset, assembly, assembled, length);
+        assembled += length;
+        if ((flags & FrameFormat.FLAG_LAST) != 0) {
+            assembling = false;
+            deliver();
+        }
+    }
+
+    private void drop() {
+        if (assembling) {
+            assembling = false;
+            droppedMessages++;
+        }
+    }
+
+    private void deliver() {
+        if (assembled < FrameFormat.MESSAGE_HEADER_SIZE) {
+            droppedMessages++;
+            return;
+        }
+        int length = i32(assembly, 0);
+        int checksum = i32(assembly, 4);
+        int bodyLength = assembled - FrameFormat.MESSAGE_HEADER_SIZE;
+        if (length < 0 || length > maxMessageSize) {
+            droppedMessages++;
+            return;
+        }
+        byte[] message = assembly;
+        int offset = FrameFormat.MESSAGE_HEADER_SIZE;
+        if (deflated) {
+            boolean inflatedOk;
+            synchronized (inflater) {
+                inflatedOk = !closed && inflate(bodyLength, length);
+            }
+            if (!inflatedOk) {
+                droppedMessages++;
+                return;
+            }
+            message = inflated;
+            offset = 0;
+        } else if (bodyLength != length) {
+            droppedMessages++;
+            return;
+        }
+        crc.reset();
+        crc.update(message, offset, length);
+        if ((int) crc.getValue() != checksum) {
+            droppedMessages++;
+            return;
+        }
+        messages++;
+        listener.accept(message, offset, length);
+    }
+
+    /** Inflates the assembled body into {@link #inflated}; true if it holds exactly {@code length} bytes. */
+    private boolean inflate(int bodyLength, int length) {
+        inflater.reset();
+        inflater.setInput(assembly, FrameFormat.MESSAGE_HEADER_SIZE, bodyLength);
+        try {
+            return inflater.inflate(inflated, 0, length + 1) == length && inflater.finished();
+        } catch (DataFormatException e) {
+            return false;
+        }
+    }
+
+    private static int u16(byte[] data, int offset) {
+        return (data[offset] & 0xFF) | (data[offset + 1] & 0xFF) << 8;
+    }
+
+    private static int i32(byte[] data, int offset) {
+        return u16(data, offset) | u16(data, offset + 2) << 16;
+    }
+}
@@ -0,0 +1,121 @@
+package com.example.bluetoothscanner;
+
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Encodes messages in the {@link FrameFormat} of one link. Every fragment but the last is
+ * exactly the requested size, so a {@link BleWritePipeline} chunking the result by that size
+ * writes one fragment per ATT write. The result is a {@link BufferPool} buffer; messages at or
+ * above the deflate threshold are compressed when that makes them smaller. The deflater,
+ * checksum and scratch space are reused, so steady-state encoding allocates nothing;
+ * {@link #close()} frees the deflater's native memory.
+ */
+public class FrameEncoder {
+    /** Default size from which bodies are deflated; smaller ones rarely shrink. */
+    public static final int DEFAULT_DEFLATE_THRESHOLD = 256;
+
+    private final BufferPool pool;
+    private final int deflateThreshold;
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private final CRC32 crc = new CRC32();
+    private byte[] compressed = new byte[0];
+    private int sequence;
+    private boolean closed;
+
+    /** {@code deflateThreshold} of {@link Integer#MAX_VALUE} never deflates. */
+    public FrameEncoder(BufferPool pool, int deflateThreshold) {
+        this.pool = pool;
+        this.deflateThreshold = deflateThreshold;
+    }
+
+    public BufferPool pool() {
+        return pool;
+    }
+
+    /** Largest message that always fits a pool buffer in fragments of {@code fragmentSize}. */
+    public int maxMessageSize(int fragmentSize) {
+        int payload = fragmentSize - FrameFormat.OVERHEAD;
+        // Whole fragments that fit, minus the message header
+        return pool.bufferSize() / fragmentSize * payload - FrameFormat.MESSAGE_HEADER_SIZE;
+    }
+
+    /**
+     * Encodes a message in fragments of at most {@code fragmentSize} bytes (the ATT payload on
+     * GATT, {@link FrameFormat#RFCOMM_FRAGMENT_SIZE} on RFCOMM). Returns a pool buffer ready to
+     * read; whoever writes it out releases it to {@link #pool()}.
+     */
+    public synchronized ByteBuffer encode(byte[] message, int offset, int length, int fragmentSize) {
+        if (fragmentSize < FrameFormat.MIN_FRAGMENT_SIZE || fragmentSize - FrameFormat.OVERHEAD > 0xFFFF) {
+            throw new IllegalArgumentException("Invalid fragment size: " + fragmentSize);
+        }
+        if (length > maxMessageSize(fragmentSize)) {
+            throw new IllegalArgumentException("Message too large: " + length + " bytes");
+        }
+        crc.reset();
+        crc.update(message, offset, length);
+        int checksum = (int) crc.getValue();
+        byte[] body = message;
+        int bodyOffset = offset;
+        int bodyLength = length;
+        boolean deflated = false;
+        if (length >= deflateThreshold && !closed) {
+            int size = deflate(message, offset, length);
+            if (size > 0) {
+                body = compressed;
+                bodyOffset = 0;
+                bodyLength = size;
+                deflated = true;
+            }
+        }
+
+        ByteBuffer out = pool.acquire();
+        int payload = fragmentSize - FrameFormat.OVERHEAD;
+        int remaining = FrameFormat.MESSAGE_HEADER_SIZE + bodyLength;
+        boolean first = true;
+        while (remaining > 0) {
+            int size = Math.min(payload, remaining);
+            int start = out.position();
+            int flags = (first ? FrameFormat.FLAG_FIRST | (deflated ? FrameFormat.FLAG_DEFLATED : 0) : 0)
+                    | (size == remaining ? FrameFormat.FLAG_LAST : 0);
+            out.put(FrameFormat.SYNC).put((byte) flags).putShort((short) sequence).putShort((short) size);
+            sequence = (sequence + 1) & 0xFFFF;
+            int bodyBytes = size;
+            if (first) {
+                out.putInt(length).putInt(checksum);
+                bodyBytes -= FrameFormat.MESSAGE_HEADER_SIZE;
+                first = false;
+            }
+            out.put(body, bodyOffset, bodyBytes);
+            bodyOffset += bodyBytes;
+            out.putShort((short) FrameFormat.crc16(out.array(), start, out.position() - start));
+            remaining -= size;
+        }
+        out.flip();
+        return out;
+    }
+
+    /** Frees the deflater; messages encoded afterwards are sent uncompressed. */
+    public synchronized void close() {
+        if (!closed) {
+            closed = true;
+            deflater.end();
+        }
+    }
+
+    /** Deflates into {@link #compressed}; returns the size, or 0 if it did not get smaller. */
+    private int deflate(byte[] message, int offset, int length) {
+        if (compressed.length < length) {
+            compressed = new byte[length];
+        }
+        deflater.reset();
+        deflater.setInput(message, offset, length);
+        deflater.finish();
+        int size = 0;
+        while (!deflater.finished() && size < length) {
+            size += deflater.deflate(compressed, size, length - size);
+        }
+        return deflater.finished() && size < length ? size : 0;
+    }
+}
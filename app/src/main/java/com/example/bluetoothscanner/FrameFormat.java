@@ -0,0 +1,66 @@
+package com.example.bluetoothscanner;
+
+/**
+ * Binary framing shared by RFCOMM and GATT, written by {@link FrameEncoder} and read by
+ * {@link FrameDecoder}. A message is split into fragments that each fit one ATT write or
+ * notification; on a stream the sync byte and CRC let the reader find fragment boundaries
+ * again after garbage. All integers are little-endian.
+ *
+ * <pre>
+ * fragment: sync 0xB5 (1) | flags (1) | sequence (2) | payload length (2) | payload
+ *           | CRC-16/CCITT-FALSE of everything before it (2)
+ * message:  length before deflating (4) | CRC-32 before deflating (4) | body,
+ *           split over the payloads of one FIRST ... LAST run of fragments
+ * </pre>
+ *
+ * The sequence counts fragments per sender and wraps at 16 bits, so the reader can tell a
+ * lost fragment from a reordered stream. A body is deflated (zlib) only when
+ * {@link #FLAG_DEFLATED} is set on its first fragment.
+ */
+public final class FrameFormat {
+    static final byte SYNC = (byte) 0xB5;
+    public static final int FLAG_FIRST = 1;
+    public static final int FLAG_LAST = 2;
+    public static final int FLAG_DEFLATED = 4;
+    public static final int HEADER_SIZE = 6;
+    public static final int CRC_SIZE = 2;
+    /** Bytes a fragment adds to its payload. */
+    public static final int OVERHEAD = HEADER_SIZE + CRC_SIZE;
+    public static final int MESSAGE_HEADER_SIZE = 8;
+    /** Smallest usable fragment: the message header must fit the first one. */
+    public static final int MIN_FRAGMENT_SIZE = OVERHEAD + MESSAGE_HEADER_SIZE;
+    /** Fragment size on RFCOMM, within the frame size both stacks negotiate by default. */
+    public static final int RFCOMM_FRAGMENT_SIZE = 990;
+
+    private static final short[] CRC16_TABLE = new short[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc = i << 8;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 0x8000) != 0 ? (crc << 1) ^ 0x1021 : crc << 1;
+            }
+            CRC16_TABLE[i] = (short) crc;
+        }
+    }
+
+    private FrameFormat() {
+    }
+
+    /** CRC-16/CCITT-FALSE (polynomial 0x1021, initial 0xFFFF) of a slice. */
+    static int crc16(byte[] data, int offset, int length) {
+        int crc = 0xFFFF;
+        for (int i = offset; i < offset + length; i++) {
+            crc = (crc << 8 ^ CRC16_TABLE[(crc >>> 8 ^ data[i]) & 0xFF]) & 0xFFFF;
+        }
+        return crc;
+    }
+
+    /** Encoded size of a message whose body is {@code bodyLength} bytes. */
+    static int encodedSize(int bodyLength, int fragmentSize) {
+        int payload = fragmentSize - OVERHEAD;
+        int total = MESSAGE_HEADER_SIZE + bodyLength;
+        int fragments = (total + payload - 1) / payload;
+        return total + fragments * OVERHEAD;
+    }
+}
@@ -0,0 +1,298 @@
+package com.example.bluetoothscanner;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Attribute tables of known peripherals, with the subscriptions made and the last value read
+ * from each characteristic, so a reconnect can skip discovery (see
+ * {@link GattClient#restoreServices}) and show data straight away. An entry is dropped when the
+ * peer signals Service Changed or a fresh discovery disagrees with it. Persisted to one file:
+ *
+ * <pre>
+ * file:           magic "GATC" (4) | version (2) | entry count (4) | entries...
+ * entry:          address (8) | table hash (8) | characteristic count (2) | characteristics...
+ * characteristic: service (16) | uuid (16) | properties (1) | handle (2) | flags (1) |
+ *                 value length (2, 0xFFFF if never read) | value
+ * </pre>
+ *
+ * Integers are big-endian; flags bit 0 is "has CCCD", bit 1 "subscribed". A file of another
+ * version is ignored. Thread-safe.
+ */
+public class GattCache {
+    /** Service Changed (0x2A05) in the Generic Attribute service. */
+    public static final UUID SERVICE_CHANGED_UUID = UUID.fromString("00002a05-0000-1000-8000-00805f9b34fb");
+    public static final int DEFAULT_MAX_ENTRIES = 256;
+
+    static final int MAGIC = 0x47415443; // "GATC"
+    static final short VERSION = 1;
+    private static final int FLAG_CCCD = 1;
+    private static final int FLAG_SUBSCRIBED = 2;
+    private static final int NO_VALUE = 0xFFFF;
+
+    /** The cached table of one device. Values and subscriptions may change; the table does not. */
+    public static final class Entry {
+        public final long address;
+        public final List<GattCharacteristicInfo> characteristics;
+        final long tableHash;
+        private final Set<UUID> subscribed = ConcurrentHashMap.newKeySet();
+        private final Map<UUID, byte[]> values = new ConcurrentHashMap<>();
+
+        Entry(long address, List<GattCharacteristicInfo> characteristics) {
+            this.address = address;
+            this.characteristics = Collections.unmodifiableList(new ArrayList<>(characteristics));
+            this.tableHash = tableHash(characteristics);
+        }
+
+        public boolean isSubscribed(UUID characteristic) {
+            return subscribed.contains(characteristic);
+        }
+
+        /** Last value read, or null. */
+        public byte[] value(UUID characteristic) {
+            return values.get(characteristic);
+        }
+    }
+
+    private final File file;
+    private final int maxEntries;
+    private final LinkedHashMap<Long, Entry> entries;
+    private boolean dirty;
+    private long hits;
+    private long misses;
+    private long invalidations;
+
+    /** @param file where {@link #load} and {@link #save} go, or null to keep the cache in memory only */
+    public GattCache(File file, int maxEntries) {
+        this.file = file;
+        this.maxEntries = maxEntries;
+        // Access order, so the least recently used device is dropped first
+        this.entries = new LinkedHashMap<Long, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, GattCache.Entry> eldest) {
+                return size() > GattCache.this.maxEntries;
+            }
+        };
+    }
+
+    public GattCache(File file) {
+        this(file, DEFAULT_MAX_ENTRIES);
+    }
+
+    public static boolean isServiceChanged(UUID characteristic) {
+        return SERVICE_CHANGED_UUID.equals(characteristic);
+    }
+
+    /** The cached table of {@code address}, or null. */
+    public synchronized Entry get(long address) {
+        Entry entry = entries.get(address);
+        if (entry != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return entry;
+    }
+
+    /**
+     * Records a freshly discovered table. If it matches the cached one, handle for handle, the
+     * entry with its subscriptions and values is kept and true is returned; otherwise the entry
+     * is replaced by an empty one for the new table.
+     */
+    public synchronized boolean update(long address, List<GattCharacteristicInfo> discovered) {
+        Entry entry = entries.get(address);
+        if (entry != null && entry.tableHash == tableHash(discovered)
+                && sameTable(entry.characteristics, discovered)) {
+            return true;
+        }
+        if (entry != null) {
+            invalidations++;
+        }
+        entries.put(address, new Entry(address, discovered));
+        dirty = true;
+        return false;
+    }
+
+    /** Forgets the table of {@code address}, e.g. after Service Changed or a handle that no longer exists. */
+    public synchronized void invalidate(long address) {
+        if (entries.remove(address) != null) {
+            invalidations++;
+            dirty = true;
+        }
+    }
+
+    public synchronized void recordSubscription(long address, UUID characteristic) {
+        Entry entry = entries.get(address);
+        if (entry != null && entry.subscribed.add(characteristic)) {
+            dirty = true;
+        }
+    }
+
+    public synchronized void recordValue(long address, UUID characteristic, byte[] value) {
+        Entry entry = entries.get(address);
+        if (entry != null && value != null) {
+            entry.values.put(characteristic, value.clone());
+            dirty = true;
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long hits() {
+        return hits;
+    }
+
+    public synchronized long misses() {
+        return misses;
+    }
+
+    public synchronized long invalidations() {
+        return invalidations;
+    }
+
+    /** Replaces the contents with the file's; a missing file or one of another version leaves the cache empty. */
+    public synchronized void load() throws IOException {
+        entries.clear();
+        dirty = false;
+        if (file == null) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readShort() != VERSION) {
+                return;
+            }
+            for (int i = in.readInt(); i > 0; i--) {
+                long address = in.readLong();
+                long hash = in.readLong();
+                int count = in.readUnsignedShort();
+                List<GattCharacteristicInfo> characteristics = new ArrayList<>(count);
+                List<byte[]> values = new ArrayList<>(count);
+                List<UUID> subscribed = new ArrayList<>();
+                for (int c = 0; c < count; c++) {
+                    UUID service = new UUID(in.readLong(), in.readLong());
+                    UUID uuid = new UUID(in.readLong(), in.readLong());
+                    int properties = in.readUnsignedByte();
+                    int handle = in.readUnsignedShort();
+                    int flags = in.readUnsignedByte();
+                    characteristics.add(new GattCharacteristicInfo(service, uuid, properties, handle,
+                            (flags & FLAG_CCCD) != 0));
+                    if ((flags & FLAG_SUBSCRIBED) != 0) {
+                        subscribed.add(uuid);
+                    }
+                    int length = in.readUnsignedShort();
+                    byte[] value = null;
+                    if (length != NO_VALUE) {
+                        value = new byte[length];
+                        in.readFully(value);
+                    }
+                    values.add(value);
+                }
+                Entry entry = new Entry(address, characteristics);
+                if (entry.tableHash != hash) {
+                    // Written by a build that hashed differently; not worth trusting
+                    continue;
+                }
+                for (int c = 0; c < count; c++) {
+                    if (values.get(c) != null) {
+                        entry.values.put(characteristics.get(c).uuid, values.get(c));
+                    }
+                }
+                entry.subscribed.addAll(subscribed);
+                entries.put(address, entry);
+            }
+        } catch (FileNotFoundException e) {
+            // Nothing cached yet
+        }
+    }
+
+    /** Writes the cache if it changed since the last load or save; the file is replaced atomically. */
+    public synchronized void save() throws IOException {
+        if (file == null || !dirty) {
+            return;
+        }
+        File temp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeInt(entries.size());
+            for (Entry entry : entries.values()) {
+                out.writeLong(entry.address);
+                out.writeLong(entry.tableHash);
+                out.writeShort(entry.characteristics.size());
+                for (GattCharacteristicInfo characteristic : entry.characteristics) {
+                    out.writeLong(characteristic.service.getMostSignificantBits());
+                    out.writeLong(characteristic.service.getLeastSignificantBits());
+                    out.writeLong(characteristic.uuid.getMostSignificantBits());
+                    out.writeLong(characteristic.uuid.getLeastSignificantBits());
+                    out.writeByte(characteristic.properties);
+                    out.writeShort(characteristic.handle);
+                    out.writeByte((characteristic.hasCccd ? FLAG_CCCD : 0)
+                            | (entry.isSubscribed(characteristic.uuid) ? FLAG_SUBSCRIBED : 0));
+                    byte[] value = entry.value(characteristic.uuid);
+                    if (value == null) {
+                        out.writeShort(NO_VALUE);
+                    } else {
+                        int length = Math.min(value.length, NO_VALUE - 1);
+                        out.writeShort(length);
+                        out.write(value, 0, length);
+                    }
+                }
+            }
+        }
+        if (!temp.renameTo(file)) {
+            throw new IOException("Cannot replace " + file);
+        }
+        dirty = false;
+    }
+
+    static long tableHash(List<GattCharacteristicInfo> characteristics) {
+        long hash = 0xcbf29ce484222325L;
+        for (GattCharacteristicInfo characteristic : characteristics) {
+            hash = mix(hash, characteristic.service.getMostSignificantBits());
+            hash = mix(hash, characteristic.service.getLeastSignificantBits());
+            hash = mix(hash, characteristic.uuid.getMostSignificantBits());
+            hash = mix(hash, characteristic.uuid.getLeastSignificantBits());
+            hash = mix(hash, ((long) characteristic.handle << 16) | (characteristic.properties << 1)
+                    | (characteristic.hasCccd ? 1 : 0));
+        }
+        return hash;
+    }
+
+    private static long mix(long hash, long value) {
+        hash ^= value;
+        hash *= 0x100000001b3L;
+        return hash ^ (hash >>> 29);
+    }
+
+    private static boolean sameTable(List<GattCharacteristicInfo> a, List<GattCharacteristicInfo> b) {
+        if (a.size() != b.size()) {
+            return false;
+        }
+        for (int i = 0; i < a.size(); i++) {
+            GattCharacteristicInfo x = a.get(i);
+            GattCharacteristicInfo y = b.get(i);
+            if (x.handle != y.handle || x.properties != y.properties || x.hasCccd != y.hasCccd
+                    || !x.uuid.equals(y.uuid) || !x.service.equals(y.service)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
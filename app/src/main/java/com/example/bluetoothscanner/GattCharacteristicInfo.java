@@ -0,0 +1,45 @@
+package com.example.bluetoothscanner;
+
+import java.util.UUID;
+
+/** A discovered characteristic, independent of the platform's GATT classes. */
+public final class GattCharacteristicInfo {
+    // Same bits as BluetoothGattCharacteristic.PROPERTY_*
+    public static final int PROPERTY_READ = 0x02;
+    public static final int PROPERTY_WRITE_NO_RESPONSE = 0x04;
+    public static final int PROPERTY_WRITE = 0x08;
+    public static final int PROPERTY_NOTIFY = 0x10;
+    public static final int PROPERTY_INDICATE = 0x20;
+
+    public final UUID service;
+    public final UUID uuid;
+    public final int properties;
+    /** Attribute handle of the value, as far as the platform exposes it. */
+    public final int handle;
+    /** Whether the characteristic has a Client Characteristic Configuration descriptor. */
+    public final boolean hasCccd;
+
+    public GattCharacteristicInfo(UUID service, UUID uuid, int properties, int handle, boolean hasCccd) {
+        this.service = service;
+        this.uuid = uuid;
+        this.properties = properties;
+        this.handle = handle;
+        this.hasCccd = hasCccd;
+    }
+
+    public boolean canRead() {
+        return (properties & PROPERTY_READ) != 0;
+    }
+
+    public boolean canWrite() {
+        return (properties & PROPERTY_WRITE) != 0;
+    }
+
+    public boolean canWriteWithoutResponse() {
+        return (properties & PROPERTY_WRITE_NO_RESPONSE) != 0;
+    }
+
+    public boolean canNotify() {
+        return (properties & PROPERTY_NOTIFY) != 0;
+    }
+}
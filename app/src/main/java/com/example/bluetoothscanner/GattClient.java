@@ -0,0 +1,64 @@
+package com.example.bluetoothscanner;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * One GATT connection. Requests return {@link GattOperation#ISSUED} or an error code and
+ * complete through the {@link Listener}; like Android's stack, a client only accepts one
+ * outstanding request, so callers go through a {@link GattOperationQueue}. Characteristics are
+ * addressed by UUID once services have been discovered.
+ */
+public interface GattClient extends LinkNegotiator.LinkControl {
+    UUID CCCD_UUID = UUID.fromString("00002902-0000-1000-8000-00805f9b34fb");
+    int GATT_SUCCESS = 0;
+    /** ATT error for a handle the peer no longer has, e.g. after a firmware update. */
+    int GATT_INVALID_HANDLE = 0x01;
+    // Same values as BluetoothGattCharacteristic.WRITE_TYPE_*
+    int WRITE_TYPE_NO_RESPONSE = 1;
+    int WRITE_TYPE_DEFAULT = 2;
+
+    /** Callbacks arrive on a platform thread; one at a time per connection. */
+    interface Listener {
+        void onConnectionStateChange(int status, boolean connected);
+
+        void onServicesDiscovered(int status, List<GattCharacteristicInfo> characteristics);
+
+        void onCharacteristicRead(UUID characteristic, int status, byte[] value);
+
+        void onCharacteristicWrite(UUID characteristic, int status);
+
+        void onDescriptorWrite(UUID descriptor, int status);
+
+        /** {@code value} may be reused by the client once this returns. */
+        void onNotification(UUID characteristic, int handle, byte[] value);
+
+        void onMtuChanged(int mtu, int status);
+
+        void onPhyUpdate(int txPhy, int rxPhy, int status);
+
+        /** The peer's attribute table changed; cached handles are stale and services must be rediscovered. */
+        void onServiceChanged();
+    }
+
+    /** Packed address of the peer, see {@link BluetoothAddress}. */
+    long address();
+
+    int discoverServices();
+
+    /**
+     * Makes characteristics from a {@link GattCache} addressable without discovering services.
+     * Returns false if the client cannot address them that way; the caller then discovers.
+     */
+    boolean restoreServices(List<GattCharacteristicInfo> characteristics);
+
+    int read(UUID characteristic);
+
+    int write(UUID characteristic, byte[] value, int writeType);
+
+    /** Enables notifications locally and writes the CCCD; completes via {@code onDescriptorWrite(CCCD_UUID)}. */
+    int enableNotifications(UUID characteristic);
+
+    /** Disconnects and releases the connection; no callbacks follow. */
+    void close();
+}
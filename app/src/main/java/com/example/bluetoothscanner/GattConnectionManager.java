@@ -0,0 +1,258 @@
+package com.example.bluetoothscanner;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Polls a fleet of GATT peripherals through a bounded number of connection slots. The controller
+ * only keeps a handful of LE links at once, so devices wait in a queue ordered by when their
+ * next poll is due; a free slot goes to the most overdue one, which connects, reads and/or
+ * subscribes as its {@link PollSpec} says, then releases the slot (see {@link GattLink}).
+ * All state is confined to the given single-threaded executor; the public methods may be called
+ * from any thread.
+ */
+public class GattConnectionManager {
+    /** Leaves room below Android's usual limit of 7 LE links for an interactive connection. */
+    public static final int DEFAULT_MAX_CONNECTIONS = 4;
+    public static final long DEFAULT_CONNECT_TIMEOUT_MILLIS = 10_000;
+
+    private static final int RATE_WINDOW_SECONDS = 10;
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+    /** Opens a connection; results arrive on {@code listener}. Android: {@link AndroidGattClient#connect}. */
+    public interface Connector {
+        GattClient connect(long address, GattClient.Listener listener);
+    }
+
+    public interface Listener {
+        /** On the manager's executor. */
+        void onRead(long address, GattCharacteristicInfo characteristic, byte[] value);
+
+        /** On the platform thread; {@code value} may be reused once this returns. */
+        void onNotification(long address, UUID characteristic, int handle, byte[] value);
+
+        /** On the manager's executor, after the device's slot was released. */
+        void onPollComplete(long address, int status, Stats stats);
+    }
+
+    /** What one poll of a device does, and how often it comes round. */
+    public static final class PollSpec {
+        private final Set<UUID> reads;
+        private final Set<UUID> subscriptions;
+        final long holdMillis;
+        final long intervalMillis;
+
+        /**
+         * @param reads characteristics to read, or null for every readable one
+         * @param subscriptions characteristics to subscribe to, or null for every notifiable one
+         * @param holdMillis how long to stay connected for notifications after subscribing
+         * @param intervalMillis minimum time from the start of one poll to the start of the next
+         */
+        public PollSpec(Collection<UUID> reads, Collection<UUID> subscriptions, long holdMillis, long intervalMillis) {
+            this.reads = reads != null ? new HashSet<>(reads) : null;
+            this.subscriptions = subscriptions != null ? new HashSet<>(subscriptions) : null;
+            this.holdMillis = holdMillis;
+            this.intervalMillis = intervalMillis;
+        }
+
+        /** Reads every readable characteristic, without subscribing. */
+        public static PollSpec readAll(long intervalMillis) {
+            return new PollSpec(null, Collections.emptySet(), 0, intervalMillis);
+        }
+
+        boolean reads(GattCharacteristicInfo characteristic) {
+            return characteristic.canRead() && (reads == null || reads.contains(characteristic.uuid));
+        }
+
+        boolean subscribes(GattCharacteristicInfo characteristic) {
+            return characteristic.canNotify() && characteristic.hasCccd
+                    && (subscriptions == null || subscriptions.contains(characteristic.uuid));
+        }
+    }
+
+    /** Aggregate counters plus one {@link GattLink.Stats} per device, in the order they were added. */
+    public static final class Stats {
+        public final int connected;
+        public final int waiting;
+        public final long reads;
+        /** Over the last ten seconds. */
+        public final double readsPerSecond;
+        public final List<GattLink.Stats> links;
+
+        Stats(int connected, int waiting, long reads, double readsPerSecond, List<GattLink.Stats> links) {
+            this.connected = connected;
+            this.waiting = waiting;
+            this.reads = reads;
+            this.readsPerSecond = readsPerSecond;
+            this.links = links;
+        }
+    }
+
+    final Connector connector;
+    final ScheduledExecutorService executor;
+    final Listener listener;
+    private final int maxConnections;
+    volatile long connectTimeoutMillis = DEFAULT_CONNECT_TIMEOUT_MILLIS;
+    volatile GattCache cache;
+
+    private final Map<Long, GattLink> links = new LinkedHashMap<>();
+    private final PriorityQueue<GattLink> waiting = new PriorityQueue<>(
+            Comparator.<GattLink>comparingLong(link -> link.dueNanos).thenComparingLong(link -> link.ticket));
+    private final long createdNanos = System.nanoTime();
+    private int connected;
+    private long tickets;
+    private ScheduledFuture<?> wakeup;
+    private long wakeupAtNanos;
+    private long reads;
+    // Reads per second of the last RATE_WINDOW_SECONDS, indexed by second modulo the window
+    private final long[] rateSeconds = new long[RATE_WINDOW_SECONDS];
+    private final int[] rateCounts = new int[RATE_WINDOW_SECONDS];
+
+    public GattConnectionManager(Connector connector, ScheduledExecutorService executor, int maxConnections,
+                                 Listener listener) {
+        this.connector = connector;
+        this.executor = executor;
+        this.maxConnections = maxConnections;
+        this.listener = listener;
+    }
+
+    /** Bounds connecting plus service discovery; a poll that takes longer fails and frees its slot. */
+    public void setConnectTimeout(long timeout, TimeUnit unit) {
+        connectTimeoutMillis = unit.toMillis(timeout);
+    }
+
+    /** Lets polls of known devices skip discovery; null (the default) discovers every time. */
+    public void setCache(GattCache cache) {
+        this.cache = cache;
+    }
+
+    /** Adds a device to the rotation, due immediately; replaces the spec of one already in it. */
+    public void add(long address, PollSpec spec) {
+        executor.execute(() -> {
+            removeLink(address);
+            GattLink link = new GattLink(this, address, spec);
+            links.put(address, link);
+            enqueue(link, System.nanoTime());
+            pump();
+        });
+    }
+
+    /** Takes a device out of the rotation, closing its connection if it has one. */
+    public void remove(long address) {
+        executor.execute(() -> {
+            removeLink(address);
+            pump();
+        });
+    }
+
+    public void clear() {
+        executor.execute(() -> {
+            // Empty the rotation first so the released slots are not handed to the next device
+            List<GattLink> removed = new ArrayList<>(links.values());
+            links.clear();
+            waiting.clear();
+            for (GattLink link : removed) {
+                link.cancel();
+            }
+        });
+    }
+
+    public Future<Stats> stats() {
+        return executor.submit(this::snapshot);
+    }
+
+    void onRead(GattLink link, GattCharacteristicInfo characteristic, byte[] value) {
+        reads++;
+        long second = System.nanoTime() / NANOS_PER_SECOND;
+        int bucket = (int) Math.floorMod(second, (long) RATE_WINDOW_SECONDS);
+        if (rateSeconds[bucket] != second) {
+            rateSeconds[bucket] = second;
+            rateCounts[bucket] = 0;
+        }
+        rateCounts[bucket]++;
+        listener.onRead(link.address, characteristic, value);
+    }
+
+    void onReleased(GattLink link, int status) {
+        connected--;
+        if (links.get(link.address) == link) {
+            long interval = TimeUnit.MILLISECONDS.toNanos(link.spec.intervalMillis);
+            long now = System.nanoTime();
+            enqueue(link, link.startedNanos + interval - now > 0 ? link.startedNanos + interval : now);
+        }
+        pump();
+        listener.onPollComplete(link.address, status, snapshot());
+    }
+
+    private void removeLink(long address) {
+        GattLink link = links.remove(address);
+        if (link != null) {
+            waiting.remove(link);
+            link.cancel();
+        }
+    }
+
+    private void enqueue(GattLink link, long dueNanos) {
+        link.dueNanos = dueNanos;
+        link.ticket = tickets++;
+        waiting.add(link);
+    }
+
+    private void pump() {
+        long now = System.nanoTime();
+        while (connected < maxConnections) {
+            GattLink next = waiting.peek();
+            if (next == null) {
+                return;
+            }
+            if (next.dueNanos - now > 0) {
+                wakeAt(next.dueNanos, now);
+                return;
+            }
+            waiting.poll();
+            connected++;
+            next.start();
+        }
+    }
+
+    private void wakeAt(long dueNanos, long now) {
+        if (wakeup != null && !wakeup.isDone() && wakeupAtNanos - dueNanos <= 0) {
+            return;
+        }
+        if (wakeup != null) {
+            wakeup.cancel(false);
+        }
+        wakeupAtNanos = dueNanos;
+        wakeup = executor.schedule(this::pump, dueNanos - now, TimeUnit.NANOSECONDS);
+    }
+
+    private Stats snapshot() {
+        List<GattLink.Stats> linkStats = new ArrayList<>(links.size());
+        for (GattLink link : links.values()) {
+            linkStats.add(link.stats());
+        }
+        long now = System.nanoTime();
+        long second = now / NANOS_PER_SECOND;
+        int recent = 0;
+        for (int i = 0; i < RATE_WINDOW_SECONDS; i++) {
+            if (second - rateSeconds[i] < RATE_WINDOW_SECONDS) {
+                recent += rateCounts[i];
+            }
+        }
+        double window = Math.min(RATE_WINDOW_SECONDS, Math.max(1e-3, (now - createdNanos) / (double) NANOS_PER_SECOND));
+        return new Stats(connected, waiting.size(), reads, recent / window, linkStats);
+    }
+}
@@ -0,0 +1,350 @@
+package com.example.bluetoothscanner;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One peripheral in a {@link GattConnectionManager} rotation. Each poll walks
+ * CONNECTING, DISCOVERING, POLLING and optionally HOLDING (to collect notifications), then
+ * closes the connection and goes back to IDLE. With a {@link GattCache}, a known device skips
+ * discovery and its cache entry is kept up to date. Requests go through the link's own
+ * {@link GattOperationQueue}, so links never wait on each other's callbacks. Round-trip
+ * statistics outlive the connections. Confined to the manager's executor.
+ */
+public final class GattLink {
+    public enum State {
+        IDLE,
+        CONNECTING,
+        DISCOVERING,
+        POLLING,
+        HOLDING
+    }
+
+    /** Poll status when the peer went away before the poll finished. */
+    public static final int STATUS_DISCONNECTED = -5;
+
+    /** Counters of one link, copied on the manager's executor. */
+    public static final class Stats {
+        public final long address;
+        public final State state;
+        public final long polls;
+        public final long failures;
+        public final long reads;
+        public final long lastRttNanos;
+        public final long meanRttNanos;
+        public final long maxRttNanos;
+        /** Connect plus service discovery of the last successful poll. */
+        public final long connectNanos;
+        /** From the start of the last poll to its first value read. */
+        public final long firstDataNanos;
+        /** Whether the last poll used the cached attribute table instead of discovering. */
+        public final boolean restored;
+
+        Stats(GattLink link) {
+            address = link.address;
+            state = link.state;
+            polls = link.polls;
+            failures = link.failures;
+            reads = link.reads;
+            lastRttNanos = link.lastRttNanos;
+            meanRttNanos = link.reads > 0 ? link.rttSumNanos / link.reads : 0;
+            maxRttNanos = link.maxRttNanos;
+            connectNanos = link.connectNanos;
+            firstDataNanos = link.firstDataNanos;
+            restored = link.restored;
+        }
+    }
+
+    final long address;
+    final GattConnectionManager.PollSpec spec;
+    private final GattConnectionManager manager;
+    private final ScheduledExecutorService executor;
+    private final GattOperationQueue queue;
+
+    private State state = State.IDLE;
+    // Written on the executor, read by platform callbacks to drop those of a closed connection
+    private volatile Connection connection;
+    private ScheduledFuture<?> timer;
+    private int outstanding;
+    private int subscribed;
+    private int pollStatus;
+    private boolean restored;
+    long startedNanos;
+    // Position in the manager's waiting queue
+    long dueNanos;
+    long ticket;
+
+    private long polls;
+    private long failures;
+    private long reads;
+    private long rttSumNanos;
+    private long lastRttNanos;
+    private long maxRttNanos;
+    private long connectNanos;
+    private long firstDataNanos;
+
+    GattLink(GattConnectionManager manager, long address, GattConnectionManager.PollSpec spec) {
+        this.manager = manager;
+        this.address = address;
+        this.spec = spec;
+        this.executor = manager.executor;
+        this.queue = new GattOperationQueue(executor);
+    }
+
+    public long address() {
+        return address;
+    }
+
+    public State state() {
+        return state;
+    }
+
+    Stats stats() {
+        return new Stats(this);
+    }
+
+    void start() {
+        Connection c = new Connection();
+        connection = c;
+        state = State.CONNECTING;
+        startedNanos = System.nanoTime();
+        outstanding = 0;
+        subscribed = 0;
+        pollStatus = GattClient.GATT_SUCCESS;
+        restored = false;
+        firstDataNanos = 0;
+        armTimeout(c);
+        try {
+            c.client = manager.connector.connect(address, c);
+        } catch (RuntimeException e) {
+            // Finish later so the manager is not re-entered from its own start loop
+            executor.execute(() -> finish(c, GattOperation.STATUS_NOT_ISSUED));
+        }
+    }
+
+    /** Ends the current poll, if any, e.g. because the device was removed from the rotation. */
+    void cancel() {
+        Connection c = connection;
+        if (c != null) {
+            finish(c, GattOperation.STATUS_CANCELLED);
+        }
+    }
+
+    private void armTimeout(Connection c) {
+        cancelTimer();
+        timer = executor.schedule(() -> finish(c, GattOperation.STATUS_TIMEOUT),
+                manager.connectTimeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void cancelTimer() {
+        if (timer != null) {
+            timer.cancel(false);
+            timer = null;
+        }
+    }
+
+    private void onConnected(Connection c) {
+        if (connection != c || state != State.CONNECTING) {
+            return;
+        }
+        state = State.DISCOVERING;
+        GattCache cache = manager.cache;
+        GattCache.Entry entry = cache != null ? cache.get(address) : null;
+        if (entry != null && c.client.restoreServices(entry.characteristics)) {
+            restored = true;
+            onDiscovered(c, GattClient.GATT_SUCCESS, entry.characteristics);
+            return;
+        }
+        // Discovery can take as long as the connection itself; give it a fresh timeout
+        armTimeout(c);
+        if (c.client.discoverServices() != GattOperation.ISSUED) {
+            finish(c, GattOperation.STATUS_NOT_ISSUED);
+        }
+    }
+
+    private void onDiscovered(Connection c, int status, List<GattCharacteristicInfo> characteristics) {
+        if (connection != c || state != State.DISCOVERING) {
+            return;
+        }
+        cancelTimer();
+        if (status != GattClient.GATT_SUCCESS) {
+            finish(c, status);
+            return;
+        }
+        connectNanos = System.nanoTime() - startedNanos;
+        GattCache cache = manager.cache;
+        if (cache != null && !restored) {
+            cache.update(address, characteristics);
+        }
+        state = State.POLLING;
+        // Subscribe first so nothing sent while the reads run is missed
+        for (GattCharacteristicInfo characteristic : characteristics) {
+            if (spec.subscribes(characteristic)) {
+                outstanding++;
+                queue.enqueue(GattOperations.enableNotifications(c.client, characteristic.uuid,
+                        (operation, s, value) -> onSubscribed(c, characteristic.uuid, s)));
+            }
+        }
+        for (GattCharacteristicInfo characteristic : characteristics) {
+            if (spec.reads(characteristic)) {
+                outstanding++;
+                queue.enqueue(GattOperations.read(c.client, characteristic.uuid,
+                        (operation, s, value) -> onRead(c, characteristic, operation, s, value)));
+            }
+        }
+        if (outstanding == 0) {
+            afterPolling(c);
+        }
+    }
+
+    private void onSubscribed(Connection c, UUID uuid, int status) {
+        if (connection != c) {
+            return;
+        }
+        if (status == GattClient.GATT_SUCCESS) {
+            subscribed++;
+            GattCache cache = manager.cache;
+            if (cache != null) {
+                cache.recordSubscription(address, uuid);
+            }
+        } else {
+            pollStatus = status;
+        }
+        if (--outstanding == 0) {
+            afterPolling(c);
+        }
+    }
+
+    private void onRead(Connection c, GattCharacteristicInfo characteristic, GattOperation operation,
+                        int status, byte[] value) {
+        if (connection != c) {
+            return;
+        }
+        if (status == GattClient.GATT_SUCCESS) {
+            long rtt = System.nanoTime() - operation.issuedAtNanos();
+            reads++;
+            rttSumNanos += rtt;
+            lastRttNanos = rtt;
+            maxRttNanos = Math.max(maxRttNanos, rtt);
+            if (firstDataNanos == 0) {
+                firstDataNanos = System.nanoTime() - startedNanos;
+            }
+            GattCache cache = manager.cache;
+            if (cache != null) {
+                cache.recordValue(address, characteristic.uuid, value);
+            }
+            manager.onRead(this, characteristic, value);
+        } else {
+            if (status == GattClient.GATT_INVALID_HANDLE && restored) {
+                // The peer's table moved under the cache; the next poll discovers again
+                invalidateCache();
+            }
+            pollStatus = status;
+        }
+        if (--outstanding == 0) {
+            afterPolling(c);
+        }
+    }
+
+    private void afterPolling(Connection c) {
+        if (subscribed > 0 && spec.holdMillis > 0) {
+            state = State.HOLDING;
+            timer = executor.schedule(() -> finish(c, pollStatus), spec.holdMillis, TimeUnit.MILLISECONDS);
+        } else {
+            finish(c, pollStatus);
+        }
+    }
+
+    private void finish(Connection c, int status) {
+        if (connection != c) {
+            return;
+        }
+        connection = null;
+        cancelTimer();
+        queue.clear();
+        if (c.client != null) {
+            c.client.close();
+        }
+        state = State.IDLE;
+        polls++;
+        if (status != GattClient.GATT_SUCCESS) {
+            failures++;
+        }
+        manager.onReleased(this, status);
+    }
+
+    private void invalidateCache() {
+        GattCache cache = manager.cache;
+        if (cache != null) {
+            cache.invalidate(address);
+        }
+    }
+
+    /** Listener of one connection; a new one per poll, so late callbacks of an old one are dropped. */
+    private final class Connection implements GattClient.Listener {
+        GattClient client;
+
+        @Override
+        public void onConnectionStateChange(int status, boolean connected) {
+            executor.execute(() -> {
+                if (connected) {
+                    onConnected(this);
+                } else {
+                    finish(this, status == GattClient.GATT_SUCCESS ? STATUS_DISCONNECTED : status);
+                }
+            });
+        }
+
+        @Override
+        public void onServicesDiscovered(int status, List<GattCharacteristicInfo> characteristics) {
+            executor.execute(() -> onDiscovered(this, status, characteristics));
+        }
+
+        @Override
+        public void onCharacteristicRead(UUID characteristic, int status, byte[] value) {
+            if (connection == this) {
+                queue.onComplete(GattOperation.Type.READ, characteristic, status, value);
+            }
+        }
+
+        @Override
+        public void onCharacteristicWrite(UUID characteristic, int status) {
+            if (connection == this) {
+                queue.onComplete(GattOperation.Type.WRITE, characteristic, status, null);
+            }
+        }
+
+        @Override
+        public void onDescriptorWrite(UUID descriptor, int status) {
+            if (connection == this) {
+                queue.onComplete(GattOperation.Type.DESCRIPTOR_WRITE, descriptor, status, null);
+            }
+        }
+
+        @Override
+        public void onNotification(UUID characteristic, int handle, byte[] value) {
+            if (GattCache.isServiceChanged(characteristic)) {
+                onServiceChanged();
+            } else if (connection == this) {
+                manager.listener.onNotification(address, characteristic, handle, value);
+            }
+        }
+
+        @Override
+        public void onMtuChanged(int mtu, int status) {
+        }
+
+        @Override
+        public void onPhyUpdate(int txPhy, int rxPhy, int status) {
+        }
+
+        @Override
+        public void onServiceChanged() {
+            // The current poll finishes with what it has; the next one discovers the new table
+            invalidateCache();
+        }
+    }
+}
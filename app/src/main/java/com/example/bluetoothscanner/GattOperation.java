@@ -0,0 +1,68 @@
+package com.example.bluetoothscanner;
+
+import java.util.UUID;
+
+/**
+ * One GATT request for {@link GattOperationQueue}. The {@link Issuer} starts the request on
+ * the stack; the queue completes the operation when the matching callback arrives or the
+ * timeout expires, retrying issue failures and timeouts up to {@code maxAttempts}.
+ */
+public final class GattOperation {
+    public enum Type {
+        READ,
+        WRITE,
+        DESCRIPTOR_WRITE,
+        MTU,
+        PHY,
+        CONNECTION_PRIORITY
+    }
+
+    /** Returned by an {@link Issuer} when the request was handed to the stack. */
+    public static final int ISSUED = 0;
+    /** Returned by an {@link Issuer} when the stack refused the request. */
+    public static final int ISSUE_FAILED = -1;
+    /** Completion status when the stack never answered. */
+    public static final int STATUS_TIMEOUT = -2;
+    /** Completion status when the request could not be issued after all attempts. */
+    public static final int STATUS_NOT_ISSUED = -3;
+    /** Completion status when the queue was cleared (e.g. on disconnect) before completion. */
+    public static final int STATUS_CANCELLED = -4;
+
+    public interface Issuer {
+        /** Starts the request; returns {@link #ISSUED} or an error code. */
+        int issue();
+    }
+
+    /** Optional; runs on the queue's executor. */
+    public interface Callback {
+        void onComplete(GattOperation operation, int status, byte[] value);
+    }
+
+    public final Type type;
+    /** Characteristic or descriptor UUID the completion callback will carry, or null. */
+    public final UUID target;
+    final Issuer issuer;
+    final Callback callback;
+    final long timeoutMillis;
+    final int maxAttempts;
+    int attempts;
+    long issuedAtNanos;
+
+    public GattOperation(Type type, UUID target, Issuer issuer, Callback callback, long timeoutMillis, int maxAttempts) {
+        this.type = type;
+        this.target = target;
+        this.issuer = issuer;
+        this.callback = callback;
+        this.timeoutMillis = timeoutMillis;
+        this.maxAttempts = maxAttempts;
+    }
+
+    public int attempts() {
+        return attempts;
+    }
+
+    /** When the request was last handed to the stack, in {@link System#nanoTime()} units. */
+    public long issuedAtNanos() {
+        return issuedAtNanos;
+    }
+}
@@ -0,0 +1,126 @@
+package com.example.bluetoothscanner;
+
+import java.util.ArrayDeque;
+import java.util.UUID;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serializes GATT requests. Android only allows one outstanding request per connection and
+ * silently drops the rest, so each operation is issued exactly when the previous one's
+ * callback arrives (or its timeout expires). All state is confined to the given
+ * single-threaded executor; the public methods may be called from any thread.
+ */
+public class GattOperationQueue {
+    private static final long RETRY_BACKOFF_MILLIS = 20;
+
+    private final ScheduledExecutorService executor;
+    private final ArrayDeque<GattOperation> pending = new ArrayDeque<>();
+    private GattOperation current;
+    private ScheduledFuture<?> timeout;
+
+    public GattOperationQueue(ScheduledExecutorService executor) {
+        this.executor = executor;
+    }
+
+    public void enqueue(GattOperation operation) {
+        executor.execute(() -> {
+            pending.add(operation);
+            if (current == null) {
+                next();
+            }
+        });
+    }
+
+    /** Feeds a GATT callback to the queue; ignored unless it matches the in-flight operation. */
+    public void onComplete(GattOperation.Type type, UUID target, int status, byte[] value) {
+        executor.execute(() -> {
+            GattOperation operation = current;
+            if (operation == null || operation.type != type
+                    || (operation.target != null && target != null && !operation.target.equals(target))) {
+                return;
+            }
+            finish(operation, status, value);
+        });
+    }
+
+    /** Cancels the in-flight and all pending operations, e.g. after a disconnect. */
+    public void clear() {
+        executor.execute(() -> {
+            ArrayDeque<GattOperation> dropped = new ArrayDeque<>(pending);
+            pending.clear();
+            if (current != null) {
+                finish(current, GattOperation.STATUS_CANCELLED, null);
+            }
+            for (GattOperation operation : dropped) {
+                deliver(operation, GattOperation.STATUS_CANCELLED, null);
+            }
+        });
+    }
+
+    private void next() {
+        current = pending.poll();
+        if (current != null) {
+            issue(current);
+        }
+    }
+
+    private void issue(GattOperation operation) {
+        operation.attempts++;
+        operation.issuedAtNanos = System.nanoTime();
+        int result;
+        try {
+            result = operation.issuer.issue();
+        } catch (RuntimeException e) {
+            result = GattOperation.ISSUE_FAILED;
+        }
+        if (result == GattOperation.ISSUED) {
+            timeout = executor.schedule(() -> onTimeout(operation), operation.timeoutMillis, TimeUnit.MILLISECONDS);
+        } else if (operation.attempts < operation.maxAttempts) {
+            // Usually the stack is still busy with a request another client made; try again shortly
+            executor.schedule(() -> retry(operation), RETRY_BACKOFF_MILLIS * operation.attempts, TimeUnit.MILLISECONDS);
+        } else {
+            finish(operation, GattOperation.STATUS_NOT_ISSUED, null);
+        }
+    }
+
+    private void retry(GattOperation operation) {
+        if (current == operation) {
+            issue(operation);
+        }
+    }
+
+    private void onTimeout(GattOperation operation) {
+        if (current != operation) {
+            return;
+        }
+        if (operation.attempts < operation.maxAttempts) {
+            issue(operation);
+        } else {
+            finish(operation, GattOperation.STATUS_TIMEOUT, null);
+        }
+    }
+
+    private void finish(GattOperation operation, int status, byte[] value) {
+        if (timeout != null) {
+            timeout.cancel(false);
+            timeout = null;
+        }
+        current = null;
+        if (status != GattOperation.STATUS_CANCELLED && status != GattOperation.STATUS_NOT_ISSUED) {
+            Metrics.global().gattOperation(operation.type).recordSince(operation.issuedAtNanos);
+        }
+        try {
+            deliver(operation, status, value);
+        } finally {
+            next();
+        }
+    }
+
+    private static void deliver(GattOperation operation, int status, byte[] value) {
+        if (operation.callback != null) {
+            operation.callback.onComplete(operation, status, value);
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.example.bluetoothscanner;
+
+import java.util.UUID;
+
+/** Factories for {@link GattOperation}s bound to a {@link GattClient}. */
+public final class GattOperations {
+    public static final long DEFAULT_TIMEOUT_MILLIS = 5000;
+    public static final int DEFAULT_ATTEMPTS = 3;
+
+    private GattOperations() {
+    }
+
+    public static GattOperation read(GattClient client, UUID characteristic, GattOperation.Callback callback) {
+        return new GattOperation(GattOperation.Type.READ, characteristic,
+                () -> client.read(characteristic),
+                callback, DEFAULT_TIMEOUT_MILLIS, DEFAULT_ATTEMPTS);
+    }
+
+    public static GattOperation write(GattClient client, UUID characteristic, byte[] value, int writeType,
+                                      GattOperation.Callback callback) {
+        return new GattOperation(GattOperation.Type.WRITE, characteristic,
+                () -> client.write(characteristic, value, writeType),
+                callback, DEFAULT_TIMEOUT_MILLIS, DEFAULT_ATTEMPTS);
+    }
+
+    public static GattOperation enableNotifications(GattClient client, UUID characteristic, GattOperation.Callback callback) {
+        return new GattOperation(GattOperation.Type.DESCRIPTOR_WRITE, GattClient.CCCD_UUID,
+                () -> client.enableNotifications(characteristic),
+                callback, DEFAULT_TIMEOUT_MILLIS, DEFAULT_ATTEMPTS);
+    }
+}
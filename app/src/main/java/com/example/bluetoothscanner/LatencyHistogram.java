@@ -0,0 +1,115 @@
+package com.example.bluetoothscanner;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency histogram in the style of HdrHistogram: every power of two is split into
+ * {@value #SUB_BUCKETS} linear sub-buckets, so any recorded value is off by at most 1/32
+ * (about 3 %) while the memory stays fixed at {@value #BUCKETS} counters. Values are
+ * nanoseconds; values below 32 ns are exact, and magnitudes up to {@value #MAX_MAGNITUDE}
+ * reach 2^37 ns (about 137 s), past which values land in the last bucket. Recording is lock-free and allocation-free, from any number of threads.
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BITS = 5;
+    static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int MAX_MAGNITUDE = 36;
+    static final int BUCKETS = (MAX_MAGNITUDE - SUB_BITS + 1) * SUB_BUCKETS + SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        counts.incrementAndGet(indexOf(nanos));
+        total.incrementAndGet();
+        sum.addAndGet(nanos);
+        // Read first: once the maximum has settled, recording never contends on it
+        long current = max.get();
+        while (nanos > current && !max.compareAndSet(current, nanos)) {
+            current = max.get();
+        }
+    }
+
+    /** Records the time since {@code startNanos} (a {@link System#nanoTime} reading). */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.get(i);
+            count += copy[i];
+        }
+        // Buckets are read one by one while recording goes on; the count is taken from them so percentiles add up
+        return new Snapshot(copy, count, sum.get(), max.get());
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        if (magnitude > MAX_MAGNITUDE) {
+            return BUCKETS - 1;
+        }
+        int shift = magnitude - SUB_BITS;
+        return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    /** Smallest value that lands in bucket {@code index}. */
+    static long lowestValue(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long top = index - (long) shift * SUB_BUCKETS;
+        return top << shift;
+    }
+
+    /** Largest value that lands in bucket {@code index}. */
+    static long highestValue(int index) {
+        return index == BUCKETS - 1 ? Long.MAX_VALUE : lowestValue(index + 1) - 1;
+    }
+
+    /** Copied bucket counts; percentiles report the upper edge of their bucket, capped at the maximum. */
+    public static final class Snapshot {
+        private final long[] counts;
+        public final long count;
+        public final long sumNanos;
+        public final long maxNanos;
+
+        Snapshot(long[] counts, long count, long sumNanos, long maxNanos) {
+            this.counts = counts;
+            this.count = count;
+            this.sumNanos = sumNanos;
+            this.maxNanos = maxNanos;
+        }
+
+        public double meanNanos() {
+            return count > 0 ? (double) sumNanos / count : 0;
+        }
+
+        /** The value at or below which {@code percentile} % of the recorded values lie; 0 if empty. */
+        public long valueAtPercentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(highestValue(i), maxNanos);
+                }
+            }
+            return maxNanos;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.example.bluetoothscanner;
+
+/**
+ * Incremental line splitter over raw bytes: feeds arbitrary read-sized pieces and reports each
+ * complete line (without the terminator, and without a trailing '\r') as a slice of either the
+ * input or an internal carry buffer. Nothing is decoded. Lines longer than the carry buffer are
+ * reported in pieces with {@code complete == false}.
+ */
+public final class LineSplitter {
+    public interface Listener {
+        void onLine(byte[] buffer, int offset, int length, boolean complete);
+    }
+
+    private final byte[] carry;
+    private final Listener listener;
+    private int carryLength;
+    private long lines;
+
+    public LineSplitter(int maxLineLength, Listener listener) {
+        this.carry = new byte[maxLineLength];
+        this.listener = listener;
+    }
+
+    public void feed(byte[] data, int offset, int length) {
+        int end = offset + length;
+        int lineStart = offset;
+        for (int i = offset; i < end; i++) {
+            if (data[i] != '\n') {
+                continue;
+            }
+            if (carryLength > 0) {
+                appendToCarry(data, lineStart, i - lineStart);
+                emit(carry, 0, carryLength, true);
+                carryLength = 0;
+            } else {
+                emit(data, lineStart, i - lineStart, true);
+            }
+            lineStart = i + 1;
+        }
+        if (lineStart < end) {
+            appendToCarry(data, lineStart, end - lineStart);
+        }
+    }
+
+    /** Number of complete lines seen. */
+    public long lines() {
+        return lines;
+    }
+
+    public void reset() {
+        carryLength = 0;
+        lines = 0;
+    }
+
+    private void appendToCarry(byte[] data, int offset, int length) {
+        while (length > 0) {
+            int n = Math.min(length, carry.length - carryLength);
+            System.arraycopy(data, offset, carry, carryLength, n);
+            carryLength += n;
+            offset += n;
+            length -= n;
+            if (carryLength == carry.length) {
+                listener.onLine(carry, 0, carryLength, false);
+                carryLength = 0;
+            }
+        }
+    }
+
+    private void emit(byte[] buffer, int offset, int length, boolean complete) {
+        if (length > 0 && buffer[offset + length - 1] == '\r') {
+            length--;
+        }
+        lines++;
+        listener.onLine(buffer, offset, length, complete);
+    }
+}
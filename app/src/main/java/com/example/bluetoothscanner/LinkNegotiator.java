@@ -0,0 +1,99 @@
+package com.example.bluetoothscanner;
+
+/**
+ * Post-connect negotiation stage: exchanges the MTU and requests the preferred PHY through the
+ * {@link GattOperationQueue}, waits for {@code onMtuChanged}/{@code onPhyUpdate}, and records
+ * the result as {@link LinkParameters}. Also raises the connection priority for the duration
+ * of bulk transfers. The MTU/PHY callbacks must be forwarded here instead of to the queue.
+ */
+public class LinkNegotiator {
+    public static final int PREFERRED_MTU = 517;
+    /**
+     * How long to wait for {@code onPhyUpdate}. Some stacks never call it when the PHY does not
+     * change, and service discovery waits behind the request, so this is far below the GATT default.
+     */
+    public static final long PHY_TIMEOUT_MILLIS = 300;
+
+    /** Link-layer requests; return {@link GattOperation#ISSUED} or an error code. */
+    public interface LinkControl {
+        int requestMtu(int mtu);
+
+        int setPreferredPhy(int txPhy, int rxPhy);
+
+        int requestConnectionPriority(int priority);
+    }
+
+    public interface Listener {
+        /** Called on the queue thread once MTU and PHY requests have completed or failed (not if cancelled). */
+        void onNegotiated(LinkParameters parameters);
+    }
+
+    private final GattOperationQueue queue;
+    private final LinkControl control;
+    private volatile LinkParameters parameters = LinkParameters.INITIAL;
+    private int bulkTransfers;
+
+    public LinkNegotiator(GattOperationQueue queue, LinkControl control) {
+        this.queue = queue;
+        this.control = control;
+    }
+
+    public LinkParameters parameters() {
+        return parameters;
+    }
+
+    /** Starts over for a new connection and queues the MTU exchange followed by the PHY request. */
+    public void negotiate(int preferredPhy, Listener listener) {
+        synchronized (this) {
+            parameters = LinkParameters.INITIAL;
+            bulkTransfers = 0;
+        }
+        queue.enqueue(new GattOperation(GattOperation.Type.MTU, null, () -> control.requestMtu(PREFERRED_MTU),
+                null, GattOperations.DEFAULT_TIMEOUT_MILLIS, GattOperations.DEFAULT_ATTEMPTS));
+        // Not retried: a missing onPhyUpdate usually means the PHY is already as good as it gets
+        queue.enqueue(new GattOperation(GattOperation.Type.PHY, null, () -> control.setPreferredPhy(preferredPhy, preferredPhy),
+                (operation, status, value) -> {
+                    if (status != GattOperation.STATUS_CANCELLED) {
+                        listener.onNegotiated(parameters);
+                    }
+                },
+                PHY_TIMEOUT_MILLIS, 1));
+    }
+
+    public void onMtuChanged(int mtu, int status) {
+        if (status == 0) {
+            synchronized (this) {
+                parameters = parameters.withMtu(mtu);
+            }
+        }
+        queue.onComplete(GattOperation.Type.MTU, null, status, null);
+    }
+
+    public void onPhyUpdate(int txPhy, int rxPhy, int status) {
+        if (status == 0) {
+            synchronized (this) {
+                parameters = parameters.withPhy(txPhy, rxPhy);
+            }
+        }
+        queue.onComplete(GattOperation.Type.PHY, null, status, null);
+    }
+
+    /** Requests a short connection interval until the matching {@link #endBulkTransfer()}. */
+    public synchronized void beginBulkTransfer() {
+        if (bulkTransfers++ == 0) {
+            setPriority(LinkParameters.PRIORITY_HIGH);
+        }
+    }
+
+    public synchronized void endBulkTransfer() {
+        if (bulkTransfers > 0 && --bulkTransfers == 0) {
+            setPriority(LinkParameters.PRIORITY_BALANCED);
+        }
+    }
+
+    private void setPriority(int priority) {
+        if (control.requestConnectionPriority(priority) == GattOperation.ISSUED) {
+            parameters = parameters.withConnectionPriority(priority);
+        }
+    }
+}
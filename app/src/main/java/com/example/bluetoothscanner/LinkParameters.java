@@ -0,0 +1,73 @@
+package com.example.bluetoothscanner;
+
+/** Effective parameters of a BLE link as negotiated after connecting. */
+public final class LinkParameters {
+    /** ATT MTU every LE link starts with before an exchange. */
+    public static final int DEFAULT_MTU = 23;
+    public static final int PHY_LE_1M = 1;
+    public static final int PHY_LE_2M = 2;
+    public static final int PHY_LE_CODED = 3;
+    public static final int PRIORITY_BALANCED = 0;
+    public static final int PRIORITY_HIGH = 1;
+    public static final int PRIORITY_LOW_POWER = 2;
+
+    public static final LinkParameters INITIAL = new LinkParameters(DEFAULT_MTU, PHY_LE_1M, PHY_LE_1M, PRIORITY_BALANCED);
+
+    public final int mtu;
+    public final int txPhy;
+    public final int rxPhy;
+    public final int connectionPriority;
+
+    public LinkParameters(int mtu, int txPhy, int rxPhy, int connectionPriority) {
+        this.mtu = mtu;
+        this.txPhy = txPhy;
+        this.rxPhy = rxPhy;
+        this.connectionPriority = connectionPriority;
+    }
+
+    /** Largest value that fits in one ATT write or notification. */
+    public int maxAttributePayload() {
+        return mtu - 3;
+    }
+
+    public LinkParameters withMtu(int mtu) {
+        return new LinkParameters(mtu, txPhy, rxPhy, connectionPriority);
+    }
+
+    public LinkParameters withPhy(int txPhy, int rxPhy) {
+        return new LinkParameters(mtu, txPhy, rxPhy, connectionPriority);
+    }
+
+    public LinkParameters withConnectionPriority(int connectionPriority) {
+        return new LinkParameters(mtu, txPhy, rxPhy, connectionPriority);
+    }
+
+    @Override
+    public String toString() {
+        return "MTU " + mtu + ", PHY " + phyName(txPhy) + "/" + phyName(rxPhy) + ", priority " + priorityName(connectionPriority);
+    }
+
+    static String phyName(int phy) {
+        switch (phy) {
+            case PHY_LE_1M:
+                return "1M";
+            case PHY_LE_2M:
+                return "2M";
+            case PHY_LE_CODED:
+                return "Coded";
+            default:
+                return "?" + phy;
+        }
+    }
+
+    static String priorityName(int priority) {
+        switch (priority) {
+            case PRIORITY_HIGH:
+                return "high";
+            case PRIORITY_LOW_POWER:
+                return "low power";
+            default:
+                return "balanced";
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.example.bluetoothscanner;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing (linear probing) map from non-negative long keys to int values.
+ * No boxing and no per-entry objects; lookups of existing keys never allocate.
+ */
+public final class LongIndexMap {
+    public static final int MISSING = -1;
+
+    private static final long EMPTY = -1L;
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private long[] keys;
+    private int[] values;
+    private int mask;
+    private int size;
+    private int resizeAt;
+
+    public LongIndexMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+        allocate(capacity);
+    }
+
+    public int get(long key) {
+        int slot = mix(key) & mask;
+        long k;
+        while ((k = keys[slot]) != EMPTY) {
+            if (k == key) {
+                return values[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return MISSING;
+    }
+
+    /** Associates {@code value} with {@code key}, which must be non-negative. */
+    public void put(long key, int value) {
+        if (key < 0) {
+            throw new IllegalArgumentException("Negative key: " + key);
+        }
+        int slot = mix(key) & mask;
+        long k;
+        while ((k = keys[slot]) != EMPTY) {
+            if (k == key) {
+                values[slot] = value;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size >= resizeAt) {
+            rehash(keys.length << 1);
+        }
+    }
+
+    /** Removes {@code key} and returns its value, or {@link #MISSING} if it was absent. */
+    public int remove(long key) {
+        int slot = mix(key) & mask;
+        long k;
+        while ((k = keys[slot]) != EMPTY) {
+            if (k == key) {
+                int value = values[slot];
+                shiftBack(slot);
+                size--;
+                return value;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return MISSING;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, EMPTY);
+        size = 0;
+    }
+
+    // Backward-shift deletion: pull later entries of the probe run into the hole, so no
+    // tombstones are needed and lookups still stop at the first empty slot.
+    private void shiftBack(int hole) {
+        int slot = hole;
+        while (true) {
+            slot = (slot + 1) & mask;
+            long k = keys[slot];
+            if (k == EMPTY) {
+                break;
+            }
+            int home = mix(k) & mask;
+            if (((slot - home) & mask) >= ((slot - hole) & mask)) {
+                keys[hole] = k;
+                values[hole] = values[slot];
+                hole = slot;
+            }
+        }
+        keys[hole] = EMPTY;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int slot = mix(oldKeys[i]) & mask;
+                while (keys[slot] != EMPTY) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+        mask = capacity - 1;
+        resizeAt = (int) (capacity * LOAD_FACTOR);
+    }
+
+    // Addresses share vendor prefixes, so spread all bits before masking.
+    private static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
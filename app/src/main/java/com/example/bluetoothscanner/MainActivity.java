@@ -5,25 +5,21 @@ import static android.view.View.VISIBLE;
 
 import android.Manifest;
 import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothClass;
 import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothGatt;
-import android.bluetooth.BluetoothGattCallback;
-import android.bluetooth.BluetoothGattCharacteristic;
-import android.bluetooth.BluetoothGattDescriptor;
-import android.bluetooth.BluetoothProfile;
-import android.bluetooth.BluetoothSocket;
-import android.bluetooth.le.BluetoothLeScanner;
-import android.bluetooth.le.ScanCallback;
-import android.bluetooth.le.ScanResult;
 import android.content.BroadcastReceiver;
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.content.ServiceConnection;
 import android.content.pm.PackageManager;
 import android.os.Build;
 import android.os.Bundle;
-import android.os.Handler;
-import android.os.Looper;
+import android.os.IBinder;
+import android.os.SystemClock;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.util.Log;
 import android.view.View;
 import android.widget.Button;
@@ -42,11 +38,23 @@ import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 public class MainActivity extends AppCompatActivity {
@@ -55,24 +63,88 @@ public class MainActivity extends AppCompatActivity {
     private Button scanButton;
     private Button sendButton; // New button for sending messages
     private EditText messageInput; // Input field for messages
+    private EditText filterInput; // Scan rules, see ScanRule.parse
+    private EditText searchInput; // Search over the list, see DeviceQuery.parse
+    private DeviceQuery deviceQuery; // null shows every device in discovery order
     private ProgressBar progressBar;
     private Switch bleToggle;
+    private Switch dualToggle; // Classic and BLE in one scan, see UnifiedScan
+    private Switch framedToggle; // FrameFormat instead of text, for connections and sends from now on
+    private volatile boolean framed;
     private TextView characteristicValuesText;
     private RecyclerView deviceList;
-    private final List<BluetoothDevice> discoveredDevices = new ArrayList<>();
     private DeviceListAdapter deviceListAdapter;
+    private ScanIngestor<BluetoothDevice> scanIngestor;
+    private ScanBatchConfig scanBatchConfig = ScanBatchConfig.DEFAULT;
+    private boolean bleScanning;
+    private UnifiedScan unifiedScan; // set while a unified scan runs
+    private final ScheduledExecutorService scanExecutor = Executors.newSingleThreadScheduledExecutor();
 
     private static final int REQUEST_ENABLE_BT = 1;
     private static final int REQUEST_PERMISSIONS = 2;
     private static final UUID MY_UUID = UUID.fromString("00001101-0000-1000-8000-00805F9B34FB"); // UUID for SPP
+    private static final UUID BATTERY_LEVEL_UUID = UUID.fromString("00002a19-0000-1000-8000-00805f9b34fb");
     private static final String TARGET_MAC_ADDRESS = "94:08:53:71:50:F6"; // Target MAC address
+    private static final long TARGET_ADDRESS = BluetoothAddress.pack(TARGET_MAC_ADDRESS);
+    private static final int SCAN_RING_CAPACITY = 4096;
+    private static final int SCAN_PUBLISH_RATE_HZ = 20;
+    // Keeps a continuous scan among MAC-randomising phones from growing without bound
+    private static final int SCAN_MAX_DEVICES = 2000;
+    private static final long SCAN_DEVICE_TTL_SECONDS = 120;
+    private static final int RFCOMM_VIEW_MAX_CHARS = 16 * 1024;
+    private static final int RFCOMM_REFRESH_HZ = 15;
+    private static final int NOTIFICATION_REFRESH_HZ = 10;
+    private static final long FLEET_POLL_INTERVAL_MILLIS = 30_000;
+    // Room for a framed message of about 60 KiB at the RFCOMM fragment size; a few in flight per link
+    private static final int FRAME_BUFFER_SIZE = 64 * 1024;
+    private static final int FRAME_POOL_SIZE = 8;
 
-    private BluetoothLeScanner bluetoothLeScanner;
-    private BluetoothGatt bluetoothGatt;
-    private BluetoothGattCharacteristic writeCharacteristic;
-    private int bleMtu = 512;
-    private BluetoothSocket socket;
-    private final StringBuilder messageBuilder = new StringBuilder();
+    private BleScanner<BluetoothDevice> bleScanner;
+    private volatile GattClient gattClient;
+    private volatile String gattDeviceLabel;
+    private volatile GattCharacteristicInfo writeCharacteristic;
+    private final ScheduledExecutorService gattExecutor = Executors.newSingleThreadScheduledExecutor();
+    private final GattOperationQueue gattQueue = new GattOperationQueue(gattExecutor);
+    private final BleWritePipeline bleWritePipeline = new BleWritePipeline(gattQueue, this::writeChunk);
+    private final BufferPool frameBuffers = new BufferPool(FRAME_BUFFER_SIZE, FRAME_POOL_SIZE);
+    private final FrameEncoder bleFrameEncoder = new FrameEncoder(frameBuffers, FrameEncoder.DEFAULT_DEFLATE_THRESHOLD);
+    // Per notifying characteristic, on the GATT callback thread; cleared for each connection
+    private final ConcurrentHashMap<UUID, FrameDecoder> bleFrameDecoders = new ConcurrentHashMap<>();
+    private final LinkNegotiator linkNegotiator = new LinkNegotiator(gattQueue, new LinkNegotiator.LinkControl() {
+        @Override
+        public int requestMtu(int mtu) {
+            GattClient client = gattClient;
+            return client != null ? client.requestMtu(mtu) : GattOperation.ISSUE_FAILED;
+        }
+
+        @Override
+        public int setPreferredPhy(int txPhy, int rxPhy) {
+            GattClient client = gattClient;
+            return client != null ? client.setPreferredPhy(txPhy, rxPhy) : GattOperation.ISSUE_FAILED;
+        }
+
+        @Override
+        public int requestConnectionPriority(int priority) {
+            GattClient client = gattClient;
+            return client != null ? client.requestConnectionPriority(priority) : GattOperation.ISSUE_FAILED;
+        }
+    });
+    private GattCache gattCache;
+    private volatile long gattConnectStartNanos;
+    private volatile boolean gattTableRestored; // this connection skipped discovery
+    private final AtomicBoolean gattFirstData = new AtomicBoolean();
+    private GattConnectionManager fleetManager;
+    private final Set<Long> fleetAddresses = new HashSet<>(); // UI thread only
+    private volatile RfcommSession rfcommSession;
+    // Lines (or framed messages) are only counted for now; the splitter hands them out undecoded
+    private final RfcommReceiver rfcommReceiver = new RfcommReceiver((buffer, offset, length, complete) -> { });
+    private StreamTextRenderer rfcommRenderer;
+    private final NotificationSink notificationSink = new NotificationSink();
+    private NotificationRenderer notificationRenderer;
+    private CaptureWriter captureWriter; // null if the capture directory could not be opened
+    private SightingStore sightingStore; // null if the history could not be opened
+    private ScanService.LocalBinder scanServiceBinder; // set while the background scan runs
+    private Future<ScanScheduler.Stats> scanServiceStats;
 
     // Activity Result Launcher for enabling Bluetooth
     private final ActivityResultLauncher<Intent> enableBluetoothLauncher = registerForActivityResult(
@@ -100,19 +172,61 @@ public class MainActivity extends AppCompatActivity {
         setContentView(R.layout.activity_main);
 
         statusText = findViewById(R.id.statusText);
+        try {
+            captureWriter = new CaptureWriter(new File(getFilesDir(), "captures"));
+        } catch (IOException e) {
+            Log.e("Bluetooth", "Capture disabled", e);
+        }
+        sightingStore = ScanService.openSightingStore(this);
+        statusText.setOnLongClickListener(v -> {
+            exportCapture();
+            return true;
+        });
         scanButton = findViewById(R.id.scanButton);
         sendButton = findViewById(R.id.sendButton);
         messageInput = findViewById(R.id.messageInput);
+        filterInput = findViewById(R.id.filterInput);
+        searchInput = findViewById(R.id.searchInput);
         progressBar = findViewById(R.id.progressBar);
         deviceList = findViewById(R.id.deviceList);
         bleToggle = findViewById(R.id.bleToggle);
+        dualToggle = findViewById(R.id.dualToggle);
+        framedToggle = findViewById(R.id.framedToggle);
+        framedToggle.setOnCheckedChangeListener((button, checked) -> framed = checked);
         characteristicValuesText = findViewById(R.id.characteristicValuesText); // Initialize new TextView
+        rfcommRenderer = new StreamTextRenderer(characteristicValuesText, rfcommReceiver.history(),
+                RFCOMM_VIEW_MAX_CHARS, RFCOMM_REFRESH_HZ);
+        notificationRenderer = new NotificationRenderer(characteristicValuesText, notificationSink, NOTIFICATION_REFRESH_HZ);
         bluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
-        bluetoothLeScanner = bluetoothAdapter.getBluetoothLeScanner();
+        bleScanner = new AndroidBleScanner(bluetoothAdapter);
+        fleetManager = new GattConnectionManager(
+                (address, listener) -> AndroidGattClient.connect(this,
+                        bluetoothAdapter.getRemoteDevice(BluetoothAddress.format(address)), listener),
+                gattExecutor, GattConnectionManager.DEFAULT_MAX_CONNECTIONS, fleetListener);
+        gattCache = new GattCache(new File(getFilesDir(), "gatt-cache.bin"));
+        gattExecutor.execute(() -> {
+            try {
+                gattCache.load();
+            } catch (IOException e) {
+                Log.e("BLE", "GATT cache unreadable, starting empty", e);
+            }
+        });
+        fleetManager.setCache(gattCache);
 
-        deviceListAdapter = new DeviceListAdapter(discoveredDevices, this::showDeviceMenu);
+        deviceListAdapter = new DeviceListAdapter(this::showDeviceMenu);
         deviceList.setAdapter(deviceListAdapter);
         deviceList.setLayoutManager(new LinearLayoutManager(this));
+        scanIngestor = new ScanIngestor<>(SCAN_RING_CAPACITY, SCAN_PUBLISH_RATE_HZ, scanBatchConfig.maxBatchSize,
+                ContextCompat.getMainExecutor(this), scanListener);
+        scanIngestor.setRetention(SCAN_MAX_DEVICES, SCAN_DEVICE_TTL_SECONDS, TimeUnit.SECONDS);
+        scanIngestor.setClock(SystemClock::elapsedRealtimeNanos);
+        scanIngestor.setNameResolver(this::resolveName);
+        scanIngestor.setCaptureWriter(captureWriter);
+        scanIngestor.setSightingStore(sightingStore);
+        scanIngestor.start();
+        searchInput.addTextChangedListener(searchWatcher);
+        // Without BIND_AUTO_CREATE this only connects while the service runs, e.g. from an earlier visit
+        bindService(new Intent(this, ScanService.class), scanServiceConnection, 0);
 
         // Check BLE support
         if (!getPackageManager().hasSystemFeature(PackageManager.FEATURE_BLUETOOTH_LE)) {
@@ -122,82 +236,99 @@ public class MainActivity extends AppCompatActivity {
         }
 
         scanButton.setOnClickListener(v -> {
-            if (socket != null && socket.isConnected()) {
-                try {
-                    socket.close();
-                    socket = null;
-                    runOnUiThread(() -> {
-                        statusText.setText("Disconnected (Classic)");
-                        Toast.makeText(MainActivity.this, "Disconnect successful", Toast.LENGTH_SHORT).show();
-                    });
-                } catch (IOException e) {
-                    Log.e("Bluetooth", "Error closing socket", e);
-                }
-            } else if (bluetoothGatt != null) {
-                if (ActivityCompat.checkSelfPermission(this, Manifest.permission.BLUETOOTH_CONNECT) != PackageManager.PERMISSION_GRANTED) {
-                    return;
-                }
-                bluetoothGatt.disconnect();
-                bluetoothGatt.close();
-                bluetoothGatt = null;
+            RfcommSession session = rfcommSession;
+            GattClient client = gattClient;
+            if (session != null && session.socket().isConnected()) {
+                session.close();
+                rfcommSession = null;
+                runOnUiThread(() -> {
+                    statusText.setText("Disconnected (Classic)");
+                    Toast.makeText(MainActivity.this, "Disconnect successful", Toast.LENGTH_SHORT).show();
+                });
+            } else if (client != null) {
+                client.close();
+                gattClient = null;
+                gattQueue.clear();
+                notificationRenderer.stop();
                 deviceList.setVisibility(VISIBLE);
                 characteristicValuesText.setVisibility(View.GONE);
                 statusText.setText("Disconnected (BLE)");
                 Toast.makeText(MainActivity.this, "Disconnected BLE", Toast.LENGTH_SHORT).show();
+            } else if (scanServiceBinder != null) {
+                Toast.makeText(MainActivity.this, "Background scan running, long-press to stop it", Toast.LENGTH_SHORT).show();
             } else {
                 boolean useBle = bleToggle.isChecked();
                 Log.d("Bluetooth", "Starting scan, useBle: " + useBle);
                 deviceList.setVisibility(VISIBLE);
                 characteristicValuesText.setVisibility(View.GONE);
-                if (useBle) startBleScan();
+                if (dualToggle.isChecked()) startUnifiedScan();
+                else if (useBle) startBleScan();
                 else startDiscovery();
             }
         });
+        scanButton.setOnLongClickListener(v -> {
+            toggleBackgroundScan();
+            return true;
+        });
 
         sendButton.setOnClickListener(v -> {
             String message = messageInput.getText().toString();
             if (!message.isEmpty()) {
-                if (socket != null && socket.isConnected()) {
-                    // Send via Bluetooth Classic
-                    new Thread(() -> {
-                        try {
-                            socket.getOutputStream().write((message + "\n").getBytes());
-                            socket.getOutputStream().flush();
-                            runOnUiThread(() -> {
-                                messageInput.setText("");
-                                Toast.makeText(MainActivity.this, "Sent (Classic): " + message, Toast.LENGTH_SHORT).show();
-                            });
-                        } catch (IOException e) {
-                            runOnUiThread(() -> {
-                                Toast.makeText(MainActivity.this, "Error sending (Classic): " + e.getMessage(), Toast.LENGTH_SHORT).show();
-                            });
-                        }
-                    }).start();
-                } else if (bluetoothGatt != null && writeCharacteristic != null) {
+                RfcommSession session = rfcommSession;
+                GattCharacteristicInfo target = writeCharacteristic;
+                if (session != null && session.socket().isConnected()) {
+                    // Send via Bluetooth Classic; the writer thread owns the stream, a full queue means the link is behind
+                    boolean queued = false;
+                    try {
+                        queued = session.send(message, 0, TimeUnit.MILLISECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    if (queued) {
+                        messageInput.setText("");
+                        Toast.makeText(MainActivity.this, "Sent (Classic): " + message, Toast.LENGTH_SHORT).show();
+                    } else {
+                        Toast.makeText(MainActivity.this, "Error sending (Classic): send queue full", Toast.LENGTH_SHORT).show();
+                    }
+                } else if (gattClient != null && target != null) {
                     // Send via BLE
                     if (ActivityCompat.checkSelfPermission(MainActivity.this, Manifest.permission.BLUETOOTH_CONNECT) == PackageManager.PERMISSION_GRANTED) {
-                        // Split data into chunks based on MTU
-                        int chunkSize = bleMtu - 3; // Subtract header
+                        // Split data into chunks that fit the negotiated MTU; the pipeline paces them on write completions
+                        int chunkSize = linkNegotiator.parameters().maxAttributePayload();
                         byte[] data = message.getBytes(java.nio.charset.StandardCharsets.UTF_8);
-                        for (int i = 0; i < data.length; i += chunkSize) {
-                            int end = Math.min(i + chunkSize, data.length);
-                            byte[] chunk = Arrays.copyOfRange(data, i, end);
-                            bluetoothGatt.writeCharacteristic(
-                                    writeCharacteristic,
-                                    chunk,
-                                    BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE
-                            );
+                        int writeType = target.canWriteWithoutResponse()
+                                ? GattClient.WRITE_TYPE_NO_RESPONSE
+                                : GattClient.WRITE_TYPE_DEFAULT;
+                        BleWritePipeline.Listener onComplete = result -> {
+                            // As the transfer ran, priority included; read before the priority drops again
+                            LinkParameters link = linkNegotiator.parameters();
+                            linkNegotiator.endBulkTransfer();
+                            String summary = String.format(java.util.Locale.US, "%d bytes at %.0f B/s (%s), retried chunks: %s",
+                                    result.bytesSent, result.bytesPerSecond(), link, result.retriedChunks);
+                            Log.d("BLE", (result.success ? "Sent " : "Send failed (" + result.status + ") after ") + summary);
+                            runOnUiThread(() -> Toast.makeText(MainActivity.this,
+                                    (result.success ? "Sent " : "Send failed: ") + summary, Toast.LENGTH_SHORT).show());
+                        };
+                        if (framed) {
+                            // Fragments are chunk-sized, so every write carries exactly one
+                            ByteBuffer frame;
                             try {
-                                Thread.sleep(10);
-                            } catch (InterruptedException e) {
-                                Log.e("BLE", "Sleep interrupted", e);
+                                frame = bleFrameEncoder.encode(data, 0, data.length, chunkSize);
+                            } catch (IllegalArgumentException e) {
+                                Toast.makeText(MainActivity.this, "Cannot frame message: " + e.getMessage(), Toast.LENGTH_SHORT).show();
+                                return;
                             }
-                        }
-                        runOnUiThread(() -> {
                             messageInput.setText("");
-                            Toast.makeText(MainActivity.this, "Sent " + data.length + " bytes", Toast.LENGTH_SHORT).show();
-                        });
-                        Log.d("BLE", "Sent " + data.length + " bytes");
+                            linkNegotiator.beginBulkTransfer();
+                            bleWritePipeline.send(target.uuid, frame.array(), frame.limit(), chunkSize, writeType, result -> {
+                                frameBuffers.release(frame);
+                                onComplete.onComplete(result);
+                            });
+                        } else {
+                            messageInput.setText("");
+                            linkNegotiator.beginBulkTransfer();
+                            bleWritePipeline.send(target.uuid, data, chunkSize, writeType, onComplete);
+                        }
                     }
                 } else {
                     Toast.makeText(MainActivity.this, "Not connected or no write characteristic", Toast.LENGTH_SHORT).show();
@@ -208,6 +339,11 @@ public class MainActivity extends AppCompatActivity {
             }
         });
 
+        sendButton.setOnLongClickListener(v -> {
+            DiagnosticsDialog.show(this, Metrics.global());
+            return true;
+        });
+
         IntentFilter filter = new IntentFilter();
         filter.addAction(BluetoothDevice.ACTION_FOUND);
         filter.addAction(BluetoothAdapter.ACTION_DISCOVERY_STARTED);
@@ -227,6 +363,11 @@ public class MainActivity extends AppCompatActivity {
         if (device.getBondState() != BluetoothDevice.BOND_BONDED) {
             popupMenu.getMenu().add("Pair");
         }
+        long address = BluetoothAddress.pack(device.getAddress());
+        popupMenu.getMenu().add(fleetAddresses.contains(address) ? "Stop polling" : "Poll periodically");
+        if (sightingStore != null) {
+            popupMenu.getMenu().add("History (last hour)");
+        }
         popupMenu.setOnMenuItemClickListener(item -> {
             switch (item.getTitle().toString()) {
                 case "Connect (Classic)":
@@ -241,6 +382,17 @@ public class MainActivity extends AppCompatActivity {
                         Toast.makeText(MainActivity.this, "Pairing with " + device.getName(), Toast.LENGTH_SHORT).show();
                     }
                     return true;
+                case "Poll periodically":
+                    fleetAddresses.add(address);
+                    fleetManager.add(address, GattConnectionManager.PollSpec.readAll(FLEET_POLL_INTERVAL_MILLIS));
+                    return true;
+                case "Stop polling":
+                    fleetAddresses.remove(address);
+                    fleetManager.remove(address);
+                    return true;
+                case "History (last hour)":
+                    showHistory(address);
+                    return true;
                 default:
                     return false;
             }
@@ -248,6 +400,39 @@ public class MainActivity extends AppCompatActivity {
         popupMenu.show();
     }
 
+    /** For the ingestor's name cache; on its thread, so the binder call stays off the main thread. */
+    private String resolveName(BluetoothDevice device) {
+        if (checkSelfPermission(Manifest.permission.BLUETOOTH_CONNECT) != PackageManager.PERMISSION_GRANTED) {
+            return null;
+        }
+        return device.getName();
+    }
+
+    /** Summarises the stored sightings of one device over the last hour, off the main thread. */
+    private void showHistory(long address) {
+        SightingStore store = sightingStore;
+        long now = System.currentTimeMillis();
+        scanExecutor.execute(() -> {
+            long[] summary = {0, Long.MAX_VALUE, Long.MIN_VALUE, 0}; // count, first, last, rssi sum
+            try {
+                store.sightings(address, now - TimeUnit.HOURS.toMillis(1), now, (a, time, rssi, transport) -> {
+                    summary[0]++;
+                    summary[1] = Math.min(summary[1], time);
+                    summary[2] = Math.max(summary[2], time);
+                    summary[3] += rssi;
+                });
+            } catch (IOException e) {
+                Log.e("Bluetooth", "History query failed", e);
+                return;
+            }
+            String text = summary[0] == 0
+                    ? "No sightings in the last hour"
+                    : String.format(Locale.US, "%d sightings in the last hour, first %d min ago, last %d s ago, mean RSSI %d dBm",
+                            summary[0], (now - summary[1]) / 60_000, (now - summary[2]) / 1000, summary[3] / summary[0]);
+            runOnUiThread(() -> Toast.makeText(this, text, Toast.LENGTH_LONG).show());
+        });
+    }
+
     private void checkPermissions() {
         String[] permissions = new String[]{
                 Manifest.permission.BLUETOOTH_SCAN,
@@ -260,6 +445,11 @@ public class MainActivity extends AppCompatActivity {
                 permissionsToRequest.add(permission);
             }
         }
+        // For the background scan's notification
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU
+                && ContextCompat.checkSelfPermission(this, Manifest.permission.POST_NOTIFICATIONS) != PackageManager.PERMISSION_GRANTED) {
+            permissionsToRequest.add(Manifest.permission.POST_NOTIFICATIONS);
+        }
         if (!permissionsToRequest.isEmpty()) {
             ActivityCompat.requestPermissions(this, permissionsToRequest.toArray(new String[0]), REQUEST_PERMISSIONS);
         }
@@ -318,15 +508,40 @@ public class MainActivity extends AppCompatActivity {
             bluetoothAdapter.cancelDiscovery();
         }
         statusText.setText("Connecting to " + device.getName() + "...");
+        boolean framedSession = framed;
         new Thread(() -> {
             try {
                 Thread.sleep(1000);
-                socket = device.createRfcommSocketToServiceRecord(MY_UUID);
-                socket.connect();
+                StreamSocket socket = AndroidStreamSocket.connect(device, MY_UUID);
+                rfcommReceiver.reset();
+                rfcommReceiver.setFramed(framedSession);
+                rfcommReceiver.setTap(captureWriter != null ? captureWriter.sink(CaptureFormat.TYPE_RFCOMM_RX, socket.address(), 0) : null);
+                RfcommSession session;
+                try {
+                    session = new RfcommSession(socket, rfcommReceiver, new RfcommWriter.Listener() {
+                        @Override
+                        public void onSent(String message, long latencyNanos) {
+                            Log.d("Bluetooth", "Sent " + (message != null ? message.length() + " chars" : "frame")
+                                    + " in " + latencyNanos / 1000 + " us");
+                        }
+
+                        @Override
+                        public void onError(IOException e) {
+                            runOnUiThread(() -> Toast.makeText(MainActivity.this, "Error sending (Classic): " + e.getMessage(), Toast.LENGTH_SHORT).show());
+                        }
+                    }, framedSession ? new FrameEncoder(frameBuffers, FrameEncoder.DEFAULT_DEFLATE_THRESHOLD) : null);
+                } catch (IOException e) {
+                    socket.close();
+                    throw e;
+                }
+                if (captureWriter != null) {
+                    session.writer().setTap(captureWriter.sink(CaptureFormat.TYPE_RFCOMM_TX, socket.address(), 0));
+                }
+                rfcommSession = session;
                 runOnUiThread(() -> {
                     Toast.makeText(MainActivity.this, "Connected to " + device.getName(), Toast.LENGTH_SHORT).show();
                     statusText.setText("Connected to " + device.getName());
-                    messageBuilder.setLength(0); // Clear old messages
+                    rfcommRenderer.start();
                     try {
                         deviceList.setVisibility(View.GONE);
                         characteristicValuesText.setVisibility(View.VISIBLE);
@@ -335,31 +550,15 @@ public class MainActivity extends AppCompatActivity {
                     }
                 });
 
-                java.io.OutputStream outputStream = socket.getOutputStream();
-                java.io.InputStream inputStream = socket.getInputStream();
-
                 // Send initial message
-                String messages = "Hello from Android!";
-                outputStream.write(messages.getBytes());
-                outputStream.flush();
+                session.send("Hello from Android!", 500, TimeUnit.MILLISECONDS);
                 Thread.sleep(500);
 
-                // Read/receive message loop
-                byte[] buffer = new byte[1024];
-                while (socket.isConnected()) {
-                    try {
-                        int bytes = inputStream.read(buffer);
-                        if (bytes == -1) {
-                            throw new IOException("Connection closed");
-                        }
-                        String received = new String(buffer, 0, bytes);
-                        Log.d("Bluetooth", "Received: " + received);
-                        messageBuilder.append(received);
-                        characteristicValuesText.setText(messageBuilder.toString());
-                    } catch (IOException e) {
-                        runOnUiThread(() -> Log.e("Bluetooth", "Error reading data: " + e.getMessage(), e));
-                        break;
-                    }
+                // Read/receive message loop; rendering happens on the main thread at its own pace
+                try {
+                    session.run();
+                } catch (IOException e) {
+                    runOnUiThread(() -> Log.e("Bluetooth", "Error reading data: " + e.getMessage(), e));
                 }
             } catch (IOException e) {
                 runOnUiThread(() -> {
@@ -378,15 +577,19 @@ public class MainActivity extends AppCompatActivity {
                     characteristicValuesText.setVisibility(View.GONE);
                 });
             } finally {
-                if (socket != null && socket.isConnected()) {
-                    try {
-                        socket.close();
-                    } catch (IOException e) {
-                        Log.e("Bluetooth", "Error closing socket", e);
-                    }
+                RfcommSession session = rfcommSession;
+                if (session != null) {
+                    session.close();
+                    rfcommSession = null;
+                }
+                Log.d("Bluetooth", "Received " + rfcommReceiver.bytesReceived() + " bytes, " + rfcommReceiver.lines() + " lines");
+                if (framedSession) {
+                    FrameDecoder decoder = rfcommReceiver.decoder();
+                    Log.d("Bluetooth", "Frames: " + decoder.messages() + " messages, " + decoder.droppedMessages() + " dropped, "
+                            + decoder.lostFragments() + " fragments lost, " + decoder.rejected() + " rejected");
                 }
-                socket = null;
                 runOnUiThread(() -> {
+                    rfcommRenderer.stop();
                     deviceList.setVisibility(VISIBLE);
                     characteristicValuesText.setVisibility(View.GONE);
                 });
@@ -394,6 +597,33 @@ public class MainActivity extends AppCompatActivity {
         }).start();
     }
 
+    private void exportCapture() {
+        CaptureWriter writer = captureWriter;
+        File exportDir = getExternalFilesDir(null);
+        if (writer == null || exportDir == null) {
+            Toast.makeText(this, "Capture not available", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        new Thread(() -> {
+            try {
+                File[] captures = writer.finishedFiles();
+                String name = "capture-" + System.currentTimeMillis();
+                File btsnoop = new File(exportDir, name + ".btsnoop");
+                long packets;
+                try (OutputStream out = new FileOutputStream(btsnoop)) {
+                    packets = CaptureExporter.export(captures, out, CaptureExporter.Format.BTSNOOP);
+                }
+                try (OutputStream out = new FileOutputStream(new File(exportDir, name + ".pcap"))) {
+                    CaptureExporter.export(captures, out, CaptureExporter.Format.PCAP);
+                }
+                runOnUiThread(() -> Toast.makeText(MainActivity.this, "Exported " + packets + " packets to " + btsnoop.getParent(), Toast.LENGTH_LONG).show());
+            } catch (IOException e) {
+                Log.e("Bluetooth", "Capture export failed", e);
+                runOnUiThread(() -> Toast.makeText(MainActivity.this, "Export failed: " + e.getMessage(), Toast.LENGTH_LONG).show());
+            }
+        }, "capture-export").start();
+    }
+
     private void startDiscovery() {
         if (ActivityCompat.checkSelfPermission(this, Manifest.permission.BLUETOOTH_SCAN) != PackageManager.PERMISSION_GRANTED) {
             checkPermissions();
@@ -408,8 +638,7 @@ public class MainActivity extends AppCompatActivity {
         if (bluetoothAdapter.isDiscovering()) {
             bluetoothAdapter.cancelDiscovery();
         }
-        discoveredDevices.clear();
-        deviceListAdapter.notifyDataSetChanged();
+        scanIngestor.reset();
         boolean started = bluetoothAdapter.startDiscovery();
         Log.d("Bluetooth", "startDiscovery called, result: " + started);
         progressBar.setVisibility(VISIBLE);
@@ -420,22 +649,40 @@ public class MainActivity extends AppCompatActivity {
         @Override
         public void onReceive(Context context, Intent intent) {
             String action = intent.getAction();
+            if (scanServiceBinder != null && !BluetoothDevice.ACTION_BOND_STATE_CHANGED.equals(action)) {
+                // Inquiries are the background scan's; it offers their results to its own ingestor
+                return;
+            }
             switch (action) {
                 case BluetoothAdapter.ACTION_DISCOVERY_STARTED:
-                    statusText.setText("Scanning for devices (Classic scan)...");
-                    progressBar.setVisibility(VISIBLE);
+                    if (unifiedScan == null) {
+                        statusText.setText("Scanning for devices (Classic scan)...");
+                        progressBar.setVisibility(VISIBLE);
+                    }
                     break;
                 case BluetoothDevice.ACTION_FOUND:
                     BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
-                    if (device != null && !discoveredDevices.contains(device)) {
+                    if (device != null) {
                         if (ActivityCompat.checkSelfPermission(context, Manifest.permission.BLUETOOTH_CONNECT) == PackageManager.PERMISSION_GRANTED) {
-                            discoveredDevices.add(device);
-                            deviceListAdapter.notifyItemInserted(discoveredDevices.size() - 1);
+                            short rssi = intent.getShortExtra(BluetoothDevice.EXTRA_RSSI, (short) DeviceRegistry.RSSI_UNKNOWN);
+                            BluetoothClass deviceClass = intent.getParcelableExtra(BluetoothDevice.EXTRA_CLASS);
+                            scanIngestor.offerInquiry(device, device.getAddress(), rssi,
+                                    deviceClass != null ? deviceClass.getDeviceClass() : DeviceRegistry.CLASS_UNKNOWN,
+                                    SystemClock.elapsedRealtimeNanos());
+                            if (unifiedScan != null) {
+                                unifiedScan.onInquiryResult();
+                            }
                         }
                     }
                     break;
                 case BluetoothAdapter.ACTION_DISCOVERY_FINISHED:
-                    statusText.setText(discoveredDevices.isEmpty() ? "No devices found" : "Found " + discoveredDevices.size() + " devices");
+                    if (unifiedScan != null) {
+                        // One inquiry of the unified scan; it decides whether another follows
+                        unifiedScan.onInquiryFinished();
+                        break;
+                    }
+                    int found = deviceListAdapter.getItemCount();
+                    statusText.setText(found == 0 ? "No devices found" : "Found " + found + " devices");
                     progressBar.setVisibility(View.GONE);
                     scanButton.setEnabled(true);
                     break;
@@ -466,28 +713,117 @@ public class MainActivity extends AppCompatActivity {
     };
     // -------------- Classic setup end --------------
 
-    // -------------- BLE setup start --------------
-    private final ScanCallback scanCallback = new ScanCallback() {
+    // -------------- Background scan start --------------
+    private void toggleBackgroundScan() {
+        Intent intent = new Intent(this, ScanService.class);
+        if (scanServiceBinder != null) {
+            scanServiceBinder.setListener(null);
+            scanServiceBinder = null;
+            stopService(intent);
+            statusText.setText("Stopped background scan");
+            return;
+        }
+        if (ActivityCompat.checkSelfPermission(this, Manifest.permission.BLUETOOTH_SCAN) != PackageManager.PERMISSION_GRANTED) {
+            checkPermissions();
+            return;
+        }
+        // The service drives the radio from now on
+        if (unifiedScan != null) {
+            unifiedScan.stop();
+        }
+        if (bluetoothAdapter.isDiscovering()) {
+            bluetoothAdapter.cancelDiscovery();
+        }
+        stopBleScan();
+        scanIngestor.reset();
+        ContextCompat.startForegroundService(this, intent);
+        statusText.setText("Starting background scan...");
+    }
+
+    private final TextWatcher searchWatcher = new TextWatcher() {
         @Override
-        public void onScanResult(int callbackType, ScanResult result) {
-            BluetoothDevice device = result.getDevice();
-            if (device != null) {
-                if (device.getAddress().equalsIgnoreCase(TARGET_MAC_ADDRESS)) {
-                    if (!discoveredDevices.contains(device)) {
-                        discoveredDevices.add(device);
-                        deviceListAdapter.notifyItemInserted(discoveredDevices.size() - 1);
-                        runOnUiThread(() -> {
-                            statusText.setText("Found device " + TARGET_MAC_ADDRESS + ", connecting...");
-                            connectToBleDevice(device);
-                        });
-                    }
-                } else {
-                    if (!discoveredDevices.contains(device)) {
-                        discoveredDevices.add(device);
-                        deviceListAdapter.notifyItemInserted(discoveredDevices.size() - 1);
-                    }
+        public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+        }
+
+        @Override
+        public void onTextChanged(CharSequence s, int start, int before, int count) {
+        }
+
+        @Override
+        public void afterTextChanged(Editable s) {
+            DeviceQuery query;
+            try {
+                query = s.toString().trim().isEmpty() ? null : DeviceQuery.parse(s.toString());
+            } catch (IllegalArgumentException e) {
+                // Keep the last valid query while the user is mid-term
+                searchInput.setError(e.getMessage());
+                return;
+            }
+            deviceQuery = query;
+            scanIngestor.setQuery(query);
+            if (scanServiceBinder != null) {
+                scanServiceBinder.setQuery(query);
+            }
+        }
+    };
+
+    private final ServiceConnection scanServiceConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder service) {
+            scanServiceBinder = (ScanService.LocalBinder) service;
+            scanServiceBinder.setListener(backgroundScanListener);
+            scanServiceBinder.setQuery(deviceQuery);
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            scanServiceBinder = null;
+        }
+    };
+
+    private final ScanIngestor.Listener<BluetoothDevice> backgroundScanListener = new ScanIngestor.Listener<BluetoothDevice>() {
+        @Override
+        public void onSnapshot(ScanSnapshot<BluetoothDevice> snapshot) {
+            ScanService.LocalBinder binder = scanServiceBinder;
+            if (binder == null) {
+                return;
+            }
+            deviceListAdapter.submit(snapshot);
+            // Stats asked for on the previous snapshot, so the UI thread never waits for the scheduler
+            String schedule = "";
+            Future<ScanScheduler.Stats> pending = scanServiceStats;
+            if (pending != null && pending.isDone()) {
+                try {
+                    ScanScheduler.Stats stats = pending.get();
+                    schedule = String.format(Locale.US,
+                            "\n%s, %s: %d LE windows, %d inquiries, %d starts (%d throttled)"
+                                    + "\nRadio on %.0f%% (LE %.0f%%, Classic %.0f%%), idle gap %d s"
+                                    + "\nNew devices %.1f/min, found %.1f s into a window on average",
+                            stats.level, stats.phase, stats.windows, stats.inquiries, stats.leStarts,
+                            stats.throttledStarts, stats.radioDutyCycle * 100, stats.leShare * 100,
+                            stats.inquiryShare * 100, stats.idleMillis / 1000, stats.discoveryRatePerMinute,
+                            stats.meanDiscoveryLatencyMillis / 1000);
+                } catch (InterruptedException | ExecutionException e) {
+                    Log.w("BLE", "Background scan stats unavailable", e);
                 }
             }
+            if (pending == null || pending.isDone()) {
+                scanServiceStats = binder.stats();
+            }
+            statusText.setText("Background scan: " + snapshot.devices.size() + " devices" + schedule);
+        }
+    };
+    // -------------- Background scan end --------------
+
+    // -------------- BLE setup start --------------
+    private final BleScanner.Callback<BluetoothDevice> scanCallback = new BleScanner.Callback<BluetoothDevice>() {
+        @Override
+        public void onResult(BluetoothDevice device, String address, int rssi, int txPower, long timestampNanos, byte[] record) {
+            scanIngestor.offer(device, address, rssi, txPower, timestampNanos, record);
+            UnifiedScan unified = unifiedScan;
+            if (unified != null) {
+                unified.onLeResult();
+            }
         }
 
         @Override
@@ -502,6 +838,67 @@ public class MainActivity extends AppCompatActivity {
         }
     };
 
+    private final ScanIngestor.Listener<BluetoothDevice> scanListener = new ScanIngestor.Listener<BluetoothDevice>() {
+        @Override
+        public void onDeviceAdded(BluetoothDevice device, long address) {
+            if (address == TARGET_ADDRESS) {
+                runOnUiThread(() -> {
+                    statusText.setText("Found device " + TARGET_MAC_ADDRESS + ", connecting...");
+                    connectToBleDevice(device);
+                });
+            }
+        }
+
+        @Override
+        public void onSnapshot(ScanSnapshot<BluetoothDevice> snapshot) {
+            if (scanServiceBinder != null) {
+                // The background scan owns the list while it runs
+                return;
+            }
+            deviceListAdapter.submit(snapshot);
+            if (unifiedScan != null) {
+                statusText.setText("Scanning (Classic + BLE): " + describeTransports(snapshot.devices));
+            } else if (bleScanning) {
+                statusText.setText("Scanning (BLE): " + snapshot.devices.size() + " devices\nFiltered by controller: "
+                        + snapshot.hardwareFiltered + ", in software: " + snapshot.softwareAccepted
+                        + " kept / " + snapshot.softwareRejected + " dropped"
+                        + "\nExpired or evicted: " + snapshot.evicted
+                        + "\nNearest: " + describeNearest(snapshot.nearest));
+            }
+        }
+    };
+
+    private static String describeTransports(List<DeviceSnapshot<BluetoothDevice>> devices) {
+        int dual = 0;
+        int classic = 0;
+        for (int i = 0; i < devices.size(); i++) {
+            DeviceSnapshot<BluetoothDevice> row = devices.get(i);
+            if (row.isDualMode()) {
+                dual++;
+            } else if ((row.transports & DeviceRegistry.TRANSPORT_CLASSIC) != 0) {
+                classic++;
+            }
+        }
+        return devices.size() + " devices (" + dual + " dual-mode, " + classic + " Classic only, "
+                + (devices.size() - dual - classic) + " LE only)";
+    }
+
+    private static String describeNearest(List<DeviceSnapshot<BluetoothDevice>> nearest) {
+        if (nearest.isEmpty()) {
+            return "-";
+        }
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < Math.min(3, nearest.size()); i++) {
+            DeviceSnapshot<BluetoothDevice> row = nearest.get(i);
+            if (i > 0) {
+                text.append(", ");
+            }
+            text.append(BluetoothAddress.format(row.address))
+                    .append(String.format(Locale.US, row.calibrated ? " %.1f m" : " ~%.1f m", row.distance));
+        }
+        return text.toString();
+    }
+
     private void startBleScan() {
         if (ActivityCompat.checkSelfPermission(this, Manifest.permission.BLUETOOTH_SCAN) != PackageManager.PERMISSION_GRANTED) {
             checkPermissions();
@@ -513,18 +910,103 @@ public class MainActivity extends AppCompatActivity {
             Toast.makeText(this, "Bluetooth must be enabled to use", Toast.LENGTH_LONG).show();
             return;
         }
+        List<ScanRule> rules;
+        try {
+            rules = ScanRule.parse(filterInput.getText().toString());
+        } catch (IllegalArgumentException e) {
+            Toast.makeText(this, "Invalid filter: " + e.getMessage(), Toast.LENGTH_LONG).show();
+            return;
+        }
         stopBleScan();
-        discoveredDevices.clear();
-        deviceListAdapter.notifyDataSetChanged();
-        bluetoothLeScanner.startScan(scanCallback);
+        scanIngestor.reset();
+        BleScanner.Session session = bleScanner.start(rules, BleScanner.SCAN_MODE_LOW_POWER, scanBatchConfig, scanCallback);
+        scanIngestor.setFilter(session.softwareMatcher, session.hardwareFiltered);
+        scanIngestor.setMaxBatchSize(session.batching.maxBatchSize);
+        bleScanning = true;
         statusText.setText("Scanning for devices (BLE scan)\nTarget: " + TARGET_MAC_ADDRESS + "...");
         progressBar.setVisibility(VISIBLE);
         scanButton.setEnabled(false);
     }
 
+    private void startUnifiedScan() {
+        if (ActivityCompat.checkSelfPermission(this, Manifest.permission.BLUETOOTH_SCAN) != PackageManager.PERMISSION_GRANTED) {
+            checkPermissions();
+            return;
+        }
+        AtomicBoolean bluetoothEnabled = new AtomicBoolean(false);
+        checkBluetoothEnabled(() -> bluetoothEnabled.set(true));
+        if (!bluetoothEnabled.get()) {
+            Toast.makeText(this, "Bluetooth must be enabled to use", Toast.LENGTH_LONG).show();
+            return;
+        }
+        List<ScanRule> rules;
+        try {
+            rules = ScanRule.parse(filterInput.getText().toString());
+        } catch (IllegalArgumentException e) {
+            Toast.makeText(this, "Invalid filter: " + e.getMessage(), Toast.LENGTH_LONG).show();
+            return;
+        }
+        stopBleScan();
+        if (bluetoothAdapter.isDiscovering()) {
+            bluetoothAdapter.cancelDiscovery();
+        }
+        scanIngestor.reset();
+        // Driven from scanExecutor; the scan button stays disabled, so nothing else touches the scanner meanwhile
+        ScanScheduler.Radio radio = new ScanScheduler.Radio() {
+            @Override
+            public boolean startLeScan(int scanMode) {
+                if (!canScan()) {
+                    return false;
+                }
+                BleScanner.Session session = bleScanner.start(rules, scanMode, scanBatchConfig, scanCallback);
+                scanIngestor.setFilter(session.softwareMatcher, session.hardwareFiltered);
+                scanIngestor.setMaxBatchSize(session.batching.maxBatchSize);
+                return true;
+            }
+
+            @Override
+            public void stopLeScan() {
+                if (canScan()) {
+                    bleScanner.stop();
+                }
+            }
+
+            @Override
+            public boolean startInquiry() {
+                return canScan() && bluetoothAdapter.startDiscovery();
+            }
+
+            @Override
+            public void cancelInquiry() {
+                if (canScan()) {
+                    bluetoothAdapter.cancelDiscovery();
+                }
+            }
+        };
+        unifiedScan = new UnifiedScan(radio, scanExecutor, UnifiedScan.DEFAULT_DURATION_MILLIS,
+                UnifiedScan.DEFAULT_LE_WINDOW_MILLIS, stats -> runOnUiThread(() -> {
+                    unifiedScan = null;
+                    statusText.setText(String.format(Locale.US, "Found %s in %d s\n%d LE results, %d inquiry results over %d inquiries (%s)",
+                            describeTransports(deviceListAdapter.devices()), stats.elapsedMillis / 1000,
+                            stats.leResults, stats.inquiryResults, stats.inquiries,
+                            stats.concurrent ? "concurrent" : "interleaved, LE stalls during inquiry"));
+                    progressBar.setVisibility(View.GONE);
+                    scanButton.setEnabled(true);
+                }));
+        unifiedScan.start();
+        statusText.setText("Scanning for devices (Classic + BLE)...");
+        progressBar.setVisibility(VISIBLE);
+        scanButton.setEnabled(false);
+    }
+
+    private boolean canScan() {
+        return ActivityCompat.checkSelfPermission(this, Manifest.permission.BLUETOOTH_SCAN) == PackageManager.PERMISSION_GRANTED;
+    }
+
     private void stopBleScan() {
         if (ActivityCompat.checkSelfPermission(this, Manifest.permission.BLUETOOTH_SCAN) == PackageManager.PERMISSION_GRANTED) {
-            bluetoothLeScanner.stopScan(scanCallback);
+            bleScanner.stop();
+            bleScanning = false;
             statusText.setText("Stopped BLE scan");
             progressBar.setVisibility(View.GONE);
             scanButton.setEnabled(true);
@@ -538,175 +1020,315 @@ public class MainActivity extends AppCompatActivity {
         }
         Log.d("BLE", "Connecting to " + device.getAddress());
         stopBleScan();
-        bluetoothGatt = device.connectGatt(this, false, gattCallback, BluetoothDevice.TRANSPORT_LE, BluetoothDevice.PHY_LE_2M);
+        gattDeviceLabel = device.getName() != null ? device.getName() : device.getAddress();
+        gattConnectStartNanos = System.nanoTime();
+        gattFirstData.set(false);
+        gattClient = AndroidGattClient.connect(this, device, gattListener);
         statusText.setText("Connecting to " + (device.getName() != null ? device.getName() : device.getAddress()) + " (BLE)...");
     }
 
-    private final BluetoothGattCallback gattCallback = new BluetoothGattCallback() {
-        private final StringBuilder characteristicValues = new StringBuilder();
-        private List<BluetoothGattCharacteristic> readableCharacteristics;
-        private int currentReadIndex = 0;
-        private final List<BluetoothGattDescriptor> descriptorsToWrite = new ArrayList<>();
-        private int currentDescriptorIndex = 0;
-        private boolean descriptorsWritten = false;
-        private boolean startedReading = false;
+    private void saveGattCache() {
+        try {
+            gattCache.save();
+        } catch (IOException e) {
+            Log.e("BLE", "Error saving GATT cache", e);
+        }
+    }
+
+    private int writeChunk(UUID characteristic, byte[] chunk, int writeType) {
+        GattClient client = gattClient;
+        return client != null ? client.write(characteristic, chunk, writeType) : GattOperation.ISSUE_FAILED;
+    }
 
+    /** Reassembles framed notifications of {@code characteristic}; each message is shown as its latest value. */
+    private FrameDecoder frameDecoder(UUID characteristic) {
+        FrameDecoder decoder = bleFrameDecoders.get(characteristic);
+        if (decoder == null) {
+            decoder = new FrameDecoder(NotificationSink.MAX_VALUE_LENGTH, RfcommReceiver.DEFAULT_MAX_MESSAGE,
+                    (message, offset, length) -> notificationSink.offer(characteristic, message, offset, length));
+            bleFrameDecoders.put(characteristic, decoder);
+        }
+        return decoder;
+    }
+
+    private void clearFrameDecoders() {
+        for (UUID characteristic : bleFrameDecoders.keySet()) {
+            FrameDecoder decoder = bleFrameDecoders.remove(characteristic);
+            if (decoder != null) {
+                decoder.close();
+            }
+        }
+    }
 
-        private final Handler handler = new Handler(Looper.getMainLooper());
+    private final GattClient.Listener gattListener = new GattClient.Listener() {
+        private final StringBuilder characteristicValues = new StringBuilder();
 
         @Override
-        public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
-            if (status == BluetoothGatt.GATT_SUCCESS) {
-                if (newState == BluetoothProfile.STATE_CONNECTED) {
-                    runOnUiThread(() -> {
-                        if (ActivityCompat.checkSelfPermission(MainActivity.this, Manifest.permission.BLUETOOTH_CONNECT) != PackageManager.PERMISSION_GRANTED) {
-                            return;
-                        }
-                        statusText.setText("Connected to " + (gatt.getDevice().getName() != null ? gatt.getDevice().getName() : gatt.getDevice().getAddress()) + " (BLE)");
-                        Toast.makeText(MainActivity.this, "Connected to " + (gatt.getDevice().getName() != null ? gatt.getDevice().getName() : gatt.getDevice().getAddress()), Toast.LENGTH_SHORT).show();
-                        deviceList.setVisibility(View.GONE);
-                        characteristicValuesText.setVisibility(View.VISIBLE);
-                        characteristicValues.setLength(0);
-                        characteristicValuesText.setText("Reading characteristics...");
-                    });
-                    if (ActivityCompat.checkSelfPermission(MainActivity.this, Manifest.permission.BLUETOOTH_CONNECT) == PackageManager.PERMISSION_GRANTED) {
-                        gatt.discoverServices();
-                    }
-                } else if (newState == BluetoothProfile.STATE_DISCONNECTED) {
-                    runOnUiThread(() -> {
-                        statusText.setText("Disconnected from " + (gatt.getDevice().getName() != null ? gatt.getDevice().getName() : gatt.getDevice().getAddress()));
-                        Toast.makeText(MainActivity.this, "Disconnected from " + (gatt.getDevice().getName() != null ? gatt.getDevice().getName() : gatt.getDevice().getAddress()), Toast.LENGTH_SHORT).show();
-                        deviceList.setVisibility(View.VISIBLE);
-//                        characteristicValuesText.setVisibility(View.GONE);
-                        startedReading = false;
-                    });
-                    gatt.close();
-                    bluetoothGatt = null;
-                }
+        public void onConnectionStateChange(int status, boolean connected) {
+            GattClient client = gattClient;
+            if (client == null) {
+                return;
+            }
+            if (connected) {
+                runOnUiThread(() -> {
+                    statusText.setText("Connected to " + gattDeviceLabel + " (BLE)");
+                    Toast.makeText(MainActivity.this, "Connected to " + gattDeviceLabel, Toast.LENGTH_SHORT).show();
+                    deviceList.setVisibility(View.GONE);
+                    characteristicValuesText.setVisibility(View.VISIBLE);
+                    characteristicValues.setLength(0);
+                    characteristicValuesText.setText("Reading characteristics...");
+                    notificationRenderer.setHeader("");
+                    notificationRenderer.start();
+                });
+                notificationSink.clear();
+                clearFrameDecoders();
+                gattQueue.clear();
+                // Negotiate the link before discovery so nothing else is in flight during the exchanges
+                linkNegotiator.negotiate(LinkParameters.PHY_LE_2M, parameters -> {
+                    Log.d("BLE", "Link parameters: " + parameters);
+                    runOnUiThread(() -> statusText.setText("Link: " + parameters));
+                    discoverOrRestore(client);
+                });
             } else {
+                // The client has closed itself
                 runOnUiThread(() -> {
-                    statusText.setText("BLE connection error: " + status + " " + newState);
-                    Toast.makeText(MainActivity.this, "BLE connection error: " + status + " " + newState, Toast.LENGTH_LONG).show();
+                    if (status == GattClient.GATT_SUCCESS) {
+                        statusText.setText("Disconnected from " + gattDeviceLabel);
+                        Toast.makeText(MainActivity.this, "Disconnected from " + gattDeviceLabel, Toast.LENGTH_SHORT).show();
+                    } else {
+                        statusText.setText("BLE connection error: " + status);
+                        Toast.makeText(MainActivity.this, "BLE connection error: " + status, Toast.LENGTH_LONG).show();
+                    }
                     deviceList.setVisibility(View.VISIBLE);
 //                    characteristicValuesText.setVisibility(View.GONE);
-                    startedReading = false;
+                    notificationRenderer.stop();
                 });
-                gatt.close();
-                bluetoothGatt = null;
+                gattQueue.clear();
+                gattClient = null;
+            }
+        }
+
+        // A known device gets its cached values shown at once and, where the client can, skips discovery
+        private void discoverOrRestore(GattClient client) {
+            GattCache.Entry entry = gattCache.get(client.address());
+            if (entry != null) {
+                StringBuilder cached = new StringBuilder("Cached values:\n\n");
+                for (GattCharacteristicInfo characteristic : entry.characteristics) {
+                    byte[] value = entry.value(characteristic.uuid);
+                    if (value != null) {
+                        cached.append("Characteristic UUID: ").append(characteristic.uuid).append("\nValue: ")
+                                .append(new String(value, java.nio.charset.StandardCharsets.UTF_8)).append("\n\n");
+                    }
+                }
+                String text = cached.toString();
+                runOnUiThread(() -> characteristicValuesText.setText(text));
             }
+            if (entry != null && client.restoreServices(entry.characteristics)) {
+                gattTableRestored = true;
+                onServicesDiscovered(GattClient.GATT_SUCCESS, entry.characteristics);
+            } else {
+                gattTableRestored = false;
+                client.discoverServices();
+            }
+        }
+
+        private void rediscover(GattClient client) {
+            gattCache.invalidate(client.address());
+            gattTableRestored = false;
+            gattQueue.clear();
+            client.discoverServices();
         }
 
         @Override
-        public void onServicesDiscovered(BluetoothGatt gatt, int status) {
-            if (status == BluetoothGatt.GATT_SUCCESS) {
-                if (ActivityCompat.checkSelfPermission(MainActivity.this, Manifest.permission.BLUETOOTH_CONNECT) != PackageManager.PERMISSION_GRANTED) {
-                    return;
+        public void onServicesDiscovered(int status, List<GattCharacteristicInfo> characteristics) {
+            GattClient client = gattClient;
+            if (client == null) {
+                return;
+            }
+            if (status == GattClient.GATT_SUCCESS) {
+                if (!gattTableRestored) {
+                    gattCache.update(client.address(), characteristics);
+                    gattExecutor.execute(MainActivity.this::saveGattCache);
                 }
-                runOnUiThread(() -> statusText.setText("Discovered services from " + (gatt.getDevice().getName() != null ? gatt.getDevice().getName() : gatt.getDevice().getAddress())));
-                readableCharacteristics = new ArrayList<>();
+                runOnUiThread(() -> statusText.setText("Discovered services from " + gattDeviceLabel));
+                List<GattCharacteristicInfo> readableCharacteristics = new ArrayList<>();
                 characteristicValues.setLength(0);
-                currentReadIndex = 0;
-                descriptorsToWrite.clear();
-                currentDescriptorIndex = 0;
-                descriptorsWritten = false;
-
-                // Collect readable characteristics and descriptors for notifications
-                gatt.getServices().forEach(service -> {
-                    Log.d("BLE", "Service UUID: " + service.getUuid());
-                    service.getCharacteristics().forEach(characteristic -> {
-                        Log.d("BLE", "Characteristic UUID: " + characteristic.getUuid() + ", Properties: " + characteristic.getProperties());
-                        if ((characteristic.getProperties() & BluetoothGattCharacteristic.PROPERTY_READ) > 0) {
-                            readableCharacteristics.add(characteristic);
-                        }
-                        if ((characteristic.getProperties() & BluetoothGattCharacteristic.PROPERTY_WRITE) > 0) {
-                            writeCharacteristic = characteristic;
-                        }
-                        if ((characteristic.getProperties() & BluetoothGattCharacteristic.PROPERTY_NOTIFY) > 0) {
-                            if (ActivityCompat.checkSelfPermission(MainActivity.this, Manifest.permission.BLUETOOTH_CONNECT) == PackageManager.PERMISSION_GRANTED) {
-                                gatt.setCharacteristicNotification(characteristic, true);
-                                BluetoothGattDescriptor descriptor = characteristic.getDescriptor(UUID.fromString("00002902-0000-1000-8000-00805f9b34fb"));
-                                descriptor.setValue(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
-                                gatt.writeDescriptor(descriptor);
-                            }
-                        }
-                    });
-                });
-                if (!startedReading && ActivityCompat.checkSelfPermission(MainActivity.this, Manifest.permission.BLUETOOTH_CONNECT) == PackageManager.PERMISSION_GRANTED) {
-                    startedReading = true;
-                    startReadingCharacteristics(gatt);
+
+                // Subscribe first, then read; the queue issues each request when the previous one completes
+                for (GattCharacteristicInfo characteristic : characteristics) {
+                    Log.d("BLE", "Characteristic UUID: " + characteristic.uuid + " in service " + characteristic.service
+                            + ", Properties: " + characteristic.properties);
+                    if (characteristic.canRead()) {
+                        readableCharacteristics.add(characteristic);
+                    }
+                    if (characteristic.canWrite()) {
+                        writeCharacteristic = characteristic;
+                    }
+                    if (characteristic.canNotify() && characteristic.hasCccd) {
+                        notificationSink.register(characteristic.uuid);
+                        gattQueue.enqueue(GattOperations.enableNotifications(client, characteristic.uuid,
+                                (operation, subscribeStatus, value) -> onSubscribed(client, characteristic, operation, subscribeStatus)));
+                    }
+                }
+                if (readableCharacteristics.isEmpty()) {
+                    runOnUiThread(() -> characteristicValuesText.setText("No readable characteristics found."));
+                    return;
+                }
+                Log.d("BLE", "Number of readable characteristics: " + readableCharacteristics.size());
+                for (GattCharacteristicInfo characteristic : readableCharacteristics) {
+                    gattQueue.enqueue(GattOperations.read(client, characteristic.uuid,
+                            (operation, readStatus, value) -> onRead(client, characteristic, readStatus, value)));
                 }
             } else {
                 runOnUiThread(() -> statusText.setText("Service discovery error: " + status));
             }
         }
 
-        private void startReadingCharacteristics(BluetoothGatt gatt) {
-            if (!readableCharacteristics.isEmpty() && ActivityCompat.checkSelfPermission(MainActivity.this, Manifest.permission.BLUETOOTH_CONNECT) == PackageManager.PERMISSION_GRANTED) {
-                Log.d("BLE", "Number of readable characteristics: " + readableCharacteristics.size());
-                handler.postDelayed(() -> gatt.readCharacteristic(readableCharacteristics.get(0)), 100);
-            } else {
-                runOnUiThread(() -> characteristicValuesText.setText("No readable characteristics found."));
+        private void onSubscribed(GattClient client, GattCharacteristicInfo characteristic, GattOperation operation, int status) {
+            if (status == GattClient.GATT_SUCCESS) {
+                gattCache.recordSubscription(client.address(), characteristic.uuid);
+            } else if (status != GattOperation.STATUS_CANCELLED) {
+                Log.e("BLE", "Enabling notifications failed: " + status + " after " + operation.attempts() + " attempts");
             }
         }
-        @Override
-        public void onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
-            Log.d("BLE", "Reading characteristic: " + characteristic.getUuid() + ", Status: " + status);
-            if (status == BluetoothGatt.GATT_SUCCESS) {
+
+        // Runs on the GATT queue thread
+        private void onRead(GattClient client, GattCharacteristicInfo characteristic, int status, byte[] rawValue) {
+            Log.d("BLE", "Reading characteristic: " + characteristic.uuid + ", Status: " + status);
+            if (status == GattOperation.STATUS_CANCELLED) {
+                return;
+            }
+            if (status == GattClient.GATT_INVALID_HANDLE && gattTableRestored) {
+                // The cached table is stale; the reads are issued again after discovery
+                rediscover(client);
+                return;
+            }
+            if (status == GattClient.GATT_SUCCESS) {
+                if (captureWriter != null) {
+                    captureWriter.appendLater(CaptureFormat.TYPE_GATT_READ, client.address(), CaptureFormat.RSSI_NONE,
+                            characteristic.handle, rawValue);
+                }
+                gattCache.recordValue(client.address(), characteristic.uuid, rawValue);
+                // Time to first data: from connectGatt() to the first fresh value
+                String firstData = !gattFirstData.compareAndSet(false, true) ? ""
+                        : String.format(Locale.US, " (first data after %.0f ms, %s)",
+                                (System.nanoTime() - gattConnectStartNanos) / 1e6,
+                                gattTableRestored ? "cached attribute table" : "discovered");
                 String value;
-                if (characteristic.getUuid().equals(UUID.fromString("00002a19-0000-1000-8000-00805f9b34fb"))) {
-                    value = characteristic.getValue() != null ? String.valueOf(characteristic.getValue()[0]) + "%" : "No data";
+                if (characteristic.uuid.equals(BATTERY_LEVEL_UUID)) {
+                    value = rawValue != null && rawValue.length > 0 ? String.valueOf(rawValue[0]) + "%" : "No data";
                 } else {
-                    value = characteristic.getValue() != null ? new String(characteristic.getValue(), java.nio.charset.StandardCharsets.UTF_8) : "No data";
+                    value = rawValue != null ? new String(rawValue, java.nio.charset.StandardCharsets.UTF_8) : "No data";
                 }
-                characteristicValues.append("Characteristic UUID: ").append(characteristic.getUuid()).append("\nValue: ").append(value).append("\n\n");
+                characteristicValues.append("Characteristic UUID: ").append(characteristic.uuid).append("\nValue: ").append(value).append("\n\n");
+                String text = characteristicValues.toString();
+                notificationRenderer.setHeader(text);
                 runOnUiThread(() -> {
-                    if (ActivityCompat.checkSelfPermission(MainActivity.this, Manifest.permission.BLUETOOTH_CONNECT) != PackageManager.PERMISSION_GRANTED) {
-                        return;
-                    }
-                    statusText.setText("Read from " + (gatt.getDevice().getName() != null ? gatt.getDevice().getName() : gatt.getDevice().getAddress()) + ": " + value);
-                    characteristicValuesText.setText(characteristicValues.toString());
+                    statusText.setText("Read from " + gattDeviceLabel + ": " + value + firstData);
+                    characteristicValuesText.setText(text);
                     Toast.makeText(MainActivity.this, "Read: " + value, Toast.LENGTH_SHORT).show();
                 });
             } else {
-                characteristicValues.append("Characteristic UUID: ").append(characteristic.getUuid()).append("\nError reading: ").append(status).append("\n\n");
+                characteristicValues.append("Characteristic UUID: ").append(characteristic.uuid).append("\nError reading: ").append(status).append("\n\n");
+                String text = characteristicValues.toString();
+                notificationRenderer.setHeader(text);
                 runOnUiThread(() -> {
-                    characteristicValuesText.setText(characteristicValues.toString());
+                    characteristicValuesText.setText(text);
                     Toast.makeText(MainActivity.this, "Error reading data: " + status, Toast.LENGTH_SHORT).show();
                 });
             }
+        }
 
-            currentReadIndex++;
-            if (currentReadIndex < readableCharacteristics.size() && ActivityCompat.checkSelfPermission(MainActivity.this, Manifest.permission.BLUETOOTH_CONNECT) == PackageManager.PERMISSION_GRANTED) {
-                handler.postDelayed(() -> gatt.readCharacteristic(readableCharacteristics.get(currentReadIndex)), 100);
-            } else {
-                runOnUiThread(() -> characteristicValuesText.setText(characteristicValues.toString()));
+        @Override
+        public void onCharacteristicRead(UUID characteristic, int status, byte[] value) {
+            gattQueue.onComplete(GattOperation.Type.READ, characteristic, status, value);
+        }
+
+        @Override
+        public void onDescriptorWrite(UUID descriptor, int status) {
+            gattQueue.onComplete(GattOperation.Type.DESCRIPTOR_WRITE, descriptor, status, null);
+        }
+
+        @Override
+        public void onCharacteristicWrite(UUID characteristic, int status) {
+            gattQueue.onComplete(GattOperation.Type.WRITE, characteristic, status, null);
+            if (status != GattClient.GATT_SUCCESS) {
+                Log.e("BLE", "Error writing data: " + status);
             }
         }
 
         @Override
-        public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
-            if (status == BluetoothGatt.GATT_SUCCESS) {
-                runOnUiThread(() -> Toast.makeText(MainActivity.this, "Data written successfully", Toast.LENGTH_SHORT).show());
+        public void onNotification(UUID characteristic, int handle, byte[] value) {
+            if (GattCache.isServiceChanged(characteristic)) {
+                onServiceChanged();
+                return;
+            }
+            // Decoding and rendering happen in notificationRenderer
+            if (framed) {
+                frameDecoder(characteristic).feed(value, 0, value.length);
             } else {
-                runOnUiThread(() -> Toast.makeText(MainActivity.this, "Error writing data: " + status, Toast.LENGTH_SHORT).show());
+                notificationSink.offer(characteristic, value);
+            }
+            GattClient client = gattClient;
+            if (captureWriter != null && client != null) {
+                captureWriter.appendLater(CaptureFormat.TYPE_GATT_NOTIFICATION, client.address(), CaptureFormat.RSSI_NONE, handle, value);
             }
         }
 
         @Override
-        public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
-            String value = characteristic.getValue() != null ? new String(characteristic.getValue(), java.nio.charset.StandardCharsets.UTF_8) : "No data";
-            characteristicValues.append("Notification from UUID: ").append(characteristic.getUuid()).append("\nValue: ").append(value).append("\n\n");
-            runOnUiThread(() -> {
-                statusText.setText("Received notification: " + value);
-                characteristicValuesText.setText(characteristicValues.toString());
-                Toast.makeText(MainActivity.this, "Received: " + value, Toast.LENGTH_SHORT).show();
-            });
+        public void onMtuChanged(int mtu, int status) {
+            Log.d("BLE", "MTU changed to: " + mtu);
+            linkNegotiator.onMtuChanged(mtu, status);
         }
 
         @Override
-        public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
-            Log.d("BLE", "MTU changed to: " + mtu);
-            bleMtu = mtu;
+        public void onPhyUpdate(int txPhy, int rxPhy, int status) {
+            Log.d("BLE", "PHY updated: tx " + txPhy + ", rx " + rxPhy + ", status " + status);
+            linkNegotiator.onPhyUpdate(txPhy, rxPhy, status);
+        }
+
+        @Override
+        public void onServiceChanged() {
+            GattClient client = gattClient;
+            Log.d("BLE", "Service Changed, discovering again");
+            if (client != null) {
+                rediscover(client);
+            }
+        }
+    };
+    // Polled devices only feed the capture and the status line; the interactive link owns the value view
+    private final GattConnectionManager.Listener fleetListener = new GattConnectionManager.Listener() {
+        @Override
+        public void onRead(long address, GattCharacteristicInfo characteristic, byte[] value) {
+            if (captureWriter != null) {
+                captureWriter.appendLater(CaptureFormat.TYPE_GATT_READ, address, CaptureFormat.RSSI_NONE, characteristic.handle, value);
+            }
+        }
+
+        @Override
+        public void onNotification(long address, UUID characteristic, int handle, byte[] value) {
+            if (captureWriter != null) {
+                captureWriter.appendLater(CaptureFormat.TYPE_GATT_NOTIFICATION, address, CaptureFormat.RSSI_NONE, handle, value);
+            }
+        }
+
+        @Override
+        public void onPollComplete(long address, int status, GattConnectionManager.Stats stats) {
+            if (status != GattClient.GATT_SUCCESS && status != GattOperation.STATUS_CANCELLED) {
+                Log.w("BLE", "Polling " + BluetoothAddress.format(address) + " failed: " + status);
+            }
+            long rttSum = 0;
+            int withReads = 0;
+            for (GattLink.Stats link : stats.links) {
+                if (link.reads > 0) {
+                    rttSum += link.meanRttNanos;
+                    withReads++;
+                }
+            }
+            String text = String.format(Locale.US, "Polling %d devices (%d connected): %.1f reads/s, RTT %.1f ms",
+                    stats.links.size(), stats.connected, stats.readsPerSecond,
+                    withReads > 0 ? rttSum / (withReads * 1e6) : 0.0);
+            runOnUiThread(() -> statusText.setText(text));
         }
     };
     // -------------- BLE setup end --------------
@@ -714,25 +1336,48 @@ public class MainActivity extends AppCompatActivity {
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        if (unifiedScan != null) {
+            unifiedScan.stop();
+            unifiedScan = null;
+        }
+        // Behind the stop, so the radio is released first
+        scanExecutor.execute(scanExecutor::shutdown);
         if (ActivityCompat.checkSelfPermission(this, Manifest.permission.BLUETOOTH_SCAN) == PackageManager.PERMISSION_GRANTED) {
-            if (bluetoothAdapter.isDiscovering()) {
+            if (scanServiceBinder == null && bluetoothAdapter.isDiscovering()) {
                 bluetoothAdapter.cancelDiscovery();
             }
             stopBleScan();
         }
-        if (socket != null && socket.isConnected()) {
+        RfcommSession session = rfcommSession;
+        if (session != null) {
+            session.close();
+            rfcommSession = null;
+        }
+        GattClient client = gattClient;
+        if (client != null) {
+            client.close();
+            gattClient = null;
+        }
+        clearFrameDecoders();
+        bleFrameEncoder.close();
+        rfcommReceiver.decoder().close();
+        unregisterReceiver(bluetoothReceiver);
+        // The background scan, if any, keeps running without us
+        if (scanServiceBinder != null) {
+            scanServiceBinder.setListener(null);
+        }
+        unbindService(scanServiceConnection);
+        scanIngestor.stop();
+        fleetManager.clear();
+        gattExecutor.execute(this::saveGattCache);
+        // Behind the clear, so the polled connections are closed before the executor goes
+        gattExecutor.execute(gattExecutor::shutdownNow);
+        if (captureWriter != null) {
             try {
-                socket.close();
+                captureWriter.close();
             } catch (IOException e) {
-                Log.e("Bluetooth", "Error closing socket", e);
+                Log.e("Bluetooth", "Error closing capture", e);
             }
-            socket = null;
         }
-        if (bluetoothGatt != null) {
-            bluetoothGatt.disconnect();
-            bluetoothGatt.close();
-            bluetoothGatt = null;
-        }
-        unregisterReceiver(bluetoothReceiver);
     }
 }
\ No newline at end of file
@@ -0,0 +1,126 @@
+package com.example.bluetoothscanner;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide performance counters, cheap enough to leave on in production: a counter is a
+ * {@link LongAdder} increment and a latency a {@link LatencyHistogram} record, both lock-free
+ * and allocation-free. {@link #snapshot} copies everything for the diagnostics panel and the
+ * export; rates come from the difference between two snapshots.
+ */
+public final class Metrics {
+    private static final Metrics GLOBAL = new Metrics();
+
+    public static Metrics global() {
+        return GLOBAL;
+    }
+
+    /** Results handed to a {@link ScanIngestor}, LE and inquiry, dropped ones included. */
+    public final LongAdder scanResults = new LongAdder();
+    /** Ingested sightings of a device already in the registry. */
+    public final LongAdder dedupHits = new LongAdder();
+    /** Ingested sightings that added a device. */
+    public final LongAdder dedupMisses = new LongAdder();
+    public final LongAdder notifications = new LongAdder();
+    public final LongAdder rfcommBytesSent = new LongAdder();
+    /** Payload bytes of BLE write chunks that completed successfully. */
+    public final LongAdder bleBytesSent = new LongAdder();
+    /** From the platform timestamp of the oldest sighting in a snapshot to its delivery on the UI thread. */
+    public final LatencyHistogram advertisementToUi = new LatencyHistogram();
+    /** Main-thread time to bind one row of the device list. */
+    public final LatencyHistogram bindViewHolder = new LatencyHistogram();
+    private final LatencyHistogram[] gattOperations = new LatencyHistogram[GattOperation.Type.values().length];
+    private final long createdNanos = System.nanoTime();
+
+    Metrics() {
+        for (int i = 0; i < gattOperations.length; i++) {
+            gattOperations[i] = new LatencyHistogram();
+        }
+    }
+
+    /** From issuing a request of {@code type} to its callback (or timeout). */
+    public LatencyHistogram gattOperation(GattOperation.Type type) {
+        return gattOperations[type.ordinal()];
+    }
+
+    public Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+
+    public static final class Snapshot {
+        public final long timestampNanos;
+        public final long uptimeNanos;
+        public final long scanResults;
+        public final long dedupHits;
+        public final long dedupMisses;
+        public final long notifications;
+        public final long rfcommBytesSent;
+        public final long bleBytesSent;
+        public final LatencyHistogram.Snapshot advertisementToUi;
+        public final LatencyHistogram.Snapshot bindViewHolder;
+        private final LatencyHistogram.Snapshot[] gattOperations;
+
+        Snapshot(Metrics metrics) {
+            timestampNanos = System.nanoTime();
+            uptimeNanos = timestampNanos - metrics.createdNanos;
+            scanResults = metrics.scanResults.sum();
+            dedupHits = metrics.dedupHits.sum();
+            dedupMisses = metrics.dedupMisses.sum();
+            notifications = metrics.notifications.sum();
+            rfcommBytesSent = metrics.rfcommBytesSent.sum();
+            bleBytesSent = metrics.bleBytesSent.sum();
+            advertisementToUi = metrics.advertisementToUi.snapshot();
+            bindViewHolder = metrics.bindViewHolder.snapshot();
+            gattOperations = new LatencyHistogram.Snapshot[metrics.gattOperations.length];
+            for (int i = 0; i < gattOperations.length; i++) {
+                gattOperations[i] = metrics.gattOperations[i].snapshot();
+            }
+        }
+
+        public LatencyHistogram.Snapshot gattOperation(GattOperation.Type type) {
+            return gattOperations[type.ordinal()];
+        }
+
+        /** Share of ingested sightings that hit an existing device; NaN before the first. */
+        public double dedupHitRate() {
+            long sightings = dedupHits + dedupMisses;
+            return sightings > 0 ? (double) dedupHits / sightings : Double.NaN;
+        }
+
+        /**
+         * Plain-text report. Rates are over the interval since {@code previous}, or since start
+         * if it is null; latencies are since start.
+         */
+        public String report(Snapshot previous) {
+            double seconds = (previous != null ? timestampNanos - previous.timestampNanos : uptimeNanos) / 1e9;
+            StringBuilder out = new StringBuilder();
+            out.append(String.format(Locale.US, "Uptime %.0f s, rates over the last %.1f s%n", uptimeNanos / 1e9, seconds));
+            out.append(String.format(Locale.US, "Scan results: %d (%.1f/s), dedup hits %.1f %%%n",
+                    scanResults, rate(scanResults, previous != null ? previous.scanResults : 0, seconds),
+                    dedupHitRate() * 100));
+            out.append(String.format(Locale.US, "Notifications: %d (%.1f/s)%n",
+                    notifications, rate(notifications, previous != null ? previous.notifications : 0, seconds)));
+            out.append(String.format(Locale.US, "Sent: RFCOMM %d B (%.0f B/s), BLE %d B (%.0f B/s)%n",
+                    rfcommBytesSent, rate(rfcommBytesSent, previous != null ? previous.rfcommBytesSent : 0, seconds),
+                    bleBytesSent, rate(bleBytesSent, previous != null ? previous.bleBytesSent : 0, seconds)));
+            out.append(String.format(Locale.US, "%-22s %7s %7s %7s %7s %7s%n", "Latency (ms)", "count", "p50", "p90", "p99", "max"));
+            appendLatency(out, "Advertisement to UI", advertisementToUi);
+            appendLatency(out, "Bind device row", bindViewHolder);
+            for (GattOperation.Type type : GattOperation.Type.values()) {
+                appendLatency(out, "GATT " + type.name().toLowerCase(Locale.US).replace('_', ' '), gattOperation(type));
+            }
+            return out.toString();
+        }
+
+        private static double rate(long now, long before, double seconds) {
+            return seconds > 0 ? (now - before) / seconds : 0;
+        }
+
+        private static void appendLatency(StringBuilder out, String name, LatencyHistogram.Snapshot histogram) {
+            out.append(String.format(Locale.US, "%-22s %7d %7.2f %7.2f %7.2f %7.2f%n", name, histogram.count,
+                    histogram.valueAtPercentile(50) / 1e6, histogram.valueAtPercentile(90) / 1e6,
+                    histogram.valueAtPercentile(99) / 1e6, histogram.maxNanos / 1e6));
+        }
+    }
+}
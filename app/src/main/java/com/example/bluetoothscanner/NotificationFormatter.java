@@ -0,0 +1,33 @@
+package com.example.bluetoothscanner;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.UUID;
+
+/**
+ * Builds the notification panel text from a {@link NotificationSink} drain: a header, then per
+ * characteristic its latest value (decoded as UTF-8) and rates. The builder is reused per frame.
+ */
+public class NotificationFormatter implements NotificationSink.Renderer {
+    private final StringBuilder text = new StringBuilder();
+
+    /** Drains {@code sink} and returns the frame's text, valid until the next call. */
+    public CharSequence format(NotificationSink sink, CharSequence header, long nowNanos) {
+        text.setLength(0);
+        text.append(header);
+        sink.drain(nowNanos, this);
+        return text;
+    }
+
+    @Override
+    public void onCharacteristic(UUID characteristic, byte[] value, int length, NotificationSink.Stats stats) {
+        text.append("Notifications from UUID: ").append(characteristic).append("\nValue: ");
+        if (length < 0) {
+            text.append("No data");
+        } else {
+            text.append(new String(value, 0, length, StandardCharsets.UTF_8));
+        }
+        text.append(String.format(Locale.US, "\n%.1f notif/s, %.0f B/s, %d dropped\n\n",
+                stats.notificationsPerSecond, stats.bytesPerSecond, stats.dropped));
+    }
+}
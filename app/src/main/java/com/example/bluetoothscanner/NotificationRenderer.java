@@ -0,0 +1,52 @@
+package com.example.bluetoothscanner;
+
+import android.widget.TextView;
+
+
+/**
+ * Drains a {@link NotificationSink} into a {@link TextView} on the main thread, at most
+ * {@code refreshHz} times a second, through a {@link NotificationFormatter}. Only the latest value
+ * of each characteristic is decoded, and only when a frame is drawn.
+ */
+public class NotificationRenderer implements Runnable {
+    private final TextView view;
+    private final NotificationSink sink;
+    private final long frameMillis;
+    private final NotificationFormatter formatter = new NotificationFormatter();
+    private volatile String header = "";
+    private boolean running;
+
+    public NotificationRenderer(TextView view, NotificationSink sink, int refreshHz) {
+        this.view = view;
+        this.sink = sink;
+        this.frameMillis = 1000L / refreshHz;
+    }
+
+    /** Text shown above the notifications (e.g. read results); may be set from any thread. */
+    public void setHeader(String header) {
+        this.header = header;
+    }
+
+    public void start() {
+        if (!running) {
+            running = true;
+            view.postDelayed(this, frameMillis);
+        }
+    }
+
+    public void stop() {
+        running = false;
+        view.removeCallbacks(this);
+    }
+
+    @Override
+    public void run() {
+        if (!running) {
+            return;
+        }
+        if (!sink.isEmpty()) {
+            view.setText(formatter.format(sink, header, System.nanoTime()));
+        }
+        view.postDelayed(this, frameMillis);
+    }
+}
@@ -0,0 +1,151 @@
+package com.example.bluetoothscanner;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Receives GATT notifications at whatever rate the peripheral sends them. The callback only
+ * copies the raw value into a preallocated {@link SpscRingBuffer} slot of its characteristic;
+ * the display side {@link #drain}s the rings at its own rate, keeps the latest value of each
+ * characteristic and derives rates from the counters. A full ring drops the notification and
+ * counts it instead of blocking the callback.
+ *
+ * {@link #offer} must be called from one thread at a time (GATT callbacks for a connection are
+ * delivered one after another), {@link #drain} from one display thread.
+ */
+public class NotificationSink {
+    public static final int DEFAULT_SLOTS = 64;
+    /** Largest attribute value ATT allows. */
+    public static final int MAX_VALUE_LENGTH = 512;
+    private static final long RATE_WINDOW_NANOS = 1_000_000_000L;
+
+    public interface Renderer {
+        /**
+         * Called from {@link #drain} for every characteristic, in registration order. {@code value}
+         * is only valid during the call; {@code length} is -1 until a notification has arrived.
+         */
+        void onCharacteristic(UUID characteristic, byte[] value, int length, Stats stats);
+    }
+
+    /** Per-characteristic counters, updated by {@link #drain}. */
+    public static final class Stats {
+        public long notifications;
+        public long bytes;
+        public long dropped;
+        public double notificationsPerSecond;
+        public double bytesPerSecond;
+
+        // Window start for the rates
+        long windowNanos;
+        long windowNotifications;
+        long windowBytes;
+    }
+
+    static final class Slot {
+        final byte[] value = new byte[MAX_VALUE_LENGTH];
+        int length;
+    }
+
+    private static final class Channel {
+        final UUID characteristic;
+        final SpscRingBuffer<Slot> ring;
+        final byte[] latest = new byte[MAX_VALUE_LENGTH];
+        final Stats stats = new Stats();
+        int latestLength = -1;
+        // Producer-side counters
+        volatile long offered;
+        volatile long offeredBytes;
+        volatile long dropped;
+
+        Channel(UUID characteristic, int slots) {
+            this.characteristic = characteristic;
+            this.ring = new SpscRingBuffer<>(slots, Slot::new);
+        }
+    }
+
+    private final int slots;
+    private final Map<UUID, Channel> channels = new ConcurrentHashMap<>();
+    private final List<Channel> order = new CopyOnWriteArrayList<>();
+
+    public NotificationSink(int slotsPerCharacteristic) {
+        this.slots = slotsPerCharacteristic;
+    }
+
+    public NotificationSink() {
+        this(DEFAULT_SLOTS);
+    }
+
+    /** Allocates the ring for a characteristic; call before enabling its notifications. */
+    public void register(UUID characteristic) {
+        if (!channels.containsKey(characteristic)) {
+            Channel channel = new Channel(characteristic, slots);
+            channels.put(characteristic, channel);
+            order.add(channel);
+        }
+    }
+
+    /** Callback thread: copies the value. Returns false if it was dropped or not registered. */
+    public boolean offer(UUID characteristic, byte[] value) {
+        return value != null && offer(characteristic, value, 0, value.length);
+    }
+
+    /** Like {@link #offer(UUID, byte[])} for a slice, e.g. a decoded frame; longer values are cut. */
+    public boolean offer(UUID characteristic, byte[] value, int offset, int length) {
+        Channel channel = channels.get(characteristic);
+        if (channel == null) {
+            return false;
+        }
+        Metrics.global().notifications.increment();
+        channel.offered++;
+        channel.offeredBytes += length;
+        Slot slot = channel.ring.claim();
+        if (slot == null) {
+            channel.dropped++;
+            return false;
+        }
+        slot.length = Math.min(length, MAX_VALUE_LENGTH);
+        System.arraycopy(value, offset, slot.value, 0, slot.length);
+        channel.ring.publish();
+        return true;
+    }
+
+    /** Display thread: empties the rings, updates the stats and hands each latest value to the renderer. */
+    public void drain(long nowNanos, Renderer renderer) {
+        for (Channel channel : order) {
+            Slot slot;
+            while ((slot = channel.ring.peek()) != null) {
+                System.arraycopy(slot.value, 0, channel.latest, 0, slot.length);
+                channel.latestLength = slot.length;
+                channel.ring.release();
+            }
+            Stats stats = channel.stats;
+            stats.notifications = channel.offered;
+            stats.bytes = channel.offeredBytes;
+            stats.dropped = channel.dropped;
+            long window = nowNanos - stats.windowNanos;
+            if (stats.windowNanos == 0 || window >= RATE_WINDOW_NANOS) {
+                if (stats.windowNanos != 0) {
+                    stats.notificationsPerSecond = (stats.notifications - stats.windowNotifications) * 1e9 / window;
+                    stats.bytesPerSecond = (stats.bytes - stats.windowBytes) * 1e9 / window;
+                }
+                stats.windowNanos = nowNanos;
+                stats.windowNotifications = stats.notifications;
+                stats.windowBytes = stats.bytes;
+            }
+            renderer.onCharacteristic(channel.characteristic, channel.latest, channel.latestLength, stats);
+        }
+    }
+
+    public boolean isEmpty() {
+        return order.isEmpty();
+    }
+
+    /** Forgets all characteristics, e.g. on disconnect; values not drained yet are discarded. */
+    public void clear() {
+        channels.clear();
+        order.clear();
+    }
+}
@@ -0,0 +1,229 @@
+package com.example.bluetoothscanner;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Order-statistic treap over small non-negative ints (registry rows), ordered by
+ * {@link #compare}. Insert, remove and the position of a node are O(log n) expected, so a
+ * sorted list can follow live updates without being re-sorted. Nodes are array slots, not
+ * objects; the order must be total and must not change while a node is in the tree (remove,
+ * change the key, insert again).
+ */
+abstract class RankedTree {
+    static final int NIL = -1;
+
+    /** Compares a probe value with node keys, for {@link #lowerBound}. */
+    interface Probe {
+        /** Negative, zero or positive as the probe sorts before, with or after {@code node}. */
+        int compareTo(int node);
+    }
+
+    private int root = NIL;
+    private int[] left = new int[0];
+    private int[] right = new int[0];
+    private int[] sizes = new int[0];
+    private int[] priorities = new int[0];
+    private boolean[] present = new boolean[0];
+    private int seed = 0x9E3779B9;
+
+    /** Total order of two nodes; ties are not allowed between different nodes. */
+    protected abstract int compare(int a, int b);
+
+    int size() {
+        return size(root);
+    }
+
+    boolean contains(int node) {
+        return node < present.length && present[node];
+    }
+
+    void insert(int node) {
+        if (node >= present.length) {
+            grow(node + 1);
+        }
+        left[node] = NIL;
+        right[node] = NIL;
+        sizes[node] = 1;
+        // xorshift: priorities only need to be unpredictable to the key order
+        seed ^= seed << 13;
+        seed ^= seed >>> 17;
+        seed ^= seed << 5;
+        priorities[node] = seed;
+        present[node] = true;
+        root = insert(root, node);
+    }
+
+    /** Removes {@code node}, which must be in the tree with the key it was inserted with. */
+    void remove(int node) {
+        root = remove(root, node);
+        present[node] = false;
+    }
+
+    /** Position of {@code node} in order, or -1 if it is not in the tree. */
+    int rank(int node) {
+        if (!contains(node)) {
+            return -1;
+        }
+        int rank = 0;
+        int t = root;
+        while (t != NIL) {
+            int c = t == node ? 0 : compare(node, t);
+            if (c == 0) {
+                return rank + size(left[t]);
+            }
+            if (c < 0) {
+                t = left[t];
+            } else {
+                rank += size(left[t]) + 1;
+                t = right[t];
+            }
+        }
+        return -1;
+    }
+
+    /** The node at position {@code rank}, or {@link #NIL} past the end. */
+    int select(int rank) {
+        int t = root;
+        while (t != NIL) {
+            int leftSize = size(left[t]);
+            if (rank < leftSize) {
+                t = left[t];
+            } else if (rank == leftSize) {
+                return t;
+            } else {
+                rank -= leftSize + 1;
+                t = right[t];
+            }
+        }
+        return NIL;
+    }
+
+    /** Position of the first node not before the probe; {@link #size()} if there is none. */
+    int lowerBound(Probe probe) {
+        int rank = 0;
+        int result = size();
+        int t = root;
+        while (t != NIL) {
+            if (probe.compareTo(t) <= 0) {
+                result = rank + size(left[t]);
+                t = left[t];
+            } else {
+                rank += size(left[t]) + 1;
+                t = right[t];
+            }
+        }
+        return result;
+    }
+
+    /** Visits every node in order. */
+    void forEach(IntConsumer action) {
+        int[] stack = new int[64];
+        int depth = 0;
+        int t = root;
+        while (t != NIL || depth > 0) {
+            while (t != NIL) {
+                if (depth == stack.length) {
+                    stack = Arrays.copyOf(stack, depth * 2);
+                }
+                stack[depth++] = t;
+                t = left[t];
+            }
+            t = stack[--depth];
+            action.accept(t);
+            t = right[t];
+        }
+    }
+
+    void clear() {
+        forEach(node -> present[node] = false);
+        root = NIL;
+    }
+
+    private int size(int t) {
+        return t == NIL ? 0 : sizes[t];
+    }
+
+    private void update(int t) {
+        sizes[t] = size(left[t]) + size(right[t]) + 1;
+    }
+
+    private int insert(int t, int node) {
+        if (t == NIL) {
+            return node;
+        }
+        if (compare(node, t) < 0) {
+            left[t] = insert(left[t], node);
+            if (priorities[left[t]] > priorities[t]) {
+                return rotateRight(t);
+            }
+        } else {
+            right[t] = insert(right[t], node);
+            if (priorities[right[t]] > priorities[t]) {
+                return rotateLeft(t);
+            }
+        }
+        update(t);
+        return t;
+    }
+
+    private int remove(int t, int node) {
+        if (t == NIL) {
+            throw new IllegalStateException("Node " + node + " not in tree, or its key changed");
+        }
+        if (t == node) {
+            return merge(left[t], right[t]);
+        }
+        if (compare(node, t) < 0) {
+            left[t] = remove(left[t], node);
+        } else {
+            right[t] = remove(right[t], node);
+        }
+        update(t);
+        return t;
+    }
+
+    private int merge(int a, int b) {
+        if (a == NIL) {
+            return b;
+        }
+        if (b == NIL) {
+            return a;
+        }
+        if (priorities[a] > priorities[b]) {
+            right[a] = merge(right[a], b);
+            update(a);
+            return a;
+        }
+        left[b] = merge(a, left[b]);
+        update(b);
+        return b;
+    }
+
+    private int rotateRight(int t) {
+        int l = left[t];
+        left[t] = right[l];
+        right[l] = t;
+        update(t);
+        update(l);
+        return l;
+    }
+
+    private int rotateLeft(int t) {
+        int r = right[t];
+        right[t] = left[r];
+        left[r] = t;
+        update(t);
+        update(r);
+        return r;
+    }
+
+    private void grow(int minCapacity) {
+        int capacity = Math.max(minCapacity, Math.max(16, present.length << 1));
+        left = Arrays.copyOf(left, capacity);
+        right = Arrays.copyOf(right, capacity);
+        sizes = Arrays.copyOf(sizes, capacity);
+        priorities = Arrays.copyOf(priorities, capacity);
+        present = Arrays.copyOf(present, capacity);
+    }
+}
@@ -0,0 +1,103 @@
+package com.example.bluetoothscanner;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Receive side of an RFCOMM stream. Each read lands in one reusable buffer, is copied into a
+ * bounded {@link ByteRing} for display and is split into lines in place; nothing is decoded or
+ * accumulated here, so memory stays constant however long the stream runs.
+ *
+ * A {@link #setFramed framed} stream goes through a {@link FrameDecoder} first; each decoded
+ * message is then kept and split as one line, so text renderers work the same on either.
+ */
+public class RfcommReceiver {
+    public static final int DEFAULT_READ_SIZE = 4096;
+    public static final int DEFAULT_HISTORY_BYTES = 64 * 1024;
+    public static final int DEFAULT_MAX_LINE = 1024;
+    /** Largest framed message accepted. */
+    public static final int DEFAULT_MAX_MESSAGE = 64 * 1024;
+    private static final byte[] NEWLINE = {'\n'};
+
+    private final byte[] readBuffer;
+    private final ByteRing history;
+    private final LineSplitter splitter;
+    private final FrameDecoder decoder;
+    private boolean framed;
+    private volatile long bytesReceived;
+    private volatile ByteSink tap;
+
+    public RfcommReceiver(int readSize, int historyBytes, int maxLineLength, LineSplitter.Listener lineListener) {
+        this.readBuffer = new byte[readSize];
+        this.history = new ByteRing(historyBytes);
+        this.splitter = new LineSplitter(maxLineLength, lineListener);
+        this.decoder = new FrameDecoder(FrameFormat.RFCOMM_FRAGMENT_SIZE, DEFAULT_MAX_MESSAGE, this::onMessage);
+    }
+
+    public RfcommReceiver(LineSplitter.Listener lineListener) {
+        this(DEFAULT_READ_SIZE, DEFAULT_HISTORY_BYTES, DEFAULT_MAX_LINE, lineListener);
+    }
+
+    /** Performs one blocking read; returns the byte count or -1 at end of stream. */
+    public int readFrom(InputStream in) throws IOException {
+        int count = in.read(readBuffer, 0, readBuffer.length);
+        if (count > 0) {
+            if (framed) {
+                decoder.feed(readBuffer, 0, count);
+            } else {
+                history.write(readBuffer, 0, count);
+                splitter.feed(readBuffer, 0, count);
+            }
+            ByteSink tap = this.tap;
+            if (tap != null) {
+                tap.accept(readBuffer, 0, count);
+            }
+            bytesReceived += count;
+        }
+        return count;
+    }
+
+    /** Whether the stream is in the {@link FrameFormat}; call before reading a connection, like {@link #reset()}. */
+    public void setFramed(boolean framed) {
+        this.framed = framed;
+    }
+
+    /** The frame decoder's counters; only exact on the reading thread. */
+    public FrameDecoder decoder() {
+        return decoder;
+    }
+
+    /** Also hands every read to {@code tap} (e.g. a capture), or stops if null. */
+    public void setTap(ByteSink tap) {
+        this.tap = tap;
+    }
+
+    /** Recent bytes, for renderers; safe to read from any thread. */
+    public ByteRing history() {
+        return history;
+    }
+
+    public long bytesReceived() {
+        return bytesReceived;
+    }
+
+    /** Complete lines seen so far; only exact on the reading thread. */
+    public long lines() {
+        return splitter.lines();
+    }
+
+    /** Call before reading a new connection, from the reading thread. */
+    public void reset() {
+        history.clear();
+        splitter.reset();
+        decoder.reset();
+        bytesReceived = 0;
+    }
+
+    private void onMessage(byte[] message, int offset, int length) {
+        history.write(message, offset, length);
+        history.write(NEWLINE, 0, 1);
+        splitter.feed(message, offset, length);
+        splitter.feed(NEWLINE, 0, 1);
+    }
+}
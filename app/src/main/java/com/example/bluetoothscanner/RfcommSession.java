@@ -0,0 +1,89 @@
+package com.example.bluetoothscanner;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One RFCOMM connection: a {@link RfcommWriter} for outgoing messages and a read loop feeding
+ * a {@link RfcommReceiver}. {@link #run()} blocks on the calling thread until the stream ends.
+ * With a {@link FrameEncoder}, messages go out in the {@link FrameFormat} instead of as
+ * newline-terminated text; the receiver must be {@link RfcommReceiver#setFramed framed} too.
+ */
+public class RfcommSession {
+    private final StreamSocket socket;
+    private final RfcommReceiver receiver;
+    private final RfcommWriter writer;
+    private final FrameEncoder encoder; // null for text
+
+    public RfcommSession(StreamSocket socket, RfcommReceiver receiver, RfcommWriter.Listener writerListener,
+                         FrameEncoder encoder) throws IOException {
+        this.socket = socket;
+        this.receiver = receiver;
+        this.writer = new RfcommWriter(socket.getOutputStream(), writerListener);
+        this.encoder = encoder;
+    }
+
+    public RfcommSession(StreamSocket socket, RfcommReceiver receiver, RfcommWriter.Listener writerListener) throws IOException {
+        this(socket, receiver, writerListener, null);
+    }
+
+    public boolean isFramed() {
+        return encoder != null;
+    }
+
+    /** Queues a text message, as a line or as a UTF-8 frame; see {@link RfcommWriter#send(String, long, TimeUnit)}. */
+    public boolean send(String message, long timeout, TimeUnit unit) throws InterruptedException {
+        if (encoder == null) {
+            return writer.send(message, timeout, unit);
+        }
+        byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+        return send(bytes, 0, bytes.length, timeout, unit);
+    }
+
+    /** Queues a binary message as a frame; only on a framed session. */
+    public boolean send(byte[] message, int offset, int length, long timeout, TimeUnit unit) throws InterruptedException {
+        if (encoder == null) {
+            throw new IllegalStateException("Binary messages need a framed session");
+        }
+        ByteBuffer frame = encoder.encode(message, offset, length, FrameFormat.RFCOMM_FRAGMENT_SIZE);
+        if (writer.send(frame, encoder.pool(), timeout, unit)) {
+            return true;
+        }
+        encoder.pool().release(frame);
+        return false;
+    }
+
+    public RfcommWriter writer() {
+        return writer;
+    }
+
+    public StreamSocket socket() {
+        return socket;
+    }
+
+    /** Reads until the peer closes the stream (returns) or the socket fails (throws). */
+    public void run() throws IOException {
+        InputStream in = socket.getInputStream();
+        while (socket.isConnected()) {
+            if (receiver.readFrom(in) == -1) {
+                return;
+            }
+        }
+    }
+
+    /** Stops the writer, frees the encoder and closes the socket, which also ends {@link #run()}. */
+    public void close() {
+        writer.close();
+        if (encoder != null) {
+            encoder.close();
+        }
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Already closed
+        }
+    }
+}
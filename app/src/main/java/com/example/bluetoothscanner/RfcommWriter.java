@@ -0,0 +1,215 @@
+package com.example.bluetoothscanner;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The only writer of an RFCOMM output stream. Messages are queued by any thread and written
+ * by one long-lived thread that UTF-8 encodes them, newline-terminated, into a single reused
+ * buffer. Everything already queued goes out in the same socket write; the stream is written
+ * when the buffer fills or the queue runs dry. A full queue makes {@link #send} wait, which is
+ * the backpressure for callers producing faster than the link drains.
+ *
+ * Frames from a {@link FrameEncoder} are queued and coalesced the same way, as they are; the
+ * writer returns their buffers to the pool once copied.
+ */
+public class RfcommWriter {
+    public static final int DEFAULT_QUEUE_CAPACITY = 256;
+    public static final int DEFAULT_BUFFER_SIZE = 4096;
+
+    public interface Listener {
+        /**
+         * Runs on the writer thread once the message has been flushed to the socket; {@code message}
+         * is null for a frame.
+         */
+        void onSent(String message, long latencyNanos);
+
+        /** Runs on the writer thread; the writer stops after reporting an error. */
+        void onError(IOException e);
+    }
+
+    private static final class Pending {
+        final String message;
+        final ByteBuffer frame;
+        final BufferPool pool;
+        final long enqueuedNanos;
+
+        Pending(String message, ByteBuffer frame, BufferPool pool, long enqueuedNanos) {
+            this.message = message;
+            this.frame = frame;
+            this.pool = pool;
+            this.enqueuedNanos = enqueuedNanos;
+        }
+    }
+
+    private final OutputStream out;
+    private final Listener listener;
+    private final BlockingQueue<Pending> queue;
+    private final int maxBatch;
+    private final ByteBuffer buffer;
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final List<Pending> batch = new ArrayList<>();
+    private final Thread thread;
+    private volatile boolean closed;
+    private volatile ByteSink tap;
+    private volatile long messagesSent;
+    private volatile long bytesSent;
+    private volatile long socketWrites;
+
+    public RfcommWriter(OutputStream out, int queueCapacity, int bufferSize, Listener listener) {
+        this.out = out;
+        this.listener = listener;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.maxBatch = queueCapacity;
+        this.buffer = ByteBuffer.allocate(bufferSize);
+        this.thread = new Thread(this::run, "rfcomm-writer");
+        thread.start();
+    }
+
+    public RfcommWriter(OutputStream out, Listener listener) {
+        this(out, DEFAULT_QUEUE_CAPACITY, DEFAULT_BUFFER_SIZE, listener);
+    }
+
+    /**
+     * Queues a message, waiting up to {@code timeout} for room. Returns false if the queue stayed
+     * full or the writer is closed; pass 0 to never block (e.g. from the main thread).
+     */
+    public boolean send(String message, long timeout, TimeUnit unit) throws InterruptedException {
+        if (closed) {
+            return false;
+        }
+        return queue.offer(new Pending(message, null, null, System.nanoTime()), timeout, unit);
+    }
+
+    /**
+     * Queues an encoded frame like {@link #send(String, long, TimeUnit)}. Once queued, the
+     * writer owns {@code frame} and releases it to {@code pool}; if this returns false it is
+     * still the caller's.
+     */
+    public boolean send(ByteBuffer frame, BufferPool pool, long timeout, TimeUnit unit) throws InterruptedException {
+        if (closed) {
+            return false;
+        }
+        return queue.offer(new Pending(null, frame, pool, System.nanoTime()), timeout, unit);
+    }
+
+    /** Also hands every socket write to {@code tap} (e.g. a capture), or stops if null. */
+    public void setTap(ByteSink tap) {
+        this.tap = tap;
+    }
+
+    /** Stops the writer; queued messages that were not written yet are discarded. */
+    public void close() {
+        closed = true;
+        thread.interrupt();
+    }
+
+    public long messagesSent() {
+        return messagesSent;
+    }
+
+    public long bytesSent() {
+        return bytesSent;
+    }
+
+    /** Number of socket writes; lower than {@link #messagesSent()} when sends were coalesced. */
+    public long socketWrites() {
+        return socketWrites;
+    }
+
+    private void run() {
+        try {
+            while (!closed) {
+                Pending next = queue.take();
+                do {
+                    encode(next);
+                    batch.add(next);
+                    next = batch.size() < maxBatch ? queue.poll() : null;
+                } while (next != null);
+                // Queue is idle: push out whatever is buffered
+                drain();
+                out.flush();
+                long now = System.nanoTime();
+                messagesSent += batch.size();
+                for (int i = 0; i < batch.size(); i++) {
+                    Pending sent = batch.get(i);
+                    listener.onSent(sent.message, now - sent.enqueuedNanos);
+                }
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            // closed
+        } catch (IOException e) {
+            if (!closed) {
+                closed = true;
+                listener.onError(e);
+            }
+        } finally {
+            queue.clear();
+        }
+    }
+
+    private void encode(Pending pending) throws IOException {
+        if (pending.frame != null) {
+            copy(pending.frame);
+            pending.pool.release(pending.frame);
+            return;
+        }
+        CharBuffer chars = CharBuffer.wrap(pending.message);
+        encoder.reset();
+        while (true) {
+            CoderResult result = encoder.encode(chars, buffer, true);
+            if (result.isOverflow()) {
+                drain();
+            } else {
+                break;
+            }
+        }
+        while (encoder.flush(buffer).isOverflow()) {
+            drain();
+        }
+        if (!buffer.hasRemaining()) {
+            drain();
+        }
+        buffer.put((byte) '\n');
+    }
+
+    private void copy(ByteBuffer frame) throws IOException {
+        while (frame.hasRemaining()) {
+            if (!buffer.hasRemaining()) {
+                drain();
+            }
+            int n = Math.min(frame.remaining(), buffer.remaining());
+            buffer.put(frame.array(), frame.arrayOffset() + frame.position(), n);
+            frame.position(frame.position() + n);
+        }
+    }
+
+    private void drain() throws IOException {
+        if (buffer.position() == 0) {
+            return;
+        }
+        ByteSink tap = this.tap;
+        if (tap != null) {
+            tap.accept(buffer.array(), 0, buffer.position());
+        }
+        out.write(buffer.array(), 0, buffer.position());
+        bytesSent += buffer.position();
+        Metrics.global().rfcommBytesSent.add(buffer.position());
+        socketWrites++;
+        buffer.clear();
+    }
+}
@@ -0,0 +1,69 @@
+package com.example.bluetoothscanner;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Decodes what was written to a {@link ByteRing} since the last call as UTF-8, at most
+ * {@code maxChars} worth; older bytes are skipped. The decoder keeps state across calls, so
+ * multi-byte characters split between reads come out intact. Not thread-safe.
+ */
+public class RingTextDecoder {
+    private final ByteRing source;
+    private final int maxChars;
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final byte[] delta;
+    private final ByteBuffer pendingBytes;
+    private final CharBuffer chars;
+    private long position;
+
+    public RingTextDecoder(ByteRing source, int maxChars) {
+        this.source = source;
+        this.maxChars = maxChars;
+        // UTF-8 never decodes to more chars than bytes, so maxChars bytes are enough per call
+        this.delta = new byte[maxChars];
+        this.pendingBytes = ByteBuffer.allocate(maxChars + 4);
+        this.chars = CharBuffer.allocate(maxChars + 4);
+    }
+
+    /** Continues from the ring's current position. */
+    public void reset() {
+        decoder.reset();
+        pendingBytes.clear();
+        position = source.position();
+    }
+
+    /**
+     * Returns the newly decoded text; the buffer is reused by the next call. Empty if nothing
+     * new was written.
+     */
+    public CharBuffer decodeNew() {
+        chars.clear();
+        long end = source.position();
+        if (end < position) {
+            // The ring was cleared for a new connection
+            position = 0;
+        }
+        if (end != position) {
+            long from = Math.max(position, end - maxChars);
+            if (from != position) {
+                decoder.reset();
+                pendingBytes.clear();
+            }
+            int length = source.read(from, delta, 0, (int) (end - from));
+            position = from + length;
+            if (length > 0) {
+                pendingBytes.put(delta, 0, length).flip();
+                decoder.decode(pendingBytes, chars, false);
+                pendingBytes.compact();
+            }
+        }
+        chars.flip();
+        return chars;
+    }
+}
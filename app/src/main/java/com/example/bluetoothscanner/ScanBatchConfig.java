@@ -0,0 +1,27 @@
+package com.example.bluetoothscanner;
+
+/**
+ * Settings for batched BLE scanning. A report delay of 0 asks the controller for
+ * per-result delivery; any other value lets it queue results and hand them over in
+ * batches. {@code maxBatchSize} caps how many queued results the ingest thread merges
+ * before it checks whether a snapshot is due.
+ */
+public final class ScanBatchConfig {
+    public static final ScanBatchConfig DEFAULT = new ScanBatchConfig(500, 256);
+    public static final ScanBatchConfig PER_RESULT = new ScanBatchConfig(0, 256);
+
+    public final long reportDelayMillis;
+    public final int maxBatchSize;
+
+    public ScanBatchConfig(long reportDelayMillis, int maxBatchSize) {
+        if (reportDelayMillis < 0 || maxBatchSize <= 0) {
+            throw new IllegalArgumentException("Invalid batch config: delay=" + reportDelayMillis + ", size=" + maxBatchSize);
+        }
+        this.reportDelayMillis = reportDelayMillis;
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    public boolean isBatched() {
+        return reportDelayMillis > 0;
+    }
+}
@@ -0,0 +1,80 @@
+package com.example.bluetoothscanner;
+
+import android.bluetooth.le.ScanFilter;
+import android.os.ParcelUuid;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Splits {@link ScanRule}s between the controller and the host. Every rule contributes a
+ * {@link ScanFilter} built from the conditions the controller understands; rules that also
+ * need software checks (address prefixes, name prefixes) get a {@link ScanMatcher} pass on
+ * whatever the controller lets through. If any rule has no hardware condition at all the
+ * controller cannot narrow anything, so no filters are installed and all rules run in software.
+ */
+public final class ScanFilterCompiler {
+
+    public static final class Result {
+        /** Filters for {@code BluetoothLeScanner.startScan}; empty means "deliver everything". */
+        public final List<ScanFilter> hardwareFilters;
+        /** Matcher to run on delivered results, or null if the hardware filters are exact. */
+        public final ScanMatcher softwareMatcher;
+
+        Result(List<ScanFilter> hardwareFilters, ScanMatcher softwareMatcher) {
+            this.hardwareFilters = hardwareFilters;
+            this.softwareMatcher = softwareMatcher;
+        }
+
+        public boolean isHardwareFiltered() {
+            return !hardwareFilters.isEmpty();
+        }
+    }
+
+    private ScanFilterCompiler() {
+    }
+
+    public static Result compile(List<ScanRule> rules) {
+        if (rules.isEmpty()) {
+            return new Result(Collections.emptyList(), null);
+        }
+        boolean needsSoftware = false;
+        boolean hardwareCanNarrow = true;
+        for (ScanRule rule : rules) {
+            needsSoftware |= rule.needsSoftware();
+            hardwareCanNarrow &= rule.hasHardwareCondition();
+        }
+        ScanMatcher matcher = needsSoftware || !hardwareCanNarrow ? ScanMatcher.compile(rules) : null;
+        if (!hardwareCanNarrow) {
+            return new Result(Collections.emptyList(), matcher);
+        }
+        List<ScanFilter> filters = new ArrayList<>(rules.size());
+        for (ScanRule rule : rules) {
+            filters.add(toScanFilter(rule));
+        }
+        return new Result(filters, matcher);
+    }
+
+    private static ScanFilter toScanFilter(ScanRule rule) {
+        ScanFilter.Builder builder = new ScanFilter.Builder();
+        if (rule.hasAddress() && rule.addressMask == ScanRule.ADDRESS_MASK_ALL) {
+            builder.setDeviceAddress(BluetoothAddress.format(rule.address));
+        }
+        if (rule.name != null && !rule.namePrefix) {
+            builder.setDeviceName(rule.name);
+        }
+        if (rule.serviceUuid != null) {
+            builder.setServiceUuid(new ParcelUuid(rule.serviceUuid));
+        }
+        if (rule.serviceDataUuid != null) {
+            builder.setServiceData(new ParcelUuid(rule.serviceDataUuid),
+                    rule.serviceData != null ? rule.serviceData : new byte[0], rule.serviceDataMask);
+        }
+        if (rule.manufacturerId >= 0) {
+            builder.setManufacturerData(rule.manufacturerId,
+                    rule.manufacturerData != null ? rule.manufacturerData : new byte[0], rule.manufacturerDataMask);
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,584 @@
+package com.example.bluetoothscanner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Moves scan result processing off the callback thread. Callbacks {@link #offer} raw
+ * sightings into an {@link SpscRingBuffer}; a dedicated worker thread dedups them into a
+ * {@link DeviceRegistry} and publishes an immutable {@link ScanSnapshot} through the UI
+ * executor at a fixed cadence. If the UI has not consumed the previous snapshot yet it is
+ * replaced, so ingestion never waits for the UI.
+ *
+ * The registry can be bounded ({@link #setRetention}): devices not seen for the TTL expire,
+ * and when it is full the least recently seen device makes room. Both pop from the
+ * registry's recency list, so the cost is per removed device, never a sweep of all of them.
+ *
+ * Every sighting also feeds a {@link SignalEngine} (smoothed RSSI, distance, recent sighting
+ * count); each snapshot lists the nearest devices.
+ *
+ * Device names are cached in the registry: an advertised Local Name is taken as is, otherwise
+ * the {@link #setNameResolver name resolver} (a binder call on Android) runs on the ingest
+ * thread when the row is next published, and is retried at most every
+ * {@value #NAME_RETRY_MILLIS} ms while it has no answer. The UI never looks a name up.
+ *
+ * With a {@link #setQuery query}, a {@link DeviceView} on the ingest thread also keeps the
+ * matching devices in the query's order, updated per changed device rather than re-sorted, and
+ * each snapshot carries them with the list operations that got there.
+ *
+ * Classic inquiry results ({@link #offerInquiry}) take the same path and land in the same row
+ * as LE sightings of their address, so a dual-mode device is one record carrying both
+ * transports, its Class of Device and its advertising data.
+ *
+ * All {@code offer} calls must come from one thread (Android delivers both LE scan callbacks
+ * and discovery broadcasts on the main thread).
+ */
+public class ScanIngestor<D> {
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(2);
+    static final long NAME_RETRY_MILLIS = 10_000;
+    // Tells snapshots of different ingestors apart
+    private static final AtomicInteger SOURCES = new AtomicInteger();
+
+    public interface Listener<D> {
+        /** Called on the ingest thread the first time a device is seen in a generation. */
+        default void onDeviceAdded(D device, long address) {
+        }
+
+        /** Called on the UI executor with the latest snapshot. */
+        void onSnapshot(ScanSnapshot<D> snapshot);
+    }
+
+    private static final int[] NO_REMOVALS = new int[0];
+
+    private final SpscRingBuffer<Sighting<D>> ring;
+    private final int source = SOURCES.incrementAndGet();
+    private DeviceRegistry<D> registry = new DeviceRegistry<>(256);
+    private SignalEngine signals = new SignalEngine(SignalEngine.Filter.KALMAN);
+    // Published order; placeholders (null) for rows added since the last snapshot
+    private final ArrayList<DeviceSnapshot<D>> rows = new ArrayList<>();
+    private final Executor uiExecutor;
+    private final Listener<D> listener;
+    private final long publishIntervalNanos;
+    private final AtomicReference<ScanSnapshot<D>> pendingSnapshot = new AtomicReference<>();
+    // Timestamp of the oldest sighting not yet delivered to the UI, for Metrics#advertisementToUi
+    private final AtomicLong undeliveredSince = new AtomicLong(Long.MAX_VALUE);
+    private final Runnable deliverSnapshot = this::deliverSnapshot;
+    private final AdvertisingData advertisingData = new AdvertisingData();
+    private final Beacon beacon = new Beacon();
+    private volatile int maxBatchSize;
+    private volatile ScanMatcher matcher;
+    private volatile boolean hardwareFiltered;
+    private volatile int generation;
+    private volatile int maxDevices = Integer.MAX_VALUE;
+    private volatile long ttlNanos;
+    private volatile LongSupplier clock = System::nanoTime;
+    private volatile Function<D, String> nameResolver;
+    private volatile DeviceQuery query;
+    private volatile CaptureWriter captureWriter;
+    private volatile SightingStore sightingStore;
+    private volatile SignalEngine.Filter signalFilter = SignalEngine.Filter.KALMAN;
+    private volatile int nearestCount = 5;
+    private volatile boolean running;
+    private Thread worker;
+
+    // Producer-side counters
+    private volatile long dropped;
+
+    // Ingest-thread state
+    private int workerGeneration;
+    private long sightings;
+    private long hardwareCount;
+    private long softwareAccepted;
+    private long softwareRejected;
+    private long evicted;
+    private int sequence;
+    // Registry row -> position in rows, and position -> row (NONE once removed)
+    private int[] positions = new int[256];
+    private int[] rowAtPosition = new int[256];
+    // Registry row -> clock millis before which the name resolver is not asked again
+    private long[] nameRetryMillis = new long[256];
+    private int publishedSize;
+    private int pendingRemovals;
+    private int[] nearestRows = new int[0];
+    private boolean[] dirty = new boolean[256];
+    private int[] dirtyRows = new int[256];
+    private int dirtyCount;
+    private boolean pendingChange = true;
+    private DeviceView<D> view; // null without a query
+    private long oldestUnpublishedNanos = Long.MAX_VALUE;
+    // Wall-clock millis minus clock millis, taken once per batch for the sighting store
+    private long wallClockOffsetMillis;
+
+    public ScanIngestor(int ringCapacity, int publishRateHz, int maxBatchSize, Executor uiExecutor, Listener<D> listener) {
+        this.ring = new SpscRingBuffer<>(ringCapacity, Sighting::new);
+        this.publishIntervalNanos = TimeUnit.SECONDS.toNanos(1) / publishRateHz;
+        this.maxBatchSize = maxBatchSize;
+        this.uiExecutor = uiExecutor;
+        this.listener = listener;
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        worker = new Thread(this::run, "scan-ingest");
+        worker.start();
+    }
+
+    public synchronized void stop() {
+        running = false;
+        if (worker != null) {
+            LockSupport.unpark(worker);
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            worker = null;
+        }
+    }
+
+    public void setMaxBatchSize(int maxBatchSize) {
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Bounds the device list: at most {@code maxDevices} (applied at the next {@link #reset()}),
+     * and devices not seen for {@code ttl} are dropped ({@code 0} keeps them forever).
+     */
+    public void setRetention(int maxDevices, long ttl, TimeUnit unit) {
+        this.maxDevices = maxDevices;
+        this.ttlNanos = unit.toNanos(ttl);
+    }
+
+    /** RSSI smoothing for the next generation; see {@link SignalEngine.Filter}. */
+    public void setSignalFilter(SignalEngine.Filter filter) {
+        this.signalFilter = filter;
+    }
+
+    /** How many devices {@link ScanSnapshot#nearest} lists. */
+    public void setNearestCount(int count) {
+        this.nearestCount = count;
+    }
+
+    /** Clock the offered timestamps come from, used for TTL expiry; defaults to {@link System#nanoTime()}. */
+    public void setClock(LongSupplier clockNanos) {
+        this.clock = clockNanos;
+    }
+
+    /**
+     * Filters and sorts {@link ScanSnapshot#view} from the next snapshot on; null (the default)
+     * leaves the view out. Any thread.
+     */
+    public void setQuery(DeviceQuery query) {
+        this.query = query;
+    }
+
+    /**
+     * Records every sighting with a valid address to {@code writer} (null stops), on the ingest
+     * thread so file rollover never stalls the scan callbacks.
+     */
+    public void setCaptureWriter(CaptureWriter writer) {
+        this.captureWriter = writer;
+    }
+
+    /**
+     * Appends every sighting with a valid address to {@code store} (null stops), on the ingest
+     * thread and stamped with wall-clock time derived from its {@link #setClock clock} timestamp.
+     */
+    public void setSightingStore(SightingStore store) {
+        this.sightingStore = store;
+    }
+
+    /**
+     * Looks up the names of devices that did not advertise one; called on the ingest thread and
+     * may return null if the name is not known yet.
+     */
+    public void setNameResolver(Function<D, String> resolver) {
+        this.nameResolver = resolver;
+    }
+
+    /**
+     * Sets how advertisements of the next generation are filtered: {@code matcher} (may be null)
+     * runs on every result carrying advertising data, and {@code hardwareFiltered} tells whether
+     * the controller already applied filters. Call before {@link #reset()}.
+     */
+    public void setFilter(ScanMatcher matcher, boolean hardwareFiltered) {
+        this.matcher = matcher;
+        this.hardwareFiltered = hardwareFiltered;
+    }
+
+    /** Producer: forgets all devices; sightings offered before this call are discarded. */
+    public void reset() {
+        generation++;
+    }
+
+    /** Producer: queues one sighting without a TX power level. */
+    public boolean offer(D device, String address, int rssi, long timestampNanos, byte[] record) {
+        return offer(device, address, rssi, SignalEngine.TX_POWER_UNKNOWN, timestampNanos, record);
+    }
+
+    /** Producer: queues one LE sighting. Returns false if the ring was full and it was dropped. */
+    public boolean offer(D device, String address, int rssi, int txPower, long timestampNanos, byte[] record) {
+        return offer(device, address, rssi, txPower, timestampNanos, record,
+                DeviceRegistry.TRANSPORT_LE, DeviceRegistry.CLASS_UNKNOWN);
+    }
+
+    /**
+     * Producer: queues one Classic inquiry result. It lands in the same row as LE sightings of the
+     * same address, so a dual-mode device shows up once with both transports.
+     */
+    public boolean offerInquiry(D device, String address, int rssi, int deviceClass, long timestampNanos) {
+        return offer(device, address, rssi, SignalEngine.TX_POWER_UNKNOWN, timestampNanos, null,
+                DeviceRegistry.TRANSPORT_CLASSIC, deviceClass);
+    }
+
+    private boolean offer(D device, String address, int rssi, int txPower, long timestampNanos, byte[] record,
+                          int transport, int deviceClass) {
+        Metrics.global().scanResults.increment();
+        Sighting<D> sighting = ring.claim();
+        if (sighting == null) {
+            dropped++;
+            return false;
+        }
+        sighting.device = device;
+        sighting.address = address;
+        sighting.rssi = rssi;
+        sighting.txPower = txPower;
+        sighting.timestampNanos = timestampNanos;
+        sighting.record = record;
+        sighting.transport = transport;
+        sighting.deviceClass = deviceClass;
+        sighting.generation = generation;
+        ring.publish();
+        return true;
+    }
+
+    private void run() {
+        long nextPublish = System.nanoTime();
+        while (running) {
+            int drained = drain();
+            long now = System.nanoTime();
+            if (now - nextPublish >= 0) {
+                publish();
+                nextPublish = now + publishIntervalNanos;
+            } else if (drained == 0) {
+                LockSupport.parkNanos(Math.min(IDLE_PARK_NANOS, nextPublish - now));
+            }
+        }
+    }
+
+    int drain() {
+        int current = generation;
+        if (current != workerGeneration) {
+            resetState(current);
+        }
+        if (sightingStore != null) {
+            wallClockOffsetMillis = System.currentTimeMillis() - clock.getAsLong() / 1_000_000L;
+        }
+        int limit = maxBatchSize;
+        int count = 0;
+        Sighting<D> sighting;
+        while (count < limit && (sighting = ring.peek()) != null) {
+            if (sighting.generation == workerGeneration) {
+                ingest(sighting);
+            }
+            sighting.clear();
+            ring.release();
+            count++;
+        }
+        return count;
+    }
+
+    private void ingest(Sighting<D> sighting) {
+        long address = BluetoothAddress.pack(sighting.address);
+        if (address == BluetoothAddress.INVALID) {
+            return;
+        }
+        CaptureWriter capture = captureWriter;
+        if (capture != null) {
+            capture.append(sighting.transport == DeviceRegistry.TRANSPORT_CLASSIC
+                            ? CaptureFormat.TYPE_INQUIRY_RESULT : CaptureFormat.TYPE_ADVERTISEMENT,
+                    address, sighting.rssi, 0, sighting.record);
+        }
+        SightingStore store = sightingStore;
+        if (store != null) {
+            store.append(address, wallClockOffsetMillis + sighting.timestampNanos / 1_000_000L, sighting.rssi,
+                    sighting.transport);
+        }
+        if (sighting.record != null) {
+            ScanMatcher currentMatcher = matcher;
+            if (currentMatcher != null) {
+                if (!currentMatcher.matches(address, sighting.record)) {
+                    softwareRejected++;
+                    pendingChange = true;
+                    return;
+                }
+                softwareAccepted++;
+            } else if (hardwareFiltered) {
+                hardwareCount++;
+            }
+        }
+        long nowMillis = sighting.timestampNanos / 1_000_000L;
+        oldestUnpublishedNanos = Math.min(oldestUnpublishedNanos, sighting.timestampNanos);
+        int row = registry.indexOf(address);
+        if (row >= 0) {
+            Metrics.global().dedupHits.increment();
+        } else {
+            Metrics.global().dedupMisses.increment();
+            if (registry.isFull()) {
+                removeRow(registry.oldest());
+            }
+            row = registry.add(address, sighting.device, nowMillis);
+            signals.add(row);
+            appendRow(row);
+            listener.onDeviceAdded(sighting.device, address);
+        }
+        registry.recordSighting(row, sighting.rssi, nowMillis);
+        registry.addTransport(row, sighting.transport);
+        if (sighting.deviceClass != DeviceRegistry.CLASS_UNKNOWN) {
+            registry.setDeviceClass(row, sighting.deviceClass);
+        }
+        if (sighting.txPower != SignalEngine.TX_POWER_UNKNOWN) {
+            signals.setTxPower(row, sighting.txPower);
+        }
+        if (sighting.record != null && advertisingData.wrap(sighting.record)) {
+            Beacon.Type type = beacon.decode(advertisingData);
+            // Eddystone beacons interleave frame types; keep the identifying one over TLM
+            if (type != Beacon.Type.NONE && (type != Beacon.Type.EDDYSTONE_TLM || registry.beaconType(row) == Beacon.Type.NONE)) {
+                registry.setBeaconType(row, type);
+            }
+            calibrate(row, type);
+            if (advertisingData.flags() != AdvertisingData.ABSENT) {
+                registry.setAdvertisingFlags(row, advertisingData.flags());
+            }
+            if (registry.name(row) == null && advertisingData.hasName()) {
+                registry.setName(row, advertisingData.name());
+            }
+        }
+        signals.onSample(row, sighting.rssi, nowMillis);
+        sightings++;
+        markDirty(row);
+    }
+
+    // A beacon's calibrated power beats an advertised TX power level, which beats nothing
+    private void calibrate(int row, Beacon.Type type) {
+        if (type == Beacon.Type.IBEACON || type == Beacon.Type.ALTBEACON) {
+            signals.setMeasuredPower(row, beacon.measuredPower());
+        } else if (type == Beacon.Type.EDDYSTONE_UID || type == Beacon.Type.EDDYSTONE_URL) {
+            // Eddystone calibrates at 0 m
+            signals.setMeasuredPower(row, beacon.measuredPower() - SignalEngine.LOSS_AT_ONE_METRE);
+        } else if (advertisingData.txPower() != AdvertisingData.ABSENT && !signals.hasMeasuredPower(row)) {
+            signals.setTxPower(row, advertisingData.txPower());
+        }
+    }
+
+    private void appendRow(int row) {
+        int position = rows.size();
+        if (row >= positions.length) {
+            positions = Arrays.copyOf(positions, Math.max(row + 1, positions.length << 1));
+            nameRetryMillis = Arrays.copyOf(nameRetryMillis, positions.length);
+        }
+        nameRetryMillis[row] = Long.MIN_VALUE;
+        if (position == rowAtPosition.length) {
+            rowAtPosition = Arrays.copyOf(rowAtPosition, position << 1);
+        }
+        positions[row] = position;
+        rowAtPosition[position] = row;
+        rows.add(null);
+    }
+
+    private void removeRow(int row) {
+        if (view != null) {
+            view.remove(row);
+        }
+        rowAtPosition[positions[row]] = DeviceRegistry.NONE;
+        registry.remove(row);
+        signals.remove(row);
+        evicted++;
+        pendingRemovals++;
+        pendingChange = true;
+    }
+
+    private void expire() {
+        long ttl = ttlNanos;
+        if (ttl <= 0) {
+            return;
+        }
+        long cutoffMillis = (clock.getAsLong() - ttl) / 1_000_000L;
+        int row;
+        while ((row = registry.oldest()) != DeviceRegistry.NONE && registry.lastSeen(row) < cutoffMillis) {
+            removeRow(row);
+        }
+    }
+
+    /**
+     * Closes the gaps left by removed rows. Returns the removed ranges of the previously
+     * published list as (start, count) pairs, last range first, so they can be applied in order.
+     */
+    private int[] compact() {
+        if (pendingRemovals == 0) {
+            return NO_REMOVALS;
+        }
+        int[] ranges = new int[2 * pendingRemovals];
+        int rangeCount = 0;
+        int size = rows.size();
+        int kept = 0;
+        for (int position = 0; position < size; position++) {
+            int row = rowAtPosition[position];
+            if (row == DeviceRegistry.NONE) {
+                if (position < publishedSize) {
+                    if (rangeCount > 0 && ranges[rangeCount - 2] + ranges[rangeCount - 1] == position) {
+                        ranges[rangeCount - 1]++;
+                    } else {
+                        ranges[rangeCount++] = position;
+                        ranges[rangeCount++] = 1;
+                    }
+                }
+                continue;
+            }
+            rows.set(kept, rows.get(position));
+            rowAtPosition[kept] = row;
+            positions[row] = kept;
+            kept++;
+        }
+        rows.subList(kept, size).clear();
+        pendingRemovals = 0;
+        int[] result = new int[rangeCount];
+        for (int i = 0; i < rangeCount; i += 2) {
+            result[rangeCount - 2 - i] = ranges[i];
+            result[rangeCount - 1 - i] = ranges[i + 1];
+        }
+        return result;
+    }
+
+    private void markDirty(int row) {
+        if (row >= dirty.length) {
+            int capacity = Math.max(row + 1, dirty.length << 1);
+            dirty = Arrays.copyOf(dirty, capacity);
+            dirtyRows = Arrays.copyOf(dirtyRows, capacity);
+        }
+        if (!dirty[row]) {
+            dirty[row] = true;
+            dirtyRows[dirtyCount++] = row;
+        }
+    }
+
+    private void resetState(int newGeneration) {
+        workerGeneration = newGeneration;
+        int limit = maxDevices;
+        registry = new DeviceRegistry<>(Math.min(256, limit), limit);
+        signals = new SignalEngine(signalFilter);
+        // Rebuilt, empty, by the next publish
+        view = null;
+        rows.clear();
+        publishedSize = 0;
+        pendingRemovals = 0;
+        evicted = 0;
+        Arrays.fill(dirty, false);
+        dirtyCount = 0;
+        sightings = 0;
+        hardwareCount = 0;
+        softwareAccepted = 0;
+        softwareRejected = 0;
+        pendingChange = true;
+    }
+
+    void publish() {
+        expire();
+        DeviceQuery nextQuery = query;
+        boolean queryChanged = nextQuery != (view != null ? view.query() : null);
+        if (dirtyCount == 0 && !pendingChange && !queryChanged) {
+            return;
+        }
+        undeliveredSince.accumulateAndGet(oldestUnpublishedNanos, Math::min);
+        oldestUnpublishedNanos = Long.MAX_VALUE;
+        int[] removedRanges = compact();
+        long nowMillis = clock.getAsLong() / 1_000_000L;
+        // Every new row is also dirty, so the placeholders are all filled below
+        for (int i = 0; i < dirtyCount; i++) {
+            int row = dirtyRows[i];
+            dirty[row] = false;
+            // The row may have been evicted since, or even reused by a newer device
+            if (registry.isLive(row)) {
+                resolveName(row, nowMillis);
+                DeviceSnapshot<D> device = new DeviceSnapshot<>(registry, signals, row, nowMillis);
+                rows.set(positions[row], device);
+                if (view != null) {
+                    view.update(row, device);
+                }
+            }
+        }
+        dirtyCount = 0;
+        if (queryChanged) {
+            applyQuery(nextQuery);
+        }
+        pendingChange = false;
+        publishedSize = rows.size();
+        int wanted = nearestCount;
+        if (nearestRows.length < wanted) {
+            nearestRows = new int[wanted];
+        }
+        int found = signals.nearest(wanted, nearestRows);
+        ArrayList<DeviceSnapshot<D>> nearest = new ArrayList<>(found);
+        for (int i = 0; i < found; i++) {
+            nearest.add(rows.get(positions[nearestRows[i]]));
+        }
+        ScanSnapshot<D> snapshot = new ScanSnapshot<>(source, workerGeneration, ++sequence,
+                Collections.unmodifiableList(new ArrayList<>(rows)), removedRanges,
+                view != null ? view.devices() : null, view != null ? view.changes() : null,
+                Collections.unmodifiableList(nearest), sightings, dropped,
+                hardwareCount, softwareAccepted, softwareRejected, evicted);
+        if (pendingSnapshot.getAndSet(snapshot) == null) {
+            uiExecutor.execute(deliverSnapshot);
+        }
+    }
+
+    private void applyQuery(DeviceQuery wanted) {
+        if (wanted == null) {
+            view = null;
+        } else if (view != null) {
+            view.setQuery(wanted);
+        } else {
+            view = new DeviceView<>(wanted);
+            for (int position = 0; position < rows.size(); position++) {
+                view.update(rowAtPosition[position], rows.get(position));
+            }
+        }
+    }
+
+    private void resolveName(int row, long nowMillis) {
+        Function<D, String> resolver = nameResolver;
+        if (resolver == null || registry.name(row) != null || nowMillis < nameRetryMillis[row]) {
+            return;
+        }
+        String name = resolver.apply(registry.get(row));
+        if (name != null) {
+            registry.setName(row, name);
+        } else {
+            nameRetryMillis[row] = nowMillis + NAME_RETRY_MILLIS;
+        }
+    }
+
+    private void deliverSnapshot() {
+        ScanSnapshot<D> snapshot = pendingSnapshot.getAndSet(null);
+        if (snapshot != null) {
+            listener.onSnapshot(snapshot);
+            // Measured once the UI has applied it. A snapshot published meanwhile is folded into this sample.
+            long since = undeliveredSince.getAndSet(Long.MAX_VALUE);
+            if (since != Long.MAX_VALUE) {
+                Metrics.global().advertisementToUi.record(clock.getAsLong() - since);
+            }
+        }
+    }
+}
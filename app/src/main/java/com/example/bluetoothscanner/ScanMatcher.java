@@ -0,0 +1,229 @@
+package com.example.bluetoothscanner;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Software side of the scan filter engine. Rules are precompiled into primitive fields and
+ * byte patterns, and matched directly against the raw advertising payload (the AD structures
+ * returned by {@code ScanRecord.getBytes()}) without decoding it or allocating.
+ */
+public final class ScanMatcher {
+    static final long BASE_UUID_MSB = 0x0000000000001000L;
+    static final long BASE_UUID_LSB = 0x800000805F9B34FBL;
+
+    static final int AD_UUID16_INCOMPLETE = 0x02;
+    static final int AD_UUID16_COMPLETE = 0x03;
+    static final int AD_UUID32_INCOMPLETE = 0x04;
+    static final int AD_UUID32_COMPLETE = 0x05;
+    static final int AD_UUID128_INCOMPLETE = 0x06;
+    static final int AD_UUID128_COMPLETE = 0x07;
+    static final int AD_NAME_SHORT = 0x08;
+    static final int AD_NAME_COMPLETE = 0x09;
+    static final int AD_SERVICE_DATA16 = 0x16;
+    static final int AD_SERVICE_DATA32 = 0x20;
+    static final int AD_SERVICE_DATA128 = 0x21;
+    static final int AD_MANUFACTURER = 0xFF;
+
+    private final CompiledRule[] rules;
+
+    private ScanMatcher(CompiledRule[] rules) {
+        this.rules = rules;
+    }
+
+    public static ScanMatcher compile(List<ScanRule> rules) {
+        CompiledRule[] compiled = new CompiledRule[rules.size()];
+        for (int i = 0; i < compiled.length; i++) {
+            compiled[i] = new CompiledRule(rules.get(i));
+        }
+        return new ScanMatcher(compiled);
+    }
+
+    /** True if any rule matches. {@code record} may be null when no advertising data is available. */
+    public boolean matches(long address, byte[] record) {
+        for (CompiledRule rule : rules) {
+            if (rule.matches(address, record)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static final class CompiledRule {
+        final long address;
+        final long addressMask;
+        final byte[] name;
+        final boolean namePrefix;
+        final boolean hasServiceUuid;
+        final long serviceMsb;
+        final long serviceLsb;
+        final boolean hasServiceData;
+        final long serviceDataMsb;
+        final long serviceDataLsb;
+        final byte[] serviceData;
+        final byte[] serviceDataMask;
+        final int manufacturerId;
+        final byte[] manufacturerData;
+        final byte[] manufacturerDataMask;
+
+        CompiledRule(ScanRule rule) {
+            address = rule.hasAddress() ? rule.address & rule.addressMask : 0;
+            addressMask = rule.hasAddress() ? rule.addressMask : 0;
+            name = rule.name != null ? rule.name.getBytes(StandardCharsets.UTF_8) : null;
+            namePrefix = rule.namePrefix;
+            hasServiceUuid = rule.serviceUuid != null;
+            serviceMsb = hasServiceUuid ? rule.serviceUuid.getMostSignificantBits() : 0;
+            serviceLsb = hasServiceUuid ? rule.serviceUuid.getLeastSignificantBits() : 0;
+            hasServiceData = rule.serviceDataUuid != null;
+            serviceDataMsb = hasServiceData ? rule.serviceDataUuid.getMostSignificantBits() : 0;
+            serviceDataLsb = hasServiceData ? rule.serviceDataUuid.getLeastSignificantBits() : 0;
+            serviceData = rule.serviceData;
+            serviceDataMask = rule.serviceDataMask;
+            manufacturerId = rule.manufacturerId;
+            manufacturerData = rule.manufacturerData;
+            manufacturerDataMask = rule.manufacturerDataMask;
+        }
+
+        boolean matches(long deviceAddress, byte[] record) {
+            if ((deviceAddress & addressMask) != address) {
+                return false;
+            }
+            if (name == null && !hasServiceUuid && !hasServiceData && manufacturerId < 0) {
+                return true;
+            }
+            if (record == null) {
+                return false;
+            }
+            return (name == null || matchesName(record))
+                    && (!hasServiceUuid || matchesServiceUuid(record))
+                    && (!hasServiceData || matchesServiceData(record))
+                    && (manufacturerId < 0 || matchesManufacturer(record));
+        }
+
+        private boolean matchesName(byte[] record) {
+            for (int i = 0; i + 1 < record.length; ) {
+                int length = record[i] & 0xFF;
+                if (length == 0 || i + 1 + length > record.length) {
+                    break;
+                }
+                int type = record[i + 1] & 0xFF;
+                if (type == AD_NAME_COMPLETE || type == AD_NAME_SHORT) {
+                    int valueLength = length - 1;
+                    boolean lengthOk = namePrefix ? valueLength >= name.length : valueLength == name.length;
+                    if (lengthOk && regionEquals(record, i + 2, name, null, name.length)) {
+                        return true;
+                    }
+                }
+                i += 1 + length;
+            }
+            return false;
+        }
+
+        private boolean matchesServiceUuid(byte[] record) {
+            for (int i = 0; i + 1 < record.length; ) {
+                int length = record[i] & 0xFF;
+                if (length == 0 || i + 1 + length > record.length) {
+                    break;
+                }
+                int type = record[i + 1] & 0xFF;
+                int width = uuidWidth(type);
+                if (width > 0) {
+                    for (int p = i + 2; p + width <= i + 1 + length; p += width) {
+                        if (uuidEquals(record, p, width, serviceMsb, serviceLsb)) {
+                            return true;
+                        }
+                    }
+                }
+                i += 1 + length;
+            }
+            return false;
+        }
+
+        private boolean matchesServiceData(byte[] record) {
+            for (int i = 0; i + 1 < record.length; ) {
+                int length = record[i] & 0xFF;
+                if (length == 0 || i + 1 + length > record.length) {
+                    break;
+                }
+                int type = record[i + 1] & 0xFF;
+                int width = type == AD_SERVICE_DATA16 ? 2 : type == AD_SERVICE_DATA32 ? 4 : type == AD_SERVICE_DATA128 ? 16 : 0;
+                if (width > 0 && length - 1 >= width && uuidEquals(record, i + 2, width, serviceDataMsb, serviceDataLsb)) {
+                    int dataStart = i + 2 + width;
+                    int dataLength = length - 1 - width;
+                    if (serviceData == null
+                            || (dataLength >= serviceData.length && regionEquals(record, dataStart, serviceData, serviceDataMask, serviceData.length))) {
+                        return true;
+                    }
+                }
+                i += 1 + length;
+            }
+            return false;
+        }
+
+        private boolean matchesManufacturer(byte[] record) {
+            for (int i = 0; i + 1 < record.length; ) {
+                int length = record[i] & 0xFF;
+                if (length == 0 || i + 1 + length > record.length) {
+                    break;
+                }
+                if ((record[i + 1] & 0xFF) == AD_MANUFACTURER && length >= 3) {
+                    int id = (record[i + 2] & 0xFF) | ((record[i + 3] & 0xFF) << 8);
+                    int dataLength = length - 3;
+                    if (id == manufacturerId && (manufacturerData == null
+                            || (dataLength >= manufacturerData.length
+                            && regionEquals(record, i + 4, manufacturerData, manufacturerDataMask, manufacturerData.length)))) {
+                        return true;
+                    }
+                }
+                i += 1 + length;
+            }
+            return false;
+        }
+    }
+
+    static int uuidWidth(int adType) {
+        switch (adType) {
+            case AD_UUID16_INCOMPLETE:
+            case AD_UUID16_COMPLETE:
+                return 2;
+            case AD_UUID32_INCOMPLETE:
+            case AD_UUID32_COMPLETE:
+                return 4;
+            case AD_UUID128_INCOMPLETE:
+            case AD_UUID128_COMPLETE:
+                return 16;
+            default:
+                return 0;
+        }
+    }
+
+    /** Compares a little-endian 16, 32 or 128-bit UUID in {@code record} with a full UUID. */
+    static boolean uuidEquals(byte[] record, int offset, int width, long msb, long lsb) {
+        if (width == 16) {
+            return readLongLe(record, offset + 8) == msb && readLongLe(record, offset) == lsb;
+        }
+        long shortUuid = 0;
+        for (int i = width - 1; i >= 0; i--) {
+            shortUuid = (shortUuid << 8) | (record[offset + i] & 0xFF);
+        }
+        return lsb == BASE_UUID_LSB && msb == (BASE_UUID_MSB | (shortUuid << 32));
+    }
+
+    static long readLongLe(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = 7; i >= 0; i--) {
+            value = (value << 8) | (bytes[offset + i] & 0xFF);
+        }
+        return value;
+    }
+
+    private static boolean regionEquals(byte[] record, int offset, byte[] pattern, byte[] mask, int length) {
+        for (int i = 0; i < length; i++) {
+            int m = mask != null ? mask[i] : 0xFF;
+            if (((record[offset + i] ^ pattern[i]) & m) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
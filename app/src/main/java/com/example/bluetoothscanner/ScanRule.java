@@ -0,0 +1,248 @@
+package com.example.bluetoothscanner;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+
+/**
+ * One user scan rule: all conditions that are set must match (like a
+ * {@link android.bluetooth.le.ScanFilter}), and a result is kept if any rule matches.
+ * Rules are compiled by {@link ScanFilterCompiler} into controller filters where possible
+ * and into a {@link ScanMatcher} for the rest.
+ */
+public final class ScanRule {
+    public static final long ADDRESS_MASK_ALL = 0xFFFFFFFFFFFFL;
+
+    /** Packed address to match, or {@link BluetoothAddress#INVALID} if unset. */
+    public final long address;
+    /** Which address bits must match; anything other than all bits needs the software matcher. */
+    public final long addressMask;
+    public final String name;
+    /** When set, {@link #name} only has to be a prefix of the advertised name (software only). */
+    public final boolean namePrefix;
+    public final UUID serviceUuid;
+    public final UUID serviceDataUuid;
+    public final byte[] serviceData;
+    public final byte[] serviceDataMask;
+    /** Bluetooth SIG company identifier, or -1 if unset. */
+    public final int manufacturerId;
+    public final byte[] manufacturerData;
+    public final byte[] manufacturerDataMask;
+
+    private ScanRule(Builder builder) {
+        address = builder.address;
+        addressMask = builder.addressMask;
+        name = builder.name;
+        namePrefix = builder.namePrefix;
+        serviceUuid = builder.serviceUuid;
+        serviceDataUuid = builder.serviceDataUuid;
+        serviceData = builder.serviceData;
+        serviceDataMask = builder.serviceDataMask;
+        manufacturerId = builder.manufacturerId;
+        manufacturerData = builder.manufacturerData;
+        manufacturerDataMask = builder.manufacturerDataMask;
+    }
+
+    public boolean hasAddress() {
+        return address != BluetoothAddress.INVALID;
+    }
+
+    /** True if some condition cannot be expressed as an Android {@code ScanFilter}. */
+    public boolean needsSoftware() {
+        return (hasAddress() && addressMask != ADDRESS_MASK_ALL) || (name != null && namePrefix);
+    }
+
+    /** True if at least one condition can be checked by the controller. */
+    public boolean hasHardwareCondition() {
+        return (hasAddress() && addressMask == ADDRESS_MASK_ALL) || (name != null && !namePrefix)
+                || serviceUuid != null || serviceDataUuid != null || manufacturerId >= 0;
+    }
+
+    /**
+     * Parses rules separated by commas, each made of space separated conditions:
+     * {@code mac:AA:BB:CC:DD:EE:FF}, {@code oui:AA:BB:CC} (any whole-byte prefix),
+     * {@code name:Sensor} or {@code name:Sens*}, {@code uuid:180F} (16-bit or full UUID),
+     * {@code sdata:180F=0102/FFFF} and {@code mfg:004C=0215/FFFF} (data and mask optional).
+     */
+    public static List<ScanRule> parse(String text) {
+        List<ScanRule> rules = new ArrayList<>();
+        for (String ruleText : text.split(",")) {
+            String trimmed = ruleText.trim();
+            if (trimmed.isEmpty()) {
+                continue;
+            }
+            Builder builder = new Builder();
+            for (String condition : trimmed.split("\\s+")) {
+                int colon = condition.indexOf(':');
+                if (colon <= 0) {
+                    throw new IllegalArgumentException("Expected key:value, got \"" + condition + "\"");
+                }
+                String key = condition.substring(0, colon).toLowerCase(Locale.ROOT);
+                String value = condition.substring(colon + 1);
+                switch (key) {
+                    case "mac":
+                        builder.setAddress(value);
+                        break;
+                    case "oui":
+                        builder.setAddressPrefix(value);
+                        break;
+                    case "name":
+                        if (value.endsWith("*")) {
+                            builder.setNamePrefix(value.substring(0, value.length() - 1));
+                        } else {
+                            builder.setName(value);
+                        }
+                        break;
+                    case "uuid":
+                        builder.setServiceUuid(parseUuid(value));
+                        break;
+                    case "sdata": {
+                        String[] parts = splitData(value);
+                        builder.setServiceData(parseUuid(parts[0]), parseHex(parts[1]), parseHex(parts[2]));
+                        break;
+                    }
+                    case "mfg": {
+                        String[] parts = splitData(value);
+                        builder.setManufacturerData(Integer.parseInt(parts[0], 16), parseHex(parts[1]), parseHex(parts[2]));
+                        break;
+                    }
+                    default:
+                        throw new IllegalArgumentException("Unknown condition \"" + key + "\"");
+                }
+            }
+            rules.add(builder.build());
+        }
+        return rules;
+    }
+
+    // "id=data/mask" -> {id, data or null, mask or null}
+    private static String[] splitData(String value) {
+        String[] result = new String[3];
+        int eq = value.indexOf('=');
+        result[0] = eq < 0 ? value : value.substring(0, eq);
+        if (eq >= 0) {
+            String data = value.substring(eq + 1);
+            int slash = data.indexOf('/');
+            result[1] = slash < 0 ? data : data.substring(0, slash);
+            result[2] = slash < 0 ? null : data.substring(slash + 1);
+        }
+        return result;
+    }
+
+    static UUID parseUuid(String value) {
+        if (value.length() == 4 || value.length() == 8) {
+            long shortUuid = Long.parseLong(value, 16);
+            return new UUID(ScanMatcher.BASE_UUID_MSB | (shortUuid << 32), ScanMatcher.BASE_UUID_LSB);
+        }
+        return UUID.fromString(value);
+    }
+
+    static byte[] parseHex(String hex) {
+        if (hex == null) {
+            return null;
+        }
+        if ((hex.length() & 1) != 0) {
+            throw new IllegalArgumentException("Odd number of hex digits: " + hex);
+        }
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            int hi = Character.digit(hex.charAt(2 * i), 16);
+            int lo = Character.digit(hex.charAt(2 * i + 1), 16);
+            if (hi < 0 || lo < 0) {
+                throw new IllegalArgumentException("Invalid hex: " + hex);
+            }
+            bytes[i] = (byte) ((hi << 4) | lo);
+        }
+        return bytes;
+    }
+
+    public static final class Builder {
+        private long address = BluetoothAddress.INVALID;
+        private long addressMask;
+        private String name;
+        private boolean namePrefix;
+        private UUID serviceUuid;
+        private UUID serviceDataUuid;
+        private byte[] serviceData;
+        private byte[] serviceDataMask;
+        private int manufacturerId = -1;
+        private byte[] manufacturerData;
+        private byte[] manufacturerDataMask;
+
+        public Builder setAddress(String address) {
+            long packed = BluetoothAddress.pack(address);
+            if (packed == BluetoothAddress.INVALID) {
+                throw new IllegalArgumentException("Invalid address: " + address);
+            }
+            this.address = packed;
+            this.addressMask = ADDRESS_MASK_ALL;
+            return this;
+        }
+
+        /** Matches every address starting with the given bytes, e.g. an OUI "AA:BB:CC". */
+        public Builder setAddressPrefix(String prefix) {
+            String[] octets = prefix.split(":");
+            if (octets.length < 1 || octets.length > 6) {
+                throw new IllegalArgumentException("Invalid address prefix: " + prefix);
+            }
+            long value = 0;
+            for (String octet : octets) {
+                if (octet.length() != 2) {
+                    throw new IllegalArgumentException("Invalid address prefix: " + prefix);
+                }
+                value = (value << 8) | (parseHex(octet)[0] & 0xFF);
+            }
+            int shift = 8 * (6 - octets.length);
+            this.address = value << shift;
+            this.addressMask = (ADDRESS_MASK_ALL >>> shift) << shift;
+            return this;
+        }
+
+        public Builder setName(String name) {
+            this.name = name;
+            this.namePrefix = false;
+            return this;
+        }
+
+        public Builder setNamePrefix(String prefix) {
+            this.name = prefix;
+            this.namePrefix = true;
+            return this;
+        }
+
+        public Builder setServiceUuid(UUID uuid) {
+            this.serviceUuid = uuid;
+            return this;
+        }
+
+        public Builder setServiceData(UUID uuid, byte[] data, byte[] mask) {
+            checkMask(data, mask);
+            this.serviceDataUuid = uuid;
+            this.serviceData = data;
+            this.serviceDataMask = mask;
+            return this;
+        }
+
+        public Builder setManufacturerData(int manufacturerId, byte[] data, byte[] mask) {
+            if (manufacturerId < 0 || manufacturerId > 0xFFFF) {
+                throw new IllegalArgumentException("Invalid manufacturer id: " + manufacturerId);
+            }
+            checkMask(data, mask);
+            this.manufacturerId = manufacturerId;
+            this.manufacturerData = data;
+            this.manufacturerDataMask = mask;
+            return this;
+        }
+
+        public ScanRule build() {
+            return new ScanRule(this);
+        }
+
+        private static void checkMask(byte[] data, byte[] mask) {
+            if (mask != null && (data == null || mask.length != data.length)) {
+                throw new IllegalArgumentException("Mask length must match data length");
+            }
+        }
+    }
+}
@@ -0,0 +1,460 @@
+package com.example.bluetoothscanner;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs LE scanning as a sequence of windows, with Classic inquiry windows in between, and picks
+ * the duty cycle from how fast new devices turn up: a busy environment gets
+ * {@link Level#LOW_LATENCY}, a quiet one steps down to {@link Level#LOW_POWER} and stretches its
+ * idle gaps. Scan starts stay within Android's limit (5 per 30 s; past it the stack silently
+ * delivers nothing), and a window at an unchanged continuous level keeps the running scan
+ * instead of restarting it. All state is confined to the given single-threaded executor; the
+ * public methods may be called from any thread.
+ */
+public class ScanScheduler {
+    public enum Level {
+        LOW_POWER(BleScanner.SCAN_MODE_LOW_POWER, 512.0 / 5120),
+        BALANCED(BleScanner.SCAN_MODE_BALANCED, 1024.0 / 4096),
+        LOW_LATENCY(BleScanner.SCAN_MODE_LOW_LATENCY, 1.0);
+
+        public final int scanMode;
+        /** Share of a scan the controller actually listens (Android's scan window / interval). */
+        public final double radioDuty;
+
+        Level(int scanMode, double radioDuty) {
+            this.scanMode = scanMode;
+            this.radioDuty = radioDuty;
+        }
+    }
+
+    public enum Phase {
+        STOPPED,
+        LE_SCAN,
+        INQUIRY,
+        IDLE
+    }
+
+    /** The radio as the scheduler drives it. Android: {@link ScanService}. */
+    public interface Radio {
+        /** Starts (or restarts) LE scanning; false if the scanner is unavailable, e.g. Bluetooth is off. */
+        boolean startLeScan(int scanMode);
+
+        void stopLeScan();
+
+        boolean startInquiry();
+
+        void cancelInquiry();
+    }
+
+    public interface Listener {
+        /** On the scheduler's executor, after every LE window. */
+        void onWindowEnd(Stats stats);
+    }
+
+    /** Window lengths and thresholds; see {@link Builder} for the defaults. */
+    public static final class Policy {
+        public static final Policy DEFAULT = new Builder().build();
+
+        final long[] windowMillis;
+        final long[] idleMillis;
+        final long maxIdleMillis;
+        final long inquiryMillis;
+        final int inquiryEvery;
+        final double raisePerMinute;
+        final double lowerPerMinute;
+        final int maxStarts;
+        final long startWindowMillis;
+
+        private Policy(Builder builder) {
+            windowMillis = builder.windowMillis.clone();
+            idleMillis = builder.idleMillis.clone();
+            maxIdleMillis = builder.maxIdleMillis;
+            inquiryMillis = builder.inquiryMillis;
+            inquiryEvery = builder.inquiryEvery;
+            raisePerMinute = builder.raisePerMinute;
+            lowerPerMinute = builder.lowerPerMinute;
+            maxStarts = builder.maxStarts;
+            startWindowMillis = builder.startWindowMillis;
+        }
+
+        public static final class Builder {
+            private final long[] windowMillis = {5_000, 10_000, 30_000};
+            private final long[] idleMillis = {25_000, 5_000, 0};
+            private long maxIdleMillis = 120_000;
+            private long inquiryMillis = 5_000;
+            private int inquiryEvery = 6;
+            private double raisePerMinute = 6;
+            private double lowerPerMinute = 1;
+            private int maxStarts = 5;
+            // Android counts 30 s; a second of margin absorbs timer jitter
+            private long startWindowMillis = 31_000;
+
+            /** LE window and the idle gap after it; an idle of 0 scans continuously. */
+            public Builder window(Level level, long windowMillis, long idleMillis) {
+                this.windowMillis[level.ordinal()] = windowMillis;
+                this.idleMillis[level.ordinal()] = idleMillis;
+                return this;
+            }
+
+            /** Upper bound for the idle gap of {@link Level#LOW_POWER}, which doubles while nothing new turns up. */
+            public Builder maxIdle(long millis) {
+                maxIdleMillis = millis;
+                return this;
+            }
+
+            /** A Classic inquiry of {@code millis} after every {@code everyWindows} LE windows; 0 ms for none. */
+            public Builder inquiry(long millis, int everyWindows) {
+                inquiryMillis = millis;
+                inquiryEvery = Math.max(1, everyWindows);
+                return this;
+            }
+
+            /** New devices per minute at or above which the level steps up, and below which it steps down. */
+            public Builder thresholds(double raisePerMinute, double lowerPerMinute) {
+                this.raisePerMinute = raisePerMinute;
+                this.lowerPerMinute = lowerPerMinute;
+                return this;
+            }
+
+            /** At most {@code maxStarts} LE scan starts in any {@code windowMillis}. */
+            public Builder startLimit(int maxStarts, long windowMillis) {
+                this.maxStarts = maxStarts;
+                this.startWindowMillis = windowMillis;
+                return this;
+            }
+
+            public Policy build() {
+                return new Policy(this);
+            }
+        }
+    }
+
+    /** Sliding-window limit on scan starts: the oldest of the last {@code maxStarts} must be out of the window. */
+    public static final class StartThrottle {
+        private final long[] starts;
+        private final long windowNanos;
+        private int next;
+        private int count;
+
+        public StartThrottle(int maxStarts, long window, TimeUnit unit) {
+            this.starts = new long[maxStarts];
+            this.windowNanos = unit.toNanos(window);
+        }
+
+        /** Nanoseconds until a start is allowed, 0 if one is allowed at {@code nowNanos}. */
+        public long delayNanos(long nowNanos) {
+            if (count < starts.length) {
+                return 0;
+            }
+            return Math.max(0, starts[next] + windowNanos - nowNanos);
+        }
+
+        public void record(long nowNanos) {
+            starts[next] = nowNanos;
+            next = (next + 1) % starts.length;
+            count = Math.min(count + 1, starts.length);
+        }
+    }
+
+    /** Counters since {@link #start}, copied on the scheduler's executor. */
+    public static final class Stats {
+        public final Level level;
+        public final Phase phase;
+        public final long elapsedMillis;
+        public final long leStarts;
+        /** Starts that had to wait for the throttle. */
+        public final long throttledStarts;
+        public final long windows;
+        public final long inquiries;
+        public final long newDevices;
+        /** Smoothed new devices per minute, the input to the level choice. */
+        public final double discoveryRatePerMinute;
+        /**
+         * From the start of the LE or inquiry window to a new device turning up, averaged over new
+         * devices. A device that arrived while the radio was off also waited up to {@link #idleMillis}.
+         */
+        public final double meanDiscoveryLatencyMillis;
+        public final double maxDiscoveryLatencyMillis;
+        /** Idle gap the current level leaves after each window. */
+        public final long idleMillis;
+        /** Share of the time the radio was listening, weighting LE windows by their mode's duty. */
+        public final double radioDutyCycle;
+        /** Share of the time an LE scan was running, whatever its mode. */
+        public final double leShare;
+        public final double inquiryShare;
+
+        Stats(ScanScheduler s, long now) {
+            long elapsed = Math.max(1, now - s.startedNanos);
+            long phaseNanos = now - s.phaseStartNanos;
+            double radio = s.radioNanos;
+            long le = s.leNanos;
+            long inquiry = s.inquiryNanos;
+            if (s.phase == Phase.LE_SCAN) {
+                radio += phaseNanos * s.scanLevel.radioDuty;
+                le += phaseNanos;
+            } else if (s.phase == Phase.INQUIRY) {
+                radio += phaseNanos;
+                inquiry += phaseNanos;
+            }
+            level = s.level;
+            phase = s.phase;
+            elapsedMillis = elapsed / 1_000_000;
+            leStarts = s.leStarts;
+            throttledStarts = s.throttledStarts;
+            windows = s.windows;
+            inquiries = s.inquiries;
+            newDevices = s.newDevices;
+            discoveryRatePerMinute = s.ratePerMinute;
+            meanDiscoveryLatencyMillis = s.latencyCount > 0 ? s.latencySumNanos / 1e6 / s.latencyCount : 0;
+            maxDiscoveryLatencyMillis = s.latencyMaxNanos / 1e6;
+            idleMillis = s.idleMillis();
+            radioDutyCycle = radio / elapsed;
+            leShare = (double) le / elapsed;
+            inquiryShare = (double) inquiry / elapsed;
+        }
+    }
+
+    private static final double RATE_ALPHA = 0.5;
+    private static final long RETRY_MILLIS = 5_000;
+
+    private final Radio radio;
+    private final ScheduledExecutorService executor;
+    private final Policy policy;
+    private final Listener listener;
+    private final StartThrottle throttle;
+
+    private boolean running;
+    private Phase phase = Phase.STOPPED;
+    private Level level = Level.LOW_LATENCY;
+    private Level scanLevel = Level.LOW_LATENCY; // mode of the scan that is running
+    private boolean levelChanged;
+    private ScheduledFuture<?> timer;
+    private long startedNanos;
+    private long phaseStartNanos;
+    private long windowStartNanos;
+    private long rateSinceNanos;
+    private int idleShift; // LOW_POWER idle gap is doubled this many times
+    private int recentNew;
+    private double ratePerMinute;
+
+    private long leStarts;
+    private long throttledStarts;
+    private long windows;
+    private long inquiries;
+    private long newDevices;
+    private long latencySumNanos;
+    private long latencyCount;
+    private long latencyMaxNanos;
+    private double radioNanos;
+    private long leNanos;
+    private long inquiryNanos;
+
+    public ScanScheduler(Radio radio, ScheduledExecutorService executor, Policy policy, Listener listener) {
+        this.radio = radio;
+        this.executor = executor;
+        this.policy = policy;
+        this.listener = listener;
+        this.throttle = new StartThrottle(policy.maxStarts, policy.startWindowMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /** Starts at {@link Level#LOW_LATENCY}, so whatever is around is found quickly before settling. */
+    public void start() {
+        executor.execute(() -> {
+            if (running) {
+                return;
+            }
+            running = true;
+            long now = System.nanoTime();
+            startedNanos = now;
+            rateSinceNanos = now;
+            phaseStartNanos = now;
+            level = Level.LOW_LATENCY;
+            beginLeScan();
+        });
+    }
+
+    public void stop() {
+        executor.execute(() -> {
+            if (!running) {
+                return;
+            }
+            running = false;
+            cancelTimer();
+            endPhase(System.nanoTime());
+            if (phase == Phase.LE_SCAN) {
+                radio.stopLeScan();
+            } else if (phase == Phase.INQUIRY) {
+                radio.cancelInquiry();
+            }
+            phase = Phase.STOPPED;
+        });
+    }
+
+    /** Reports a device seen for the first time (or again after it expired); any thread. */
+    public void onNewDevice() {
+        long now = System.nanoTime();
+        executor.execute(() -> {
+            if (!running) {
+                return;
+            }
+            newDevices++;
+            recentNew++;
+            if (phase == Phase.LE_SCAN || phase == Phase.INQUIRY) {
+                long latency = Math.max(0, now - windowStartNanos);
+                latencySumNanos += latency;
+                latencyCount++;
+                latencyMaxNanos = Math.max(latencyMaxNanos, latency);
+            }
+        });
+    }
+
+    public Future<Stats> stats() {
+        return executor.submit(() -> new Stats(this, System.nanoTime()));
+    }
+
+    private void beginLeScan() {
+        if (!running) {
+            return;
+        }
+        long now = System.nanoTime();
+        long wait = throttle.delayNanos(now);
+        if (wait > 0) {
+            throttledStarts++;
+            enterIdle(now, TimeUnit.NANOSECONDS.toMillis(wait) + 1);
+            return;
+        }
+        if (!radio.startLeScan(level.scanMode)) {
+            enterIdle(now, RETRY_MILLIS);
+            return;
+        }
+        throttle.record(now);
+        leStarts++;
+        endPhase(now);
+        phase = Phase.LE_SCAN;
+        scanLevel = level;
+        phaseStartNanos = now;
+        windowStartNanos = now;
+        levelChanged = false;
+        schedule(this::endLeWindow, policy.windowMillis[level.ordinal()]);
+    }
+
+    private void endLeWindow() {
+        long now = System.nanoTime();
+        windows++;
+        adapt(now);
+        boolean inquiryDue = policy.inquiryMillis > 0 && windows % policy.inquiryEvery == 0;
+        if (!inquiryDue && !levelChanged && idleMillis() == 0) {
+            // Continuous at the same level: keep the scan running rather than spend a start on it
+            listener.onWindowEnd(new Stats(this, now));
+            windowStartNanos = now;
+            schedule(this::endLeWindow, policy.windowMillis[level.ordinal()]);
+            return;
+        }
+        radio.stopLeScan();
+        endPhase(now);
+        phase = Phase.IDLE;
+        phaseStartNanos = now;
+        listener.onWindowEnd(new Stats(this, now));
+        if (inquiryDue) {
+            beginInquiry();
+        } else {
+            afterWindow(now);
+        }
+    }
+
+    private void beginInquiry() {
+        long now = System.nanoTime();
+        if (!radio.startInquiry()) {
+            afterWindow(now);
+            return;
+        }
+        inquiries++;
+        phase = Phase.INQUIRY;
+        phaseStartNanos = now;
+        windowStartNanos = now;
+        schedule(this::endInquiry, policy.inquiryMillis);
+    }
+
+    private void endInquiry() {
+        long now = System.nanoTime();
+        radio.cancelInquiry();
+        endPhase(now);
+        phase = Phase.IDLE;
+        phaseStartNanos = now;
+        afterWindow(now);
+    }
+
+    private void afterWindow(long now) {
+        long idle = idleMillis();
+        if (idle == 0) {
+            beginLeScan();
+        } else {
+            enterIdle(now, idle);
+        }
+    }
+
+    private void enterIdle(long now, long millis) {
+        endPhase(now);
+        phase = Phase.IDLE;
+        phaseStartNanos = now;
+        schedule(this::beginLeScan, millis);
+    }
+
+    /** Updates the discovery rate over the cycle that just ended and steps the level by at most one. */
+    private void adapt(long now) {
+        double minutes = Math.max(1e-9, (now - rateSinceNanos) / 60e9);
+        double sample = recentNew / minutes;
+        ratePerMinute = windows == 1 ? sample : RATE_ALPHA * sample + (1 - RATE_ALPHA) * ratePerMinute;
+        rateSinceNanos = now;
+        Level next = level;
+        if (ratePerMinute >= policy.raisePerMinute && level != Level.LOW_LATENCY) {
+            next = Level.values()[level.ordinal() + 1];
+        } else if (ratePerMinute < policy.lowerPerMinute && level != Level.LOW_POWER) {
+            next = Level.values()[level.ordinal() - 1];
+        }
+        // At the bottom, back off further while nothing new turns up
+        if (next == Level.LOW_POWER && level == Level.LOW_POWER && recentNew == 0) {
+            idleShift = Math.min(idleShift + 1, 16);
+        } else if (recentNew > 0 || next != Level.LOW_POWER) {
+            idleShift = 0;
+        }
+        recentNew = 0;
+        levelChanged = next != level;
+        level = next;
+    }
+
+    private long idleMillis() {
+        long idle = policy.idleMillis[level.ordinal()];
+        if (level == Level.LOW_POWER && idle > 0) {
+            return Math.min(policy.maxIdleMillis, idle << idleShift);
+        }
+        return idle;
+    }
+
+    private void endPhase(long now) {
+        long elapsed = now - phaseStartNanos;
+        if (phase == Phase.LE_SCAN) {
+            leNanos += elapsed;
+            radioNanos += elapsed * scanLevel.radioDuty;
+        } else if (phase == Phase.INQUIRY) {
+            inquiryNanos += elapsed;
+            radioNanos += elapsed;
+        }
+        phaseStartNanos = now;
+    }
+
+    private void schedule(Runnable task, long millis) {
+        cancelTimer();
+        timer = executor.schedule(task, millis, TimeUnit.MILLISECONDS);
+    }
+
+    private void cancelTimer() {
+        if (timer != null) {
+            timer.cancel(false);
+            timer = null;
+        }
+    }
+}
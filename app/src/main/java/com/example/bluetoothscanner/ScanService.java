@@ -0,0 +1,239 @@
+package com.example.bluetoothscanner;
+
+import android.Manifest;
+import android.annotation.SuppressLint;
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.Service;
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothClass;
+import android.bluetooth.BluetoothDevice;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.PackageManager;
+import android.content.pm.ServiceInfo;
+import android.os.Binder;
+import android.os.IBinder;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.core.content.ContextCompat;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps scanning while the app is in the background, as a connectedDevice foreground service.
+ * A {@link ScanScheduler} decides when LE windows and Classic inquiries run and at which duty
+ * cycle; every device its own {@link ScanIngestor} adds feeds the scheduler's discovery rate.
+ * Sightings also go to the shared {@link SightingStore}. The notification shows the current
+ * level, device count and radio duty. Bind to follow the snapshots (see {@link LocalBinder}); stop with {@link Context#stopService}.
+ */
+@SuppressLint("MissingPermission")
+public class ScanService extends Service {
+    private static final String CHANNEL_ID = "background-scan";
+    private static final int NOTIFICATION_ID = 1;
+    private static final int RING_CAPACITY = 4096;
+    // Nobody may be watching, so publish less often than the activity does
+    private static final int PUBLISH_RATE_HZ = 2;
+    private static final int MAX_DEVICES = 2000;
+    private static final long DEVICE_TTL_SECONDS = 300;
+
+    /** Handed out by {@link #onBind}; the service and its binder live in the same process. */
+    public final class LocalBinder extends Binder {
+        /** Snapshots of the background scan on the main thread, or null to stop following them. */
+        public void setListener(ScanIngestor.Listener<BluetoothDevice> listener) {
+            snapshotListener = listener;
+        }
+
+        /** Filters and sorts the snapshots' {@link ScanSnapshot#view}; null to leave it out. */
+        public void setQuery(DeviceQuery query) {
+            ingestor.setQuery(query);
+        }
+
+        public Future<ScanScheduler.Stats> stats() {
+            return scheduler.stats();
+        }
+    }
+
+    private final LocalBinder binder = new LocalBinder();
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+    private BluetoothAdapter adapter;
+    private AndroidBleScanner bleScanner;
+    private ScanIngestor<BluetoothDevice> ingestor;
+    private ScanScheduler scheduler;
+    private NotificationManager notifications;
+    private SightingStore sightingStore; // null if the store could not be opened
+    private volatile ScanIngestor.Listener<BluetoothDevice> snapshotListener;
+    private volatile int deviceCount;
+    private boolean started;
+
+    private final ScanScheduler.Radio radio = new ScanScheduler.Radio() {
+        @Override
+        public boolean startLeScan(int scanMode) {
+            if (!adapter.isEnabled() || !canScan()) {
+                return false;
+            }
+            bleScanner.start(Collections.emptyList(), scanMode, ScanBatchConfig.DEFAULT, scanCallback);
+            return true;
+        }
+
+        @Override
+        public void stopLeScan() {
+            if (canScan()) {
+                bleScanner.stop();
+            }
+        }
+
+        @Override
+        public boolean startInquiry() {
+            return adapter.isEnabled() && canScan() && adapter.startDiscovery();
+        }
+
+        @Override
+        public void cancelInquiry() {
+            if (canScan()) {
+                adapter.cancelDiscovery();
+            }
+        }
+    };
+
+    private final BleScanner.Callback<BluetoothDevice> scanCallback = new BleScanner.Callback<BluetoothDevice>() {
+        @Override
+        public void onResult(BluetoothDevice device, String address, int rssi, int txPower, long timestampNanos, byte[] record) {
+            ingestor.offer(device, address, rssi, txPower, timestampNanos, record);
+        }
+
+        @Override
+        public void onScanFailed(int errorCode) {
+            Log.e("BLE", "Background scan failed with error code: " + errorCode);
+        }
+    };
+
+    private final BroadcastReceiver inquiryReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
+            if (device != null) {
+                short rssi = intent.getShortExtra(BluetoothDevice.EXTRA_RSSI, (short) DeviceRegistry.RSSI_UNKNOWN);
+                BluetoothClass deviceClass = intent.getParcelableExtra(BluetoothDevice.EXTRA_CLASS);
+                ingestor.offerInquiry(device, device.getAddress(), rssi,
+                        deviceClass != null ? deviceClass.getDeviceClass() : DeviceRegistry.CLASS_UNKNOWN,
+                        SystemClock.elapsedRealtimeNanos());
+            }
+        }
+    };
+
+    private final ScanIngestor.Listener<BluetoothDevice> ingestorListener = new ScanIngestor.Listener<BluetoothDevice>() {
+        @Override
+        public void onDeviceAdded(BluetoothDevice device, long address) {
+            scheduler.onNewDevice();
+        }
+
+        @Override
+        public void onSnapshot(ScanSnapshot<BluetoothDevice> snapshot) {
+            deviceCount = snapshot.devices.size();
+            ScanIngestor.Listener<BluetoothDevice> target = snapshotListener;
+            if (target != null) {
+                target.onSnapshot(snapshot);
+            }
+        }
+    };
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        adapter = BluetoothAdapter.getDefaultAdapter();
+        bleScanner = new AndroidBleScanner(adapter);
+        notifications = getSystemService(NotificationManager.class);
+        sightingStore = openSightingStore(this);
+        notifications.createNotificationChannel(
+                new NotificationChannel(CHANNEL_ID, "Background scan", NotificationManager.IMPORTANCE_LOW));
+        ingestor = newIngestor(ContextCompat.getMainExecutor(this), ingestorListener, sightingStore);
+        ingestor.setClock(SystemClock::elapsedRealtimeNanos);
+        ingestor.setNameResolver(device -> checkSelfPermission(Manifest.permission.BLUETOOTH_CONNECT)
+                == PackageManager.PERMISSION_GRANTED ? device.getName() : null);
+        // Each window end refreshes the notification; the executor is the scheduler's own
+        scheduler = new ScanScheduler(radio, executor, ScanScheduler.Policy.DEFAULT,
+                stats -> notifications.notify(NOTIFICATION_ID, notification(describe(stats))));
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        startForeground(NOTIFICATION_ID, notification("Starting background scan..."),
+                ServiceInfo.FOREGROUND_SERVICE_TYPE_CONNECTED_DEVICE);
+        if (!started) {
+            started = true;
+            registerReceiver(inquiryReceiver, new IntentFilter(BluetoothDevice.ACTION_FOUND));
+            ingestor.start();
+            scheduler.start();
+        }
+        return START_STICKY;
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return binder;
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        snapshotListener = null;
+        if (started) {
+            scheduler.stop();
+            unregisterReceiver(inquiryReceiver);
+            ingestor.stop();
+        }
+        // Behind the stop, so the radio is released before the executor goes
+        executor.execute(executor::shutdown);
+    }
+
+    /** The background scan's ingestor, saving every sighting to {@code store} unless that is null. */
+    static <D> ScanIngestor<D> newIngestor(Executor uiExecutor, ScanIngestor.Listener<D> listener, SightingStore store) {
+        ScanIngestor<D> ingestor = new ScanIngestor<>(RING_CAPACITY, PUBLISH_RATE_HZ, ScanBatchConfig.DEFAULT.maxBatchSize,
+                uiExecutor, listener);
+        ingestor.setRetention(MAX_DEVICES, DEVICE_TTL_SECONDS, TimeUnit.SECONDS);
+        ingestor.setSightingStore(store);
+        return ingestor;
+    }
+
+    /** The process-wide sighting history, or null (logged) if it cannot be opened. */
+    static SightingStore openSightingStore(Context context) {
+        try {
+            return SightingStore.shared(new File(context.getFilesDir(), "sightings"));
+        } catch (IOException e) {
+            Log.e("Bluetooth", "Sighting history disabled", e);
+            return null;
+        }
+    }
+
+    private boolean canScan() {
+        return checkSelfPermission(Manifest.permission.BLUETOOTH_SCAN) == PackageManager.PERMISSION_GRANTED;
+    }
+
+    private String describe(ScanScheduler.Stats stats) {
+        return String.format(Locale.US, "%s, %d devices, radio %.0f%% (LE %.0f%%, Classic %.0f%%)",
+                stats.level, deviceCount, stats.radioDutyCycle * 100, stats.leShare * 100, stats.inquiryShare * 100);
+    }
+
+    private Notification notification(String text) {
+        return new Notification.Builder(this, CHANNEL_ID)
+                .setSmallIcon(R.drawable.ic_launcher_foreground)
+                .setContentTitle("Scanning for Bluetooth devices")
+                .setContentText(text)
+                .setOngoing(true)
+                .setOnlyAlertOnce(true)
+                .build();
+    }
+}
@@ -0,0 +1,58 @@
+package com.example.bluetoothscanner;
+
+import java.util.List;
+
+/** Immutable state of a scan as published by {@link ScanIngestor}. */
+public final class ScanSnapshot<D> {
+    /** Identifies the ingestor; generations and sequences only compare within one source. */
+    public final int source;
+    /** Increases every time the ingestor is reset; rows of different generations are unrelated. */
+    public final int generation;
+    /** Increases with every published snapshot, across generations. */
+    public final int sequence;
+    /** Devices in discovery order; the list is unmodifiable. */
+    public final List<DeviceSnapshot<D>> devices;
+    /**
+     * Positions removed (expired or evicted) from the snapshot with {@code sequence - 1}, as
+     * (start, count) pairs with the last range first; apply them in order, then the rows past
+     * the remaining ones are new.
+     */
+    public final int[] removedRanges;
+    /**
+     * The devices matching the ingestor's {@link DeviceQuery} in its order, or null without a
+     * query. Changes from the snapshot with {@code sequence - 1} are in {@link #viewChanges}.
+     */
+    public final List<DeviceSnapshot<D>> view;
+    /** {@link DeviceView} operations to apply in order, or null if the view must be refreshed. */
+    public final int[] viewChanges;
+    /** The closest devices by estimated distance, nearest first (see {@link ScanIngestor#setNearestCount}). */
+    public final List<DeviceSnapshot<D>> nearest;
+    public final long sightings;
+    public final long dropped;
+    /** Advertisements that only passed controller filters and needed no host check. */
+    public final long hardwareFiltered;
+    /** Advertisements checked by the software matcher, split by outcome. */
+    public final long softwareAccepted;
+    public final long softwareRejected;
+    /** Devices dropped for exceeding the TTL or to make room, this generation. */
+    public final long evicted;
+
+    ScanSnapshot(int source, int generation, int sequence, List<DeviceSnapshot<D>> devices, int[] removedRanges,
+                 List<DeviceSnapshot<D>> view, int[] viewChanges, List<DeviceSnapshot<D>> nearest, long sightings, long dropped, long hardwareFiltered, long softwareAccepted,
+                 long softwareRejected, long evicted) {
+        this.source = source;
+        this.generation = generation;
+        this.sequence = sequence;
+        this.devices = devices;
+        this.removedRanges = removedRanges;
+        this.view = view;
+        this.viewChanges = viewChanges;
+        this.nearest = nearest;
+        this.sightings = sightings;
+        this.dropped = dropped;
+        this.hardwareFiltered = hardwareFiltered;
+        this.softwareAccepted = softwareAccepted;
+        this.softwareRejected = softwareRejected;
+        this.evicted = evicted;
+    }
+}
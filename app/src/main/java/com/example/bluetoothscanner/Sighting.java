@@ -0,0 +1,27 @@
+package com.example.bluetoothscanner;
+
+/**
+ * One raw scan result as handed from a scan callback to {@link ScanIngestor}. Instances
+ * are preallocated ring entries and are overwritten in place, so never keep a reference.
+ */
+public final class Sighting<D> {
+    public D device;
+    public String address;
+    public int rssi;
+    /** Advertised TX power level in dBm, or {@link SignalEngine#TX_POWER_UNKNOWN}. */
+    public int txPower;
+    public long timestampNanos;
+    /** Raw advertising data, or null for Classic inquiry results (which scan filters do not apply to). */
+    public byte[] record;
+    /** {@link DeviceRegistry#TRANSPORT_LE} or {@link DeviceRegistry#TRANSPORT_CLASSIC}. */
+    public int transport;
+    /** Class of Device from an inquiry, or {@link DeviceRegistry#CLASS_UNKNOWN}. */
+    public int deviceClass;
+    int generation;
+
+    void clear() {
+        device = null;
+        address = null;
+        record = null;
+    }
+}
@@ -0,0 +1,318 @@
+package com.example.bluetoothscanner;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * One compacted, immutable file of a {@link SightingStore}: the sightings of one time
+ * partition, grouped by device and in time order within each device. An index sorted by
+ * address gives each device's slice and time range; it is loaded once when the run is opened,
+ * so a query binary-searches it in memory and reads only the slices it needs. Little-endian:
+ * <pre>
+ * header:  magic "BTSR" (4) | version (2) | flags (2)
+ * record:  timestampMillis (8) | rssi (1) | transport (1)
+ * index:   address (8) | first record (4) | records (4) | firstMillis (8) | lastMillis (8)
+ *          | transports (1) | reserved (3)
+ * footer:  index offset (8) | devices (4) | records (4) | firstMillis (8) | lastMillis (8)
+ *          | last compacted segment (4) | magic (4)
+ * </pre>
+ * A merged run has {@link #FLAG_MERGED} set: it replaces every older run of its partition.
+ */
+final class SightingRun {
+    static final byte[] MAGIC = {'B', 'T', 'S', 'R'};
+    static final short VERSION = 1;
+    static final int HEADER_SIZE = 8;
+    static final int RECORD_SIZE = 10;
+    static final int INDEX_ENTRY_SIZE = 36;
+    static final int FLAG_MERGED = 1;
+    static final int FOOTER_SIZE = 40;
+    /** Widest partition a run can hold: time offsets are packed into 27 bits while sorting. */
+    static final long MAX_PARTITION_MILLIS = 1L << 27;
+    private static final int IO_BUFFER_SIZE = 64 * 1024;
+
+    final File file;
+    final long partitionStart;
+    final int segment;
+    final boolean merged;
+    final long firstMillis;
+    final long lastMillis;
+    final int records;
+    private final FileChannel channel;
+    // Index, sorted by address
+    private final long[] addresses;
+    private final int[] starts;
+    private final int[] counts;
+    private final long[] firsts;
+    private final long[] lasts;
+    private final byte[] transports;
+
+    private SightingRun(File file, long partitionStart, FileChannel channel, int flags, ByteBuffer footer, ByteBuffer index) {
+        this.file = file;
+        this.partitionStart = partitionStart;
+        this.channel = channel;
+        merged = (flags & FLAG_MERGED) != 0;
+        footer.getLong();
+        int devices = footer.getInt();
+        records = footer.getInt();
+        firstMillis = footer.getLong();
+        lastMillis = footer.getLong();
+        segment = footer.getInt();
+        addresses = new long[devices];
+        starts = new int[devices];
+        counts = new int[devices];
+        firsts = new long[devices];
+        lasts = new long[devices];
+        transports = new byte[devices];
+        for (int i = 0; i < devices; i++) {
+            addresses[i] = index.getLong();
+            starts[i] = index.getInt();
+            counts[i] = index.getInt();
+            firsts[i] = index.getLong();
+            lasts[i] = index.getLong();
+            transports[i] = index.get();
+            index.position(index.position() + 3);
+        }
+    }
+
+    /** Opens a run written by {@link Builder#write} and loads its index. */
+    static SightingRun open(File file, long partitionStart) throws IOException {
+        FileChannel channel = new RandomAccessFile(file, "r").getChannel();
+        try {
+            long size = channel.size();
+            if (size < HEADER_SIZE + FOOTER_SIZE) {
+                throw new IOException("Not a sighting run: " + file);
+            }
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, header, 0);
+            byte[] magic = new byte[MAGIC.length];
+            header.get(magic);
+            short version = header.getShort();
+            int flags = header.getShort();
+            ByteBuffer footer = ByteBuffer.allocate(FOOTER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, footer, size - FOOTER_SIZE);
+            byte[] footerMagic = new byte[MAGIC.length];
+            footer.position(FOOTER_SIZE - MAGIC.length);
+            footer.get(footerMagic);
+            footer.rewind();
+            long indexOffset = footer.getLong(0);
+            int devices = footer.getInt(8);
+            if (!Arrays.equals(magic, MAGIC) || version != VERSION || !Arrays.equals(footerMagic, MAGIC) || indexOffset < HEADER_SIZE
+                    || indexOffset + (long) devices * INDEX_ENTRY_SIZE != size - FOOTER_SIZE) {
+                throw new IOException("Not a sighting run: " + file);
+            }
+            ByteBuffer index = ByteBuffer.allocate(devices * INDEX_ENTRY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, index, indexOffset);
+            return new SightingRun(file, partitionStart, channel, flags, footer, index);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    int devices() {
+        return addresses.length;
+    }
+
+    /** Index entry of {@code address}, or a negative number if the run has none of its sightings. */
+    int find(long address) {
+        return Arrays.binarySearch(addresses, address);
+    }
+
+    long address(int entry) {
+        return addresses[entry];
+    }
+
+    int count(int entry) {
+        return counts[entry];
+    }
+
+    long firstMillis(int entry) {
+        return firsts[entry];
+    }
+
+    long lastMillis(int entry) {
+        return lasts[entry];
+    }
+
+    /** {@link DeviceRegistry#TRANSPORT_CLASSIC} and/or {@link DeviceRegistry#TRANSPORT_LE}. */
+    int transports(int entry) {
+        return transports[entry];
+    }
+
+    /** Visits the sightings of index entry {@code entry} between the two times, inclusive, in time order. */
+    void read(int entry, long fromMillis, long toMillis, SightingStore.Visitor visitor) throws IOException {
+        if (lasts[entry] < fromMillis || firsts[entry] > toMillis) {
+            return;
+        }
+        long address = addresses[entry];
+        long position = HEADER_SIZE + (long) starts[entry] * RECORD_SIZE;
+        long end = position + (long) counts[entry] * RECORD_SIZE;
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(IO_BUFFER_SIZE / RECORD_SIZE * RECORD_SIZE, end - position))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        while (position < end) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), end - position));
+            readFully(channel, buffer, position);
+            position += buffer.limit();
+            while (buffer.hasRemaining()) {
+                long time = buffer.getLong();
+                int rssi = buffer.get();
+                int transport = buffer.get();
+                if (time > toMillis) {
+                    return;
+                }
+                if (time >= fromMillis) {
+                    visitor.onSighting(address, time, rssi, transport);
+                }
+            }
+        }
+    }
+
+    void close() throws IOException {
+        channel.close();
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position);
+            if (n < 0) {
+                throw new IOException("Truncated sighting run");
+            }
+            position += n;
+        }
+        buffer.flip();
+    }
+
+    /**
+     * Collects the sightings of one partition and writes them as a run. Sorting packs each
+     * sighting into a single long (device rank, time offset, rssi, transport), so it is one
+     * primitive {@link Arrays#sort} with no per-sighting objects.
+     */
+    static final class Builder implements SightingStore.Visitor {
+        final long partitionStart;
+        private final long partitionMillis;
+        private long[] addresses = new long[1024];
+        // Time offset (27 bits) | rssi (8 bits) | transport (2 bits)
+        private long[] packed = new long[1024];
+        private int size;
+        private int segment;
+        private boolean merged;
+
+        Builder(long partitionStart, long partitionMillis) {
+            this.partitionStart = partitionStart;
+            this.partitionMillis = partitionMillis;
+        }
+
+        /** Notes that the run covers write-ahead segments up to {@code segment}. */
+        void coverSegment(int segment) {
+            this.segment = Math.max(this.segment, segment);
+        }
+
+        /** Marks the run as the merge of all older runs of its partition. */
+        void markMerged() {
+            merged = true;
+        }
+
+        @Override
+        public void onSighting(long address, long timeMillis, int rssi, int transport) {
+            long offset = timeMillis - partitionStart;
+            if (offset < 0 || offset >= partitionMillis) {
+                throw new IllegalArgumentException("Sighting at " + timeMillis + " outside partition " + partitionStart);
+            }
+            if (size == packed.length) {
+                addresses = Arrays.copyOf(addresses, size * 2);
+                packed = Arrays.copyOf(packed, size * 2);
+            }
+            addresses[size] = address;
+            packed[size] = offset << 10 | (rssi & 0xFF) << 2 | (transport & 3);
+            size++;
+        }
+
+        /** Sorts and writes the run to {@code file}, through a temporary file so it appears complete or not at all. */
+        SightingRun write(File file) throws IOException {
+            LongIndexMap ranks = new LongIndexMap(Math.max(16, size / 8));
+            long[] distinct = new long[16];
+            int devices = 0;
+            for (int i = 0; i < size; i++) {
+                if (ranks.get(addresses[i]) == LongIndexMap.MISSING) {
+                    ranks.put(addresses[i], devices);
+                    if (devices == distinct.length) {
+                        distinct = Arrays.copyOf(distinct, devices * 2);
+                    }
+                    distinct[devices++] = addresses[i];
+                }
+            }
+            distinct = Arrays.copyOf(distinct, devices);
+            Arrays.sort(distinct);
+            for (int rank = 0; rank < devices; rank++) {
+                ranks.put(distinct[rank], rank);
+            }
+            for (int i = 0; i < size; i++) {
+                packed[i] |= (long) ranks.get(addresses[i]) << 37;
+            }
+            addresses = null;
+            Arrays.sort(packed, 0, size);
+
+            File temporary = new File(file.getPath() + ".tmp");
+            try (RandomAccessFile out = new RandomAccessFile(temporary, "rw")) {
+                out.setLength(0);
+                FileChannel channel = out.getChannel();
+                ByteBuffer buffer = ByteBuffer.allocate(IO_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+                buffer.put(MAGIC).putShort(VERSION).putShort((short) (merged ? FLAG_MERGED : 0));
+                ByteBuffer index = ByteBuffer.allocate(devices * INDEX_ENTRY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+                long first = Long.MAX_VALUE;
+                long last = Long.MIN_VALUE;
+                int start = 0;
+                int deviceTransports = 0;
+                for (int i = 0; i < size; i++) {
+                    long p = packed[i];
+                    long time = partitionStart + (p >>> 10 & (MAX_PARTITION_MILLIS - 1));
+                    if (buffer.remaining() < RECORD_SIZE) {
+                        drain(channel, buffer);
+                    }
+                    buffer.putLong(time).put((byte) (p >>> 2)).put((byte) (p & 3));
+                    first = Math.min(first, time);
+                    last = Math.max(last, time);
+                    deviceTransports |= (int) (p & 3);
+                    int rank = (int) (p >>> 37);
+                    if (i == size - 1 || (int) (packed[i + 1] >>> 37) != rank) {
+                        // Last sighting of this device; its first is at start, already in time order
+                        long firstOfDevice = partitionStart + (packed[start] >>> 10 & (MAX_PARTITION_MILLIS - 1));
+                        index.putLong(distinct[rank]).putInt(start).putInt(i - start + 1).putLong(firstOfDevice).putLong(time)
+                                .put((byte) deviceTransports).put((byte) 0).putShort((short) 0);
+                        start = i + 1;
+                        deviceTransports = 0;
+                    }
+                }
+                long indexOffset = HEADER_SIZE + (long) size * RECORD_SIZE;
+                drain(channel, buffer);
+                index.flip();
+                while (index.hasRemaining()) {
+                    channel.write(index);
+                }
+                buffer.putLong(indexOffset).putInt(devices).putInt(size).putLong(first).putLong(last)
+                        .putInt(segment).put(MAGIC);
+                drain(channel, buffer);
+                channel.force(true);
+            }
+            if (!temporary.renameTo(file)) {
+                temporary.delete();
+                throw new IOException("Cannot rename " + temporary);
+            }
+            return open(file, partitionStart);
+        }
+
+        private static void drain(FileChannel channel, ByteBuffer buffer) throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+}
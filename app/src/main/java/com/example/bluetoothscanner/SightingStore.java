@@ -0,0 +1,787 @@
+package com.example.bluetoothscanner;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * Persistent history of scan sightings, built for continuous scanning at thousands of
+ * sightings per second.
+ * <ul>
+ * <li>{@link #append} only copies the sighting into an in-memory batch.</li>
+ * <li>A writer thread group-commits the batch: one CRC-checked frame appended to the current
+ * write-ahead segment and one fsync, at most every commit interval.</li>
+ * <li>Full segments are compacted in the background into {@link SightingRun}s, one per time
+ * partition, sorted by device and indexed; a partition with too many runs is merged into one.</li>
+ * <li>Queries binary-search the run indexes of the partitions they overlap and read only the
+ * matching slices, plus the few segments not compacted yet.</li>
+ * </ul>
+ * Sightings become visible to queries once committed. After a crash the store reopens with
+ * everything committed; a frame torn by the crash is dropped. A compaction writes all its runs
+ * before it renames the checkpoint, the last segment compacted, into place; runs covering
+ * later segments are what an interrupted compaction left behind, so they are deleted on open
+ * and their segments compacted again. Segment and checkpoint (little-endian):
+ * <pre>
+ * header:  magic "BTSW" (4) | version (2) | reserved (2)
+ * frame:   sightings (4) | CRC-32 of the sightings (4) | sightings
+ * sighting: timestampMillis (8) | address (8) | rssi (1) | transport (1)
+ * checkpoint: magic "BTSC" (4) | last compacted segment (4)
+ * </pre>
+ */
+public class SightingStore implements AutoCloseable {
+    public static final long DEFAULT_PARTITION_MILLIS = 60 * 60 * 1000;
+    public static final int DEFAULT_SEGMENT_SIZE = 4 * 1024 * 1024;
+    public static final int DEFAULT_BATCH_CAPACITY = 16 * 1024;
+    public static final long DEFAULT_COMMIT_INTERVAL_MILLIS = 100;
+    static final int MAX_RUNS_PER_PARTITION = 4;
+
+    static final byte[] MAGIC = {'B', 'T', 'S', 'W'};
+    static final byte[] CHECKPOINT_MAGIC = {'B', 'T', 'S', 'C'};
+    static final short VERSION = 1;
+    static final int HEADER_SIZE = 8;
+    static final int FRAME_HEADER_SIZE = 8;
+    static final int SIGHTING_SIZE = 18;
+    private static final String SEGMENT_PREFIX = "wal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String RUN_PREFIX = "run-";
+    private static final String RUN_SUFFIX = ".sst";
+    static final String CHECKPOINT = "compacted";
+
+    private static final Map<String, SightingStore> shared = new HashMap<>();
+
+    public interface Visitor {
+        void onSighting(long address, long timeMillis, int rssi, int transport);
+    }
+
+    /** One device's sightings within a queried time range. */
+    public static final class DeviceSummary {
+        public final long address;
+        public long firstMillis = Long.MAX_VALUE;
+        public long lastMillis = Long.MIN_VALUE;
+        public int sightings;
+        /** {@link DeviceRegistry#TRANSPORT_CLASSIC} and/or {@link DeviceRegistry#TRANSPORT_LE}. */
+        public int transports;
+
+        DeviceSummary(long address) {
+            this.address = address;
+        }
+    }
+
+    private final File directory;
+    private final long partitionMillis;
+    private final int segmentSize;
+    private final int batchCapacity;
+    private final long commitIntervalNanos;
+    private final Thread writer;
+    private final ExecutorService compactor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "sighting-compactor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Producer side, guarded by batchLock
+    private final Object batchLock = new Object();
+    private Batch filling;
+    private Batch spare;
+    private long appended;
+    private long committed;
+    private long dropped;
+    private int flushWaiters;
+    private boolean closed;
+    private IOException failure;
+
+    // Writer thread only
+    private FileChannel segmentChannel;
+    private ByteBuffer frame;
+    private final CRC32 crc = new CRC32();
+
+    // Files, guarded by "this"; a file leaves these before it is deleted, under fileLock's write lock
+    private final TreeMap<Long, List<SightingRun>> partitions = new TreeMap<>();
+    private final List<File> sealedSegments = new ArrayList<>();
+    private File currentSegment;
+    private long currentCommittedBytes;
+    private int nextSegment;
+    private int nextRun;
+    // Queries hold the read lock, so nothing they picked up is deleted under them
+    private final ReadWriteLock fileLock = new ReentrantReadWriteLock();
+
+    public SightingStore(File directory, long partitionMillis, int segmentSize, int batchCapacity,
+                         long commitIntervalMillis) throws IOException {
+        if (partitionMillis <= 0 || partitionMillis > SightingRun.MAX_PARTITION_MILLIS) {
+            throw new IllegalArgumentException("Partition out of range: " + partitionMillis);
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        this.directory = directory;
+        this.partitionMillis = partitionMillis;
+        this.segmentSize = segmentSize;
+        this.batchCapacity = batchCapacity;
+        this.commitIntervalNanos = commitIntervalMillis * 1_000_000;
+        filling = new Batch(batchCapacity);
+        spare = new Batch(batchCapacity);
+        frame = ByteBuffer.allocate(FRAME_HEADER_SIZE + batchCapacity * SIGHTING_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        recover();
+        openSegment();
+        writer = new Thread(this::writeLoop, "sighting-writer");
+        writer.setDaemon(true);
+        writer.start();
+        if (!sealedSegments.isEmpty()) {
+            compactor.execute(this::compact);
+        }
+    }
+
+    public SightingStore(File directory) throws IOException {
+        this(directory, DEFAULT_PARTITION_MILLIS, DEFAULT_SEGMENT_SIZE, DEFAULT_BATCH_CAPACITY,
+                DEFAULT_COMMIT_INTERVAL_MILLIS);
+    }
+
+    /**
+     * The process-wide store for {@code directory} with default settings, opened on first use
+     * and never closed: every commit is already durable, so there is nothing to lose by leaving
+     * it open. The activity and the background scan service share it this way.
+     */
+    public static synchronized SightingStore shared(File directory) throws IOException {
+        String key = directory.getCanonicalPath();
+        SightingStore store = shared.get(key);
+        if (store == null) {
+            store = new SightingStore(directory);
+            shared.put(key, store);
+        }
+        return store;
+    }
+
+    /**
+     * Adds a sighting to the current batch; any thread. Returns false, counting a drop, when
+     * the batch is full because the disk fell behind, or once the store is closed or failed.
+     */
+    public boolean append(long address, long timeMillis, int rssi, int transport) {
+        synchronized (batchLock) {
+            Batch batch = filling;
+            if (closed || batch.size == batchCapacity) {
+                dropped++;
+                return false;
+            }
+            batch.add(address, timeMillis, rssi, transport);
+            appended++;
+            if (batch.size == 1 || batch.size == batchCapacity / 2) {
+                batchLock.notifyAll();
+            }
+            return true;
+        }
+    }
+
+    /** Blocks until everything appended before the call is committed. */
+    public void flush() throws IOException, InterruptedException {
+        synchronized (batchLock) {
+            long target = appended;
+            flushWaiters++;
+            batchLock.notifyAll();
+            try {
+                while (committed < target && failure == null && writer.isAlive()) {
+                    batchLock.wait();
+                }
+            } finally {
+                flushWaiters--;
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    public long dropped() {
+        synchronized (batchLock) {
+            return dropped;
+        }
+    }
+
+    /**
+     * Visits every sighting of {@code address} between the two times, inclusive. Each file's
+     * sightings come in time order, but the files are not merged, so sort if order matters.
+     */
+    public void sightings(long address, long fromMillis, long toMillis, Visitor visitor) throws IOException {
+        fileLock.readLock().lock();
+        try {
+            Files files = files(fromMillis, toMillis);
+            for (SightingRun run : files.runs) {
+                int entry = run.find(address);
+                if (entry >= 0) {
+                    run.read(entry, fromMillis, toMillis, visitor);
+                }
+            }
+            Visitor filter = (a, time, rssi, transport) -> {
+                if (a == address && time >= fromMillis && time <= toMillis) {
+                    visitor.onSighting(a, time, rssi, transport);
+                }
+            };
+            for (int i = 0; i < files.segments.size(); i++) {
+                readSegment(files.segments.get(i), files.segmentLengths[i], filter);
+            }
+        } finally {
+            fileLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Every device seen between the two times, inclusive, ordered by address. Runs that lie
+     * wholly inside the range are answered from their index alone; elsewhere only the slices
+     * of devices whose time range straddles a bound are read.
+     */
+    public List<DeviceSummary> devicesSeen(long fromMillis, long toMillis) throws IOException {
+        LongIndexMap slots = new LongIndexMap(256);
+        List<DeviceSummary> summaries = new ArrayList<>();
+        Visitor collector = (address, time, rssi, transport) -> {
+            if (time < fromMillis || time > toMillis) {
+                return;
+            }
+            DeviceSummary summary = summary(slots, summaries, address);
+            summary.firstMillis = Math.min(summary.firstMillis, time);
+            summary.lastMillis = Math.max(summary.lastMillis, time);
+            summary.sightings++;
+            summary.transports |= transport;
+        };
+        fileLock.readLock().lock();
+        try {
+            Files files = files(fromMillis, toMillis);
+            for (SightingRun run : files.runs) {
+                for (int entry = 0; entry < run.devices(); entry++) {
+                    long first = run.firstMillis(entry);
+                    long last = run.lastMillis(entry);
+                    if (last < fromMillis || first > toMillis) {
+                        continue;
+                    }
+                    if (first >= fromMillis && last <= toMillis) {
+                        DeviceSummary summary = summary(slots, summaries, run.address(entry));
+                        summary.firstMillis = Math.min(summary.firstMillis, first);
+                        summary.lastMillis = Math.max(summary.lastMillis, last);
+                        summary.sightings += run.count(entry);
+                        summary.transports |= run.transports(entry);
+                    } else {
+                        run.read(entry, fromMillis, toMillis, collector);
+                    }
+                }
+            }
+            for (int i = 0; i < files.segments.size(); i++) {
+                readSegment(files.segments.get(i), files.segmentLengths[i], collector);
+            }
+        } finally {
+            fileLock.readLock().unlock();
+        }
+        summaries.sort((a, b) -> Long.compare(a.address, b.address));
+        return summaries;
+    }
+
+    /** Stops accepting sightings, commits what was appended and waits for compaction to finish. */
+    @Override
+    public void close() throws IOException {
+        synchronized (batchLock) {
+            closed = true;
+            batchLock.notifyAll();
+        }
+        try {
+            writer.join();
+            compactor.shutdown();
+            while (!compactor.awaitTermination(1, TimeUnit.SECONDS)) {
+                // Keep waiting; a merge of a large partition can take a while
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            for (List<SightingRun> runs : partitions.values()) {
+                for (SightingRun run : runs) {
+                    run.close();
+                }
+            }
+            partitions.clear();
+        }
+        synchronized (batchLock) {
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    File directory() {
+        return directory;
+    }
+
+    synchronized int runCount() {
+        int count = 0;
+        for (List<SightingRun> runs : partitions.values()) {
+            count += runs.size();
+        }
+        return count;
+    }
+
+    private static DeviceSummary summary(LongIndexMap slots, List<DeviceSummary> summaries, long address) {
+        int slot = slots.get(address);
+        if (slot == LongIndexMap.MISSING) {
+            slot = summaries.size();
+            slots.put(address, slot);
+            summaries.add(new DeviceSummary(address));
+        }
+        return summaries.get(slot);
+    }
+
+    // ---- Writer ----
+
+    private void writeLoop() {
+        long nextCommit = System.nanoTime();
+        while (true) {
+            Batch batch;
+            synchronized (batchLock) {
+                try {
+                    while (true) {
+                        int size = filling.size;
+                        long wait = nextCommit - System.nanoTime();
+                        if (size > 0 && (closed || flushWaiters > 0 || size >= batchCapacity / 2 || wait <= 0)) {
+                            break;
+                        }
+                        if (closed) {
+                            return;
+                        }
+                        if (size == 0) {
+                            batchLock.wait();
+                        } else {
+                            batchLock.wait(wait / 1_000_000, (int) (wait % 1_000_000));
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                batch = filling;
+                filling = spare;
+                spare = null;
+            }
+            IOException error = null;
+            try {
+                commit(batch);
+            } catch (IOException e) {
+                error = e;
+            }
+            nextCommit = System.nanoTime() + commitIntervalNanos;
+            synchronized (batchLock) {
+                if (error != null) {
+                    // Nothing more can be made durable; refuse further sightings rather than pretend
+                    failure = error;
+                    closed = true;
+                    dropped += batch.size + filling.size;
+                    filling.size = 0;
+                }
+                committed += batch.size;
+                batch.size = 0;
+                spare = batch;
+                batchLock.notifyAll();
+            }
+        }
+    }
+
+    private void commit(Batch batch) throws IOException {
+        frame.clear();
+        frame.putInt(batch.size).putInt(0);
+        for (int i = 0; i < batch.size; i++) {
+            frame.putLong(batch.times[i]).putLong(batch.addresses[i]).put(batch.rssis[i]).put(batch.transports[i]);
+        }
+        crc.reset();
+        crc.update(frame.array(), FRAME_HEADER_SIZE, frame.position() - FRAME_HEADER_SIZE);
+        frame.putInt(4, (int) crc.getValue());
+        frame.flip();
+        while (frame.hasRemaining()) {
+            segmentChannel.write(frame);
+        }
+        segmentChannel.force(false);
+        long length = segmentChannel.position();
+        synchronized (this) {
+            currentCommittedBytes = length;
+        }
+        if (length >= segmentSize) {
+            segmentChannel.close();
+            synchronized (this) {
+                sealedSegments.add(currentSegment);
+            }
+            openSegment();
+            compactor.execute(this::compact);
+        }
+    }
+
+    private void openSegment() throws IOException {
+        File file;
+        synchronized (this) {
+            file = new File(directory, String.format(Locale.US, "%s%06d%s", SEGMENT_PREFIX, nextSegment++, SEGMENT_SUFFIX));
+        }
+        RandomAccessFile out = new RandomAccessFile(file, "rw");
+        out.setLength(0);
+        segmentChannel = out.getChannel();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(MAGIC).putShort(VERSION).putShort((short) 0).flip();
+        while (header.hasRemaining()) {
+            segmentChannel.write(header);
+        }
+        segmentChannel.force(false);
+        synchronized (this) {
+            currentSegment = file;
+            currentCommittedBytes = HEADER_SIZE;
+        }
+    }
+
+    // ---- Compaction ----
+
+    /** Turns every sealed segment into runs, then merges any partition that has too many. */
+    private void compact() {
+        List<File> segments;
+        synchronized (this) {
+            segments = new ArrayList<>(sealedSegments);
+        }
+        if (segments.isEmpty()) {
+            return;
+        }
+        List<SightingRun> written = new ArrayList<>();
+        try {
+            TreeMap<Long, SightingRun.Builder> builders = new TreeMap<>();
+            Visitor partitioner = (address, time, rssi, transport) -> {
+                long start = Math.floorDiv(time, partitionMillis) * partitionMillis;
+                SightingRun.Builder builder = builders.get(start);
+                if (builder == null) {
+                    builder = new SightingRun.Builder(start, partitionMillis);
+                    builders.put(start, builder);
+                }
+                builder.onSighting(address, time, rssi, transport);
+            };
+            int lastSegment = 0;
+            for (File segment : segments) {
+                readSegment(segment, Long.MAX_VALUE, partitioner);
+                lastSegment = Math.max(lastSegment, sequenceOf(segment, SEGMENT_PREFIX, SEGMENT_SUFFIX));
+            }
+            for (SightingRun.Builder builder : builders.values()) {
+                builder.coverSegment(lastSegment);
+                written.add(builder.write(newRunFile(builder.partitionStart)));
+            }
+            // Only now do the runs count, all of them at once
+            writeCheckpoint(lastSegment);
+            List<Long> crowded = new ArrayList<>();
+            synchronized (this) {
+                for (SightingRun run : written) {
+                    List<SightingRun> runs = partitions.computeIfAbsent(run.partitionStart, k -> new ArrayList<>());
+                    runs.add(run);
+                    if (runs.size() > MAX_RUNS_PER_PARTITION) {
+                        crowded.add(run.partitionStart);
+                    }
+                }
+                sealedSegments.removeAll(segments);
+            }
+            written.clear();
+            delete(segments, Collections.emptyList());
+            for (long partition : crowded) {
+                merge(partition);
+            }
+        } catch (IOException e) {
+            // The segments stay and are compacted again by the next seal or the next open;
+            // runs already written from them would claim to cover them, so they go
+            try {
+                List<File> files = new ArrayList<>();
+                for (SightingRun run : written) {
+                    files.add(run.file);
+                }
+                delete(files, written);
+            } catch (IOException ignored) {
+                // Closing a read-only channel; nothing to recover
+            }
+        }
+    }
+
+    private void merge(long partitionStart) throws IOException {
+        List<SightingRun> runs;
+        synchronized (this) {
+            runs = new ArrayList<>(partitions.get(partitionStart));
+        }
+        SightingRun.Builder builder = new SightingRun.Builder(partitionStart, partitionMillis);
+        builder.markMerged();
+        for (SightingRun run : runs) {
+            for (int entry = 0; entry < run.devices(); entry++) {
+                run.read(entry, Long.MIN_VALUE, Long.MAX_VALUE, builder);
+            }
+            builder.coverSegment(run.segment);
+        }
+        SightingRun merged = builder.write(newRunFile(partitionStart));
+        synchronized (this) {
+            List<SightingRun> current = partitions.get(partitionStart);
+            current.removeAll(runs);
+            current.add(merged);
+        }
+        List<File> files = new ArrayList<>();
+        for (SightingRun run : runs) {
+            files.add(run.file);
+        }
+        delete(files, runs);
+    }
+
+    private void writeCheckpoint(int segment) throws IOException {
+        File file = new File(directory, CHECKPOINT);
+        File temporary = new File(directory, CHECKPOINT + ".tmp");
+        try (RandomAccessFile out = new RandomAccessFile(temporary, "rw")) {
+            out.setLength(0);
+            ByteBuffer buffer = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.put(CHECKPOINT_MAGIC).putInt(segment).flip();
+            while (buffer.hasRemaining()) {
+                out.getChannel().write(buffer);
+            }
+            out.getChannel().force(true);
+        }
+        if (!temporary.renameTo(file)) {
+            temporary.delete();
+            throw new IOException("Cannot rename " + temporary);
+        }
+    }
+
+    /** The last segment compacted, or {@link Integer#MIN_VALUE} if there is no checkpoint. */
+    private int readCheckpoint() throws IOException {
+        File file = new File(directory, CHECKPOINT);
+        if (!file.exists()) {
+            return Integer.MIN_VALUE;
+        }
+        try (FileChannel channel = new RandomAccessFile(file, "r").getChannel()) {
+            ByteBuffer buffer = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+            byte[] magic = new byte[CHECKPOINT_MAGIC.length];
+            if (read(channel, buffer, 0, channel.size())) {
+                buffer.get(magic);
+            }
+            if (!Arrays.equals(magic, CHECKPOINT_MAGIC)) {
+                throw new IOException("Not a sighting checkpoint: " + file);
+            }
+            return buffer.getInt();
+        }
+    }
+
+    private File newRunFile(long partitionStart) {
+        synchronized (this) {
+            return new File(directory, String.format(Locale.US, "%s%013d-%06d%s", RUN_PREFIX, partitionStart, nextRun++, RUN_SUFFIX));
+        }
+    }
+
+    /** Deletes files no query can reach any more, once the queries that could are done. */
+    private void delete(List<File> files, List<SightingRun> runs) throws IOException {
+        fileLock.writeLock().lock();
+        try {
+            for (SightingRun run : runs) {
+                run.close();
+            }
+            for (File file : files) {
+                file.delete();
+            }
+        } finally {
+            fileLock.writeLock().unlock();
+        }
+    }
+
+    // ---- Reading ----
+
+    private static final class Files {
+        final List<SightingRun> runs = new ArrayList<>();
+        final List<File> segments = new ArrayList<>();
+        long[] segmentLengths;
+    }
+
+    /** The runs overlapping the range and every segment not compacted yet, with their committed lengths. */
+    private synchronized Files files(long fromMillis, long toMillis) {
+        Files files = new Files();
+        long fromPartition = Math.floorDiv(fromMillis, partitionMillis) * partitionMillis;
+        for (List<SightingRun> runs : partitions.subMap(fromPartition, true, toMillis, true).values()) {
+            for (SightingRun run : runs) {
+                if (run.lastMillis >= fromMillis && run.firstMillis <= toMillis) {
+                    files.runs.add(run);
+                }
+            }
+        }
+        files.segments.addAll(sealedSegments);
+        files.segments.add(currentSegment);
+        files.segmentLengths = new long[files.segments.size()];
+        Arrays.fill(files.segmentLengths, Long.MAX_VALUE);
+        files.segmentLengths[files.segmentLengths.length - 1] = currentCommittedBytes;
+        return files;
+    }
+
+    /**
+     * Visits the sightings of a segment's first {@code length} bytes, stopping at the first
+     * frame that is truncated or fails its CRC: the tail a crash left behind.
+     */
+    static void readSegment(File file, long length, Visitor visitor) throws IOException {
+        try (FileChannel channel = new RandomAccessFile(file, "r").getChannel()) {
+            long end = Math.min(length, channel.size());
+            ByteBuffer header = ByteBuffer.allocate(FRAME_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            if (!read(channel, header, 0, end)) {
+                return;
+            }
+            byte[] magic = new byte[MAGIC.length];
+            header.get(magic);
+            if (!Arrays.equals(magic, MAGIC) || header.getShort() != VERSION) {
+                throw new IOException("Not a sighting segment: " + file);
+            }
+            long position = HEADER_SIZE;
+            ByteBuffer body = ByteBuffer.allocate(64 * SIGHTING_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            CRC32 crc = new CRC32();
+            header.clear();
+            while (read(channel, header, position, end)) {
+                int count = header.getInt();
+                int checksum = header.getInt();
+                long bodySize = (long) count * SIGHTING_SIZE;
+                if (count <= 0 || position + FRAME_HEADER_SIZE + bodySize > end) {
+                    return;
+                }
+                if (body.capacity() < bodySize) {
+                    body = ByteBuffer.allocate((int) bodySize).order(ByteOrder.LITTLE_ENDIAN);
+                }
+                body.clear().limit((int) bodySize);
+                read(channel, body, position + FRAME_HEADER_SIZE, end);
+                crc.reset();
+                crc.update(body.array(), 0, (int) bodySize);
+                if ((int) crc.getValue() != checksum) {
+                    return;
+                }
+                for (int i = 0; i < count; i++) {
+                    long time = body.getLong();
+                    long address = body.getLong();
+                    int rssi = body.get();
+                    int transport = body.get();
+                    visitor.onSighting(address, time, rssi, transport);
+                }
+                position += FRAME_HEADER_SIZE + bodySize;
+                header.clear();
+            }
+        }
+    }
+
+    /** Fills {@code buffer} up to its limit from {@code position} and flips it; false if {@code end} comes first. */
+    private static boolean read(FileChannel channel, ByteBuffer buffer, long position, long end) throws IOException {
+        if (position + buffer.remaining() > end) {
+            return false;
+        }
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position);
+            if (n < 0) {
+                return false;
+            }
+            position += n;
+        }
+        buffer.flip();
+        return true;
+    }
+
+    // ---- Opening ----
+
+    /**
+     * Opens the runs and drops whatever an interrupted compaction left behind: temporary files,
+     * runs past the checkpoint, runs a later merged run of their partition replaces, and segments
+     * the checkpoint covers. The remaining segments are queued for compaction.
+     */
+    private void recover() throws IOException {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            throw new IOException("Cannot list " + directory);
+        }
+        TreeMap<Integer, File> runFiles = new TreeMap<>();
+        TreeMap<Integer, File> segments = new TreeMap<>();
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(".tmp")) {
+                file.delete();
+            } else if (name.startsWith(RUN_PREFIX) && name.endsWith(RUN_SUFFIX)) {
+                runFiles.put(sequenceOf(file, name.substring(0, name.lastIndexOf('-') + 1), RUN_SUFFIX), file);
+            } else if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+                segments.put(sequenceOf(file, SEGMENT_PREFIX, SEGMENT_SUFFIX), file);
+            }
+        }
+        int checkpoint = readCheckpoint();
+        int compacted = -1;
+        // Oldest first, so a merged run finds the runs it replaces already open
+        for (Map.Entry<Integer, File> entry : runFiles.entrySet()) {
+            File file = entry.getValue();
+            String name = file.getName();
+            long partitionStart = Long.parseLong(name.substring(RUN_PREFIX.length(), name.lastIndexOf('-')));
+            SightingRun run = SightingRun.open(file, partitionStart);
+            nextRun = entry.getKey() + 1;
+            if (checkpoint != Integer.MIN_VALUE && run.segment > checkpoint) {
+                // Written by a compaction that never committed; its segments are all still here
+                run.close();
+                file.delete();
+                continue;
+            }
+            List<SightingRun> runs = partitions.computeIfAbsent(partitionStart, k -> new ArrayList<>());
+            if (run.merged) {
+                for (SightingRun replaced : runs) {
+                    replaced.close();
+                    replaced.file.delete();
+                }
+                runs.clear();
+            }
+            runs.add(run);
+            compacted = Math.max(compacted, run.segment);
+        }
+        if (checkpoint == Integer.MIN_VALUE) {
+            // A new store, or one from before checkpoints: its runs were trusted as they were
+            writeCheckpoint(compacted);
+        } else {
+            compacted = checkpoint;
+        }
+        for (Map.Entry<Integer, File> entry : segments.entrySet()) {
+            if (entry.getKey() <= compacted) {
+                entry.getValue().delete();
+            } else {
+                sealedSegments.add(entry.getValue());
+            }
+            nextSegment = entry.getKey() + 1;
+        }
+        nextSegment = Math.max(nextSegment, compacted + 1);
+    }
+
+    private static int sequenceOf(File file, String prefix, String suffix) {
+        String name = file.getName();
+        try {
+            return Integer.parseInt(name.substring(prefix.length(), name.length() - suffix.length()));
+        } catch (RuntimeException e) {
+            return -1;
+        }
+    }
+
+    /** Sightings waiting for the writer, in columns. */
+    private static final class Batch {
+        final long[] times;
+        final long[] addresses;
+        final byte[] rssis;
+        final byte[] transports;
+        int size;
+
+        Batch(int capacity) {
+            times = new long[capacity];
+            addresses = new long[capacity];
+            rssis = new byte[capacity];
+            transports = new byte[capacity];
+        }
+
+        void add(long address, long timeMillis, int rssi, int transport) {
+            times[size] = timeMillis;
+            addresses[size] = address;
+            rssis[size] = (byte) rssi;
+            transports[size] = (byte) transport;
+            size++;
+        }
+    }
+}
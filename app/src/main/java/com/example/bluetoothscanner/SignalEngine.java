@@ -0,0 +1,247 @@
+package com.example.bluetoothscanner;
+
+import java.util.Arrays;
+
+/**
+ * Per-device signal state, indexed by {@link DeviceRegistry} row: a smoothed RSSI (EWMA or a
+ * 1-D Kalman filter), a log-distance path-loss estimate, and the number of samples in a sliding
+ * window. Everything lives in parallel primitive arrays, so a sample is a few array updates,
+ * and {@link #nearest} keeps a bounded heap instead of sorting every device.
+ * Confined to one thread (the ingest worker).
+ */
+public final class SignalEngine {
+    /** Value of {@code ScanResult.getTxPower()} and of sightings without one. */
+    public static final int TX_POWER_UNKNOWN = 127;
+    /** Typical RSSI at 1 m of a phone or tag advertising at 0 dBm, used without a reference. */
+    public static final int DEFAULT_MEASURED_POWER = -59;
+    /** Free-space loss over the first metre, to turn a 0 m TX power level into a 1 m reference. */
+    static final int LOSS_AT_ONE_METRE = 41;
+
+    public enum Filter {
+        EWMA,
+        KALMAN
+    }
+
+    private static final int WINDOW_BUCKETS = 8;
+
+    private final Filter filter;
+    private final double alpha;
+    private final double processNoise;
+    private final double measurementNoise;
+    private final double pathLossExponent;
+    private final long bucketMillis;
+
+    private boolean[] active = new boolean[0];
+    private double[] estimate = new double[0];
+    private double[] variance = new double[0];
+    private int[] measuredPower = new int[0];
+    private long[] newestBucket = new long[0];
+    private int[] bucketCounts = new int[0];
+
+    // Scratch heap for nearest(): a max-heap on path loss, so the root is the one to replace
+    private int[] heapRows = new int[0];
+    private double[] heapKeys = new double[0];
+
+    /**
+     * @param alpha weight of a new sample for {@link Filter#EWMA}
+     * @param processNoise how much the true RSSI may drift between samples (dB^2), for {@link Filter#KALMAN}
+     * @param measurementNoise variance of a single RSSI sample (dB^2), for {@link Filter#KALMAN}
+     * @param pathLossExponent 2 in free space, typically 2.5 to 4 indoors
+     * @param windowMillis span of {@link #sampleCount}
+     */
+    public SignalEngine(Filter filter, double alpha, double processNoise, double measurementNoise,
+                        double pathLossExponent, long windowMillis) {
+        this.filter = filter;
+        this.alpha = alpha;
+        this.processNoise = processNoise;
+        this.measurementNoise = measurementNoise;
+        this.pathLossExponent = pathLossExponent;
+        this.bucketMillis = Math.max(1, windowMillis / WINDOW_BUCKETS);
+    }
+
+    public SignalEngine(Filter filter) {
+        this(filter, 0.25, 0.5, 16, 2.5, 10_000);
+    }
+
+    public Filter filter() {
+        return filter;
+    }
+
+    /** Starts tracking a new device in {@code row}, forgetting whatever used the row before. */
+    public void add(int row) {
+        if (row >= active.length) {
+            grow(Math.max(row + 1, active.length << 1));
+        }
+        active[row] = true;
+        estimate[row] = Double.NaN;
+        variance[row] = 0;
+        measuredPower[row] = TX_POWER_UNKNOWN;
+        newestBucket[row] = 0;
+        Arrays.fill(bucketCounts, row * WINDOW_BUCKETS, (row + 1) * WINDOW_BUCKETS, 0);
+    }
+
+    public void remove(int row) {
+        active[row] = false;
+    }
+
+    /** Feeds one RSSI sample; {@link DeviceRegistry#RSSI_UNKNOWN} only counts towards the window. */
+    public void onSample(int row, int rssi, long nowMillis) {
+        countSample(row, nowMillis);
+        if (rssi == DeviceRegistry.RSSI_UNKNOWN) {
+            return;
+        }
+        double x = estimate[row];
+        if (Double.isNaN(x)) {
+            estimate[row] = rssi;
+            variance[row] = measurementNoise;
+        } else if (filter == Filter.EWMA) {
+            estimate[row] = x + alpha * (rssi - x);
+        } else {
+            double p = variance[row] + processNoise;
+            double gain = p / (p + measurementNoise);
+            estimate[row] = x + gain * (rssi - x);
+            variance[row] = (1 - gain) * p;
+        }
+    }
+
+    /** Sets the expected RSSI at 1 m, e.g. an iBeacon's measured power. */
+    public void setMeasuredPower(int row, int rssiAtOneMetre) {
+        measuredPower[row] = rssiAtOneMetre;
+    }
+
+    /** Sets the reference from an advertised TX power level (dBm at the antenna). */
+    public void setTxPower(int row, int txPower) {
+        measuredPower[row] = txPower - LOSS_AT_ONE_METRE;
+    }
+
+    public boolean hasMeasuredPower(int row) {
+        return measuredPower[row] != TX_POWER_UNKNOWN;
+    }
+
+    /** Smoothed RSSI, or NaN before the first sample. */
+    public double filteredRssi(int row) {
+        return estimate[row];
+    }
+
+    /**
+     * Log-distance estimate in metres; uses {@link #DEFAULT_MEASURED_POWER} when the device gave
+     * no reference. NaN before the first sample.
+     */
+    public double distance(int row) {
+        return Math.pow(10, pathLoss(row) / (10 * pathLossExponent));
+    }
+
+    // Loss beyond 1 m in dB; distance grows monotonically with it, so ranking needs no pow()
+    private double pathLoss(int row) {
+        int reference = measuredPower[row] != TX_POWER_UNKNOWN ? measuredPower[row] : DEFAULT_MEASURED_POWER;
+        return reference - estimate[row];
+    }
+
+    /** Samples in the last window (to bucket granularity, an eighth of the window). */
+    public int sampleCount(int row, long nowMillis) {
+        long nowBucket = nowMillis / bucketMillis;
+        long newest = newestBucket[row];
+        int base = row * WINDOW_BUCKETS;
+        int count = 0;
+        for (int i = 0; i < WINDOW_BUCKETS; i++) {
+            long bucket = newest - i;
+            if (bucket <= nowBucket - WINDOW_BUCKETS || bucket < 0) {
+                break;
+            }
+            count += bucketCounts[base + (int) (bucket % WINDOW_BUCKETS)];
+        }
+        return count;
+    }
+
+    /**
+     * Writes the rows of the {@code n} closest devices with a sample into {@code out}, nearest
+     * first, and returns how many were written. O(devices * log n).
+     */
+    public int nearest(int n, int[] out) {
+        if (heapRows.length < n) {
+            heapRows = new int[n];
+            heapKeys = new double[n];
+        }
+        int size = 0;
+        for (int row = 0; row < active.length; row++) {
+            if (!active[row] || Double.isNaN(estimate[row])) {
+                continue;
+            }
+            double key = pathLoss(row);
+            if (size < n) {
+                siftUp(size++, row, key);
+            } else if (n > 0 && key < heapKeys[0]) {
+                siftDown(0, size, row, key);
+            }
+        }
+        // Pop the farthest first into the back of out
+        for (int i = size - 1; i >= 0; i--) {
+            out[i] = heapRows[0];
+            if (i > 0) {
+                siftDown(0, i, heapRows[i], heapKeys[i]);
+            }
+        }
+        return size;
+    }
+
+    private void siftUp(int index, int row, double key) {
+        while (index > 0) {
+            int parent = (index - 1) >> 1;
+            if (heapKeys[parent] >= key) {
+                break;
+            }
+            heapRows[index] = heapRows[parent];
+            heapKeys[index] = heapKeys[parent];
+            index = parent;
+        }
+        heapRows[index] = row;
+        heapKeys[index] = key;
+    }
+
+    private void siftDown(int index, int size, int row, double key) {
+        while (true) {
+            int child = 2 * index + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && heapKeys[child + 1] > heapKeys[child]) {
+                child++;
+            }
+            if (heapKeys[child] <= key) {
+                break;
+            }
+            heapRows[index] = heapRows[child];
+            heapKeys[index] = heapKeys[child];
+            index = child;
+        }
+        heapRows[index] = row;
+        heapKeys[index] = key;
+    }
+
+    private void countSample(int row, long nowMillis) {
+        long bucket = nowMillis / bucketMillis;
+        long newest = newestBucket[row];
+        int base = row * WINDOW_BUCKETS;
+        if (bucket > newest) {
+            // Zero the buckets skipped since the last sample; they now stand for newer time
+            long stale = Math.min(bucket - newest, WINDOW_BUCKETS);
+            for (long b = bucket - stale + 1; b <= bucket; b++) {
+                bucketCounts[base + (int) (b % WINDOW_BUCKETS)] = 0;
+            }
+            newestBucket[row] = bucket;
+        } else if (bucket <= newest - WINDOW_BUCKETS) {
+            // Older than the window (batched results can arrive late)
+            return;
+        }
+        bucketCounts[base + (int) (bucket % WINDOW_BUCKETS)]++;
+    }
+
+    private void grow(int capacity) {
+        active = Arrays.copyOf(active, capacity);
+        estimate = Arrays.copyOf(estimate, capacity);
+        variance = Arrays.copyOf(variance, capacity);
+        measuredPower = Arrays.copyOf(measuredPower, capacity);
+        newestBucket = Arrays.copyOf(newestBucket, capacity);
+        bucketCounts = Arrays.copyOf(bucketCounts, capacity * WINDOW_BUCKETS);
+    }
+}
@@ -0,0 +1,76 @@
+package com.example.bluetoothscanner;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Lock-free single-producer/single-consumer ring of preallocated, reusable entries.
+ * The producer {@link #claim()}s an entry, fills it in place and {@link #publish()}es it;
+ * the consumer {@link #peek()}s it, reads it and {@link #release()}s it. Exactly one thread
+ * may act as producer and one as consumer.
+ */
+public final class SpscRingBuffer<T> {
+    private final Object[] entries;
+    private final int mask;
+    // head: next entry to consume, tail: next entry to publish
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    // Producer- and consumer-local copies of the other side's index, to avoid volatile reads per call
+    private long cachedHead;
+    private long cachedTail;
+
+    public SpscRingBuffer(int capacity, Supplier<T> factory) {
+        if (capacity < 2 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+        }
+        entries = new Object[capacity];
+        for (int i = 0; i < capacity; i++) {
+            entries[i] = factory.get();
+        }
+        mask = capacity - 1;
+    }
+
+    /** Producer: returns the next free entry, or null if the ring is full. */
+    @SuppressWarnings("unchecked")
+    public T claim() {
+        long t = tail.get();
+        if (t - cachedHead == entries.length) {
+            cachedHead = head.get();
+            if (t - cachedHead == entries.length) {
+                return null;
+            }
+        }
+        return (T) entries[(int) t & mask];
+    }
+
+    /** Producer: makes the entry returned by the last {@link #claim()} visible to the consumer. */
+    public void publish() {
+        tail.lazySet(tail.get() + 1);
+    }
+
+    /** Consumer: returns the oldest published entry, or null if the ring is empty. */
+    @SuppressWarnings("unchecked")
+    public T peek() {
+        long h = head.get();
+        if (h == cachedTail) {
+            cachedTail = tail.get();
+            if (h == cachedTail) {
+                return null;
+            }
+        }
+        return (T) entries[(int) h & mask];
+    }
+
+    /** Consumer: hands the entry returned by the last {@link #peek()} back to the producer. */
+    public void release() {
+        head.lazySet(head.get() + 1);
+    }
+
+    public int capacity() {
+        return entries.length;
+    }
+
+    public int size() {
+        return (int) (tail.get() - head.get());
+    }
+}
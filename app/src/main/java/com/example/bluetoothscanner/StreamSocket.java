@@ -0,0 +1,18 @@
+package com.example.bluetoothscanner;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/** A connected byte stream such as an RFCOMM socket. */
+public interface StreamSocket extends Closeable {
+    InputStream getInputStream() throws IOException;
+
+    OutputStream getOutputStream() throws IOException;
+
+    boolean isConnected();
+
+    /** Packed address of the peer, see {@link BluetoothAddress}. */
+    long address();
+}
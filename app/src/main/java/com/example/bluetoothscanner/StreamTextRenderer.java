@@ -0,0 +1,60 @@
+package com.example.bluetoothscanner;
+
+import android.widget.TextView;
+
+import java.nio.CharBuffer;
+
+/**
+ * Shows the tail of a {@link ByteRing} in a {@link TextView}. On the main thread, at most
+ * {@code refreshHz} times a second, only the bytes written since the last frame are decoded
+ * (see {@link RingTextDecoder}) and appended; the view is trimmed to {@code maxChars}.
+ */
+public class StreamTextRenderer implements Runnable {
+    private final TextView view;
+    private final RingTextDecoder decoder;
+    private final int maxChars;
+    private final long frameMillis;
+    private boolean running;
+
+    public StreamTextRenderer(TextView view, ByteRing source, int maxChars, int refreshHz) {
+        this.view = view;
+        this.decoder = new RingTextDecoder(source, maxChars);
+        this.maxChars = maxChars;
+        this.frameMillis = 1000L / refreshHz;
+    }
+
+    /** Clears the view and starts rendering from the ring's current position. */
+    public void start() {
+        view.setText("", TextView.BufferType.EDITABLE);
+        decoder.reset();
+        if (!running) {
+            running = true;
+            view.postDelayed(this, frameMillis);
+        }
+    }
+
+    public void stop() {
+        running = false;
+        view.removeCallbacks(this);
+    }
+
+    @Override
+    public void run() {
+        if (!running) {
+            return;
+        }
+        render();
+        view.postDelayed(this, frameMillis);
+    }
+
+    private void render() {
+        CharBuffer chars = decoder.decodeNew();
+        if (chars.length() > 0) {
+            view.append(chars);
+            CharSequence text = view.getEditableText();
+            if (text != null && text.length() > maxChars) {
+                view.getEditableText().delete(0, text.length() - maxChars);
+            }
+        }
+    }
+}
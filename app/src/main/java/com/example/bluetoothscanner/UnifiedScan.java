@@ -0,0 +1,182 @@
+package com.example.bluetoothscanner;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One scan for both transports: LE scanning and Classic inquiry run together for a fixed time.
+ * Each round is an LE-only lead-in followed by an inquiry (Android ends one after about 12 s).
+ * Some controllers cannot scan LE while inquiring and go quiet instead. When the lead-in got LE
+ * results but the inquiry that followed got none, the remaining rounds interleave: LE is stopped
+ * for each inquiry and restarted after it. Results still reach the caller's ingestor directly;
+ * this class only needs to be told they arrived. Confined to the given single-threaded
+ * executor; the public methods may be called from any thread.
+ */
+public class UnifiedScan {
+    public static final long DEFAULT_DURATION_MILLIS = 40_000;
+    public static final long DEFAULT_LE_WINDOW_MILLIS = 4_000;
+    // Backstop in case the inquiry's finished broadcast never comes
+    private static final long INQUIRY_TIMEOUT_MILLIS = 20_000;
+
+    public interface Listener {
+        /** On the executor, once the scan is over or was stopped. */
+        void onFinished(Stats stats);
+    }
+
+    public static final class Stats {
+        /** False once the controller was found to starve LE during inquiry. */
+        public final boolean concurrent;
+        public final int inquiries;
+        public final long leResults;
+        public final long inquiryResults;
+        public final long elapsedMillis;
+
+        Stats(UnifiedScan s, long now) {
+            concurrent = s.concurrent;
+            inquiries = s.inquiries;
+            leResults = s.leResults.get();
+            inquiryResults = s.inquiryResults.get();
+            elapsedMillis = TimeUnit.NANOSECONDS.toMillis(now - s.startedNanos);
+        }
+    }
+
+    private final ScanScheduler.Radio radio;
+    private final ScheduledExecutorService executor;
+    private final long durationMillis;
+    private final long leWindowMillis;
+    private final Listener listener;
+    // Counted on the result threads; the executor only compares them at round boundaries
+    private final AtomicLong leResults = new AtomicLong();
+    private final AtomicLong inquiryResults = new AtomicLong();
+
+    private boolean running;
+    private boolean concurrent = true;
+    private boolean leRunning;
+    private boolean inquiring;
+    private ScheduledFuture<?> timer;
+    private ScheduledFuture<?> deadline;
+    private long startedNanos;
+    private int inquiries;
+    private long leAtWindowStart;
+    private long leAtInquiryStart;
+    private long leBeforeInquiry;
+
+    public UnifiedScan(ScanScheduler.Radio radio, ScheduledExecutorService executor, long durationMillis,
+                       long leWindowMillis, Listener listener) {
+        this.radio = radio;
+        this.executor = executor;
+        this.durationMillis = durationMillis;
+        this.leWindowMillis = leWindowMillis;
+        this.listener = listener;
+    }
+
+    public void start() {
+        executor.execute(() -> {
+            if (running) {
+                return;
+            }
+            running = true;
+            startedNanos = System.nanoTime();
+            deadline = executor.schedule(this::finish, durationMillis, TimeUnit.MILLISECONDS);
+            beginLeWindow();
+        });
+    }
+
+    public void stop() {
+        executor.execute(this::finish);
+    }
+
+    /** Reports an LE scan result; any thread, cheap enough for every callback. */
+    public void onLeResult() {
+        leResults.incrementAndGet();
+    }
+
+    /** Reports an inquiry result; any thread. */
+    public void onInquiryResult() {
+        inquiryResults.incrementAndGet();
+    }
+
+    /** Reports that the inquiry ended (Android: ACTION_DISCOVERY_FINISHED); any thread. */
+    public void onInquiryFinished() {
+        executor.execute(this::endInquiry);
+    }
+
+    public Future<Stats> stats() {
+        return executor.submit(() -> new Stats(this, System.nanoTime()));
+    }
+
+    private void beginLeWindow() {
+        leAtWindowStart = leResults.get();
+        if (!leRunning) {
+            leRunning = radio.startLeScan(BleScanner.SCAN_MODE_LOW_LATENCY);
+        }
+        schedule(this::beginInquiry, leWindowMillis);
+    }
+
+    private void beginInquiry() {
+        if (!running) {
+            return;
+        }
+        if (!concurrent && leRunning) {
+            radio.stopLeScan();
+            leRunning = false;
+        }
+        leAtInquiryStart = leResults.get();
+        leBeforeInquiry = leAtInquiryStart - leAtWindowStart;
+        if (!radio.startInquiry()) {
+            // Classic unavailable; spend the time on LE
+            beginLeWindow();
+            return;
+        }
+        inquiring = true;
+        inquiries++;
+        schedule(() -> {
+            radio.cancelInquiry();
+            endInquiry();
+        }, INQUIRY_TIMEOUT_MILLIS);
+    }
+
+    private void endInquiry() {
+        if (!running || !inquiring) {
+            return;
+        }
+        inquiring = false;
+        long leDuringInquiry = leResults.get() - leAtInquiryStart;
+        if (concurrent && leRunning && leBeforeInquiry > 0 && leDuringInquiry == 0) {
+            concurrent = false;
+        }
+        beginLeWindow();
+    }
+
+    private void finish() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        cancel(timer);
+        cancel(deadline);
+        if (inquiring) {
+            radio.cancelInquiry();
+            inquiring = false;
+        }
+        if (leRunning) {
+            radio.stopLeScan();
+            leRunning = false;
+        }
+        listener.onFinished(new Stats(this, System.nanoTime()));
+    }
+
+    private void schedule(Runnable task, long millis) {
+        cancel(timer);
+        timer = executor.schedule(task, millis, TimeUnit.MILLISECONDS);
+    }
+
+    private static void cancel(ScheduledFuture<?> future) {
+        if (future != null) {
+            future.cancel(false);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.example.bluetoothscanner;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class AdvertisingDataTest {
+    // Flags, TX power -8, shortened then complete name, 16-bit UUIDs 0x180F 0x180A,
+    // service data 0x180F -> 0x64, manufacturer 0x0059 -> 01 02, zero padding
+    private static final byte[] RECORD = ScanRule.parseHex(
+            "020106" + "020AF8" + "0408546865" + "0709546865726D6F" + "05030F180A18"
+                    + "04160F1864" + "05FF59000102" + "0000");
+
+    private static byte[] hex(String hex) {
+        return ScanRule.parseHex(hex);
+    }
+
+    @Test
+    public void exposesFieldsInPlace() {
+        AdvertisingData data = new AdvertisingData();
+        assertTrue(data.wrap(RECORD));
+        assertEquals(7, data.structureCount());
+        assertFalse(data.isTruncated());
+        assertEquals(0x06, data.flags());
+        assertEquals(-8, data.txPower());
+        assertTrue(data.isNameComplete());
+        assertEquals("Thermo", data.name());
+        assertEquals("Thermo", data.appendName(new StringBuilder()).toString());
+        assertTrue(data.nameStartsWith(hex("5468")));
+        assertEquals(2, data.serviceUuidCount());
+        assertTrue(data.hasServiceUuid16(0x180A));
+        assertFalse(data.hasServiceUuid16(0x1800));
+        assertEquals(ScanMatcher.BASE_UUID_MSB | (0x180AL << 32), data.serviceUuidMsb(1));
+        assertEquals(ScanMatcher.BASE_UUID_LSB, data.serviceUuidLsb(1));
+
+        AdvertisingData.ServiceData serviceData = new AdvertisingData.ServiceData();
+        assertTrue(data.findServiceData16(0x180F, serviceData));
+        assertEquals(0x180F, serviceData.uuid16());
+        assertEquals(1, serviceData.length());
+        assertEquals(0x64, serviceData.u8(0));
+
+        AdvertisingData.ManufacturerData manufacturer = new AdvertisingData.ManufacturerData();
+        assertEquals(1, data.manufacturerDataCount());
+        assertEquals(0x0059, data.manufacturerData(0, manufacturer).companyId());
+        assertEquals(0x0102, manufacturer.u16be(0));
+        assertFalse(data.findManufacturerData(0x004C, manufacturer));
+    }
+
+    @Test
+    public void keepsStructuresBeforeATruncatedOne() {
+        AdvertisingData data = new AdvertisingData();
+        assertTrue(data.wrap(hex("020106" + "0A09546865")));
+        assertTrue(data.isTruncated());
+        assertEquals(1, data.structureCount());
+        assertFalse(data.hasName());
+        assertEquals(AdvertisingData.ABSENT, data.txPower());
+        assertFalse(data.wrap(new byte[4]));
+    }
+
+    @Test
+    public void decodesIBeaconAndAltBeacon() {
+        AdvertisingData data = new AdvertisingData();
+        Beacon beacon = new Beacon();
+        data.wrap(hex("020106" + "1AFF4C000215" + "F7826DA64FA24E988024BC5B71E0893E" + "0001" + "0002" + "C5"));
+        assertEquals(Beacon.Type.IBEACON, beacon.decode(data));
+        assertEquals(0xF7826DA64FA24E98L, beacon.idMsb());
+        assertEquals(0x8024BC5B71E0893EL, beacon.idLsb());
+        assertEquals(1, beacon.major());
+        assertEquals(2, beacon.minor());
+        assertEquals(-59, beacon.measuredPower());
+
+        data.wrap(hex("1BFF1801BEAC" + "00112233445566778899AABBCCDDEEFF" + "0102" + "0304" + "BB" + "00"));
+        assertEquals(Beacon.Type.ALTBEACON, beacon.decode(data));
+        assertEquals(0x0118, beacon.companyId());
+        assertEquals(0x0011223344556677L, beacon.idMsb());
+        assertEquals(0x0304, beacon.minor());
+        assertEquals(-69, beacon.measuredPower());
+
+        data.wrap(RECORD);
+        assertEquals(Beacon.Type.NONE, beacon.decode(data));
+    }
+
+    @Test
+    public void decodesEddystoneFrames() {
+        AdvertisingData data = new AdvertisingData();
+        Beacon beacon = new Beacon();
+        data.wrap(hex("0303AAFE" + "1716AAFE" + "00E7" + "0102030405060708090A" + "0B0C0D0E0F10" + "0000"));
+        assertEquals(Beacon.Type.EDDYSTONE_UID, beacon.decode(data));
+        assertEquals(-25, beacon.measuredPower());
+        assertEquals(0x0102030405060708L, beacon.namespaceHigh());
+        assertEquals(0x090A, beacon.namespaceLow());
+        assertEquals(0x0B0C0D0E0F10L, beacon.instance());
+
+        // https://www.example.com/ plus "x"
+        data.wrap(hex("0303AAFE" + "0F16AAFE" + "10EB" + "01" + "6578616D706C65" + "00" + "78"));
+        assertEquals(Beacon.Type.EDDYSTONE_URL, beacon.decode(data));
+        assertEquals("https://www.example.com/x", beacon.appendUrl(new StringBuilder()).toString());
+
+        data.wrap(hex("0303AAFE" + "1116AAFE" + "2000" + "0BB8" + "1480" + "00000064" + "00000E10"));
+        assertEquals(Beacon.Type.EDDYSTONE_TLM, beacon.decode(data));
+        assertEquals(3000, beacon.batteryMillivolts());
+        assertEquals(20.5, beacon.temperatureCelsius(), 1e-9);
+        assertEquals(100, beacon.advertisementCount());
+        assertEquals(3600, beacon.uptimeDeciseconds());
+    }
+}
@@ -0,0 +1,158 @@
+package com.example.bluetoothscanner;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class BleWritePipelineTest {
+    private static final UUID CHARACTERISTIC = UUID.randomUUID();
+    private static final int CHUNK_SIZE = 20;
+    // What Android returns while another request is outstanding
+    private static final int STATUS_BUSY = 201;
+    private static final int GATT_ERROR = 133;
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+    private final GattOperationQueue queue = new GattOperationQueue(executor);
+    private final FakeChunkWriter writer = new FakeChunkWriter();
+    private final BleWritePipeline pipeline = new BleWritePipeline(queue, writer);
+    private final LinkedBlockingQueue<BleWritePipeline.Result> results = new LinkedBlockingQueue<>();
+
+    /**
+     * Completes each accepted write on the queue executor a millisecond later, like the stack's
+     * {@code onCharacteristicWrite}; can refuse one call as busy and fail completions.
+     */
+    private class FakeChunkWriter implements BleWritePipeline.ChunkWriter {
+        final ByteArrayOutputStream received = new ByteArrayOutputStream();
+        final List<Integer> writeTypes = new CopyOnWriteArrayList<>();
+        int busyCall = -1;
+        int failedCompletions;
+        int calls;
+        int outstanding;
+        int maxOutstanding;
+
+        @Override
+        public int write(UUID characteristic, byte[] chunk, int writeType) {
+            if (calls++ == busyCall) {
+                return STATUS_BUSY;
+            }
+            byte[] copy = chunk.clone();
+            writeTypes.add(writeType);
+            maxOutstanding = Math.max(maxOutstanding, ++outstanding);
+            executor.schedule(() -> {
+                outstanding--;
+                int status = 0;
+                if (failedCompletions > 0) {
+                    failedCompletions--;
+                    status = GATT_ERROR;
+                } else {
+                    received.write(copy, 0, copy.length);
+                }
+                queue.onComplete(GattOperation.Type.WRITE, characteristic, status, null);
+            }, 1, TimeUnit.MILLISECONDS);
+            return GattOperation.ISSUED;
+        }
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private static byte[] payload(int length) {
+        byte[] payload = new byte[length];
+        new Random(length).nextBytes(payload);
+        return payload;
+    }
+
+    private BleWritePipeline.Result send(byte[] payload, int writeType) throws InterruptedException {
+        pipeline.send(CHARACTERISTIC, payload, CHUNK_SIZE, writeType, results::add);
+        BleWritePipeline.Result result = results.poll(5, TimeUnit.SECONDS);
+        assertNotNull(result);
+        return result;
+    }
+
+    @Test
+    public void pacesWritesWithoutResponseOnCompletions() throws InterruptedException {
+        byte[] payload = payload(10 * CHUNK_SIZE + 7);
+        BleWritePipeline.Result result = send(payload, GattClient.WRITE_TYPE_NO_RESPONSE);
+
+        assertTrue(result.success);
+        assertEquals(payload.length, result.bytesSent);
+        assertArrayEquals(payload, writer.received.toByteArray());
+        // The next chunk only went out once the previous one completed
+        assertEquals(1, writer.maxOutstanding);
+        assertEquals(11, writer.writeTypes.size());
+        for (int writeType : writer.writeTypes) {
+            assertEquals(GattClient.WRITE_TYPE_NO_RESPONSE, writeType);
+        }
+        assertTrue(result.retriedChunks.isEmpty());
+        assertFalse(pipeline.isBusy());
+    }
+
+    @Test
+    public void writesWithResponse() throws InterruptedException {
+        byte[] payload = payload(3 * CHUNK_SIZE);
+        BleWritePipeline.Result result = send(payload, GattClient.WRITE_TYPE_DEFAULT);
+
+        assertTrue(result.success);
+        assertArrayEquals(payload, writer.received.toByteArray());
+        assertEquals(List.of(GattClient.WRITE_TYPE_DEFAULT, GattClient.WRITE_TYPE_DEFAULT, GattClient.WRITE_TYPE_DEFAULT),
+                writer.writeTypes);
+    }
+
+    @Test
+    public void retriesChunksRefusedAsBusy() throws InterruptedException {
+        writer.busyCall = 2;
+        byte[] payload = payload(5 * CHUNK_SIZE);
+        BleWritePipeline.Result result = send(payload, GattClient.WRITE_TYPE_NO_RESPONSE);
+
+        assertTrue(result.success);
+        assertArrayEquals(payload, writer.received.toByteArray());
+        assertEquals(6, writer.calls);
+        assertEquals(List.of(2), result.retriedChunks);
+    }
+
+    @Test
+    public void failsOnceAChunkRunsOutOfRetries() throws InterruptedException {
+        byte[] payload = payload(4 * CHUNK_SIZE);
+        BleWritePipeline.Result first = send(payload, GattClient.WRITE_TYPE_DEFAULT);
+        assertTrue(first.success);
+
+        // Four failed completions in a row: the write and its three retries
+        writer.failedCompletions = 4;
+        BleWritePipeline.Result result = send(payload, GattClient.WRITE_TYPE_DEFAULT);
+        assertFalse(result.success);
+        assertEquals(GATT_ERROR, result.status);
+        assertEquals(0, result.bytesSent);
+        assertEquals(List.of(0), result.retriedChunks);
+        assertEquals(4 + 4, writer.calls);
+
+        // Three failures are still recovered from
+        writer.failedCompletions = 3;
+        assertTrue(send(payload, GattClient.WRITE_TYPE_DEFAULT).success);
+        assertFalse(pipeline.isBusy());
+    }
+
+    @Test
+    public void reportsThroughput() throws InterruptedException {
+        BleWritePipeline.Result result = send(payload(8 * CHUNK_SIZE), GattClient.WRITE_TYPE_NO_RESPONSE);
+
+        assertTrue(result.success);
+        assertTrue(result.elapsedNanos > 0);
+        // One chunk per millisecond at best
+        assertTrue(result.bytesPerSecond() > 0);
+        assertTrue(result.bytesPerSecond() <= CHUNK_SIZE * 1000.0);
+        assertEquals(result.bytesSent * 1e9 / result.elapsedNanos, result.bytesPerSecond(), 1e-6);
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.bluetoothscanner;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class CaptureTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void rollsOverAndReadsBackInOrder() throws Exception {
+        File dir = folder.newFolder("captures");
+        byte[] adv = {2, 1, 6, 3, 3, 0x0F, 0x18, 0, 0, 0};
+        long address = BluetoothAddress.pack("94:08:53:71:50:F6");
+        try (CaptureWriter writer = new CaptureWriter(dir, 256, 100)) {
+            for (int i = 0; i < 20; i++) {
+                assertTrue(writer.append(CaptureFormat.TYPE_ADVERTISEMENT, address, -40 - i, 0, adv));
+            }
+            writer.append(CaptureFormat.TYPE_GATT_NOTIFICATION, address, CaptureFormat.RSSI_NONE, 0x2A, new byte[]{7});
+        }
+        File[] files = CaptureWriter.list(dir);
+        assertTrue(files.length > 1);
+
+        int count = 0;
+        for (File file : files) {
+            try (CaptureReader reader = new CaptureReader(file)) {
+                while (reader.next()) {
+                    assertEquals(address, reader.address);
+                    if (count < 20) {
+                        assertEquals(CaptureFormat.TYPE_ADVERTISEMENT, reader.type);
+                        assertEquals(-40 - count, reader.rssi);
+                        assertEquals(adv.length, reader.length);
+                    } else {
+                        assertEquals(CaptureFormat.TYPE_GATT_NOTIFICATION, reader.type);
+                        assertEquals(0x2A, reader.channelId);
+                        assertEquals(7, reader.payload()[0]);
+                    }
+                    count++;
+                }
+            }
+        }
+        assertEquals(21, count);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(21, CaptureExporter.export(files, out, CaptureExporter.Format.BTSNOOP));
+        ByteBuffer btsnoop = ByteBuffer.wrap(out.toByteArray());
+        assertEquals("btsnoop", new String(out.toByteArray(), 0, 7, "US-ASCII"));
+        // First packet: LE Advertising Report with the 7 significant bytes of the record
+        assertEquals(12 + 7 + 3, btsnoop.getInt(16));
+        assertEquals(0x04, btsnoop.get(40));
+        assertEquals(0x3E, btsnoop.get(41));
+        assertEquals((byte) 0xF6, btsnoop.get(47));
+    }
+
+    @Test
+    public void appendsLaterOnTheCaptureThread() throws Exception {
+        File dir = folder.newFolder("captures");
+        long address = BluetoothAddress.pack("94:08:53:71:50:F6");
+        byte[] value = {1, 2, 3};
+        try (CaptureWriter writer = new CaptureWriter(dir, 4096, 4)) {
+            for (int i = 0; i < 10; i++) {
+                writer.appendLater(CaptureFormat.TYPE_GATT_NOTIFICATION, address, CaptureFormat.RSSI_NONE, i, value);
+            }
+            // The payload was copied, so the caller may reuse its array at once
+            value[0] = 9;
+            writer.appendLater(CaptureFormat.TYPE_GATT_READ, address, CaptureFormat.RSSI_NONE, 0x2A, null);
+        }
+        int count = 0;
+        long lastTimestamp = 0;
+        try (CaptureReader reader = new CaptureReader(CaptureWriter.list(dir)[0])) {
+            while (reader.next()) {
+                assertTrue(reader.timestampMicros >= lastTimestamp);
+                lastTimestamp = reader.timestampMicros;
+                if (count < 10) {
+                    assertEquals(CaptureFormat.TYPE_GATT_NOTIFICATION, reader.type);
+                    assertEquals(count, reader.channelId);
+                    assertEquals(1, reader.payload()[0]);
+                } else {
+                    assertEquals(CaptureFormat.TYPE_GATT_READ, reader.type);
+                    assertEquals(0, reader.length);
+                }
+                count++;
+            }
+        }
+        // close() wrote everything still queued
+        assertEquals(11, count);
+    }
+}
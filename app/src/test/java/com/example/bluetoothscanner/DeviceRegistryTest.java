@@ -0,0 +1,85 @@
+package com.example.bluetoothscanner;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DeviceRegistryTest {
+    @Test
+    public void packsAndFormatsAddresses() {
+        long address = BluetoothAddress.pack("94:08:53:71:50:f6");
+        assertEquals(0x9408537150F6L, address);
+        assertEquals("94:08:53:71:50:F6", BluetoothAddress.format(address));
+        assertEquals(BluetoothAddress.INVALID, BluetoothAddress.pack("94-08-53-71-50-F6"));
+        assertEquals(BluetoothAddress.INVALID, BluetoothAddress.pack("94:08:53:71:50"));
+    }
+
+    @Test
+    public void keepsInsertionOrderAndStableRows() {
+        DeviceRegistry<String> registry = new DeviceRegistry<>(4);
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(-1, registry.indexOf(i * 7919L));
+            assertEquals(i, registry.add(i * 7919L, "device" + i, i));
+        }
+        assertEquals(1000, registry.size());
+        for (int i = 0; i < 1000; i++) {
+            int row = registry.indexOf(i * 7919L);
+            assertEquals(i, row);
+            assertEquals("device" + i, registry.get(row));
+        }
+    }
+
+    @Test
+    public void tracksSightings() {
+        DeviceRegistry<String> registry = new DeviceRegistry<>(16);
+        int row = registry.add(42L, "a", 100L);
+        registry.recordSighting(row, -60, 100L);
+        registry.recordSighting(row, DeviceRegistry.RSSI_UNKNOWN, 250L);
+        assertEquals(2, registry.hits(row));
+        assertEquals(100L, registry.firstSeen(row));
+        assertEquals(250L, registry.lastSeen(row));
+        assertEquals(-60, registry.rssi(row));
+
+        registry.clear();
+        assertTrue(registry.isEmpty());
+        assertEquals(-1, registry.indexOf(42L));
+    }
+
+    @Test
+    public void removesKeysWithoutBreakingProbeRuns() {
+        LongIndexMap map = new LongIndexMap(8);
+        for (int i = 0; i < 500; i++) {
+            map.put(i * 31L, i);
+        }
+        for (int i = 0; i < 500; i += 2) {
+            assertEquals(i, map.remove(i * 31L));
+        }
+        assertEquals(LongIndexMap.MISSING, map.remove(0L));
+        assertEquals(250, map.size());
+        for (int i = 0; i < 500; i++) {
+            assertEquals(i % 2 == 0 ? LongIndexMap.MISSING : i, map.get(i * 31L));
+        }
+    }
+
+    @Test
+    public void evictsLeastRecentlySeenAndReusesRows() {
+        DeviceRegistry<String> registry = new DeviceRegistry<>(2, 3);
+        int a = registry.add(1L, "a", 0L);
+        int b = registry.add(2L, "b", 10L);
+        int c = registry.add(3L, "c", 20L);
+        assertTrue(registry.isFull());
+        assertEquals(a, registry.oldest());
+        registry.recordSighting(a, -50, 30L);
+        assertEquals(b, registry.oldest());
+
+        registry.remove(b);
+        assertFalse(registry.isLive(b));
+        assertEquals(-1, registry.indexOf(2L));
+        assertEquals(c, registry.oldest());
+        int d = registry.add(4L, "d", 40L);
+        assertEquals(b, d);
+        assertEquals("d", registry.get(d));
+        assertEquals(3, registry.size());
+        assertEquals(3, registry.rowCount());
+    }
+}
@@ -0,0 +1,130 @@
+package com.example.bluetoothscanner;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class DeviceViewTest {
+    private static List<String> names(List<DeviceSnapshot<String>> devices) {
+        List<String> names = new ArrayList<>();
+        for (DeviceSnapshot<String> device : devices) {
+            names.add(device.name);
+        }
+        return names;
+    }
+
+    @Test
+    public void rankedTreeKeepsPositionsThroughUpdates() {
+        int[] keys = new int[100];
+        RankedTree tree = new RankedTree() {
+            @Override
+            protected int compare(int a, int b) {
+                return Integer.compare(keys[a], keys[b]);
+            }
+        };
+        for (int node = 0; node < 100; node++) {
+            // A permutation of 0..99, so node order differs from key order
+            keys[node] = node * 37 % 100;
+            tree.insert(node);
+        }
+        assertEquals(100, tree.size());
+        for (int node = 0; node < 100; node++) {
+            assertEquals(keys[node], tree.rank(node));
+            assertEquals(node, tree.select(keys[node]));
+        }
+        assertEquals(RankedTree.NIL, tree.select(100));
+        assertEquals(42, tree.lowerBound(node -> Integer.compare(42, keys[node])));
+
+        // Move node 0 (key 0) to the end
+        tree.remove(0);
+        keys[0] = 1000;
+        tree.insert(0);
+        assertEquals(99, tree.rank(0));
+        // 37 * 73 = 2701: node 73 has key 1, now the smallest
+        assertEquals(0, tree.rank(73));
+        tree.remove(73);
+        assertEquals(-1, tree.rank(73));
+        assertEquals(99, tree.size());
+        assertEquals(98, tree.lowerBound(node -> Integer.compare(500, keys[node])));
+    }
+
+    @Test
+    public void parsesQueryTerms() {
+        DeviceQuery query = DeviceQuery.parse("  Tag mac:AC:2 oui:94:08:53 beacon:eddystone rssi:-70 sort:rssi ");
+        assertEquals("tag", query.namePrefix);
+        assertEquals(12, query.addressPrefixBits);
+        assertEquals(0xAC2L << 36, query.addressPrefixLow());
+        assertEquals((0xAC3L << 36) - 1, query.addressPrefixHigh());
+        assertArrayEquals(new long[]{0x940853}, query.ouis);
+        assertEquals(EnumSet.of(Beacon.Type.EDDYSTONE_UID, Beacon.Type.EDDYSTONE_URL, Beacon.Type.EDDYSTONE_TLM),
+                query.beaconTypes);
+        assertEquals(-70, query.minRssi);
+        assertEquals(DeviceQuery.Sort.RSSI, query.sort);
+
+        for (String invalid : new String[]{"mac:XY", "oui:94:08", "beacon:ble", "rssi:loud", "sort:size", "color:red"}) {
+            try {
+                DeviceQuery.parse(invalid);
+                fail(invalid);
+            } catch (IllegalArgumentException expected) {
+                // Shown next to the search field
+            }
+        }
+    }
+
+    @Test
+    public void followsQueryThroughIngestorWithListOperations() {
+        AtomicReference<ScanSnapshot<String>> latest = new AtomicReference<>();
+        ScanIngestor<String> ingestor = new ScanIngestor<>(64, 10, 64, Runnable::run, latest::set);
+        AtomicLong now = new AtomicLong();
+        ingestor.setClock(now::get);
+        ingestor.setNameResolver(device -> device);
+        ingestor.reset();
+        String[] devices = {"alpha", "beta", "gamma", "alps"};
+        for (int i = 0; i < devices.length; i++) {
+            ingestor.offer(devices[i], "00:11:22:33:44:0" + (i + 1), -50, (i + 1) * 1_000_000L, null);
+        }
+        ingestor.drain();
+        ingestor.publish();
+        assertNull(latest.get().view);
+
+        // A new query is a full refresh
+        ingestor.setQuery(DeviceQuery.parse("AL sort:seen"));
+        ingestor.publish();
+        assertEquals(List.of("alps", "alpha"), names(latest.get().view));
+        assertNull(latest.get().viewChanges);
+        assertEquals(4, latest.get().devices.size());
+
+        // Seen again: alpha moves to the top
+        ingestor.offer("alpha", "00:11:22:33:44:01", -50, 5_000_000L, null);
+        ingestor.drain();
+        ingestor.publish();
+        assertEquals(List.of("alpha", "alps"), names(latest.get().view));
+        int[] changes = latest.get().viewChanges;
+        assertArrayEquals(new int[]{DeviceView.OP_MOVE, 1, 0}, Arrays.copyOf(changes, 3));
+
+        // A new match is inserted where it sorts, a non-match changes nothing
+        ingestor.offer("alien", "00:11:22:33:44:05", -50, 6_000_000L, null);
+        ingestor.offer("delta", "00:11:22:33:44:06", -50, 6_000_000L, null);
+        ingestor.drain();
+        ingestor.publish();
+        assertEquals(List.of("alien", "alpha", "alps"), names(latest.get().view));
+        assertArrayEquals(new int[]{DeviceView.OP_INSERT, 0, 0}, latest.get().viewChanges);
+
+        // Address prefixes narrow through the address index
+        ingestor.setQuery(DeviceQuery.parse("mac:00:11:22:33:44:0 sort:name"));
+        ingestor.publish();
+        assertEquals(List.of("alien", "alpha", "alps", "beta", "delta", "gamma"), names(latest.get().view));
+
+        ingestor.setQuery(null);
+        ingestor.publish();
+        assertNull(latest.get().view);
+        assertEquals(6, latest.get().devices.size());
+    }
+}
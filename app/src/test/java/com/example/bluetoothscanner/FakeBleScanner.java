@@ -0,0 +1,36 @@
+package com.example.bluetoothscanner;
+
+import java.util.List;
+
+/**
+ * In-memory {@link BleScanner}: whatever {@link #deliver} is given reaches the callback while a
+ * scan is running. Nothing is filtered "in hardware", so all rules come back as a software matcher.
+ */
+public class FakeBleScanner implements BleScanner<String> {
+    private volatile Callback<String> callback;
+
+    @Override
+    public Session start(List<ScanRule> rules, int scanMode, ScanBatchConfig batching, Callback<String> callback) {
+        this.callback = callback;
+        return new Session(rules.isEmpty() ? null : ScanMatcher.compile(rules), false, batching);
+    }
+
+    @Override
+    public void stop() {
+        callback = null;
+    }
+
+    public boolean isScanning() {
+        return callback != null;
+    }
+
+    /** Returns false if no scan is running. */
+    public boolean deliver(String address, int rssi, long timestampNanos, byte[] record) {
+        Callback<String> target = callback;
+        if (target == null) {
+            return false;
+        }
+        target.onResult(address, address, rssi, SignalEngine.TX_POWER_UNKNOWN, timestampNanos, record);
+        return true;
+    }
+}
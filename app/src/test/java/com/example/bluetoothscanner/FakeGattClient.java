@@ -0,0 +1,220 @@
+package com.example.bluetoothscanner;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-memory {@link GattClient} over a table of characteristic values. Like Android it refuses a
+ * request while another is outstanding; completions arrive on {@code executor} after
+ * {@code latencyMicros}. Notifications are pushed with {@link #pushNotification}.
+ */
+public class FakeGattClient implements GattClient {
+    private final long address;
+    private final ScheduledExecutorService executor;
+    private final long latencyMicros;
+    private final Map<UUID, GattCharacteristicInfo> characteristics = new LinkedHashMap<>();
+    private final Map<UUID, byte[]> values = new LinkedHashMap<>();
+    private final Object lock = new Object();
+    private Listener listener;
+    private boolean busy;
+    private boolean closed;
+    private int mtu = LinkParameters.DEFAULT_MTU;
+    private long writes;
+    private long bytesWritten;
+    private int discoveries;
+    // Handles the caller last learned, from discovery or a restore
+    private final Map<UUID, Integer> knownHandles = new LinkedHashMap<>();
+
+    public FakeGattClient(long address, ScheduledExecutorService executor, long latencyMicros) {
+        this.address = address;
+        this.executor = executor;
+        this.latencyMicros = latencyMicros;
+    }
+
+    public FakeGattClient addCharacteristic(UUID service, UUID uuid, int properties, byte[] value) {
+        synchronized (lock) {
+            characteristics.put(uuid, new GattCharacteristicInfo(service, uuid, properties, characteristics.size() * 2 + 3,
+                    (properties & GattCharacteristicInfo.PROPERTY_NOTIFY) != 0));
+            values.put(uuid, value);
+        }
+        return this;
+    }
+
+    /** "Connects": reports the connection on the executor. */
+    public void connect(Listener listener) {
+        this.listener = listener;
+        executor.execute(() -> listener.onConnectionStateChange(GATT_SUCCESS, true));
+    }
+
+    /** Pushes a notification straight to the listener on the calling thread, like a binder callback. */
+    public void pushNotification(UUID characteristic, byte[] value) {
+        GattCharacteristicInfo info = characteristics.get(characteristic);
+        if (!closed && info != null) {
+            listener.onNotification(characteristic, info.handle, value);
+        }
+    }
+
+    /**
+     * Replaces the attribute table as a firmware update would: every characteristic moves to a
+     * new handle, and the peer indicates Service Changed.
+     */
+    public void changeServices() {
+        synchronized (lock) {
+            for (Map.Entry<UUID, GattCharacteristicInfo> entry : characteristics.entrySet()) {
+                GattCharacteristicInfo old = entry.getValue();
+                entry.setValue(new GattCharacteristicInfo(old.service, old.uuid, old.properties, old.handle + 0x100, old.hasCccd));
+            }
+        }
+        if (!closed && listener != null) {
+            listener.onServiceChanged();
+        }
+    }
+
+    public int discoveries() {
+        synchronized (lock) {
+            return discoveries;
+        }
+    }
+
+    public byte[] value(UUID characteristic) {
+        synchronized (lock) {
+            return values.get(characteristic);
+        }
+    }
+
+    public long writes() {
+        synchronized (lock) {
+            return writes;
+        }
+    }
+
+    public long bytesWritten() {
+        synchronized (lock) {
+            return bytesWritten;
+        }
+    }
+
+    @Override
+    public long address() {
+        return address;
+    }
+
+    @Override
+    public int discoverServices() {
+        return issue(() -> {
+            List<GattCharacteristicInfo> discovered;
+            synchronized (lock) {
+                discoveries++;
+                discovered = new ArrayList<>(characteristics.values());
+                knownHandles.clear();
+                for (GattCharacteristicInfo info : discovered) {
+                    knownHandles.put(info.uuid, info.handle);
+                }
+            }
+            listener.onServicesDiscovered(GATT_SUCCESS, discovered);
+        });
+    }
+
+    /** Accepts any table, like a stack that addresses by handle; stale handles fail at read time. */
+    @Override
+    public boolean restoreServices(List<GattCharacteristicInfo> cached) {
+        synchronized (lock) {
+            knownHandles.clear();
+            for (GattCharacteristicInfo info : cached) {
+                knownHandles.put(info.uuid, info.handle);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int read(UUID characteristic) {
+        if (!characteristics.containsKey(characteristic)) {
+            return GattOperation.ISSUE_FAILED;
+        }
+        return issue(() -> {
+            int status;
+            synchronized (lock) {
+                Integer known = knownHandles.get(characteristic);
+                status = known != null && known == characteristics.get(characteristic).handle
+                        ? GATT_SUCCESS : GATT_INVALID_HANDLE;
+            }
+            listener.onCharacteristicRead(characteristic, status, status == GATT_SUCCESS ? value(characteristic) : null);
+        });
+    }
+
+    @Override
+    public int write(UUID characteristic, byte[] value, int writeType) {
+        if (!characteristics.containsKey(characteristic)) {
+            return GattOperation.ISSUE_FAILED;
+        }
+        byte[] copy = value.clone();
+        return issue(() -> {
+            synchronized (lock) {
+                values.put(characteristic, copy);
+                writes++;
+                bytesWritten += copy.length;
+            }
+            listener.onCharacteristicWrite(characteristic, GATT_SUCCESS);
+        });
+    }
+
+    @Override
+    public int enableNotifications(UUID characteristic) {
+        GattCharacteristicInfo info = characteristics.get(characteristic);
+        if (info == null || !info.hasCccd) {
+            return GattOperation.ISSUE_FAILED;
+        }
+        return issue(() -> listener.onDescriptorWrite(CCCD_UUID, GATT_SUCCESS));
+    }
+
+    @Override
+    public int requestMtu(int requested) {
+        return issue(() -> {
+            mtu = Math.min(requested, LinkNegotiator.PREFERRED_MTU);
+            listener.onMtuChanged(mtu, GATT_SUCCESS);
+        });
+    }
+
+    @Override
+    public int setPreferredPhy(int txPhy, int rxPhy) {
+        return issue(() -> listener.onPhyUpdate(txPhy, rxPhy, GATT_SUCCESS));
+    }
+
+    @Override
+    public int requestConnectionPriority(int priority) {
+        // Android reports nothing back for this one
+        return GattOperation.ISSUED;
+    }
+
+    @Override
+    public void close() {
+        synchronized (lock) {
+            closed = true;
+        }
+    }
+
+    private int issue(Runnable completion) {
+        synchronized (lock) {
+            if (closed || busy) {
+                return GattOperation.ISSUE_FAILED;
+            }
+            busy = true;
+        }
+        executor.schedule(() -> {
+            synchronized (lock) {
+                busy = false;
+                if (closed) {
+                    return;
+                }
+            }
+            completion.run();
+        }, latencyMicros, TimeUnit.MICROSECONDS);
+        return GattOperation.ISSUED;
+    }
+}
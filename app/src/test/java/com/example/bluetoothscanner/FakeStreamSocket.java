@@ -0,0 +1,119 @@
+package com.example.bluetoothscanner;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * In-memory {@link StreamSocket}. Bytes pushed with {@link #feed} are read back in the same
+ * chunks, the way RFCOMM hands out one packet per read; everything written is kept.
+ */
+public class FakeStreamSocket implements StreamSocket {
+    private static final byte[] END = new byte[0];
+
+    private final long address;
+    private final BlockingQueue<byte[]> incoming = new LinkedBlockingQueue<>();
+    private final ByteArrayOutputStream written = new ByteArrayOutputStream();
+    private volatile boolean connected = true;
+
+    private final InputStream in = new InputStream() {
+        private byte[] chunk;
+        private int offset;
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] buffer, int off, int len) throws IOException {
+            if (chunk == null || offset == chunk.length) {
+                try {
+                    chunk = incoming.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted");
+                }
+                offset = 0;
+                if (chunk == END) {
+                    incoming.add(END);
+                    if (!connected) {
+                        throw new IOException("Socket closed");
+                    }
+                    return -1;
+                }
+            }
+            int n = Math.min(len, chunk.length - offset);
+            System.arraycopy(chunk, offset, buffer, off, n);
+            offset += n;
+            return n;
+        }
+    };
+
+    private final OutputStream out = new OutputStream() {
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] buffer, int off, int len) throws IOException {
+            if (!connected) {
+                throw new IOException("Socket closed");
+            }
+            synchronized (written) {
+                written.write(buffer, off, len);
+            }
+        }
+    };
+
+    public FakeStreamSocket(long address) {
+        this.address = address;
+    }
+
+    /** Queues bytes for the reader; the array must not be modified afterwards. */
+    public void feed(byte[] chunk) {
+        incoming.add(chunk);
+    }
+
+    /** The peer closes its side: reads return -1 once the queued bytes are consumed. */
+    public void endOfStream() {
+        incoming.add(END);
+    }
+
+    public byte[] written() {
+        synchronized (written) {
+            return written.toByteArray();
+        }
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return in;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return out;
+    }
+
+    @Override
+    public boolean isConnected() {
+        return connected;
+    }
+
+    @Override
+    public long address() {
+        return address;
+    }
+
+    @Override
+    public void close() {
+        connected = false;
+        incoming.add(END);
+    }
+}
@@ -0,0 +1,173 @@
+package com.example.bluetoothscanner;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class FrameFormatTest {
+    private static final int BLE_FRAGMENT = 20;
+
+    private static byte[] bytes(ByteBuffer frame) {
+        return Arrays.copyOfRange(frame.array(), frame.position(), frame.limit());
+    }
+
+    private static FrameDecoder decoder(List<byte[]> messages) {
+        return new FrameDecoder(512, 4096, (buffer, offset, length) ->
+                messages.add(Arrays.copyOfRange(buffer, offset, offset + length)));
+    }
+
+    @Test
+    public void fragmentsToChunkSizeAndReassembles() {
+        BufferPool pool = new BufferPool(8192, 4);
+        FrameEncoder encoder = new FrameEncoder(pool, 256);
+        byte[] small = "temp=21".getBytes(StandardCharsets.UTF_8);
+        byte[] compressible = new byte[2000];
+        Arrays.fill(compressible, (byte) 'x');
+        byte[] random = new byte[1000];
+        new Random(7).nextBytes(random);
+
+        List<byte[]> messages = new ArrayList<>();
+        FrameDecoder decoder = decoder(messages);
+        int deflatedSize = 0;
+        for (byte[] message : new byte[][]{small, compressible, random}) {
+            ByteBuffer frame = encoder.encode(message, 0, message.length, BLE_FRAGMENT);
+            byte[] encoded = bytes(frame);
+            if (message == compressible) {
+                deflatedSize = encoded.length;
+            } else if (message == random) {
+                // Did not shrink, so sent as is
+                assertEquals(FrameFormat.encodedSize(message.length, BLE_FRAGMENT), encoded.length);
+            }
+            // One fragment per chunk, as BleWritePipeline writes them
+            for (int offset = 0; offset < encoded.length; offset += BLE_FRAGMENT) {
+                int length = Math.min(BLE_FRAGMENT, encoded.length - offset);
+                assertEquals(FrameFormat.SYNC, encoded[offset]);
+                assertEquals(length - FrameFormat.OVERHEAD, encoded[offset + 4] & 0xFF);
+                decoder.feed(encoded, offset, length);
+            }
+            pool.release(frame);
+        }
+        assertTrue(deflatedSize < compressible.length / 4);
+        assertEquals(3, messages.size());
+        assertArrayEquals(small, messages.get(0));
+        assertArrayEquals(compressible, messages.get(1));
+        assertArrayEquals(random, messages.get(2));
+        assertEquals(0, decoder.droppedMessages());
+        // Every buffer went back to the pool and was reused
+        assertEquals(1, pool.allocated());
+    }
+
+    @Test
+    public void resyncsAfterCorruptionAndDropsInterruptedMessages() {
+        BufferPool pool = new BufferPool(4096, 4);
+        FrameEncoder encoder = new FrameEncoder(pool, Integer.MAX_VALUE);
+        byte[][] sent = new byte[4][];
+        byte[][] encoded = new byte[4][];
+        for (int i = 0; i < sent.length; i++) {
+            sent[i] = ("message " + i + " with enough text for a few fragments").getBytes(StandardCharsets.UTF_8);
+            encoded[i] = bytes(encoder.encode(sent[i], 0, sent[i].length, BLE_FRAGMENT));
+        }
+        // Message 1 gets a flipped payload bit, message 2 loses its second fragment, garbage comes first
+        encoded[1][30] ^= 1;
+        byte[] stream = new byte[5 + encoded[0].length + encoded[1].length + encoded[2].length - BLE_FRAGMENT + encoded[3].length];
+        byte[] garbage = {FrameFormat.SYNC, 1, 0, 0, FrameFormat.SYNC};
+        int position = 0;
+        for (byte[] part : new byte[][]{garbage, encoded[0], encoded[1]}) {
+            System.arraycopy(part, 0, stream, position, part.length);
+            position += part.length;
+        }
+        System.arraycopy(encoded[2], 0, stream, position, BLE_FRAGMENT);
+        position += BLE_FRAGMENT;
+        System.arraycopy(encoded[2], 2 * BLE_FRAGMENT, stream, position, encoded[2].length - 2 * BLE_FRAGMENT);
+        position += encoded[2].length - 2 * BLE_FRAGMENT;
+        System.arraycopy(encoded[3], 0, stream, position, encoded[3].length);
+
+        List<byte[]> messages = new ArrayList<>();
+        FrameDecoder decoder = decoder(messages);
+        // Stream-style, in reads that split fragments anywhere
+        Random random = new Random(3);
+        for (int offset = 0; offset < stream.length; ) {
+            int length = Math.min(1 + random.nextInt(30), stream.length - offset);
+            decoder.feed(stream, offset, length);
+            offset += length;
+        }
+        assertEquals(2, messages.size());
+        assertArrayEquals(sent[0], messages.get(0));
+        assertArrayEquals(sent[3], messages.get(1));
+        assertEquals(2, decoder.droppedMessages());
+        // The corrupt fragment of message 1 and the missing one of message 2
+        assertEquals(2, decoder.lostFragments());
+        assertTrue(decoder.rejected() > 0);
+    }
+
+    @Test
+    public void closedCodersStopCompressing() {
+        BufferPool pool = new BufferPool(8192, 4);
+        FrameEncoder encoder = new FrameEncoder(pool, 256);
+        byte[] compressible = new byte[2000];
+        Arrays.fill(compressible, (byte) 'x');
+        List<byte[]> messages = new ArrayList<>();
+        FrameDecoder decoder = decoder(messages);
+
+        byte[] deflated = bytes(encoder.encode(compressible, 0, compressible.length, 512));
+        encoder.close();
+        encoder.close();
+        byte[] stored = bytes(encoder.encode(compressible, 0, compressible.length, 512));
+        assertEquals(FrameFormat.encodedSize(compressible.length, 512), stored.length);
+
+        decoder.close();
+        decoder.feed(deflated, 0, deflated.length);
+        decoder.feed(stored, 0, stored.length);
+        // The deflated copy cannot be inflated any more; the stored one still gets through
+        assertEquals(1, decoder.droppedMessages());
+        assertEquals(1, messages.size());
+        assertArrayEquals(compressible, messages.get(0));
+    }
+
+    @Test
+    public void framedRfcommSessionRoundTrips() throws Exception {
+        FakeStreamSocket socket = new FakeStreamSocket(1);
+        BufferPool pool = new BufferPool(4096, 4);
+        List<String> lines = new ArrayList<>();
+        RfcommSession session = new RfcommSession(socket, null, new RfcommWriter.Listener() {
+            @Override
+            public void onSent(String message, long latencyNanos) {
+            }
+
+            @Override
+            public void onError(IOException e) {
+            }
+        }, new FrameEncoder(pool, 64));
+        byte[] telemetry = {0, 1, 2, '\n', (byte) 0xFF};
+        assertTrue(session.send("Hello from Android!", 1, TimeUnit.SECONDS));
+        assertTrue(session.send(telemetry, 0, telemetry.length, 1, TimeUnit.SECONDS));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (session.writer().messagesSent() < 2 && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        session.close();
+
+        RfcommReceiver receiver = new RfcommReceiver(7, 1024, 64,
+                (buffer, offset, length, complete) -> lines.add(new String(buffer, offset, length, StandardCharsets.ISO_8859_1)));
+        receiver.setFramed(true);
+        ByteArrayInputStream in = new ByteArrayInputStream(socket.written());
+        while (receiver.readFrom(in) != -1) {
+            // drain
+        }
+        assertEquals(2, receiver.decoder().messages());
+        assertEquals("Hello from Android!", lines.get(0));
+        // A newline inside a binary message splits its display line, nothing more
+        assertEquals(new String(telemetry, 0, 3, StandardCharsets.ISO_8859_1), lines.get(1));
+        assertEquals(List.of("\u00FF"), lines.subList(2, lines.size()));
+    }
+}
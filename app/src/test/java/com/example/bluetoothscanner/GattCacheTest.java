@@ -0,0 +1,78 @@
+package com.example.bluetoothscanner;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class GattCacheTest {
+    private static final UUID SERVICE = UUID.fromString("0000180f-0000-1000-8000-00805f9b34fb");
+    private static final UUID LEVEL = UUID.fromString("00002a19-0000-1000-8000-00805f9b34fb");
+    private static final UUID MEASUREMENT = UUID.fromString("00002a37-0000-1000-8000-00805f9b34fb");
+    private static final List<GattCharacteristicInfo> TABLE = List.of(
+            new GattCharacteristicInfo(SERVICE, LEVEL, GattCharacteristicInfo.PROPERTY_READ, 3, false),
+            new GattCharacteristicInfo(SERVICE, MEASUREMENT, GattCharacteristicInfo.PROPERTY_NOTIFY, 5, true));
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void persistsTablesSubscriptionsAndValues() throws Exception {
+        File file = new File(folder.getRoot(), "gatt-cache.bin");
+        GattCache cache = new GattCache(file);
+        cache.load();
+        assertFalse(cache.update(1, TABLE));
+        cache.recordSubscription(1, MEASUREMENT);
+        cache.recordValue(1, LEVEL, new byte[]{87});
+        cache.save();
+
+        GattCache reloaded = new GattCache(file);
+        reloaded.load();
+        GattCache.Entry entry = reloaded.get(1);
+        assertEquals(2, entry.characteristics.size());
+        assertEquals(5, entry.characteristics.get(1).handle);
+        assertTrue(entry.characteristics.get(1).hasCccd);
+        assertTrue(entry.isSubscribed(MEASUREMENT));
+        assertFalse(entry.isSubscribed(LEVEL));
+        assertArrayEquals(new byte[]{87}, entry.value(LEVEL));
+        assertNull(entry.value(MEASUREMENT));
+        assertNull(reloaded.get(2));
+    }
+
+    @Test
+    public void dropsEntriesThatNoLongerMatch() {
+        GattCache cache = new GattCache(null);
+        cache.update(1, TABLE);
+        cache.recordValue(1, LEVEL, new byte[]{1});
+        assertTrue(cache.update(1, List.copyOf(TABLE)));
+        assertArrayEquals(new byte[]{1}, cache.get(1).value(LEVEL));
+
+        List<GattCharacteristicInfo> moved = List.of(
+                new GattCharacteristicInfo(SERVICE, LEVEL, GattCharacteristicInfo.PROPERTY_READ, 9, false));
+        assertFalse(cache.update(1, moved));
+        assertNull(cache.get(1).value(LEVEL));
+        cache.invalidate(1);
+        assertNull(cache.get(1));
+        assertEquals(2, cache.invalidations());
+    }
+
+    @Test
+    public void ignoresAFileOfAnotherVersion() throws Exception {
+        File file = new File(folder.getRoot(), "gatt-cache.bin");
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+            out.writeInt(GattCache.MAGIC);
+            out.writeShort(GattCache.VERSION + 1);
+            out.writeInt(1);
+        }
+        GattCache cache = new GattCache(file);
+        cache.load();
+        assertEquals(0, cache.size());
+    }
+}
@@ -0,0 +1,225 @@
+package com.example.bluetoothscanner;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class GattConnectionManagerTest {
+    private static final UUID SERVICE = UUID.randomUUID();
+    private static final UUID LEVEL = UUID.randomUUID();
+    private static final UUID MEASUREMENT = UUID.randomUUID();
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+    // Stands in for the binder threads the platform calls back on
+    private final ScheduledExecutorService stack = Executors.newSingleThreadScheduledExecutor();
+    private final AtomicInteger open = new AtomicInteger();
+    private final AtomicInteger maxOpen = new AtomicInteger();
+    private final Map<Long, FakeGattClient> clients = new ConcurrentHashMap<>();
+    private final List<FakeGattClient> allClients = new CopyOnWriteArrayList<>();
+    // Set to move every handle, as a firmware update would
+    private volatile boolean updatedFirmware;
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+        stack.shutdownNow();
+    }
+
+    private FakeGattClient connect(long address, GattClient.Listener listener) {
+        FakeGattClient client = new FakeGattClient(address, stack, 200) {
+            private boolean closed;
+
+            @Override
+            public void close() {
+                super.close();
+                if (!closed) {
+                    closed = true;
+                    open.decrementAndGet();
+                }
+            }
+        };
+        if (updatedFirmware) {
+            client.addCharacteristic(SERVICE, UUID.randomUUID(), GattCharacteristicInfo.PROPERTY_READ, new byte[0]);
+        }
+        client.addCharacteristic(SERVICE, LEVEL, GattCharacteristicInfo.PROPERTY_READ, new byte[]{(byte) address});
+        client.addCharacteristic(SERVICE, MEASUREMENT, GattCharacteristicInfo.PROPERTY_NOTIFY, new byte[0]);
+        maxOpen.accumulateAndGet(open.incrementAndGet(), Math::max);
+        clients.put(address, client);
+        allClients.add(client);
+        client.connect(listener);
+        return client;
+    }
+
+    @Test
+    public void rotatesMoreDevicesThanSlots() throws Exception {
+        int devices = 6;
+        CountDownLatch polled = new CountDownLatch(devices * 3);
+        Map<Long, AtomicInteger> reads = new ConcurrentHashMap<>();
+        GattConnectionManager manager = new GattConnectionManager(this::connect, executor, 2,
+                new GattConnectionManager.Listener() {
+                    @Override
+                    public void onRead(long address, GattCharacteristicInfo characteristic, byte[] value) {
+                        assertEquals(LEVEL, characteristic.uuid);
+                        assertEquals((byte) address, value[0]);
+                        reads.computeIfAbsent(address, a -> new AtomicInteger()).incrementAndGet();
+                    }
+
+                    @Override
+                    public void onNotification(long address, UUID characteristic, int handle, byte[] value) {
+                    }
+
+                    @Override
+                    public void onPollComplete(long address, int status, GattConnectionManager.Stats stats) {
+                        if (status == GattClient.GATT_SUCCESS && stats.connected <= 2) {
+                            polled.countDown();
+                        }
+                    }
+                });
+        for (long address = 1; address <= devices; address++) {
+            manager.add(address, GattConnectionManager.PollSpec.readAll(0));
+        }
+
+        assertTrue(polled.await(5, TimeUnit.SECONDS));
+        manager.clear();
+        GattConnectionManager.Stats stats = manager.stats().get();
+        assertEquals(2, maxOpen.get());
+        assertEquals(0, stats.connected);
+        assertTrue(stats.reads >= devices * 3);
+        assertTrue(stats.readsPerSecond > 0);
+        assertTrue(stats.links.isEmpty());
+        // Round robin: every device got its turns, not just the first two
+        for (long address = 1; address <= devices; address++) {
+            assertTrue(reads.get(address).get() >= 2);
+        }
+    }
+
+    @Test
+    public void holdsSubscriptionsAndRecordsRoundTrips() throws Exception {
+        List<String> events = new CopyOnWriteArrayList<>();
+        CountDownLatch subscribed = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        GattConnectionManager manager = new GattConnectionManager(this::connect, executor, 1,
+                new GattConnectionManager.Listener() {
+                    @Override
+                    public void onRead(long address, GattCharacteristicInfo characteristic, byte[] value) {
+                        events.add("read");
+                        subscribed.countDown();
+                    }
+
+                    @Override
+                    public void onNotification(long address, UUID characteristic, int handle, byte[] value) {
+                        events.add("notify " + value[0]);
+                    }
+
+                    @Override
+                    public void onPollComplete(long address, int status, GattConnectionManager.Stats stats) {
+                        events.add("done " + status);
+                        done.countDown();
+                    }
+                });
+        manager.add(7, new GattConnectionManager.PollSpec(List.of(LEVEL), List.of(MEASUREMENT), 200, 60_000));
+
+        assertTrue(subscribed.await(1, TimeUnit.SECONDS));
+        clients.get(7L).pushNotification(MEASUREMENT, new byte[]{42});
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        clients.get(7L).pushNotification(MEASUREMENT, new byte[]{43}); // after release, dropped
+        assertEquals(List.of("read", "notify 42", "done 0"), events);
+
+        GattLink.Stats link = manager.stats().get().links.get(0);
+        assertEquals(GattLink.State.IDLE, link.state);
+        assertEquals(1, link.polls);
+        assertEquals(1, link.reads);
+        assertTrue(link.lastRttNanos >= TimeUnit.MICROSECONDS.toNanos(200));
+        assertEquals(link.lastRttNanos, link.meanRttNanos);
+        assertTrue(link.connectNanos > 0);
+        assertEquals(0, open.get());
+    }
+
+    @Test
+    public void reconnectsFromTheCacheUntilHandlesMove() throws Exception {
+        List<Integer> statuses = new CopyOnWriteArrayList<>();
+        CountDownLatch[] polled = {new CountDownLatch(2)};
+        GattCache cache = new GattCache(null);
+        GattConnectionManager manager = new GattConnectionManager(this::connect, executor, 1,
+                new GattConnectionManager.Listener() {
+                    @Override
+                    public void onRead(long address, GattCharacteristicInfo characteristic, byte[] value) {
+                    }
+
+                    @Override
+                    public void onNotification(long address, UUID characteristic, int handle, byte[] value) {
+                    }
+
+                    @Override
+                    public void onPollComplete(long address, int status, GattConnectionManager.Stats stats) {
+                        statuses.add(status);
+                        polled[0].countDown();
+                    }
+                });
+        manager.setCache(cache);
+        manager.add(3, GattConnectionManager.PollSpec.readAll(0));
+        assertTrue(polled[0].await(1, TimeUnit.SECONDS));
+        manager.remove(3);
+
+        // Only the first connection discovered; the second read straight away
+        assertEquals(1, allClients.get(0).discoveries());
+        assertEquals(0, allClients.get(1).discoveries());
+        assertTrue(manager.stats().get().links.isEmpty());
+        assertArrayEquals(new byte[]{3}, cache.get(3).value(LEVEL));
+
+        // After the update the cached handle fails once, then a fresh discovery recovers
+        updatedFirmware = true;
+        statuses.clear();
+        allClients.clear();
+        polled[0] = new CountDownLatch(2);
+        manager.add(3, GattConnectionManager.PollSpec.readAll(0));
+        assertTrue(polled[0].await(1, TimeUnit.SECONDS));
+        manager.remove(3);
+        assertEquals(List.of(GattClient.GATT_INVALID_HANDLE, GattClient.GATT_SUCCESS), statuses.subList(0, 2));
+        assertEquals(0, allClients.get(0).discoveries());
+        assertEquals(1, allClients.get(1).discoveries());
+        assertEquals(1, cache.invalidations());
+    }
+
+    @Test
+    public void timesOutAPeerThatNeverConnects() throws Exception {
+        CountDownLatch done = new CountDownLatch(1);
+        int[] result = new int[1];
+        GattConnectionManager manager = new GattConnectionManager((address, listener) -> new FakeGattClient(address, stack, 0),
+                executor, 1, new GattConnectionManager.Listener() {
+                    @Override
+                    public void onRead(long address, GattCharacteristicInfo characteristic, byte[] value) {
+                    }
+
+                    @Override
+                    public void onNotification(long address, UUID characteristic, int handle, byte[] value) {
+                    }
+
+                    @Override
+                    public void onPollComplete(long address, int status, GattConnectionManager.Stats stats) {
+                        result[0] = status;
+                        done.countDown();
+                    }
+                });
+        manager.setConnectTimeout(50, TimeUnit.MILLISECONDS);
+        manager.add(1, GattConnectionManager.PollSpec.readAll(60_000));
+
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        assertEquals(GattOperation.STATUS_TIMEOUT, result[0]);
+        GattLink.Stats link = manager.stats().get().links.get(0);
+        assertEquals(1, link.failures);
+        assertEquals(0, link.reads);
+    }
+}
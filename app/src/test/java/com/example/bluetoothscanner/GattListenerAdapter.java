@@ -0,0 +1,43 @@
+package com.example.bluetoothscanner;
+
+import java.util.List;
+import java.util.UUID;
+
+/** {@link GattClient.Listener} with empty methods, for tests that only care about a few callbacks. */
+public class GattListenerAdapter implements GattClient.Listener {
+    @Override
+    public void onConnectionStateChange(int status, boolean connected) {
+    }
+
+    @Override
+    public void onServicesDiscovered(int status, List<GattCharacteristicInfo> characteristics) {
+    }
+
+    @Override
+    public void onCharacteristicRead(UUID characteristic, int status, byte[] value) {
+    }
+
+    @Override
+    public void onCharacteristicWrite(UUID characteristic, int status) {
+    }
+
+    @Override
+    public void onDescriptorWrite(UUID descriptor, int status) {
+    }
+
+    @Override
+    public void onNotification(UUID characteristic, int handle, byte[] value) {
+    }
+
+    @Override
+    public void onMtuChanged(int mtu, int status) {
+    }
+
+    @Override
+    public void onPhyUpdate(int txPhy, int rxPhy, int status) {
+    }
+
+    @Override
+    public void onServiceChanged() {
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.bluetoothscanner;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class GattOperationQueueTest {
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+    private final GattOperationQueue queue = new GattOperationQueue(executor);
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void issuesNextOperationOnlyAfterCompletion() throws InterruptedException {
+        List<String> events = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(2);
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+        queue.enqueue(new GattOperation(GattOperation.Type.READ, first, () -> {
+            events.add("issue first");
+            return GattOperation.ISSUED;
+        }, (op, status, value) -> {
+            events.add("done first " + status);
+            done.countDown();
+        }, 1000, 1));
+        queue.enqueue(new GattOperation(GattOperation.Type.READ, second, () -> {
+            events.add("issue second");
+            return GattOperation.ISSUED;
+        }, (op, status, value) -> {
+            events.add("done second " + status);
+            done.countDown();
+        }, 1000, 1));
+
+        Thread.sleep(50);
+        assertEquals(List.of("issue first"), events);
+        queue.onComplete(GattOperation.Type.READ, second, 0, null); // not in flight, ignored
+        queue.onComplete(GattOperation.Type.READ, first, 0, null);
+        Thread.sleep(50);
+        queue.onComplete(GattOperation.Type.READ, second, 0, null);
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        assertEquals(List.of("issue first", "done first 0", "issue second", "done second 0"), events);
+    }
+
+    @Test
+    public void retriesTimeoutsAndIssueFailures() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(2);
+        int[] issues = new int[2];
+        int[] statuses = new int[2];
+        queue.enqueue(new GattOperation(GattOperation.Type.MTU, null, () -> {
+            issues[0]++;
+            return GattOperation.ISSUED;
+        }, (op, status, value) -> {
+            statuses[0] = status;
+            done.countDown();
+        }, 20, 3));
+        queue.enqueue(new GattOperation(GattOperation.Type.WRITE, null, () -> {
+            issues[1]++;
+            return issues[1] < 3 ? GattOperation.ISSUE_FAILED : GattOperation.ISSUED;
+        }, (op, status, value) -> {
+            statuses[1] = status;
+            done.countDown();
+        }, 1000, 3));
+
+        Thread.sleep(300);
+        queue.onComplete(GattOperation.Type.WRITE, null, 0, null);
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        assertEquals(3, issues[0]);
+        assertEquals(GattOperation.STATUS_TIMEOUT, statuses[0]);
+        assertEquals(3, issues[1]);
+        assertEquals(0, statuses[1]);
+    }
+}
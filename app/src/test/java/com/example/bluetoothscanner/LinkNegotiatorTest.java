@@ -0,0 +1,98 @@
+package com.example.bluetoothscanner;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class LinkNegotiatorTest {
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+    private final FakeLinkControl control = new FakeLinkControl();
+    private final LinkNegotiator negotiator = new LinkNegotiator(new GattOperationQueue(executor), control);
+    private final LinkedBlockingQueue<LinkParameters> negotiated = new LinkedBlockingQueue<>();
+
+    private static class FakeLinkControl implements LinkNegotiator.LinkControl {
+        final List<String> requests = new CopyOnWriteArrayList<>();
+
+        @Override
+        public int requestMtu(int mtu) {
+            requests.add("mtu " + mtu);
+            return GattOperation.ISSUED;
+        }
+
+        @Override
+        public int setPreferredPhy(int txPhy, int rxPhy) {
+            requests.add("phy " + txPhy + "/" + rxPhy);
+            return GattOperation.ISSUED;
+        }
+
+        @Override
+        public int requestConnectionPriority(int priority) {
+            requests.add("priority " + priority);
+            return GattOperation.ISSUED;
+        }
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void recordsNegotiatedMtuAndPhy() throws InterruptedException {
+        negotiator.negotiate(LinkParameters.PHY_LE_2M, negotiated::add);
+        // Callbacks are queued behind the requests, as the stack would deliver them
+        negotiator.onMtuChanged(247, 0);
+        negotiator.onPhyUpdate(LinkParameters.PHY_LE_2M, LinkParameters.PHY_LE_2M, 0);
+
+        LinkParameters parameters = negotiated.poll(1, TimeUnit.SECONDS);
+        assertNotNull(parameters);
+        assertEquals(247, parameters.mtu);
+        assertEquals(244, parameters.maxAttributePayload());
+        assertEquals(LinkParameters.PHY_LE_2M, parameters.txPhy);
+        assertEquals(LinkParameters.PHY_LE_2M, parameters.rxPhy);
+        assertSame(parameters, negotiator.parameters());
+        assertEquals(List.of("mtu " + LinkNegotiator.PREFERRED_MTU, "phy 2/2"), control.requests);
+    }
+
+    @Test
+    public void failedMtuAndMissingPhyCallbackStillFinish() throws InterruptedException {
+        long start = System.nanoTime();
+        negotiator.negotiate(LinkParameters.PHY_LE_2M, negotiated::add);
+        negotiator.onMtuChanged(LinkNegotiator.PREFERRED_MTU, 133);
+        // No onPhyUpdate: the PHY request times out on its own
+
+        LinkParameters parameters = negotiated.poll(2, TimeUnit.SECONDS);
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertNotNull(parameters);
+        assertEquals(LinkParameters.DEFAULT_MTU, parameters.mtu);
+        assertEquals(LinkParameters.PHY_LE_1M, parameters.txPhy);
+        assertTrue(elapsedMillis >= LinkNegotiator.PHY_TIMEOUT_MILLIS);
+        assertTrue(elapsedMillis < GattOperations.DEFAULT_TIMEOUT_MILLIS);
+        // Not retried
+        assertEquals(List.of("mtu " + LinkNegotiator.PREFERRED_MTU, "phy 2/2"), control.requests);
+    }
+
+    @Test
+    public void nestedBulkTransfersRaisePriorityOnce() {
+        negotiator.beginBulkTransfer();
+        negotiator.beginBulkTransfer();
+        assertEquals(LinkParameters.PRIORITY_HIGH, negotiator.parameters().connectionPriority);
+        negotiator.endBulkTransfer();
+        assertEquals(LinkParameters.PRIORITY_HIGH, negotiator.parameters().connectionPriority);
+        negotiator.endBulkTransfer();
+        // Unbalanced ends are ignored
+        negotiator.endBulkTransfer();
+
+        assertEquals(LinkParameters.PRIORITY_BALANCED, negotiator.parameters().connectionPriority);
+        assertEquals(List.of("priority " + LinkParameters.PRIORITY_HIGH, "priority " + LinkParameters.PRIORITY_BALANCED),
+                control.requests);
+    }
+}
@@ -0,0 +1,167 @@
+package com.example.bluetoothscanner;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives the fake transports with synthetic or recorded traffic at a target rate, on the
+ * calling thread. Events are paced against the start time rather than each other, so a slow
+ * consumer shows up as lag instead of silently lowering the rate. Every method returns the
+ * number of events actually delivered.
+ */
+public class LoadGenerator {
+    private static final long SPIN_THRESHOLD_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private final Random random;
+
+    public LoadGenerator(long seed) {
+        this.random = new Random(seed);
+    }
+
+    /**
+     * {@code advertisers} devices advertising round-robin at a combined {@code advertsPerSecond}.
+     * Each device has a fixed record (flags, a name and manufacturer data) and a jittered RSSI.
+     */
+    public long advertise(FakeBleScanner scanner, int advertisers, int advertsPerSecond, long durationMillis) {
+        String[] addresses = new String[advertisers];
+        byte[][] records = new byte[advertisers][];
+        for (int i = 0; i < advertisers; i++) {
+            long address = 0xC0_00_00_00_00_00L | (random.nextLong() & 0x00_FF_FF_FF_FF_FFL);
+            addresses[i] = BluetoothAddress.format(address);
+            records[i] = advertisingRecord(i);
+        }
+        long total = advertsPerSecond * durationMillis / 1000;
+        long period = 1_000_000_000L / advertsPerSecond;
+        long start = System.nanoTime();
+        long delivered = 0;
+        for (long n = 0; n < total; n++) {
+            long now = awaitDue(start + n * period);
+            int device = (int) (n % advertisers);
+            if (scanner.deliver(addresses[device], -50 - random.nextInt(40), now, records[device])) {
+                delivered++;
+            }
+        }
+        return delivered;
+    }
+
+    /** {@code bursts} bursts of {@code burstSize} back-to-back notifications, {@code intervalMillis} apart. */
+    public long notificationBursts(FakeGattClient client, UUID characteristic, int bursts, int burstSize,
+                                   long intervalMillis, int valueLength) {
+        byte[] value = new byte[valueLength];
+        long start = System.nanoTime();
+        long delivered = 0;
+        for (int burst = 0; burst < bursts; burst++) {
+            awaitDue(start + TimeUnit.MILLISECONDS.toNanos(intervalMillis) * burst);
+            for (int i = 0; i < burstSize; i++) {
+                // The stack hands out a fresh array per notification
+                value = value.clone();
+                value[0] = (byte) i;
+                client.pushNotification(characteristic, value);
+                delivered++;
+            }
+        }
+        return delivered;
+    }
+
+    /**
+     * Streams {@code totalBytes} in chunks of up to {@code chunkSize} at {@code bytesPerSecond}; each
+     * chunk's send time is shifted by up to {@code jitter} (0..1) of its period. Ends the stream when done.
+     */
+    public long stream(FakeStreamSocket socket, long totalBytes, int chunkSize, long bytesPerSecond, double jitter) {
+        long start = System.nanoTime();
+        long sent = 0;
+        long chunks = 0;
+        while (sent < totalBytes) {
+            int length = (int) Math.min(chunkSize, totalBytes - sent);
+            long due = start + sent * 1_000_000_000L / bytesPerSecond;
+            long period = length * 1_000_000_000L / bytesPerSecond;
+            awaitDue(due + (long) ((random.nextDouble() * 2 - 1) * jitter * period));
+            byte[] chunk = new byte[length];
+            for (int i = 0; i < length; i++) {
+                long position = sent + i;
+                chunk[i] = position % 64 == 63 ? (byte) '\n' : (byte) ('a' + position % 26);
+            }
+            socket.feed(chunk);
+            sent += length;
+            chunks++;
+        }
+        socket.endOfStream();
+        return chunks;
+    }
+
+    /**
+     * Replays captured advertisements, notifications and received RFCOMM bytes with their
+     * original spacing divided by {@code speed}; any target may be null to skip its records.
+     */
+    public long replay(File[] captures, FakeBleScanner scanner, FakeGattClient client, FakeStreamSocket socket,
+                       double speed) throws IOException {
+        long start = System.nanoTime();
+        long firstMicros = -1;
+        long delivered = 0;
+        for (File capture : captures) {
+            try (CaptureReader reader = new CaptureReader(capture)) {
+                while (reader.next()) {
+                    if (firstMicros < 0) {
+                        firstMicros = reader.timestampMicros;
+                    }
+                    long now = awaitDue(start + (long) ((reader.timestampMicros - firstMicros) * 1000 / speed));
+                    byte[] payload = Arrays.copyOf(reader.payload(), reader.length);
+                    if (reader.type == CaptureFormat.TYPE_ADVERTISEMENT && scanner != null) {
+                        scanner.deliver(BluetoothAddress.format(reader.address), reader.rssi, now, payload);
+                    } else if (reader.type == CaptureFormat.TYPE_GATT_NOTIFICATION && client != null) {
+                        client.pushNotification(handleToUuid(reader.channelId), payload);
+                    } else if (reader.type == CaptureFormat.TYPE_RFCOMM_RX && socket != null) {
+                        socket.feed(payload);
+                    } else {
+                        continue;
+                    }
+                    delivered++;
+                }
+            }
+        }
+        return delivered;
+    }
+
+    /** UUID a replayed notification is delivered under; captures only keep the handle. */
+    public static UUID handleToUuid(int handle) {
+        return new UUID(((long) handle << 32) | 0x1000L, 0x800000805f9b34fbL);
+    }
+
+    static byte[] advertisingRecord(int index) {
+        byte[] name = String.format("dev-%05d", index).getBytes();
+        byte[] record = new byte[3 + 2 + name.length + 6];
+        int offset = 0;
+        record[offset++] = 2;
+        record[offset++] = 0x01; // flags
+        record[offset++] = 0x06;
+        record[offset++] = (byte) (1 + name.length);
+        record[offset++] = ScanMatcher.AD_NAME_COMPLETE;
+        System.arraycopy(name, 0, record, offset, name.length);
+        offset += name.length;
+        record[offset++] = 5;
+        record[offset++] = (byte) ScanMatcher.AD_MANUFACTURER;
+        record[offset++] = (byte) 0xFF;
+        record[offset++] = (byte) 0xFF;
+        record[offset++] = (byte) index;
+        record[offset] = (byte) (index >>> 8);
+        return record;
+    }
+
+    private static long awaitDue(long due) {
+        long now;
+        while ((now = System.nanoTime()) < due) {
+            long wait = due - now;
+            if (wait > SPIN_THRESHOLD_NANOS) {
+                LockSupport.parkNanos(wait - SPIN_THRESHOLD_NANOS);
+            } else {
+                Thread.onSpinWait();
+            }
+        }
+        return now;
+    }
+}
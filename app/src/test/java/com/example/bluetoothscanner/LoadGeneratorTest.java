@@ -0,0 +1,151 @@
+package com.example.bluetoothscanner;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class LoadGeneratorTest {
+    private static final UUID SERVICE = UUID.fromString("0000180d-0000-1000-8000-00805f9b34fb");
+    private static final UUID HEART_RATE = UUID.fromString("00002a37-0000-1000-8000-00805f9b34fb");
+
+    /** Fails the test on its own thread with what a callback or reader thread recorded. */
+    private static void check(AtomicReference<Throwable> failure) {
+        Throwable thrown = failure.get();
+        if (thrown != null) {
+            throw new AssertionError(thrown);
+        }
+    }
+
+    @Test
+    public void ingestsThousandsOfAdvertisersAtTargetRate() throws Exception {
+        AtomicReference<ScanSnapshot<String>> latest = new AtomicReference<>();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        ScanIngestor<String> ingestor = new ScanIngestor<>(4096, 50, 256, Runnable::run, latest::set);
+        FakeBleScanner scanner = new FakeBleScanner();
+        ingestor.start();
+        try {
+            BleScanner.Session session = scanner.start(Collections.emptyList(), BleScanner.SCAN_MODE_LOW_LATENCY, ScanBatchConfig.PER_RESULT, new BleScanner.Callback<String>() {
+                @Override
+                public void onResult(String device, String address, int rssi, int txPower, long timestampNanos, byte[] record) {
+                    ingestor.offer(device, address, rssi, txPower, timestampNanos, record);
+                }
+
+                @Override
+                public void onScanFailed(int errorCode) {
+                    failure.compareAndSet(null, new AssertionError("scan failed " + errorCode));
+                }
+            });
+            assertNull(session.softwareMatcher);
+            long delivered = new LoadGenerator(1).advertise(scanner, 2000, 20_000, 500);
+            assertEquals(10_000, delivered);
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (latest.get() == null || latest.get().sightings + latest.get().dropped < delivered) {
+                assertTrue(System.nanoTime() < deadline);
+                Thread.sleep(10);
+            }
+        } finally {
+            ingestor.stop();
+        }
+        check(failure);
+        ScanSnapshot<String> snapshot = latest.get();
+        assertEquals(0, snapshot.dropped);
+        assertEquals(2000, snapshot.devices.size());
+    }
+
+    @Test
+    public void notificationBurstsReachTheSinkThroughTheQueue() throws Exception {
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+        try {
+            GattOperationQueue queue = new GattOperationQueue(executor);
+            NotificationSink sink = new NotificationSink(256);
+            FakeGattClient client = new FakeGattClient(1, executor, 200)
+                    .addCharacteristic(SERVICE, HEART_RATE, GattCharacteristicInfo.PROPERTY_NOTIFY, new byte[]{0});
+            CountDownLatch subscribed = new CountDownLatch(1);
+            client.connect(new GattListenerAdapter() {
+                @Override
+                public void onConnectionStateChange(int status, boolean connected) {
+                    client.discoverServices();
+                }
+
+                @Override
+                public void onServicesDiscovered(int status, List<GattCharacteristicInfo> characteristics) {
+                    for (GattCharacteristicInfo characteristic : characteristics) {
+                        sink.register(characteristic.uuid);
+                        queue.enqueue(GattOperations.enableNotifications(client, characteristic.uuid,
+                                (operation, result, value) -> subscribed.countDown()));
+                    }
+                }
+
+                @Override
+                public void onDescriptorWrite(UUID descriptor, int status) {
+                    queue.onComplete(GattOperation.Type.DESCRIPTOR_WRITE, descriptor, status, null);
+                }
+
+                @Override
+                public void onNotification(UUID characteristic, int handle, byte[] value) {
+                    sink.offer(characteristic, value);
+                }
+            });
+            assertTrue(subscribed.await(5, TimeUnit.SECONDS));
+
+            long delivered = new LoadGenerator(2).notificationBursts(client, HEART_RATE, 10, 200, 5, 20);
+            long[] counts = new long[2];
+            sink.drain(System.nanoTime(), (characteristic, value, length, stats) -> {
+                counts[0] = stats.notifications;
+                counts[1] = stats.dropped;
+            });
+            assertEquals(2000, delivered);
+            assertEquals(2000, counts[0]);
+            // Nothing drains during a burst, so everything past the ring's 256 slots is dropped and counted
+            assertEquals(2000 - 256, counts[1]);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void rfcommStreamWithJitterArrivesIntact() throws Exception {
+        FakeStreamSocket socket = new FakeStreamSocket(2);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        RfcommReceiver receiver = new RfcommReceiver((buffer, offset, length, complete) -> { });
+        RfcommSession session = new RfcommSession(socket, receiver, new RfcommWriter.Listener() {
+            @Override
+            public void onSent(String message, long latencyNanos) {
+            }
+
+            @Override
+            public void onError(IOException e) {
+                failure.compareAndSet(null, e);
+            }
+        });
+        Thread reader = new Thread(() -> {
+            try {
+                session.run();
+            } catch (IOException | RuntimeException e) {
+                failure.compareAndSet(null, e);
+            }
+        });
+        reader.start();
+        long total = 1 << 20;
+        new LoadGenerator(3).stream(socket, total, 990, 20_000_000, 0.5);
+        reader.join(5000);
+        // The stream ended, so the reader must have returned on its own
+        assertFalse(reader.isAlive());
+        session.close();
+        check(failure);
+        assertEquals(total, receiver.bytesReceived());
+        assertEquals(total / 64, receiver.lines());
+        // Memory stays bounded: only the ring's worth of history is kept
+        assertEquals(RfcommReceiver.DEFAULT_HISTORY_BYTES, receiver.history().capacity());
+    }
+}
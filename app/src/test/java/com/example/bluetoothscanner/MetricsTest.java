@@ -0,0 +1,84 @@
+package com.example.bluetoothscanner;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class MetricsTest {
+    @Test
+    public void bucketsCoverEveryValueWithinThreePercent() {
+        int previous = -1;
+        for (long value = 0; value < 1L << 36; value = value < 4096 ? value + 1 : value + value / 97) {
+            int index = LatencyHistogram.indexOf(value);
+            assertTrue(index >= previous && index < LatencyHistogram.BUCKETS);
+            assertTrue(LatencyHistogram.lowestValue(index) <= value);
+            assertTrue(LatencyHistogram.highestValue(index) >= value);
+            assertTrue(LatencyHistogram.highestValue(index) - LatencyHistogram.lowestValue(index)
+                    <= Math.max(0, LatencyHistogram.lowestValue(index) / LatencyHistogram.SUB_BUCKETS));
+            previous = index;
+        }
+        assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.indexOf(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void reportsPercentilesOfUniformValues() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 10_000; i++) {
+            histogram.record(i * 1_000L);
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(10_000, snapshot.count);
+        assertEquals(10_000_000L, snapshot.maxNanos);
+        assertEquals(5_000_500, snapshot.meanNanos(), 1);
+        assertEquals(5_000_000, snapshot.valueAtPercentile(50), 5_000_000 / 32.0);
+        assertEquals(9_900_000, snapshot.valueAtPercentile(99), 9_900_000 / 32.0);
+        assertEquals(10_000_000L, snapshot.valueAtPercentile(100));
+        assertEquals(0, new LatencyHistogram().snapshot().valueAtPercentile(50));
+    }
+
+    @Test
+    public void losesNoRecordsUnderContention() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        int threads = 4;
+        int perThread = 100_000;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            long seed = t;
+            pool.execute(() -> {
+                Random random = new Random(seed);
+                for (int i = 0; i < perThread; i++) {
+                    histogram.record(random.nextInt(1_000_000));
+                }
+                done.countDown();
+            });
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        pool.shutdown();
+        assertEquals((long) threads * perThread, histogram.snapshot().count);
+    }
+
+    @Test
+    public void reportsRatesBetweenSnapshots() {
+        Metrics metrics = new Metrics();
+        metrics.dedupMisses.add(10);
+        metrics.dedupHits.add(30);
+        metrics.gattOperation(GattOperation.Type.READ).record(2_000_000);
+        Metrics.Snapshot first = metrics.snapshot();
+        assertEquals(0.75, first.dedupHitRate(), 1e-9);
+        metrics.scanResults.add(40);
+        Metrics.Snapshot second = metrics.snapshot();
+        assertEquals(40, second.scanResults - first.scanResults);
+        assertEquals(1, second.gattOperation(GattOperation.Type.READ).count);
+        String report = second.report(first);
+        assertTrue(report, report.contains("Scan results: 40"));
+        assertTrue(report, report.contains("dedup hits 75.0 %"));
+        assertTrue(report, report.contains("GATT read"));
+    }
+}
@@ -0,0 +1,39 @@
+package com.example.bluetoothscanner;
+
+import org.junit.Test;
+
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class NotificationSinkTest {
+    private static final UUID HEART_RATE = UUID.fromString("00002a37-0000-1000-8000-00805f9b34fb");
+
+    @Test
+    public void keepsLatestValueAndCountsDrops() {
+        NotificationSink sink = new NotificationSink(4);
+        assertFalse(sink.offer(HEART_RATE, new byte[]{1}));
+        sink.register(HEART_RATE);
+        for (int i = 0; i < 6; i++) {
+            sink.offer(HEART_RATE, new byte[]{0, (byte) i});
+        }
+        int[] latest = new int[1];
+        sink.drain(1, (characteristic, value, length, stats) -> {
+            assertEquals(HEART_RATE, characteristic);
+            assertEquals(2, length);
+            latest[0] = value[1];
+            assertEquals(6, stats.notifications);
+            assertEquals(12, stats.bytes);
+            assertEquals(2, stats.dropped);
+        });
+        // The ring was full for the last two, so the newest value kept is the fourth
+        assertEquals(3, latest[0]);
+
+        sink.offer(HEART_RATE, new byte[]{0, 9});
+        sink.drain(1_000_000_001L, (characteristic, value, length, stats) -> {
+            assertEquals(9, value[1]);
+            assertEquals(1.0, stats.notificationsPerSecond, 1e-6);
+            assertEquals(2.0, stats.bytesPerSecond, 1e-6);
+        });
+    }
+}
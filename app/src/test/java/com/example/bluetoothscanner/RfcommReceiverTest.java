@@ -0,0 +1,38 @@
+package com.example.bluetoothscanner;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RfcommReceiverTest {
+    @Test
+    public void splitsLinesAcrossReads() throws Exception {
+        List<String> lines = new ArrayList<>();
+        RfcommReceiver receiver = new RfcommReceiver(5, 16, 64,
+                (buffer, offset, length, complete) -> lines.add(new String(buffer, offset, length, StandardCharsets.UTF_8)));
+        ByteArrayInputStream in = new ByteArrayInputStream("temp=21\r\nhum=40\nrest".getBytes(StandardCharsets.UTF_8));
+        while (receiver.readFrom(in) != -1) {
+            // drain
+        }
+        assertEquals(List.of("temp=21", "hum=40"), lines);
+        assertEquals(2, receiver.lines());
+        assertEquals(20, receiver.bytesReceived());
+    }
+
+    @Test
+    public void ringKeepsOnlyRecentBytes() {
+        ByteRing ring = new ByteRing(4);
+        ring.write("abcdef".getBytes(StandardCharsets.US_ASCII), 0, 6);
+        byte[] out = new byte[4];
+        assertEquals(6, ring.position());
+        assertEquals(4, ring.read(0, out, 0, 4));
+        assertArrayEquals("cdef".getBytes(StandardCharsets.US_ASCII), out);
+        assertEquals(1, ring.read(5, out, 0, 4));
+        assertEquals('f', out[0]);
+    }
+}
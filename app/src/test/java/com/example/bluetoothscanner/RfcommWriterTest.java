@@ -0,0 +1,91 @@
+package com.example.bluetoothscanner;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class RfcommWriterTest {
+    /** Keeps everything written; the first write blocks until {@link #release}. */
+    private static class GatedStream extends OutputStream {
+        final ByteArrayOutputStream written = new ByteArrayOutputStream();
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        int writes;
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public synchronized void write(byte[] buffer, int offset, int length) throws IOException {
+            entered.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IOException("Interrupted");
+            }
+            written.write(buffer, offset, length);
+            writes++;
+        }
+    }
+
+    @Test
+    public void coalescesQueuedMessagesIntoFewWrites() throws Exception {
+        GatedStream out = new GatedStream();
+        CountDownLatch sent = new CountDownLatch(100);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        // Every message is 11 bytes ("cmd 000 \u00e9\n"), so ten fill the buffer exactly
+        RfcommWriter writer = new RfcommWriter(out, 99, 110, new RfcommWriter.Listener() {
+            @Override
+            public void onSent(String message, long latencyNanos) {
+                if (latencyNanos < 0) {
+                    failure.compareAndSet(null, new AssertionError("negative latency for " + message));
+                }
+                sent.countDown();
+            }
+
+            @Override
+            public void onError(IOException e) {
+                failure.compareAndSet(null, e);
+            }
+        });
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            String message = String.format(Locale.US, "cmd %03d \u00e9", i);
+            expected.append(message).append('\n');
+            assertTrue(writer.send(message, 1, TimeUnit.SECONDS));
+            if (i == 0) {
+                // The first message alone is on its way out; the rest pile up behind it
+                assertTrue(out.entered.await(5, TimeUnit.SECONDS));
+            }
+        }
+        assertFalse("queue should be full", writer.send("one too many", 0, TimeUnit.SECONDS));
+        out.release.countDown();
+        assertTrue(sent.await(5, TimeUnit.SECONDS));
+        writer.close();
+
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        byte[] bytes = expected.toString().getBytes(StandardCharsets.UTF_8);
+        assertEquals(1100, bytes.length);
+        synchronized (out) {
+            assertEquals(expected.toString(), out.written.toString("UTF-8"));
+            // The first message, then the 99 queued ones in ten writes of at most 110 bytes
+            assertEquals(11, out.writes);
+        }
+        assertEquals(bytes.length, writer.bytesSent());
+        assertEquals(100, writer.messagesSent());
+        assertEquals(11, writer.socketWrites());
+    }
+}
@@ -0,0 +1,221 @@
+package com.example.bluetoothscanner;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class ScanIngestorTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void ringHandsEntriesOverInOrder() {
+        SpscRingBuffer<int[]> ring = new SpscRingBuffer<>(4, () -> new int[1]);
+        for (int i = 0; i < 4; i++) {
+            ring.claim()[0] = i;
+            ring.publish();
+        }
+        assertNull(ring.claim());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(i, ring.peek()[0]);
+            ring.release();
+        }
+        assertNull(ring.peek());
+    }
+
+    @Test
+    public void dedupsSightingsAndPublishesSnapshot() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicReference<ScanSnapshot<String>> latest = new AtomicReference<>();
+        ScanIngestor<String> ingestor = new ScanIngestor<>(1024, 100, 256, Runnable::run, snapshot -> {
+            latest.set(snapshot);
+            if (snapshot.sightings == 300) {
+                done.countDown();
+            }
+        });
+        ingestor.start();
+        try {
+            for (int i = 0; i < 300; i++) {
+                String address = String.format("00:11:22:33:44:%02X", i % 3);
+                assertTrue(ingestor.offer(address, address, -40 - i % 3, i * 1_000_000L, null));
+            }
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+        } finally {
+            ingestor.stop();
+        }
+        ScanSnapshot<String> snapshot = latest.get();
+        assertEquals(3, snapshot.devices.size());
+        assertEquals("00:11:22:33:44:00", snapshot.devices.get(0).device);
+        assertEquals(100, snapshot.devices.get(1).hits);
+        assertEquals(-42, snapshot.devices.get(2).rssi);
+    }
+
+    @Test
+    public void expiresAndEvictsAsRangeRemovals() {
+        AtomicReference<ScanSnapshot<String>> latest = new AtomicReference<>();
+        AtomicLong now = new AtomicLong();
+        ScanIngestor<String> ingestor = new ScanIngestor<>(64, 10, 64, Runnable::run, latest::set);
+        ingestor.setRetention(4, 100, TimeUnit.MILLISECONDS);
+        ingestor.setClock(now::get);
+        ingestor.reset();
+        for (int i = 0; i < 4; i++) {
+            String address = String.format("00:11:22:33:44:%02X", i);
+            ingestor.offer(address, address, -50, i * 10_000_000L, null);
+        }
+        ingestor.drain();
+        ingestor.publish();
+        assertEquals(4, latest.get().devices.size());
+        int sequence = latest.get().sequence;
+
+        // Device 0 is refreshed, so the three new devices push out 1, 2 and 3
+        now.set(125_000_000L);
+        ingestor.offer("00:11:22:33:44:00", "00:11:22:33:44:00", -50, 125_000_000L, null);
+        ingestor.offer("00:11:22:33:44:10", "00:11:22:33:44:10", -50, 125_000_000L, null);
+        ingestor.offer("00:11:22:33:44:11", "00:11:22:33:44:11", -50, 125_000_000L, null);
+        ingestor.offer("00:11:22:33:44:12", "00:11:22:33:44:12", -50, 125_000_000L, null);
+        ingestor.drain();
+        ingestor.publish();
+        ScanSnapshot<String> snapshot = latest.get();
+        assertEquals(sequence + 1, snapshot.sequence);
+        assertEquals(3, snapshot.evicted);
+        assertArrayEquals(new int[]{1, 3}, snapshot.removedRanges);
+        assertEquals(4, snapshot.devices.size());
+        assertEquals("00:11:22:33:44:00", snapshot.devices.get(0).device);
+        assertEquals("00:11:22:33:44:12", snapshot.devices.get(3).device);
+
+        now.set(1_000_000_000L);
+        ingestor.publish();
+        assertEquals(0, latest.get().devices.size());
+        assertArrayEquals(new int[]{0, 4}, latest.get().removedRanges);
+    }
+
+    @Test
+    public void mergesInquiryAndLeSightingsOfOneAddress() {
+        AtomicReference<ScanSnapshot<String>> latest = new AtomicReference<>();
+        ScanIngestor<String> ingestor = new ScanIngestor<>(64, 10, 64, Runnable::run, latest::set);
+        ingestor.reset();
+        // Flags 0x02: LE General Discoverable, BR/EDR Not Supported clear
+        byte[] dualModeAdvertisement = {2, 0x01, 0x02};
+        ingestor.offerInquiry("classic", "00:11:22:33:44:00", -60, 0x0404, 1_000_000L);
+        ingestor.offer("le", "00:11:22:33:44:00", -55, SignalEngine.TX_POWER_UNKNOWN, 2_000_000L, dualModeAdvertisement);
+        ingestor.offer("le only", "00:11:22:33:44:01", -70, SignalEngine.TX_POWER_UNKNOWN, 3_000_000L, new byte[]{2, 0x01, 0x06});
+        ingestor.offerInquiry("classic only", "00:11:22:33:44:02", -80, DeviceRegistry.CLASS_UNKNOWN, 4_000_000L);
+        ingestor.drain();
+        ingestor.publish();
+
+        ScanSnapshot<String> snapshot = latest.get();
+        assertEquals(3, snapshot.devices.size());
+        DeviceSnapshot<String> dual = snapshot.devices.get(0);
+        assertEquals("classic", dual.device);
+        assertEquals(2, dual.hits);
+        assertTrue(dual.isDualMode());
+        assertEquals(0x0404, dual.deviceClass);
+        assertEquals(0x02, dual.advertisingFlags);
+        DeviceSnapshot<String> le = snapshot.devices.get(1);
+        assertEquals(DeviceRegistry.TRANSPORT_LE, le.transports);
+        assertFalse(le.supportsClassic());
+        assertEquals(DeviceRegistry.CLASS_UNKNOWN, le.deviceClass);
+        DeviceSnapshot<String> classic = snapshot.devices.get(2);
+        assertEquals(DeviceRegistry.TRANSPORT_CLASSIC, classic.transports);
+        assertTrue(classic.supportsClassic());
+        assertEquals(AdvertisingData.ABSENT, classic.advertisingFlags);
+    }
+
+    @Test
+    public void cachesNamesAndRetriesMissingOnesSparingly() {
+        AtomicReference<ScanSnapshot<String>> latest = new AtomicReference<>();
+        AtomicLong now = new AtomicLong();
+        List<String> lookups = new ArrayList<>();
+        ScanIngestor<String> ingestor = new ScanIngestor<>(64, 10, 64, Runnable::run, latest::set);
+        ingestor.setClock(now::get);
+        ingestor.setNameResolver(device -> {
+            lookups.add(device);
+            return device.equals("named") ? "Headset" : null;
+        });
+        ingestor.reset();
+        // Complete Local Name "Tag"; advertised names need no lookup
+        byte[] advertisement = {4, 0x09, 'T', 'a', 'g'};
+        for (int i = 0; i < 3; i++) {
+            ingestor.offer("named", "00:11:22:33:44:00", -50, i, null);
+            ingestor.offer("anonymous", "00:11:22:33:44:01", -50, i, null);
+            ingestor.offer("advertised", "00:11:22:33:44:02", -50, SignalEngine.TX_POWER_UNKNOWN, i, advertisement);
+            ingestor.drain();
+            ingestor.publish();
+        }
+        List<DeviceSnapshot<String>> devices = latest.get().devices;
+        assertEquals("Headset", devices.get(0).name);
+        assertNull(devices.get(1).name);
+        assertEquals("Tag", devices.get(2).name);
+        assertEquals(List.of("named", "anonymous"), lookups);
+
+        now.set(TimeUnit.MILLISECONDS.toNanos(ScanIngestor.NAME_RETRY_MILLIS));
+        ingestor.offer("anonymous", "00:11:22:33:44:01", -50, now.get(), null);
+        ingestor.drain();
+        ingestor.publish();
+        assertEquals(List.of("named", "anonymous", "anonymous"), lookups);
+    }
+
+    @Test
+    public void capturesSightingsOnTheIngestThread() throws Exception {
+        File dir = folder.newFolder("captures");
+        ScanIngestor<String> ingestor = new ScanIngestor<>(64, 10, 64, Runnable::run, snapshot -> { });
+        byte[] advertisement = {2, 0x01, 0x06};
+        try (CaptureWriter writer = new CaptureWriter(dir, 4096, 4)) {
+            ingestor.setCaptureWriter(writer);
+            ingestor.offer("le", "00:11:22:33:44:00", -55, 1_000_000L, advertisement);
+            ingestor.offerInquiry("classic", "00:11:22:33:44:01", -60, 0x0404, 2_000_000L);
+            ingestor.offer("bad", "not an address", -70, 3_000_000L, advertisement);
+            // Nothing is written until the worker gets to it
+            assertEquals(0, writer.records());
+            ingestor.drain();
+            assertEquals(2, writer.records());
+        }
+        try (CaptureReader reader = new CaptureReader(CaptureWriter.list(dir)[0])) {
+            assertTrue(reader.next());
+            assertEquals(CaptureFormat.TYPE_ADVERTISEMENT, reader.type);
+            assertEquals(BluetoothAddress.pack("00:11:22:33:44:00"), reader.address);
+            assertEquals(advertisement.length, reader.length);
+            assertTrue(reader.next());
+            assertEquals(CaptureFormat.TYPE_INQUIRY_RESULT, reader.type);
+            assertEquals(-60, reader.rssi);
+            assertFalse(reader.next());
+        }
+    }
+
+    @Test
+    public void storesSightingsWithWallClockTime() throws Exception {
+        ScanIngestor<String> ingestor = new ScanIngestor<>(64, 10, 64, Runnable::run, snapshot -> { });
+        ingestor.setClock(() -> 10_000_000_000L);
+        try (SightingStore store = new SightingStore(folder.newFolder("sightings"), 60_000, 4096, 64, 1)) {
+            ingestor.setSightingStore(store);
+            ingestor.offer("le", "00:11:22:33:44:00", -55, 9_000_000_000L, null);
+            ingestor.offerInquiry("classic", "00:11:22:33:44:00", -60, 0x0404, 9_500_000_000L);
+            long before = System.currentTimeMillis();
+            ingestor.drain();
+            long after = System.currentTimeMillis();
+            store.flush();
+
+            List<long[]> stored = new ArrayList<>();
+            store.sightings(BluetoothAddress.pack("00:11:22:33:44:00"), 0, Long.MAX_VALUE,
+                    (address, time, rssi, transport) -> stored.add(new long[]{time, rssi, transport}));
+            stored.sort((a, b) -> Long.compare(a[0], b[0]));
+            assertEquals(2, stored.size());
+            // One second and half a second before the clock's now
+            assertTrue(stored.get(0)[0] >= before - 1000 && stored.get(0)[0] <= after - 1000);
+            assertEquals(500, stored.get(1)[0] - stored.get(0)[0]);
+            assertEquals(-55, stored.get(0)[1]);
+            assertEquals(DeviceRegistry.TRANSPORT_LE, stored.get(0)[2]);
+            assertEquals(DeviceRegistry.TRANSPORT_CLASSIC, stored.get(1)[2]);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.example.bluetoothscanner;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ScanMatcherTest {
+    // Flags, complete name "Thermo", 16-bit UUID 0x180F, service data 0x180F -> 0x64,
+    // Apple manufacturer data 02 15 ...
+    private static final byte[] RECORD = ScanRule.parseHex(
+            "020106" + "0709546865726D6F" + "03030F18" + "04160F1864" + "07FF4C0002150102");
+    private static final long ADDRESS = BluetoothAddress.pack("AC:23:3F:01:02:03");
+
+    private static boolean matches(String rules) {
+        return ScanMatcher.compile(ScanRule.parse(rules)).matches(ADDRESS, RECORD);
+    }
+
+    @Test
+    public void matchesEachConditionType() {
+        assertTrue(matches("mac:AC:23:3F:01:02:03"));
+        assertFalse(matches("mac:AC:23:3F:01:02:04"));
+        assertTrue(matches("oui:AC:23:3F"));
+        assertFalse(matches("oui:AC:23:3E"));
+        assertTrue(matches("name:Thermo"));
+        assertFalse(matches("name:Therm"));
+        assertTrue(matches("name:Therm*"));
+        assertTrue(matches("uuid:180F"));
+        assertTrue(matches("uuid:0000180f-0000-1000-8000-00805f9b34fb"));
+        assertFalse(matches("uuid:180A"));
+        assertTrue(matches("sdata:180F=64"));
+        assertFalse(matches("sdata:180F=65"));
+        assertTrue(matches("mfg:004C=0215"));
+        assertTrue(matches("mfg:004C=0200/FF00"));
+        assertFalse(matches("mfg:0059"));
+    }
+
+    @Test
+    public void conditionsAndWithinRuleAndRulesOr() {
+        assertFalse(matches("oui:AC:23:3F mfg:0059"));
+        assertTrue(matches("oui:AC:23:3F mfg:0059, name:Thermo"));
+    }
+
+    @Test
+    public void classifiesRulesForHardware() {
+        List<ScanRule> rules = ScanRule.parse("mac:AC:23:3F:01:02:03, oui:AC:23:3F mfg:004C, oui:AC:23");
+        assertFalse(rules.get(0).needsSoftware());
+        assertTrue(rules.get(1).needsSoftware());
+        assertTrue(rules.get(1).hasHardwareCondition());
+        assertFalse(rules.get(2).hasHardwareCondition());
+    }
+}
@@ -0,0 +1,142 @@
+package com.example.bluetoothscanner;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ScanSchedulerTest {
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+    private final List<String> events = new CopyOnWriteArrayList<>();
+    private final ScanScheduler.Radio radio = new ScanScheduler.Radio() {
+        @Override
+        public boolean startLeScan(int scanMode) {
+            events.add("le " + scanMode);
+            return true;
+        }
+
+        @Override
+        public void stopLeScan() {
+            events.add("stop");
+        }
+
+        @Override
+        public boolean startInquiry() {
+            events.add("inquiry");
+            return true;
+        }
+
+        @Override
+        public void cancelInquiry() {
+            events.add("cancel");
+        }
+    };
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private ScanScheduler scheduler(ScanScheduler.Policy.Builder policy) {
+        return new ScanScheduler(radio, executor, policy.build(), stats -> { });
+    }
+
+    private static ScanScheduler.Policy.Builder fastPolicy() {
+        return new ScanScheduler.Policy.Builder()
+                .window(ScanScheduler.Level.LOW_LATENCY, 30, 0)
+                .window(ScanScheduler.Level.BALANCED, 30, 20)
+                .window(ScanScheduler.Level.LOW_POWER, 30, 40)
+                .inquiry(0, 1)
+                .thresholds(600, 100)
+                .startLimit(100, 1000);
+    }
+
+    @Test
+    public void throttleAllowsFiveStartsPerWindow() {
+        ScanScheduler.StartThrottle throttle = new ScanScheduler.StartThrottle(5, 30, TimeUnit.SECONDS);
+        long second = TimeUnit.SECONDS.toNanos(1);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0, throttle.delayNanos(i * second));
+            throttle.record(i * second);
+        }
+        assertEquals(25 * second, throttle.delayNanos(5 * second));
+        assertEquals(0, throttle.delayNanos(30 * second));
+        throttle.record(30 * second);
+        // The oldest start is now the one at 1 s
+        assertEquals(second, throttle.delayNanos(30 * second));
+    }
+
+    @Test
+    public void stepsDownWhenNothingNewTurnsUp() throws Exception {
+        ScanScheduler scheduler = scheduler(fastPolicy());
+        scheduler.start();
+        Thread.sleep(400);
+        scheduler.stop();
+
+        ScanScheduler.Stats stats = scheduler.stats().get();
+        assertEquals(ScanScheduler.Level.LOW_POWER, stats.level);
+        assertEquals(List.of("le 2", "stop", "le 1", "stop", "le 0"), events.subList(0, 5));
+        assertTrue(stats.radioDutyCycle < stats.leShare);
+        assertTrue(stats.leShare < 1);
+        // Quiet windows at the bottom stretch the idle gap
+        assertTrue(stats.idleMillis > 40);
+    }
+
+    @Test
+    public void keepsOneContinuousScanWhileBusy() throws Exception {
+        ScanScheduler scheduler = scheduler(fastPolicy());
+        scheduler.start();
+        for (int i = 0; i < 40; i++) {
+            scheduler.onNewDevice();
+            Thread.sleep(5);
+        }
+        scheduler.stop();
+
+        ScanScheduler.Stats stats = scheduler.stats().get();
+        assertEquals(ScanScheduler.Level.LOW_LATENCY, stats.level);
+        assertEquals(1, stats.leStarts);
+        assertTrue(stats.windows >= 3);
+        assertEquals(40, stats.newDevices);
+        assertTrue(stats.meanDiscoveryLatencyMillis > 0);
+        assertTrue(stats.maxDiscoveryLatencyMillis <= 60);
+        assertEquals(List.of("le 2", "stop"), events);
+    }
+
+    @Test
+    public void waitsForTheThrottleInsteadOfStartingAgain() throws Exception {
+        ScanScheduler scheduler = scheduler(fastPolicy()
+                .window(ScanScheduler.Level.LOW_LATENCY, 10, 10)
+                .thresholds(0, 0)
+                .startLimit(2, 500));
+        scheduler.start();
+        Thread.sleep(200);
+        scheduler.stop();
+
+        ScanScheduler.Stats stats = scheduler.stats().get();
+        assertEquals(2, stats.leStarts);
+        assertTrue(stats.throttledStarts >= 1);
+    }
+
+    @Test
+    public void interleavesInquiryWithLeWindows() throws Exception {
+        ScanScheduler scheduler = scheduler(fastPolicy()
+                .thresholds(0, 0)
+                .inquiry(20, 2));
+        scheduler.start();
+        Thread.sleep(150);
+        scheduler.stop();
+
+        // Two LE windows (the first kept running), then inquiry with LE stopped, then LE again
+        assertEquals(List.of("le 2", "stop", "inquiry", "cancel", "le 2"), events.subList(0, 5));
+        ScanScheduler.Stats stats = scheduler.stats().get();
+        assertTrue(stats.inquiries >= 1);
+        assertTrue(stats.inquiryShare > 0);
+        assertTrue(stats.leShare > stats.inquiryShare);
+    }
+}
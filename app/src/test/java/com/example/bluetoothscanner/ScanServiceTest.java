@@ -0,0 +1,33 @@
+package com.example.bluetoothscanner;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ScanServiceTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void backgroundSightingsLandInTheStore() throws Exception {
+        try (SightingStore store = new SightingStore(folder.newFolder("sightings"), 60_000, 4096, 64, 1)) {
+            ScanIngestor<String> ingestor = ScanService.newIngestor(Runnable::run, snapshot -> { }, store);
+            ingestor.setClock(() -> 5_000_000_000L);
+            ingestor.offer("le", "00:11:22:33:44:00", -55, 4_000_000_000L, null);
+            ingestor.offerInquiry("classic", "00:11:22:33:44:00", -60, 0x0404, 4_500_000_000L);
+            ingestor.drain();
+            store.flush();
+
+            List<Integer> transports = new ArrayList<>();
+            store.sightings(BluetoothAddress.pack("00:11:22:33:44:00"), 0, Long.MAX_VALUE,
+                    (address, time, rssi, transport) -> transports.add(transport));
+            transports.sort(null);
+            assertEquals(List.of(DeviceRegistry.TRANSPORT_CLASSIC, DeviceRegistry.TRANSPORT_LE), transports);
+        }
+    }
+}
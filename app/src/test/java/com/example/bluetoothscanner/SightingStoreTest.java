@@ -0,0 +1,139 @@
+package com.example.bluetoothscanner;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SightingStoreTest {
+    private static final long PARTITION = 1000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static SightingStore open(File dir) throws Exception {
+        // Segments of about ten frames and second-long partitions, so a few hundred sightings exercise everything
+        return new SightingStore(dir, PARTITION, 512, 64, 1);
+    }
+
+    private static List<Long> sightings(SightingStore store, long address, long from, long to) throws Exception {
+        List<Long> times = new ArrayList<>();
+        store.sightings(address, from, to, (a, time, rssi, transport) -> {
+            assertEquals(address, a);
+            assertEquals(-(int) (time % 100), rssi);
+            times.add(time);
+        });
+        times.sort(null);
+        return times;
+    }
+
+    @Test
+    public void compactsIntoIndexedRunsAndAnswersRangeQueries() throws Exception {
+        File dir = folder.newFolder("sightings");
+        try (SightingStore store = open(dir)) {
+            // Ten devices, one sighting each per 10 ms over 4 s; device 7 only in the second second
+            for (long time = 0; time < 4000; time += 10) {
+                for (long device = 0; device < 10; device++) {
+                    if (device != 7 || (time >= 1000 && time < 2000)) {
+                        int transport = device % 2 == 0 ? DeviceRegistry.TRANSPORT_LE : DeviceRegistry.TRANSPORT_CLASSIC;
+                        while (!store.append(device, time, -(int) (time % 100), transport)) {
+                            Thread.sleep(1);
+                        }
+                    }
+                }
+            }
+            store.flush();
+            // Wherever each sighting is by now, WAL or run, it is found exactly once
+            assertEquals(50, sightings(store, 3, 1500, 1999).size());
+        }
+
+        try (SightingStore store = open(dir)) {
+            assertTrue(store.runCount() > 0);
+            assertEquals(0, store.dropped());
+            List<Long> times = sightings(store, 3, 1505, 2504);
+            assertEquals(100, times.size());
+            assertEquals(1510L, (long) times.get(0));
+            assertEquals(2500L, (long) times.get(99));
+            assertTrue(sightings(store, 42, 0, 4000).isEmpty());
+
+            List<SightingStore.DeviceSummary> seen = store.devicesSeen(2000, 3999);
+            assertEquals(9, seen.size());
+            for (int i = 0; i < seen.size(); i++) {
+                SightingStore.DeviceSummary summary = seen.get(i);
+                assertEquals(i < 7 ? i : i + 1, summary.address);
+                assertEquals(200, summary.sightings);
+                assertEquals(2000, summary.firstMillis);
+                assertEquals(3990, summary.lastMillis);
+            }
+            // Bounds inside partitions: only device 7's slice tells whether it was seen
+            seen = store.devicesSeen(1985, 2005);
+            assertEquals(10, seen.size());
+            assertEquals(1, seen.get(7).sightings);
+            assertEquals(2, seen.get(6).sightings);
+            assertEquals(1990, seen.get(7).lastMillis);
+            assertEquals(DeviceRegistry.TRANSPORT_CLASSIC, seen.get(7).transports);
+            assertEquals(DeviceRegistry.TRANSPORT_LE, seen.get(0).transports);
+        }
+    }
+
+    @Test
+    public void dropsFrameTornByCrash() throws Exception {
+        File dir = folder.newFolder("sightings");
+        try (SightingStore store = open(dir)) {
+            for (int i = 0; i < 10; i++) {
+                store.append(5, 100 + i, -i, DeviceRegistry.TRANSPORT_LE);
+            }
+        }
+        File[] segments = dir.listFiles((d, name) -> name.startsWith("wal-"));
+        assertEquals(1, segments.length);
+        try (FileOutputStream out = new FileOutputStream(segments[0], true)) {
+            // A frame header promising three sightings, and half of the first
+            out.write(new byte[]{3, 0, 0, 0, 1, 2, 3, 4, 9, 9, 9, 9, 9, 9, 9, 9, 9});
+        }
+
+        try (SightingStore store = open(dir)) {
+            assertTrue(store.append(5, 200, -20, DeviceRegistry.TRANSPORT_LE));
+            store.flush();
+            List<Long> times = new ArrayList<>();
+            store.sightings(5, 0, 1000, (address, time, rssi, transport) -> times.add(time));
+            assertEquals(11, times.size());
+            assertEquals(1, store.devicesSeen(0, 1000).size());
+        }
+    }
+
+    @Test
+    public void dropsRunsOfAnUncommittedCompaction() throws Exception {
+        File dir = folder.newFolder("sightings");
+        try (SightingStore store = open(dir)) {
+            for (long time = 100; time < 2000; time += 1000) {
+                for (int i = 0; i < 5; i++) {
+                    store.append(5, time + i, -(int) ((time + i) % 100), DeviceRegistry.TRANSPORT_LE);
+                }
+            }
+        }
+        // A compaction of segment 0 that died after renaming the first partition's run only
+        SightingRun.Builder builder = new SightingRun.Builder(0, PARTITION);
+        for (int i = 0; i < 5; i++) {
+            builder.onSighting(5, 100 + i, -i, DeviceRegistry.TRANSPORT_LE);
+        }
+        builder.coverSegment(0);
+        File partial = new File(dir, "run-0000000000000-000000.sst");
+        builder.write(partial).close();
+        assertTrue(new File(dir, "wal-000000.log").exists());
+
+        for (int reopen = 0; reopen < 2; reopen++) {
+            try (SightingStore store = open(dir)) {
+                assertFalse(partial.exists());
+                // Every sighting of both partitions, none twice
+                assertEquals(List.of(100L, 101L, 102L, 103L, 104L, 1100L, 1101L, 1102L, 1103L, 1104L),
+                        sightings(store, 5, 0, 2000));
+            }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.example.bluetoothscanner;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SignalEngineTest {
+    @Test
+    public void filtersConvergeOnNoisySignal() {
+        Random random = new Random(7);
+        for (SignalEngine.Filter filter : SignalEngine.Filter.values()) {
+            SignalEngine engine = new SignalEngine(filter);
+            engine.add(0);
+            assertTrue(Double.isNaN(engine.filteredRssi(0)));
+            for (int i = 0; i < 200; i++) {
+                engine.onSample(0, (int) Math.round(-70 + random.nextGaussian() * 4), i * 100L);
+            }
+            assertEquals(filter.name(), -70, engine.filteredRssi(0), 1.5);
+        }
+    }
+
+    @Test
+    public void estimatesDistanceFromReference() {
+        SignalEngine engine = new SignalEngine(SignalEngine.Filter.EWMA, 1.0, 0, 1, 2.0, 1000);
+        engine.add(0);
+        engine.onSample(0, -79, 0);
+        engine.setMeasuredPower(0, -59);
+        assertEquals(10.0, engine.distance(0), 1e-9);
+        engine.setTxPower(0, -38);
+        assertEquals(1.0, engine.distance(0), 1e-9);
+    }
+
+    @Test
+    public void countsSamplesInSlidingWindow() {
+        SignalEngine engine = new SignalEngine(SignalEngine.Filter.EWMA, 0.5, 0, 1, 2.0, 800);
+        engine.add(3);
+        for (int t = 0; t < 800; t += 50) {
+            engine.onSample(3, -60, t);
+        }
+        assertEquals(16, engine.sampleCount(3, 799));
+        assertEquals(8, engine.sampleCount(3, 1199));
+        assertEquals(0, engine.sampleCount(3, 5000));
+        engine.onSample(3, DeviceRegistry.RSSI_UNKNOWN, 5000);
+        assertEquals(1, engine.sampleCount(3, 5000));
+    }
+
+    @Test
+    public void nearestReturnsClosestFirstWithoutRemovedRows() {
+        SignalEngine engine = new SignalEngine(SignalEngine.Filter.EWMA, 1.0, 0, 1, 2.0, 1000);
+        int[] rssi = {-80, -50, -65, -90, -55, -70};
+        for (int row = 0; row < rssi.length; row++) {
+            engine.add(row);
+            engine.onSample(row, rssi[row], 0);
+        }
+        engine.add(6);
+        engine.remove(1);
+        int[] out = new int[3];
+        assertEquals(3, engine.nearest(3, out));
+        assertArrayEquals(new int[]{4, 2, 5}, out);
+        assertEquals(2, engine.nearest(2, out));
+        assertEquals(4, out[0]);
+        assertEquals(2, out[1]);
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.bluetoothscanner;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class UnifiedScanTest {
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+    private final List<String> events = new CopyOnWriteArrayList<>();
+    private final CompletableFuture<UnifiedScan.Stats> finished = new CompletableFuture<>();
+    private volatile UnifiedScan scan;
+    // Whether LE results keep coming while an inquiry runs
+    private volatile boolean leDuringInquiry = true;
+    private volatile boolean inquiring;
+
+    private final ScanScheduler.Radio radio = new ScanScheduler.Radio() {
+        @Override
+        public boolean startLeScan(int scanMode) {
+            events.add("le");
+            return true;
+        }
+
+        @Override
+        public void stopLeScan() {
+            events.add("stop");
+        }
+
+        @Override
+        public boolean startInquiry() {
+            events.add("inquiry");
+            inquiring = true;
+            scan.onInquiryResult();
+            // The platform ends the inquiry by itself
+            executor.schedule(() -> {
+                inquiring = false;
+                scan.onInquiryFinished();
+            }, 30, TimeUnit.MILLISECONDS);
+            return true;
+        }
+
+        @Override
+        public void cancelInquiry() {
+            events.add("cancel");
+        }
+    };
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private void run(long durationMillis) throws Exception {
+        scan = new UnifiedScan(radio, executor, durationMillis, 20, finished::complete);
+        scan.start();
+        long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+        while (System.nanoTime() < end) {
+            if (!inquiring || leDuringInquiry) {
+                scan.onLeResult();
+            }
+            Thread.sleep(2);
+        }
+    }
+
+    @Test
+    public void keepsLeRunningThroughInquiries() throws Exception {
+        run(150);
+        UnifiedScan.Stats stats = finished.get(1, TimeUnit.SECONDS);
+        assertTrue(stats.concurrent);
+        assertTrue(stats.inquiries >= 2);
+        assertEquals(stats.inquiries, stats.inquiryResults);
+        assertTrue(stats.leResults > 0);
+        // One LE start for the whole scan, stopped only at the end
+        assertEquals("le", events.get(0));
+        assertEquals(1, events.stream().filter("le"::equals).count());
+        assertEquals("stop", events.get(events.size() - 1));
+    }
+
+    @Test
+    public void interleavesWhenLeStallsDuringInquiry() throws Exception {
+        leDuringInquiry = false;
+        run(150);
+        UnifiedScan.Stats stats = finished.get(1, TimeUnit.SECONDS);
+        assertFalse(stats.concurrent);
+        // The first inquiry ran alongside LE; from the second on LE makes way
+        assertEquals(List.of("le", "inquiry", "stop", "inquiry", "le"), events.subList(0, 5));
+    }
+}
@@ -0,0 +1,119 @@
+import groovy.json.JsonOutput
+import groovy.json.JsonSlurper
+
+plugins {
+    `java-library`
+    alias(libs.plugins.jmh)
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_11
+    targetCompatibility = JavaVersion.VERSION_11
+}
+
+// The app's Android-free classes, compiled as plain Java so the hot paths run on a desktop JVM
+sourceSets {
+    main {
+        java {
+            setSrcDirs(listOf("../app/src/main/java"))
+            exclude { element ->
+                !element.isDirectory && element.file.useLines { lines ->
+                    lines.any { it.startsWith("import android.") || it.startsWith("import androidx.") }
+                }
+            }
+        }
+    }
+}
+
+dependencies {
+    jmh(libs.jmh.core)
+    jmhAnnotationProcessor(libs.jmh.generator.annprocess)
+}
+
+val jmhResults = layout.buildDirectory.file("results/jmh/results.json")
+val baselineFile = file("baseline.json")
+
+jmh {
+    jmhVersion.set(libs.versions.jmh)
+    fork.set(1)
+    warmupIterations.set(3)
+    iterations.set(5)
+    warmup.set("1s")
+    timeOnIteration.set("1s")
+    // Bytes allocated per op matter as much as throughput on Android
+    profilers.add("gc")
+    resultFormat.set("JSON")
+    resultsFile.set(jmhResults)
+    (project.findProperty("jmh.includes") as String?)?.let { includes.add(it) }
+}
+
+/** Benchmark name (with params) -> primary score and gc.alloc.rate.norm, from a JMH JSON result. */
+fun summarize(file: File): Map<String, Map<String, Double>> {
+    @Suppress("UNCHECKED_CAST")
+    val runs = JsonSlurper().parse(file) as List<Map<String, Any?>>
+    return runs.associate { run ->
+        @Suppress("UNCHECKED_CAST")
+        val params = (run["params"] as Map<String, Any?>?).orEmpty()
+        val name = (run["benchmark"] as String).split('.').takeLast(2).joinToString(".") +
+            if (params.isEmpty()) "" else params.toSortedMap().entries.joinToString(",", "(", ")") { "${it.key}=${it.value}" }
+        @Suppress("UNCHECKED_CAST")
+        val primary = run["primaryMetric"] as Map<String, Any?>
+        @Suppress("UNCHECKED_CAST")
+        val secondary = (run["secondaryMetrics"] as Map<String, Map<String, Any?>>?).orEmpty()
+        val metrics = mutableMapOf("score" to (primary["score"] as Number).toDouble())
+        secondary["gc.alloc.rate.norm"]?.let { metrics["allocBytesPerOp"] = (it["score"] as Number).toDouble() }
+        name to metrics
+    }
+}
+
+tasks.register("jmhUpdateBaseline") {
+    group = "benchmark"
+    description = "Replaces baseline.json with the results of the last jmh run."
+    doLast {
+        val results = jmhResults.get().asFile
+        check(results.exists()) { "No results at $results; run :benchmark:jmh first" }
+        baselineFile.writeText(JsonOutput.prettyPrint(JsonOutput.toJson(summarize(results).toSortedMap())) + "\n")
+        logger.lifecycle("Wrote ${baselineFile.relativeTo(rootDir)}")
+    }
+}
+
+tasks.register("jmhCompareBaseline") {
+    group = "benchmark"
+    description = "Compares the last jmh run with baseline.json; fails on a throughput drop or allocation increase."
+    doLast {
+        val results = jmhResults.get().asFile
+        check(results.exists()) { "No results at $results; run :benchmark:jmh first" }
+        check(baselineFile.exists()) { "No baseline; run :benchmark:jmhUpdateBaseline first" }
+        // Throughput is noisy between machines; allocation per op is nearly deterministic
+        val scoreTolerance = (project.findProperty("jmh.scoreTolerance") as String?)?.toDouble() ?: 0.15
+        val allocTolerance = (project.findProperty("jmh.allocTolerance") as String?)?.toDouble() ?: 0.05
+        @Suppress("UNCHECKED_CAST")
+        val baseline = JsonSlurper().parse(baselineFile) as Map<String, Map<String, Number>>
+        val current = summarize(results)
+        val regressions = mutableListOf<String>()
+        for ((name, metrics) in current.toSortedMap()) {
+            val base = baseline[name]
+            if (base == null) {
+                logger.lifecycle(String.format("%-60s new", name))
+                continue
+            }
+            val score = metrics.getValue("score")
+            val baseScore = base.getValue("score").toDouble()
+            val scoreChange = (score - baseScore) / baseScore
+            val alloc = metrics["allocBytesPerOp"] ?: 0.0
+            val baseAlloc = base["allocBytesPerOp"]?.toDouble() ?: 0.0
+            // Allocation below a few bytes per op is escape-analysis noise
+            val allocChange = if (baseAlloc < 8.0) (if (alloc < 8.0) 0.0 else Double.POSITIVE_INFINITY) else (alloc - baseAlloc) / baseAlloc
+            logger.lifecycle(String.format("%-60s score %+6.1f%%  alloc %10.1f -> %10.1f B/op", name, scoreChange * 100, baseAlloc, alloc))
+            if (scoreChange < -scoreTolerance) {
+                regressions.add(String.format("%s: ops/s %.0f -> %.0f", name, baseScore, score))
+            }
+            if (allocChange > allocTolerance) {
+                regressions.add(String.format("%s: allocation %.1f -> %.1f B/op", name, baseAlloc, alloc))
+            }
+        }
+        if (regressions.isNotEmpty()) {
+            throw GradleException("Benchmark regressions:\n  " + regressions.joinToString("\n  "))
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.example.bluetoothscanner;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.UUID;
+
+/**
+ * Walking advertising data: the {@link AdvertisingData} view and beacon classification over a
+ * mixed beacon population, compiled matcher rules, and address parsing.
+ */
+@State(Scope.Thread)
+public class AdvertisementParseBenchmark {
+    private static final int RECORDS = 64;
+
+    private byte[][] records;
+    private byte[][] beacons;
+    private final AdvertisingData data = new AdvertisingData();
+    private final Beacon beacon = new Beacon();
+    private String[] addresses;
+    private ScanMatcher namePrefix;
+    private ScanMatcher manufacturer;
+    private ScanMatcher serviceOrName;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        records = new byte[RECORDS][];
+        beacons = new byte[RECORDS][];
+        addresses = new String[RECORDS];
+        for (int i = 0; i < RECORDS; i++) {
+            records[i] = BenchmarkData.advertisingRecord(i);
+            beacons[i] = BenchmarkData.beaconRecord(i);
+            addresses[i] = BenchmarkData.address(i);
+        }
+        namePrefix = ScanMatcher.compile(Collections.singletonList(new ScanRule.Builder().setNamePrefix("dev-000").build()));
+        manufacturer = ScanMatcher.compile(Collections.singletonList(new ScanRule.Builder()
+                .setManufacturerData(0x004C, new byte[]{1, 0}, new byte[]{(byte) 0xFF, 0}).build()));
+        serviceOrName = ScanMatcher.compile(Arrays.asList(
+                new ScanRule.Builder().setServiceUuid(UUID.fromString("0000180d-0000-1000-8000-00805f9b34fb")).build(),
+                new ScanRule.Builder().setName("dev-00063").build()));
+    }
+
+    private int nextIndex() {
+        int index = next;
+        next = (index + 1) & (RECORDS - 1);
+        return index;
+    }
+
+    @Benchmark
+    public int parse() {
+        data.wrap(beacons[nextIndex()]);
+        return data.flags() + data.serviceUuidCount() + data.manufacturerDataCount();
+    }
+
+    @Benchmark
+    public Beacon.Type classify() {
+        data.wrap(beacons[nextIndex()]);
+        return beacon.decode(data);
+    }
+
+    @Benchmark
+    public boolean matchNamePrefix() {
+        return namePrefix.matches(0, records[nextIndex()]);
+    }
+
+    @Benchmark
+    public boolean matchManufacturerData() {
+        return manufacturer.matches(0, records[nextIndex()]);
+    }
+
+    @Benchmark
+    public boolean matchServiceOrName() {
+        return serviceOrName.matches(0, records[nextIndex()]);
+    }
+
+    /** Finds the local name by hand and decodes it, as a caller without the matcher would. */
+    @Benchmark
+    public String decodeName() {
+        byte[] record = records[nextIndex()];
+        int offset = 0;
+        while (offset < record.length) {
+            int length = record[offset] & 0xFF;
+            if (length == 0 || offset + 1 + length > record.length) {
+                break;
+            }
+            if ((record[offset + 1] & 0xFF) == ScanMatcher.AD_NAME_COMPLETE) {
+                return new String(record, offset + 2, length - 1, StandardCharsets.UTF_8);
+            }
+            offset += 1 + length;
+        }
+        return null;
+    }
+
+    @Benchmark
+    public long packAddress() {
+        return BluetoothAddress.pack(addresses[nextIndex()]);
+    }
+}
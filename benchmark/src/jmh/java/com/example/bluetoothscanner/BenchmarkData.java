@@ -0,0 +1,74 @@
+package com.example.bluetoothscanner;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/** Deterministic inputs shared by the benchmarks. */
+final class BenchmarkData {
+    private BenchmarkData() {
+    }
+
+    static String address(int index) {
+        return BluetoothAddress.format(0xC0FFEE000000L | index);
+    }
+
+    /** Flags, a complete local name and 4 bytes of manufacturer data, like a typical wearable. */
+    static byte[] advertisingRecord(int index) {
+        byte[] name = String.format("dev-%05d", index).getBytes(StandardCharsets.US_ASCII);
+        byte[] record = new byte[3 + 2 + name.length + 6];
+        int offset = 0;
+        record[offset++] = 2;
+        record[offset++] = 0x01; // flags
+        record[offset++] = 0x06;
+        record[offset++] = (byte) (1 + name.length);
+        record[offset++] = ScanMatcher.AD_NAME_COMPLETE;
+        System.arraycopy(name, 0, record, offset, name.length);
+        offset += name.length;
+        record[offset++] = 5;
+        record[offset++] = (byte) ScanMatcher.AD_MANUFACTURER;
+        record[offset++] = 0x4C;
+        record[offset++] = 0x00;
+        record[offset++] = (byte) index;
+        record[offset] = (byte) (index >> 8);
+        return record;
+    }
+
+    /**
+     * A dense-deployment mix: iBeacon, AltBeacon, Eddystone UID/URL/TLM and plain adverts
+     * (see {@link #advertisingRecord}) in equal shares.
+     */
+    static byte[] beaconRecord(int index) {
+        String id = String.format("%032X", (long) index * 0x9E3779B97F4A7C15L);
+        String counter = String.format("%04X", index & 0xFFFF);
+        switch (index % 6) {
+            case 0:
+                return ScanRule.parseHex("020106" + "1AFF4C000215" + id + counter + "0001" + "C5");
+            case 1:
+                return ScanRule.parseHex("1BFF1801BEAC" + id + counter + "0001" + "BB" + "00");
+            case 2:
+                return ScanRule.parseHex("020106" + "0303AAFE" + "1716AAFE" + "00E7" + id + "0000");
+            case 3:
+                return ScanRule.parseHex("020106" + "0303AAFE" + "0F16AAFE" + "10EB" + "01" + "6578616D706C65" + "00" + "78");
+            case 4:
+                return ScanRule.parseHex("020106" + "0303AAFE" + "1116AAFE" + "2000" + "0BB8" + "1480" + "0000" + counter + "00000E10");
+            default:
+                return advertisingRecord(index);
+        }
+    }
+
+    /** Newline-terminated ASCII lines of random length up to {@code maxLineLength}. */
+    static byte[] lines(int totalBytes, int maxLineLength, long seed) {
+        Random random = new Random(seed);
+        byte[] data = new byte[totalBytes];
+        int lineLeft = 1 + random.nextInt(maxLineLength);
+        for (int i = 0; i < totalBytes; i++) {
+            if (--lineLeft == 0) {
+                data[i] = '\n';
+                lineLeft = 1 + random.nextInt(maxLineLength);
+            } else {
+                data[i] = (byte) ('a' + random.nextInt(26));
+            }
+        }
+        return data;
+    }
+}
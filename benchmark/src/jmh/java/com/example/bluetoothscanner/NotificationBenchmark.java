@@ -0,0 +1,87 @@
+package com.example.bluetoothscanner;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+/**
+ * The GATT notification path: queuing values in the {@link NotificationSink} from the binder
+ * thread, and building the text shown in {@code characteristicValuesText}. {@code legacyAppend}
+ * is how the activity built that text before the sink existed: decode every notification and
+ * re-copy an ever-growing buffer.
+ */
+@State(Scope.Thread)
+public class NotificationBenchmark {
+    private static final NotificationSink.Renderer IGNORE = (characteristic, value, length, stats) -> { };
+
+    @Param({"20", "244"})
+    public int valueLength;
+
+    @Param({"1", "4"})
+    public int characteristics;
+
+    private NotificationSink sink;
+    private NotificationFormatter formatter;
+    private UUID[] uuids;
+    private byte[] value;
+    private StringBuilder legacyValues;
+    private long now;
+
+    @Setup
+    public void setUp() {
+        sink = new NotificationSink();
+        formatter = new NotificationFormatter();
+        uuids = new UUID[characteristics];
+        for (int i = 0; i < characteristics; i++) {
+            uuids[i] = new UUID(0x00002A3700001000L + ((long) i << 32), 0x800000805F9B34FBL);
+            sink.register(uuids[i]);
+        }
+        value = new byte[valueLength];
+        for (int i = 0; i < valueLength; i++) {
+            value[i] = (byte) ('0' + i % 10);
+        }
+        legacyValues = new StringBuilder();
+    }
+
+    /**
+     * One notification into the sink. A full ring is drained, as the display thread would, and
+     * the value offered again; the channels stay registered so every offer copies its value.
+     */
+    @Benchmark
+    public boolean offer() {
+        UUID uuid = uuids[(int) (now++ % characteristics)];
+        if (!sink.offer(uuid, value)) {
+            sink.drain(now, IGNORE);
+            return sink.offer(uuid, value);
+        }
+        return true;
+    }
+
+    /** One display frame: one new value per characteristic, drained and formatted. */
+    @Benchmark
+    public int formatFrame() {
+        for (UUID uuid : uuids) {
+            sink.offer(uuid, value);
+        }
+        now += 66_000_000L;
+        return formatter.format(sink, "", now).length();
+    }
+
+    /** One notification the old way; the buffer is capped so the benchmark stays stationary. */
+    @Benchmark
+    public int legacyAppend() {
+        UUID uuid = uuids[(int) (now++ % characteristics)];
+        String text = new String(value, StandardCharsets.UTF_8);
+        legacyValues.append("Notification from UUID: ").append(uuid).append("\nValue: ").append(text).append("\n\n");
+        String shown = legacyValues.toString();
+        if (legacyValues.length() > 16 * 1024) {
+            legacyValues.setLength(0);
+        }
+        return shown.length();
+    }
+}
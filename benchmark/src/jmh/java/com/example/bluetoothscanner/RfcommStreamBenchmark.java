@@ -0,0 +1,63 @@
+package com.example.bluetoothscanner;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The RFCOMM receive path for one 4 KB socket read: line splitting, the history ring, and
+ * decoding the new bytes for the text view.
+ */
+@State(Scope.Thread)
+public class RfcommStreamBenchmark {
+    private static final int READ_SIZE = 4096;
+
+    @Param({"16", "120"})
+    public int lineLength;
+
+    private byte[] read;
+    private LineSplitter splitter;
+    private ByteRing ring;
+    private RingTextDecoder decoder;
+    private Blackhole blackhole;
+
+    @Setup
+    public void setUp(Blackhole blackhole) {
+        this.blackhole = blackhole;
+        read = BenchmarkData.lines(READ_SIZE, lineLength, 42);
+        splitter = new LineSplitter(1024, (buffer, offset, length, complete) -> this.blackhole.consume(length));
+        ring = new ByteRing(64 * 1024);
+        decoder = new RingTextDecoder(ring, 16 * 1024);
+        decoder.reset();
+    }
+
+    @Benchmark
+    public long splitLines() {
+        splitter.feed(read, 0, read.length);
+        return splitter.lines();
+    }
+
+    @Benchmark
+    public int appendAndDecode() {
+        ring.write(read, 0, read.length);
+        return decoder.decodeNew().length();
+    }
+
+    /** What the activity did per read before the ring: decode and re-copy the whole text. */
+    @Benchmark
+    public int legacyDecode(LegacyState state) {
+        state.text.append(new String(read, 0, read.length));
+        if (state.text.length() > 16 * 1024) {
+            state.text.setLength(0);
+        }
+        return state.text.toString().length();
+    }
+
+    @State(Scope.Thread)
+    public static class LegacyState {
+        final StringBuilder text = new StringBuilder();
+    }
+}
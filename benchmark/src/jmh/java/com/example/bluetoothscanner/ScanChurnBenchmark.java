@@ -0,0 +1,53 @@
+package com.example.bluetoothscanner;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A MAC-randomising crowd against a bounded registry: every sighting is a device that was
+ * evicted long ago, so each costs an LRU eviction plus an insert, and every batch is published.
+ * Allocation per op must stay flat here for a long scan to stay flat.
+ */
+@State(Scope.Thread)
+public class ScanChurnBenchmark {
+    private static final int BATCH = 256;
+    private static final int ADDRESSES = 1 << 16;
+    private static final int MAX_DEVICES = 2000;
+
+    private ScanIngestor<String> ingestor;
+    private String[] addresses;
+    private byte[] record;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        ingestor = new ScanIngestor<>(BATCH, 10, BATCH, Runnable::run, snapshot -> {
+        });
+        ingestor.setRetention(MAX_DEVICES, 0, TimeUnit.SECONDS);
+        ingestor.reset();
+        addresses = new String[ADDRESSES];
+        for (int i = 0; i < ADDRESSES; i++) {
+            addresses[i] = BenchmarkData.address(i);
+        }
+        record = BenchmarkData.advertisingRecord(0);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int ingestAndPublish() {
+        long now = System.nanoTime();
+        for (int i = 0; i < BATCH; i++) {
+            String address = addresses[next];
+            next = (next + 1) & (ADDRESSES - 1);
+            ingestor.offer(address, address, -60, now, record);
+        }
+        int drained = ingestor.drain();
+        ingestor.publish();
+        return drained;
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.bluetoothscanner;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Collections;
+
+/**
+ * Per-advertisement cost of the ingest path: address parsing, software filtering, dedup and
+ * the registry update. Offers and drains on the benchmark thread, without the worker.
+ */
+@State(Scope.Thread)
+public class ScanIngestBenchmark {
+    private static final int BATCH = 256;
+
+    @Param({"16", "1024"})
+    public int devices;
+
+    @Param({"none", "namePrefix", "manufacturer"})
+    public String filter;
+
+    private ScanIngestor<String> ingestor;
+    private String[] addresses;
+    private byte[][] records;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        ingestor = new ScanIngestor<>(BATCH, 10, BATCH, Runnable::run, snapshot -> {
+        });
+        ScanMatcher matcher = null;
+        if (filter.equals("namePrefix")) {
+            matcher = ScanMatcher.compile(Collections.singletonList(new ScanRule.Builder().setNamePrefix("dev-0").build()));
+        } else if (filter.equals("manufacturer")) {
+            matcher = ScanMatcher.compile(Collections.singletonList(new ScanRule.Builder()
+                    .setManufacturerData(0x004C, new byte[]{0, 0}, new byte[]{0, 0}).build()));
+        }
+        ingestor.setFilter(matcher, false);
+        ingestor.reset();
+        addresses = new String[devices];
+        records = new byte[devices][];
+        for (int i = 0; i < devices; i++) {
+            addresses[i] = BenchmarkData.address(i);
+            records[i] = BenchmarkData.advertisingRecord(i);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int ingest() {
+        long now = System.nanoTime();
+        for (int i = 0; i < BATCH; i++) {
+            int device = next;
+            next = device + 1 == devices ? 0 : device + 1;
+            ingestor.offer(addresses[device], addresses[device], -60, now, records[device]);
+        }
+        return ingestor.drain();
+    }
+}
@@ -0,0 +1,75 @@
+package com.example.bluetoothscanner;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Signal engine costs: one RSSI sample per advert, and a nearest-10 query over the whole
+ * population compared with sorting it.
+ */
+@State(Scope.Thread)
+public class SignalBenchmark {
+    private static final int SAMPLES = 1024;
+
+    @Param({"EWMA", "KALMAN"})
+    public SignalEngine.Filter filter;
+
+    @Param({"2000"})
+    public int devices;
+
+    private SignalEngine engine;
+    private int[] sampleRows;
+    private int[] sampleRssi;
+    private int[] nearest;
+    private double[] distances;
+    private int next;
+    private long now;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(1);
+        engine = new SignalEngine(filter);
+        for (int row = 0; row < devices; row++) {
+            engine.add(row);
+            engine.onSample(row, -40 - random.nextInt(60), 0);
+        }
+        sampleRows = new int[SAMPLES];
+        sampleRssi = new int[SAMPLES];
+        for (int i = 0; i < SAMPLES; i++) {
+            sampleRows[i] = random.nextInt(devices);
+            sampleRssi[i] = -40 - random.nextInt(60);
+        }
+        nearest = new int[10];
+        distances = new double[devices];
+    }
+
+    @Benchmark
+    public double sample() {
+        int i = next;
+        next = (i + 1) & (SAMPLES - 1);
+        int row = sampleRows[i];
+        engine.onSample(row, sampleRssi[i], now++);
+        return engine.filteredRssi(row);
+    }
+
+    @Benchmark
+    public int nearest10() {
+        return engine.nearest(10, nearest);
+    }
+
+    /** The naive alternative: rank by RSSI (same order as distance for one reference) with a full sort. */
+    @Benchmark
+    public double sortAll() {
+        for (int row = 0; row < devices; row++) {
+            distances[row] = -engine.filteredRssi(row);
+        }
+        Arrays.sort(distances);
+        return distances[0];
+    }
+}
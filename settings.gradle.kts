@@ -21,4 +21,5 @@ dependencyResolutionManagement {
 
 rootProject.name = "BluetoothScanner"
 include(":app")
+include(":benchmark")
  
\ No newline at end of file